@@ -1,11 +1,12 @@
 package com.caom;
 
+import com.caom.config.AppConfig;
 import com.caom.util.JavalinUtil;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
 public class Main {
     public static void main(String[] args) {
-        JavalinUtil.create(7070);
+        JavalinUtil.create(AppConfig.get().getInt("server.port", 7070));
     }
 }
\ No newline at end of file
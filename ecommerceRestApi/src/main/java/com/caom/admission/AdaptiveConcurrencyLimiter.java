@@ -0,0 +1,122 @@
+package com.caom.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps how many requests are in flight at once, with a cap that adapts to observed latency.
+ *
+ * Two moving averages of request latency are kept: a short one (roughly the last 10 requests) and a long one
+ * (roughly the last 100) that serves as the baseline. While the short average stays within tolerance times the
+ * baseline, the limit grows by about sqrt(limit) per sample. Once the database slows down and latency climbs past
+ * that, the limit shrinks in proportion (the gradient), and a failed request (a 5xx) cuts it by 10% outright. Excess
+ * requests are then rejected straight away instead of queueing in Jetty until they all time out together.
+ *
+ * The limit only grows while at least half of it is in use, so a quiet period doesn't inflate it to the maximum.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.01;
+    // How far the limit moves toward a new estimate per sample, so one slow request can't halve it
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile double limit;
+
+    // Guarded by this
+    private double shortLatency;
+    private double longLatency;
+
+    /**
+     * @param initialLimit Concurrent requests allowed before any latency has been seen
+     * @param minLimit The limit never drops below this
+     * @param maxLimit The limit never grows above this (keep it under Jetty's thread count)
+     * @param tolerance How many times the baseline latency may be reached before the limit shrinks, e.g. 2.0
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Take a slot for a request if its priority still has room
+     * @param priority The request's priority
+     * @return true if the request may run and must call release() when done, false if it should be rejected
+     */
+    public boolean tryAcquire(RequestPriority priority) {
+        int allowed = Math.max(1, (int) (limit * priority.getShare()));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give the slot back and adjust the limit with the request's latency
+     * @param latencyNanos How long the request took
+     * @param failed true if the request failed on our side (a 5xx), which counts as overload
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        update(latencyNanos, inFlightBefore, failed);
+    }
+
+    private synchronized void update(long latencyNanos, int inFlightBefore, boolean failed) {
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+        }
+        shortLatency += (latencyNanos - shortLatency) * SHORT_WEIGHT;
+        longLatency += (latencyNanos - longLatency) * LONG_WEIGHT;
+
+        double current = limit;
+        double estimate;
+        if (failed) {
+            estimate = current * 0.9;
+        } else if (inFlightBefore < current / 2) {
+            // Not enough load to tell whether more would fit
+            return;
+        } else {
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+            estimate = current * gradient + Math.sqrt(current);
+        }
+
+        double next = failed ? estimate : current + (estimate - current) * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    /**
+     * @return The current limit on concurrent requests
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return Requests running right now
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Requests rejected since startup
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,83 @@
+package com.caom.admission;
+
+/**
+ * How many requests one client may make to some routes: a sustained rate per minute plus a burst on top of it.
+ * The rate and burst can be changed while running, buckets pick the new values up on their next request.
+ */
+public class RateLimitPolicy {
+
+    /**
+     * What counts as one client
+     */
+    public enum Key {
+        // The remote address, for routes used before logging in
+        IP,
+        // The logged in user, or the remote address for anonymous requests
+        USER_OR_IP
+    }
+
+    private final String name;
+    private final String method;
+    private final String pathPrefix;
+    private final Key key;
+
+    private volatile long perMinute;
+    private volatile long intervalNanos;
+    private volatile int burst;
+
+    /**
+     * @param name Identifies the policy, each policy has its own buckets
+     * @param method The HTTP method it applies to, or null for any
+     * @param pathPrefix The paths it applies to
+     * @param key What counts as one client
+     * @param perMinute Sustained requests per minute
+     * @param burst Requests a client may make at once before the rate kicks in
+     */
+    public RateLimitPolicy(String name, String method, String pathPrefix, Key key, long perMinute, int burst) {
+        this.name = name;
+        this.method = method;
+        this.pathPrefix = pathPrefix;
+        this.key = key;
+        setPerMinute(perMinute);
+        setBurst(burst);
+    }
+
+    /**
+     * @return true if the policy covers this request
+     */
+    public boolean matches(String requestMethod, String path) {
+        return (method == null || method.equals(requestMethod)) && path.startsWith(pathPrefix);
+    }
+
+    public void setPerMinute(long perMinute) {
+        this.perMinute = Math.max(1, perMinute);
+        this.intervalNanos = 60_000_000_000L / this.perMinute;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public long getPerMinute() {
+        return perMinute;
+    }
+
+    /**
+     * @return Time between two requests at the sustained rate
+     */
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+}
@@ -0,0 +1,130 @@
+package com.caom.admission;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per client, one bucket per policy and client key.
+ *
+ * A bucket is a single AtomicLong holding the time at which it will be full again (the generic cell rate algorithm,
+ * which behaves exactly like a token bucket). Taking a token is one read and one compare-and-set, with no lock and
+ * no allocation beyond the key, so a request pays well under a microsecond.
+ *
+ * Buckets live in a fixed number of ConcurrentHashMap stripes chosen by key hash. Lookups of existing buckets never
+ * lock, and idle buckets are evicted one stripe at a time, so a sweep never walks the whole key space at once and
+ * the map doesn't grow with every address that ever connected.
+ */
+public class RateLimiter {
+
+    private final ConcurrentHashMap<String, AtomicLong>[] stripes;
+    private final long idleNanos;
+    private final LongSupplier clock;
+
+    private ScheduledExecutorService evictor;
+    private int nextStripe;
+
+    /**
+     * @param stripes Number of map stripes, rounded up to a power of two
+     * @param idleMillis How long a full bucket is kept after its client's last request
+     */
+    public RateLimiter(int stripes, long idleMillis) {
+        this(stripes, idleMillis, System::nanoTime);
+    }
+
+    /**
+     * @param clock Nanosecond clock, System.nanoTime outside of tests
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RateLimiter(int stripes, long idleMillis, LongSupplier clock) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ConcurrentHashMap[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ConcurrentHashMap<>();
+        }
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Take a token from a client's bucket
+     * @param policy The policy the request falls under
+     * @param client The client's key, e.g. an IP address or user ID
+     * @return 0 if the request may go ahead, otherwise how many nanoseconds until the client has a token again
+     */
+    public long tryAcquire(RateLimitPolicy policy, String client) {
+        String key = policy.getName() + ':' + client;
+        ConcurrentHashMap<String, AtomicLong> stripe = stripeFor(key);
+        AtomicLong bucket = stripe.get(key);
+        if (bucket == null) {
+            // Long.MIN_VALUE means never used, so the first request finds it full
+            bucket = stripe.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+
+        long interval = policy.getIntervalNanos();
+        // How far ahead of now the bucket may be, i.e. the burst
+        long tolerance = (policy.getBurst() - 1) * interval;
+        long now = clock.getAsLong();
+
+        while (true) {
+            long fullAt = bucket.get();
+            long start = Math.max(fullAt, now);
+            if (start - now > tolerance) {
+                return start - now - tolerance;
+            }
+            if (bucket.compareAndSet(fullAt, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    private ConcurrentHashMap<String, AtomicLong> stripeFor(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Drop the buckets in one stripe that have been full for longer than the idle time, moving on to the next stripe
+     * on the next call. A request racing with the removal may take a token from the dropped bucket, which only ever
+     * lets that one request through early.
+     * @return The number of buckets dropped
+     */
+    public synchronized int evictIdle() {
+        ConcurrentHashMap<String, AtomicLong> stripe = stripes[nextStripe];
+        nextStripe = (nextStripe + 1) & (stripes.length - 1);
+
+        long cutoff = clock.getAsLong() - idleNanos;
+        int before = stripe.size();
+        stripe.values().removeIf(bucket -> bucket.get() < cutoff);
+        return before - stripe.size();
+    }
+
+    /**
+     * Evict idle buckets in the background, one stripe every intervalMillis
+     */
+    public synchronized void startEviction(long intervalMillis) {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of buckets held
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, AtomicLong> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,26 @@
+package com.caom.admission;
+
+/**
+ * How important a request is when the server is overloaded. Each priority may only use part of the concurrency
+ * limit, so as latency climbs the least important requests are turned away first and the rest keep the headroom.
+ */
+public enum RequestPriority {
+    // Checkout and login, what we least want to fail
+    CRITICAL(1.0),
+    NORMAL(0.8),
+    // Catalog browsing and admin listings, they can be retried
+    LOW(0.5);
+
+    private final double share;
+
+    RequestPriority(double share) {
+        this.share = share;
+    }
+
+    /**
+     * @return The fraction of the concurrency limit requests of this priority may fill
+     */
+    public double getShare() {
+        return share;
+    }
+}
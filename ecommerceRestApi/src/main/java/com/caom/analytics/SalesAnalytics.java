@@ -0,0 +1,322 @@
+package com.caom.analytics;
+
+import com.caom.dtos.response.DailySales;
+import com.caom.dtos.response.ProductSales;
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.repos.analytics.SalesDAO;
+import com.caom.util.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running sales totals per product, per day and per order status.
+ *
+ * The totals are restored from the order event log at startup (rebuilt from the orders/order_item tables when there
+ * is no usable snapshot) and then kept current every time an order is created, changes status or is deleted, so
+ * admins can read revenue and best-sellers without pulling every order. Cancelled orders are counted in the status
+ * totals but not in product or daily revenue.
+ */
+public class SalesAnalytics {
+
+    private final Logger logger = LoggerFactory.getLogger(SalesAnalytics.class);
+
+    private final Map<Integer, Totals> productTotals = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<LocalDate, Totals> dailyTotals = new ConcurrentSkipListMap<>();
+    private final Map<OrderStatus, Totals> statusTotals = new EnumMap<>(OrderStatus.class);
+
+    public SalesAnalytics() {
+        for (OrderStatus status : OrderStatus.values()) {
+            statusTotals.put(status, new Totals());
+        }
+    }
+
+    /**
+     * Rebuild every total from the database, scanning order ID ranges in parallel.
+     * Call this before the server starts taking orders, otherwise new orders could be counted twice.
+     * @param salesDAO DAO used to scan the orders
+     * @param threads Number of ranges scanned at the same time
+     * @return true if every range was scanned
+     */
+    public boolean rebuild(SalesDAO salesDAO, int threads) {
+        long start = System.currentTimeMillis();
+        clear();
+
+        int[] bounds = salesDAO.getOrderIdBounds();
+        if (bounds == null) {
+            return true;
+        }
+
+        long span = (long) bounds[1] - bounds[0] + 1;
+        long rangeSize = Math.max(1, (span + threads - 1) / threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> scans = new ArrayList<>();
+        for (long from = bounds[0]; from <= bounds[1]; from += rangeSize) {
+            int rangeFrom = (int) from;
+            int rangeTo = (int) Math.min(bounds[1], from + rangeSize - 1);
+            scans.add(executor.submit(() -> salesDAO.scanOrders(rangeFrom, rangeTo, this::add)));
+        }
+
+        boolean complete = true;
+        try {
+            for (Future<Boolean> scan : scans) {
+                complete &= scan.get();
+            }
+        } catch (Exception e) {
+            logger.error("Sales analytics rebuild failed: ", e);
+            complete = false;
+        } finally {
+            executor.shutdown();
+        }
+
+        logger.info("Sales analytics rebuilt from " + scans.size() + " ranges in " +
+                (System.currentTimeMillis() - start) + "ms");
+        return complete;
+    }
+
+    /**
+     * Count a newly created (or freshly scanned) order
+     * @param order The order, with its items
+     */
+    public void add(Order order) {
+        statusTotals.get(order.getStatus()).add(1, order.getTotalPrice());
+        if (isRevenue(order.getStatus())) {
+            applyRevenue(order, 1);
+        }
+    }
+
+    /**
+     * Move an order from one status to another
+     * @param order The order, with its items
+     * @param oldStatus The status before the change
+     * @param newStatus The status after the change
+     */
+    public void changeStatus(Order order, OrderStatus oldStatus, OrderStatus newStatus) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+
+        statusTotals.get(oldStatus).add(-1, -order.getTotalPrice());
+        statusTotals.get(newStatus).add(1, order.getTotalPrice());
+
+        if (isRevenue(oldStatus) && !isRevenue(newStatus)) {
+            applyRevenue(order, -1);
+        } else if (!isRevenue(oldStatus) && isRevenue(newStatus)) {
+            applyRevenue(order, 1);
+        }
+    }
+
+    /**
+     * Stop counting a deleted order
+     * @param order The order, with its items and its status at the time of deletion
+     */
+    public void remove(Order order) {
+        statusTotals.get(order.getStatus()).add(-1, -order.getTotalPrice());
+        if (isRevenue(order.getStatus())) {
+            applyRevenue(order, -1);
+        }
+    }
+
+    /**
+     * Get the best-selling products
+     * @param n How many products to return
+     * @param byRevenue Rank by revenue if true, by units sold otherwise
+     * @return Up to n products, best first
+     */
+    public List<ProductSales> getTopProducts(int n, boolean byRevenue) {
+        Comparator<ProductSales> comparator = byRevenue
+                ? Comparator.comparingLong(ProductSales::getRevenue)
+                : Comparator.comparingLong(ProductSales::getUnitsSold);
+
+        // Min-heap of size n, so we never sort the whole catalog
+        PriorityQueue<ProductSales> heap = new PriorityQueue<>(n + 1, comparator);
+        for (Map.Entry<Integer, Totals> entry : productTotals.entrySet()) {
+            Totals totals = entry.getValue();
+            if (totals.count.sum() <= 0) {
+                continue;
+            }
+            heap.offer(new ProductSales(entry.getKey(), totals.count.sum(), totals.revenue.sum()));
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        }
+
+        List<ProductSales> top = new ArrayList<>(heap);
+        top.sort(comparator.reversed());
+        return top;
+    }
+
+    /**
+     * Get the revenue per day in a date range
+     * @param from First day (inclusive)
+     * @param to Last day (inclusive)
+     * @return One entry per day that had orders, oldest first
+     */
+    public List<DailySales> getRevenueByDay(LocalDate from, LocalDate to) {
+        List<DailySales> days = new ArrayList<>();
+        for (Map.Entry<LocalDate, Totals> entry : dailyTotals.subMap(from, true, to, true).entrySet()) {
+            Totals totals = entry.getValue();
+            if (totals.count.sum() > 0) {
+                days.add(new DailySales(entry.getKey().toString(), totals.count.sum(), totals.revenue.sum()));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * @return Number of orders in each status
+     */
+    public Map<OrderStatus, Long> getStatusCounts() {
+        Map<OrderStatus, Long> counts = new EnumMap<>(OrderStatus.class);
+        for (Map.Entry<OrderStatus, Totals> entry : statusTotals.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count.sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @return Total value of the orders in each status
+     */
+    public Map<OrderStatus, BigDecimal> getStatusRevenue() {
+        Map<OrderStatus, BigDecimal> revenue = new EnumMap<>(OrderStatus.class);
+        for (Map.Entry<OrderStatus, Totals> entry : statusTotals.entrySet()) {
+            revenue.put(entry.getKey(), Money.toBigDecimal(entry.getValue().revenue.sum()));
+        }
+        return revenue;
+    }
+
+    /**
+     * @return Units sold per product, i.e. units held by orders that aren't cancelled
+     */
+    public Map<Integer, Long> getUnitsByProduct() {
+        Map<Integer, Long> units = new HashMap<>();
+        for (Map.Entry<Integer, Totals> entry : productTotals.entrySet()) {
+            units.put(entry.getKey(), entry.getValue().count.sum());
+        }
+        return units;
+    }
+
+    /**
+     * Write every total, so the state can be snapshotted
+     * @param out Where to write
+     */
+    public void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(productTotals.size());
+        for (Map.Entry<Integer, Totals> entry : productTotals.entrySet()) {
+            out.writeInt(entry.getKey());
+            entry.getValue().write(out);
+        }
+
+        out.writeInt(dailyTotals.size());
+        for (Map.Entry<LocalDate, Totals> entry : dailyTotals.entrySet()) {
+            out.writeLong(entry.getKey().toEpochDay());
+            entry.getValue().write(out);
+        }
+
+        out.writeInt(statusTotals.size());
+        for (Map.Entry<OrderStatus, Totals> entry : statusTotals.entrySet()) {
+            out.writeUTF(entry.getKey().name());
+            entry.getValue().write(out);
+        }
+    }
+
+    /**
+     * Replace every total with the ones written by writeState
+     * @param in Where to read from
+     */
+    public void readState(DataInputStream in) throws IOException {
+        clear();
+
+        int products = in.readInt();
+        for (int i = 0; i < products; i++) {
+            int productId = in.readInt();
+            productTotals.computeIfAbsent(productId, id -> new Totals()).read(in);
+        }
+
+        int days = in.readInt();
+        for (int i = 0; i < days; i++) {
+            LocalDate day = LocalDate.ofEpochDay(in.readLong());
+            dailyTotals.computeIfAbsent(day, d -> new Totals()).read(in);
+        }
+
+        int statuses = in.readInt();
+        for (int i = 0; i < statuses; i++) {
+            statusTotals.get(OrderStatus.valueOf(in.readUTF())).read(in);
+        }
+    }
+
+    private void clear() {
+        productTotals.clear();
+        dailyTotals.clear();
+        for (Totals totals : statusTotals.values()) {
+            totals.reset();
+        }
+    }
+
+    private void applyRevenue(Order order, int sign) {
+        LocalDate day = order.getCreatedAt() != null
+                ? order.getCreatedAt().toLocalDateTime().toLocalDate()
+                : LocalDate.now();
+        dailyTotals.computeIfAbsent(day, d -> new Totals()).add(sign, sign * order.getTotalPrice());
+
+        if (order.getOrderItems() == null) {
+            return;
+        }
+        for (OrderItem item : order.getOrderItems()) {
+            productTotals.computeIfAbsent(item.getProductId(), id -> new Totals())
+                    .add((long) sign * item.getQuantity(), sign * item.getSubtotal());
+        }
+    }
+
+    private static boolean isRevenue(OrderStatus status) {
+        return status != OrderStatus.CANCELLED;
+    }
+
+    /**
+     * A count and a revenue sum, both safe to update from many threads
+     */
+    private static class Totals {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder revenue = new LongAdder();
+
+        private void add(long countDelta, long revenueDelta) {
+            count.add(countDelta);
+            revenue.add(revenueDelta);
+        }
+
+        private void reset() {
+            count.reset();
+            revenue.reset();
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeLong(count.sum());
+            out.writeLong(revenue.sum());
+        }
+
+        private void read(DataInputStream in) throws IOException {
+            add(in.readLong(), in.readLong());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.caom.cache;
+
+import com.caom.models.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the product catalog, so a restart can warm the ProductStore from local disk and only ask
+ * the database for what changed since.
+ *
+ * Layout (big endian):
+ *   int magic, int version, long syncedAt (epoch millis of the last database sync), int count,
+ *   count x [int productId, long price, int stock, int nameLength, name bytes, int descriptionLength,
+ *   description bytes] (lengths in UTF-8 bytes, -1 for null),
+ *   long CRC32 of everything before it.
+ *
+ * The file is written to a temporary file and moved into place, so a crash mid-write leaves the previous
+ * snapshot intact. It is read through a memory-mapped buffer.
+ */
+public final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x43415453; // "CATS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    private final long syncedAt;
+    private final List<Product> products;
+
+    private CatalogSnapshot(long syncedAt, List<Product> products) {
+        this.syncedAt = syncedAt;
+        this.products = products;
+    }
+
+    /**
+     * @return When the catalog in this snapshot was last known to match the database, epoch millis
+     */
+    public long getSyncedAt() {
+        return syncedAt;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    /**
+     * Write a snapshot, replacing the existing file atomically
+     * @param file Where to write it
+     * @param syncedAt When the products were last known to match the database, epoch millis
+     * @param products Every product in the catalog
+     */
+    public static void write(Path file, long syncedAt, List<Product> products) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream fileOut = Files.newOutputStream(temp, StandardOpenOption.TRUNCATE_EXISTING);
+                 BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 1 << 16)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(syncedAt);
+                out.writeInt(products.size());
+                for (Product product : products) {
+                    out.writeInt(product.getProductId());
+                    out.writeLong(product.getPrice());
+                    out.writeInt(product.getStock());
+                    writeString(out, product.getName());
+                    writeString(out, product.getDescription());
+                }
+                out.flush();
+
+                // The checksum itself is not part of what it covers
+                new DataOutputStream(buffered).writeLong(crc.getValue());
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read a snapshot
+     * @param file The snapshot file
+     * @return The snapshot, or null if there is no file
+     * @throws IOException If the file can't be read, or is truncated, corrupt or from another version
+     */
+    public static CatalogSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8) {
+                throw new IOException("Catalog snapshot is truncated");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) (size - 8));
+            crc.update(body);
+            if (buffer.getLong((int) (size - 8)) != crc.getValue()) {
+                throw new IOException("Catalog snapshot checksum mismatch");
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a catalog snapshot, or written by another version");
+            }
+            long syncedAt = buffer.getLong();
+            int count = buffer.getInt();
+
+            List<Product> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Product product = new Product();
+                product.setProductId(buffer.getInt());
+                product.setPrice(buffer.getLong());
+                product.setStock(buffer.getInt());
+                product.setName(readString(buffer));
+                product.setDescription(readString(buffer));
+                products.add(product);
+            }
+            return new CatalogSnapshot(syncedAt, products);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and friends, the file doesn't match its own header
+            throw new IOException("Catalog snapshot is corrupt", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
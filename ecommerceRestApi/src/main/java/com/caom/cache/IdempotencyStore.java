@@ -0,0 +1,212 @@
+package com.caom.cache;
+
+import com.caom.exceptions.IdempotencyKeyReusedException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded, TTL-evicting store of results keyed by an idempotency key.
+ *
+ * The first caller for a key runs the computation, every other caller with the same key (either while it is
+ * still running or after it finished) gets the same result back. Failed computations are forgotten so the
+ * client can safely retry them. Each key also remembers a fingerprint of the request it came with, so a key reused
+ * for a different request is rejected instead of replaying the first one's result.
+ *
+ * @param <V> Type of the stored result
+ */
+public class IdempotencyStore<V> {
+
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    // Insertion order, used to evict the oldest entries once we go over capacity
+    private final ConcurrentLinkedQueue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final int maxEntries;
+    private volatile long ttlMillis;
+    private volatile long waitTimeoutMillis;
+
+    /**
+     * @param maxEntries Maximum number of keys remembered at once
+     * @param ttlMillis How long a completed result is remembered
+     * @param waitTimeoutMillis How long a duplicate request waits for the in-flight one to finish
+     */
+    public IdempotencyStore(int maxEntries, long ttlMillis, long waitTimeoutMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+    }
+
+    /**
+     * Runs the action once per key and returns the remembered result for repeats
+     * @param key The idempotency key
+     * @param action The computation to run if the key has not been seen
+     * @return The result of the first successful computation for the key
+     * @throws Exception whatever the action threw, or a TimeoutException if the in-flight computation took too long
+     */
+    public V execute(String key, Callable<V> action) throws Exception {
+        return execute(key, null, action);
+    }
+
+    /**
+     * Runs the action once per key and returns the remembered result for repeats of the same request
+     * @param key The idempotency key
+     * @param fingerprint Identifies the request, e.g. a hash of its body (may be null to not check it)
+     * @param action The computation to run if the key has not been seen
+     * @return The result of the first successful computation for the key
+     * @throws IdempotencyKeyReusedException if the key was first used with a different fingerprint
+     * @throws Exception whatever the action threw, or a TimeoutException if the in-flight computation took too long
+     */
+    public V execute(String key, String fingerprint, Callable<V> action) throws Exception {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry<V> fresh = new Entry<>(key, fingerprint, now);
+            Entry<V> existing = entries.putIfAbsent(key, fresh);
+
+            if (existing == null) {
+                insertionOrder.add(fresh);
+                evictIfNeeded(now);
+                return run(fresh, action);
+            }
+
+            if (existing.isExpired(now, ttlMillis)) {
+                // Stale result, drop it and try to claim the key again
+                if (entries.remove(key, existing)) {
+                    insertionOrder.remove(existing);
+                }
+                continue;
+            }
+
+            if (!Objects.equals(existing.fingerprint, fingerprint)) {
+                throw new IdempotencyKeyReusedException(
+                        "This idempotency key was already used for a different request");
+            }
+            return await(existing);
+        }
+    }
+
+    /**
+     * @param ttlMillis How long a completed result is remembered, applies to results already stored too
+     */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param waitTimeoutMillis How long a duplicate request waits for the in-flight one to finish
+     */
+    public void setWaitTimeoutMillis(long waitTimeoutMillis) {
+        this.waitTimeoutMillis = waitTimeoutMillis;
+    }
+
+    /**
+     * Get the remembered result for a key without running anything
+     * @param key The idempotency key
+     * @return The completed result, or null if there is none
+     */
+    public V getIfPresent(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.future.isDone() || entry.isExpired(System.currentTimeMillis(), ttlMillis)) {
+            return null;
+        }
+        return entry.future.getNow(null);
+    }
+
+    /**
+     * Get the remembered result for a key without running anything, checking it came from the same request
+     * @param key The idempotency key
+     * @param fingerprint Identifies the request (may be null to not check it)
+     * @return The completed result, or null if there is none
+     * @throws IdempotencyKeyReusedException if the key was first used with a different fingerprint
+     */
+    public V getIfPresent(String key, String fingerprint) throws IdempotencyKeyReusedException {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.future.isDone() || entry.isExpired(System.currentTimeMillis(), ttlMillis)) {
+            return null;
+        }
+        if (fingerprint != null && !Objects.equals(entry.fingerprint, fingerprint)) {
+            throw new IdempotencyKeyReusedException("This idempotency key was already used for a different request");
+        }
+        return entry.future.getNow(null);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private V run(Entry<V> entry, Callable<V> action) throws Exception {
+        try {
+            V result = action.call();
+            entry.completedAt = System.currentTimeMillis();
+            entry.future.complete(result);
+            return result;
+        } catch (Exception e) {
+            // Don't remember failures, the next retry should run again
+            entries.remove(entry.key, entry);
+            insertionOrder.remove(entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private V await(Entry<V> entry) throws Exception {
+        try {
+            return entry.future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            throw new TimeoutException("A request with the same idempotency key is still being processed");
+        }
+    }
+
+    private void evictIfNeeded(long now) {
+        // Expired entries at the head of the queue can always go
+        Entry<V> head;
+        while ((head = insertionOrder.peek()) != null && head.isExpired(now, ttlMillis)) {
+            if (insertionOrder.remove(head)) {
+                entries.remove(head.key, head);
+            }
+        }
+
+        // Over capacity, evict the oldest completed entries. In-flight ones stay, forgetting them would let a retry
+        // that arrives during a slow checkout run it a second time. They are bounded by the requests running at once.
+        Iterator<Entry<V>> oldest = insertionOrder.iterator();
+        while (entries.size() > maxEntries && oldest.hasNext()) {
+            Entry<V> entry = oldest.next();
+            if (!entry.future.isDone()) {
+                continue;
+            }
+            oldest.remove();
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    private static class Entry<V> {
+        private final String key;
+        private final String fingerprint;
+        private final long createdAt;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile long completedAt;
+
+        private Entry(String key, String fingerprint, long createdAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.createdAt = createdAt;
+        }
+
+        private boolean isExpired(long now, long ttlMillis) {
+            // In-flight entries never expire, otherwise a slow checkout could run twice
+            return future.isDone() && now - Math.max(createdAt, completedAt) > ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.caom.cache;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing int -> int map (linear probing), avoids boxing an Integer pair per entry. Keys must not be
+ * Integer.MIN_VALUE. Not thread safe.
+ */
+class IntIntMap {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private final int initialCapacity;
+    private int[] keys;
+    private int[] values;
+    private int count;
+
+    /**
+     * @param initialCapacity Number of slots to start with, a power of two. The map grows once it is half full.
+     */
+    IntIntMap(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        clear();
+    }
+
+    void clear() {
+        keys = new int[initialCapacity];
+        values = new int[initialCapacity];
+        Arrays.fill(keys, EMPTY);
+        count = 0;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return The value, or -1 if the key is missing
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    void put(int key, int value) {
+        if ((count + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            count++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    void remove(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        count--;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,223 @@
+package com.caom.cache;
+
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-user order history kept in memory so GET /orders/me doesn't have to re-read every order and item.
+ *
+ * Histories are loaded from the database on a miss and then kept current by the OrderService: new orders are
+ * appended and status changes / deletions are patched in place. Users are evicted least-recently-used first once
+ * either the user count or the (estimated) memory cap is exceeded.
+ */
+public class OrderHistoryCache {
+
+    // Rough per-object sizes used to estimate how much memory a history takes
+    private static final long ORDER_BYTES = 160;
+    private static final long ORDER_ITEM_BYTES = 96;
+
+    private static final int VERSION_STRIPES = 1024;
+
+    private final int maxUsers;
+    private final long maxBytes;
+
+    // Access-ordered so the eldest entry is always the least recently used user
+    private final LinkedHashMap<Integer, UserHistory> histories = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    // Bumped on every write for a user, so a load that raced with a write doesn't cache stale data
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    private long hits;
+    private long misses;
+
+    public OrderHistoryCache(int maxUsers, long maxBytes) {
+        this.maxUsers = maxUsers;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the cached orders of a user, newest first
+     * @param userId The user ID
+     * @return A copy of the cached list, or null if the user is not cached
+     */
+    public synchronized List<Order> get(int userId) {
+        UserHistory history = histories.get(userId);
+        if (history == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<>(history.orders);
+    }
+
+    /**
+     * Call before loading a user's orders from the database
+     * @param userId The user ID
+     * @return A version to pass to put once the load finishes
+     */
+    public long beginLoad(int userId) {
+        return versions.get(stripe(userId));
+    }
+
+    /**
+     * Cache a user's orders loaded from the database, unless the user's orders changed while loading
+     * @param userId The user ID
+     * @param orders The orders, newest first
+     * @param version The version returned by beginLoad
+     */
+    public synchronized void put(int userId, List<Order> orders, long version) {
+        if (versions.get(stripe(userId)) != version) {
+            return;
+        }
+
+        remove(userId);
+        UserHistory history = new UserHistory(new ArrayList<>(orders));
+        histories.put(userId, history);
+        totalBytes += history.bytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Add a newly created order to the front of its user's history (if the user is cached)
+     * @param order The created order
+     */
+    public synchronized void append(Order order) {
+        versions.incrementAndGet(stripe(order.getUserId()));
+
+        UserHistory history = histories.get(order.getUserId());
+        if (history == null) {
+            return;
+        }
+
+        // Retried requests may report the same order twice
+        for (Order existing : history.orders) {
+            if (existing.getOrderId() == order.getOrderId()) {
+                return;
+            }
+        }
+
+        long bytes = estimate(order);
+        history.orders.add(0, order);
+        history.bytes += bytes;
+        totalBytes += bytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Patch the status of a cached order
+     * @param userId The owner of the order
+     * @param orderId The order ID
+     * @param status The new status
+     */
+    public synchronized void updateStatus(int userId, int orderId, OrderStatus status) {
+        versions.incrementAndGet(stripe(userId));
+
+        UserHistory history = histories.get(userId);
+        if (history == null) {
+            return;
+        }
+
+        for (Order order : history.orders) {
+            if (order.getOrderId() == orderId) {
+                order.setStatus(status);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove a deleted order from its user's history
+     * @param userId The owner of the order
+     * @param orderId The order ID
+     */
+    public synchronized void removeOrder(int userId, int orderId) {
+        versions.incrementAndGet(stripe(userId));
+
+        UserHistory history = histories.get(userId);
+        if (history == null) {
+            return;
+        }
+
+        Iterator<Order> it = history.orders.iterator();
+        while (it.hasNext()) {
+            Order order = it.next();
+            if (order.getOrderId() == orderId) {
+                long bytes = estimate(order);
+                it.remove();
+                history.bytes -= bytes;
+                totalBytes -= bytes;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop a user's history entirely
+     * @param userId The user ID
+     */
+    public synchronized void invalidate(int userId) {
+        versions.incrementAndGet(stripe(userId));
+        remove(userId);
+    }
+
+    public synchronized int size() {
+        return histories.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(int userId) {
+        UserHistory removed = histories.remove(userId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<Integer, UserHistory>> it = histories.entrySet().iterator();
+        while ((histories.size() > maxUsers || totalBytes > maxBytes) && it.hasNext()) {
+            totalBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    private static int stripe(int userId) {
+        return Math.floorMod(userId, VERSION_STRIPES);
+    }
+
+    private static long estimate(Order order) {
+        List<OrderItem> items = order.getOrderItems();
+        return ORDER_BYTES + (items == null ? 0 : items.size() * ORDER_ITEM_BYTES);
+    }
+
+    private static class UserHistory {
+        private final List<Order> orders;
+        private long bytes;
+
+        private UserHistory(List<Order> orders) {
+            this.orders = orders;
+            for (Order order : orders) {
+                bytes += estimate(order);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.caom.cache;
+
+import com.caom.util.ProductFacets;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Bitmap indexes over product IDs: one bitmap per stock bucket, one per price bucket and a posting bitmap per
+ * search term. Combined filters become AND / OR of bitmaps and results come out already sorted by product ID.
+ *
+ * Keyword filters match terms by substring. The terms are also indexed by their trigrams, so a keyword of three or
+ * more characters only checks the terms sharing its rarest trigram instead of the whole vocabulary.
+ *
+ * Maintained by the ProductStore under its lock, not thread safe on its own.
+ */
+public class ProductIndex {
+
+    private RoaringBitmap all = new RoaringBitmap();
+    private RoaringBitmap[] stockBuckets = newBitmaps(ProductFacets.STOCK_BUCKETS);
+    private RoaringBitmap[] priceBuckets = newBitmaps(ProductFacets.PRICE_BUCKETS);
+    private final Map<String, RoaringBitmap> postings = new HashMap<>();
+    private final Map<String, Set<String>> termsByTrigram = new HashMap<>();
+
+    public void add(int productId, long price, int stock, String name, String description) {
+        all.add(productId);
+        stockBuckets[ProductFacets.stockBucket(stock)].add(productId);
+        priceBuckets[ProductFacets.priceBucket(price)].add(productId);
+        for (String term : tokenize(name, description)) {
+            RoaringBitmap posting = postings.get(term);
+            if (posting == null) {
+                posting = new RoaringBitmap();
+                postings.put(term, posting);
+                indexTrigrams(term);
+            }
+            posting.add(productId);
+        }
+    }
+
+    public void remove(int productId, long price, int stock, String name, String description) {
+        all.remove(productId);
+        stockBuckets[ProductFacets.stockBucket(stock)].remove(productId);
+        priceBuckets[ProductFacets.priceBucket(price)].remove(productId);
+        for (String term : tokenize(name, description)) {
+            RoaringBitmap posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                    unindexTrigrams(term);
+                }
+            }
+        }
+    }
+
+    public void changeStock(int productId, int oldStock, int newStock) {
+        int oldBucket = ProductFacets.stockBucket(oldStock);
+        int newBucket = ProductFacets.stockBucket(newStock);
+        if (oldBucket != newBucket) {
+            stockBuckets[oldBucket].remove(productId);
+            stockBuckets[newBucket].add(productId);
+        }
+    }
+
+    public void clear() {
+        all = new RoaringBitmap();
+        stockBuckets = newBitmaps(ProductFacets.STOCK_BUCKETS);
+        priceBuckets = newBitmaps(ProductFacets.PRICE_BUCKETS);
+        postings.clear();
+        termsByTrigram.clear();
+    }
+
+    /**
+     * @param lowered A lowercase keyword
+     * @return true if the keyword has no separators, so it can only match inside a single term and the postings
+     *         answer a substring search exactly
+     */
+    public static boolean isSingleTerm(String lowered) {
+        if (lowered.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < lowered.length(); i++) {
+            if (!Character.isLetterOrDigit(lowered.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate a combined filter
+     * @param minPrice Minimum price in minor units (inclusive)
+     * @param maxPrice Maximum price in minor units (inclusive)
+     * @param inStockOnly Only keep products with stock > 0
+     * @param lowered Lowercase single-term keyword (see isSingleTerm), or null
+     * @param priceOf Price lookup, used for products in the buckets the range only partly covers
+     * @return The matching product IDs, possibly one of the index's own bitmaps so don't modify it
+     */
+    public RoaringBitmap evaluate(long minPrice, long maxPrice, boolean inStockOnly, String lowered,
+                                  IntToLongFunction priceOf) {
+        RoaringBitmap result = all;
+
+        if (lowered != null) {
+            result = result.and(matchingTerms(lowered));
+        }
+
+        if (inStockOnly) {
+            RoaringBitmap inStock = new RoaringBitmap();
+            for (int bucket = 1; bucket < stockBuckets.length; bucket++) {
+                inStock = inStock.or(stockBuckets[bucket]);
+            }
+            result = result.and(inStock);
+        }
+
+        if (minPrice > 0 || maxPrice < Long.MAX_VALUE) {
+            result = result.and(priceRange(minPrice, maxPrice, priceOf));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Count of the given products per price bucket
+     */
+    public long[] priceFacets(RoaringBitmap products) {
+        long[] counts = new long[priceBuckets.length];
+        for (int bucket = 0; bucket < priceBuckets.length; bucket++) {
+            counts[bucket] = products.andCardinality(priceBuckets[bucket]);
+        }
+        return counts;
+    }
+
+    /**
+     * @return Count of the given products per stock bucket
+     */
+    public long[] stockFacets(RoaringBitmap products) {
+        long[] counts = new long[stockBuckets.length];
+        for (int bucket = 0; bucket < stockBuckets.length; bucket++) {
+            counts[bucket] = products.andCardinality(stockBuckets[bucket]);
+        }
+        return counts;
+    }
+
+    /**
+     * @return The posting bitmap of a term, or null if no product contains it
+     */
+    public RoaringBitmap getPosting(String term) {
+        return postings.get(term);
+    }
+
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    private RoaringBitmap matchingTerms(String lowered) {
+        // Substring semantics: every term that contains the keyword contributes its postings
+        RoaringBitmap matches = new RoaringBitmap();
+        for (String term : candidateTerms(lowered)) {
+            if (term.contains(lowered)) {
+                matches = matches.or(postings.get(term));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Helper method to narrow down the terms that may contain the keyword: every such term has all of its trigrams,
+     * so the smallest of their term sets will do. Keywords under three characters have no trigram and check every
+     * term, they match a large share of the vocabulary anyway.
+     */
+    private Set<String> candidateTerms(String lowered) {
+        if (lowered.length() < 3) {
+            return postings.keySet();
+        }
+
+        Set<String> candidates = null;
+        for (int i = 0; i + 3 <= lowered.length(); i++) {
+            Set<String> terms = termsByTrigram.get(lowered.substring(i, i + 3));
+            if (terms == null) {
+                return Set.of();
+            }
+            if (candidates == null || terms.size() < candidates.size()) {
+                candidates = terms;
+            }
+        }
+        return candidates;
+    }
+
+    private void indexTrigrams(String term) {
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            termsByTrigram.computeIfAbsent(term.substring(i, i + 3), t -> new HashSet<>()).add(term);
+        }
+    }
+
+    private void unindexTrigrams(String term) {
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            String trigram = term.substring(i, i + 3);
+            Set<String> terms = termsByTrigram.get(trigram);
+            if (terms != null) {
+                terms.remove(term);
+                if (terms.isEmpty()) {
+                    termsByTrigram.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private RoaringBitmap priceRange(long minPrice, long maxPrice, IntToLongFunction priceOf) {
+        RoaringBitmap range = new RoaringBitmap();
+        for (int bucket = 0; bucket < priceBuckets.length; bucket++) {
+            long lower = ProductFacets.priceBucketLower(bucket);
+            long upper = ProductFacets.priceBucketUpper(bucket);
+            if (upper < minPrice || lower > maxPrice) {
+                continue;
+            }
+            if (lower >= minPrice && upper <= maxPrice) {
+                range = range.or(priceBuckets[bucket]);
+                continue;
+            }
+
+            // Bucket only partly inside the range, check each product's price
+            RoaringBitmap partial = new RoaringBitmap();
+            priceBuckets[bucket].forEach(productId -> {
+                long price = priceOf.applyAsLong(productId);
+                if (price >= minPrice && price <= maxPrice) {
+                    partial.add(productId);
+                }
+            });
+            range = range.or(partial);
+        }
+        return range;
+    }
+
+    static Set<String> tokenize(String name, String description) {
+        Set<String> terms = new LinkedHashSet<>();
+        addTerms(name, terms);
+        addTerms(description, terms);
+        return terms;
+    }
+
+    private static void addTerms(String text, Set<String> terms) {
+        if (text == null) {
+            return;
+        }
+        String lowered = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lowered.length(); i++) {
+            boolean termChar = i < lowered.length() && Character.isLetterOrDigit(lowered.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                terms.add(lowered.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    private static RoaringBitmap[] newBitmaps(int count) {
+        RoaringBitmap[] bitmaps = new RoaringBitmap[count];
+        for (int i = 0; i < count; i++) {
+            bitmaps[i] = new RoaringBitmap();
+        }
+        return bitmaps;
+    }
+}
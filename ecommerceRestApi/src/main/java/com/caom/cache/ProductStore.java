@@ -0,0 +1,761 @@
+package com.caom.cache;
+
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.dtos.response.ProductSuggestion;
+import com.caom.models.Product;
+import com.caom.util.ProductFacets;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Columnar in-memory copy of the product table.
+ *
+ * Every column is a primitive array indexed by slot, and names/descriptions are packed as UTF-8 into one shared
+ * byte arena. Scans (price range, in stock, keyword search) walk the arrays directly and only build Product objects
+ * for the rows they return.
+ *
+ * The search indexes (ProductIndex, TrigramIndex, SuggestionTrie) sit next to the columns as ordinary objects with
+ * String keys and boxed entries. They aren't measured, so nothing here claims the store as a whole is smaller than
+ * a list of Products.
+ */
+public class ProductStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Compact the arena once at least this much of it is taken by old versions of updated strings
+    private static final int MIN_GARBAGE_TO_COMPACT = 1 << 20;
+    // Query scans go parallel once (rows x per-row cost) passes this, below it forking costs more than it saves
+    private static final long PARALLEL_COST_THRESHOLD = 200_000;
+    private static final int KEYWORD_ROW_COST = 16;
+    private static final int SCAN_LEAF_SIZE = 16_384;
+    // Same default as pg_trgm's similarity threshold
+    private static final double FUZZY_THRESHOLD = 0.3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] prices = new long[INITIAL_CAPACITY];
+    private int[] stocks = new int[INITIAL_CAPACITY];
+    private int[] nameOffsets = new int[INITIAL_CAPACITY];
+    private int[] nameLengths = new int[INITIAL_CAPACITY];
+    private int[] descriptionOffsets = new int[INITIAL_CAPACITY];
+    private int[] descriptionLengths = new int[INITIAL_CAPACITY];
+
+    private byte[] arena = new byte[INITIAL_CAPACITY * 64];
+    private int arenaUsed;
+    private int arenaGarbage;
+
+    // productId -> slot
+    private final IntIntMap slots = new IntIntMap(INITIAL_CAPACITY * 2);
+
+    // Bitmap indexes for combined filters, kept in step with the columns
+    private final ProductIndex index = new ProductIndex();
+    // Trigrams of product names for typo-tolerant search
+    private final TrigramIndex trigrams = new TrigramIndex();
+    // Product names and name words for typeahead
+    private final SuggestionTrie suggestions = new SuggestionTrie();
+
+    // Slots sorted by price, rebuilt lazily after a price change
+    private int[] priceOrder = new int[0];
+    private boolean priceOrderDirty = true;
+
+    /**
+     * Replace the whole store with the given products
+     * @param products Every product in the catalog
+     */
+    public void loadAll(Collection<Product> products) {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            arenaUsed = 0;
+            arenaGarbage = 0;
+            slots.clear();
+            index.clear();
+            trigrams.clear();
+            suggestions.clear();
+            suggestions.beginBulkLoad();
+            for (Product product : products) {
+                putLocked(product);
+            }
+            suggestions.endBulkLoad();
+            priceOrderDirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Insert or replace a product
+     * @param product The product as it is stored in the database
+     */
+    public void put(Product product) {
+        lock.writeLock().lock();
+        try {
+            putLocked(product);
+            priceOrderDirty = true;
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a product
+     * @param productId The product ID
+     * @return true if the product was in the store
+     */
+    public boolean remove(int productId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slots.get(productId);
+            if (slot < 0) {
+                return false;
+            }
+
+            arenaGarbage += Math.max(0, nameLengths[slot]) + Math.max(0, descriptionLengths[slot]);
+            unindex(slot);
+
+            // Move the last row into the hole so the columns stay dense
+            int last = size - 1;
+            if (slot != last) {
+                copySlot(last, slot);
+                slots.put(ids[slot], slot);
+            }
+            slots.remove(productId);
+            size--;
+            priceOrderDirty = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove every product whose ID is not in the given set (products deleted from the database)
+     * @param productIds IDs of the products that still exist
+     * @return The number of products removed
+     */
+    public int retainAll(Set<Integer> productIds) {
+        lock.readLock().lock();
+        List<Integer> deleted = new ArrayList<>();
+        try {
+            for (int slot = 0; slot < size; slot++) {
+                if (!productIds.contains(ids[slot])) {
+                    deleted.add(ids[slot]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int productId : deleted) {
+            remove(productId);
+        }
+        return deleted.size();
+    }
+
+    /**
+     * Add to (or remove from) a product's stock
+     * @param productId The product ID
+     * @param delta Quantity to add (positive) or remove (negative)
+     * @return true if the product was in the store
+     */
+    public boolean adjustStock(int productId, int delta) {
+        lock.writeLock().lock();
+        try {
+            int slot = slots.get(productId);
+            if (slot < 0) {
+                return false;
+            }
+            index.changeStock(productId, stocks[slot], stocks[slot] + delta);
+            if ((stocks[slot] > 0) != (stocks[slot] + delta > 0)) {
+                // Went in or out of stock, which moves it in the typeahead ranking
+                String name = readString(nameOffsets[slot], nameLengths[slot]);
+                suggestions.remove(productId, name);
+                suggestions.add(productId, name, stocks[slot] + delta > 0);
+            }
+            stocks[slot] += delta;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param productId The product ID
+     * @return A new Product built from the store, or null if it isn't there
+     */
+    public Product get(int productId) {
+        lock.readLock().lock();
+        try {
+            int slot = slots.get(productId);
+            return slot < 0 ? null : materialize(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(int productId) {
+        lock.readLock().lock();
+        try {
+            return slots.get(productId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Every product in the store
+     */
+    public List<Product> getAll() {
+        lock.readLock().lock();
+        try {
+            List<Product> products = new ArrayList<>(size);
+            for (int slot = 0; slot < size; slot++) {
+                products.add(materialize(slot));
+            }
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param minPrice Minimum price in minor units (inclusive)
+     * @param maxPrice Maximum price in minor units (inclusive)
+     * @return Products in the range, cheapest first
+     */
+    public List<Product> findByPriceRange(long minPrice, long maxPrice) {
+        // The price index is rebuilt under the write lock the first time it is needed after a change
+        if (priceOrderDirty) {
+            lock.writeLock().lock();
+            try {
+                rebuildPriceOrder();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            if (priceOrderDirty) {
+                // Changed again between the two locks, fall back to a plain scan
+                List<Product> products = new ArrayList<>();
+                for (int slot = 0; slot < size; slot++) {
+                    if (prices[slot] >= minPrice && prices[slot] <= maxPrice) {
+                        products.add(materialize(slot));
+                    }
+                }
+                products.sort((a, b) -> Long.compare(a.getPrice(), b.getPrice()));
+                return products;
+            }
+
+            List<Product> products = new ArrayList<>();
+            for (int i = lowerBound(minPrice); i < priceOrder.length && prices[priceOrder[i]] <= maxPrice; i++) {
+                products.add(materialize(priceOrder[i]));
+            }
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Products with stock > 0, most stock first
+     */
+    public List<Product> findInStock() {
+        lock.readLock().lock();
+        try {
+            List<Product> products = new ArrayList<>();
+            for (int slot = 0; slot < size; slot++) {
+                if (stocks[slot] > 0) {
+                    products.add(materialize(slot));
+                }
+            }
+            products.sort((a, b) -> Integer.compare(b.getStock(), a.getStock()));
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Case-insensitive substring search on name or description (same semantics as the SQL LIKE search)
+     * @param keyword The search term
+     * @return Matching products
+     */
+    public List<Product> search(String keyword) {
+        String lowered = keyword.toLowerCase();
+        byte[] needle = lowered.getBytes(StandardCharsets.UTF_8);
+        boolean ascii = needle.length == lowered.length();
+
+        lock.readLock().lock();
+        try {
+            List<Product> products = new ArrayList<>();
+            for (int slot = 0; slot < size; slot++) {
+                if (matches(nameOffsets[slot], nameLengths[slot], needle, lowered, ascii) ||
+                        matches(descriptionOffsets[slot], descriptionLengths[slot], needle, lowered, ascii)) {
+                    products.add(materialize(slot));
+                }
+            }
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Run a combined price / stock / keyword filter and count the price and stock facets of the matches.
+     *
+     * Filters the bitmap indexes can answer exactly (any price range, stock, single-term keywords) are evaluated as
+     * bitmap AND / OR and paged straight off the result. Keywords spanning several terms fall back to a column scan
+     * that counts facets in the same pass: large catalogs are split into slot ranges on the common fork/join pool,
+     * small ones are scanned on the calling thread where forking would cost more than it saves.
+     * @param query The filter and the page to return
+     * @return One page of matches ordered by product ID, the number of matches and the facet counts
+     */
+    public ProductQueryResult query(ProductQuery query) {
+        String lowered = query.getKeyword() != null ? query.getKeyword().toLowerCase() : null;
+        byte[] needle = lowered != null ? lowered.getBytes(StandardCharsets.UTF_8) : null;
+        Filter filter = new Filter(query.getMinPrice(), query.getMaxPrice(), query.isInStockOnly(),
+                needle, lowered, lowered != null && needle.length == lowered.length());
+
+        lock.readLock().lock();
+        try {
+            if (lowered == null || ProductIndex.isSingleTerm(lowered)) {
+                return queryIndex(query, lowered);
+            }
+
+            // Keyword matching walks the text bytes, everything else is a couple of array reads per row
+            long cost = (long) size * (needle != null ? KEYWORD_ROW_COST : 1);
+            boolean parallel = cost >= PARALLEL_COST_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+
+            Columns columns = new Columns(ids, prices, stocks, nameOffsets, nameLengths, descriptionOffsets,
+                    descriptionLengths, arena);
+            ScanResult scan = parallel
+                    ? ForkJoinPool.commonPool().invoke(new ScanTask(columns, filter, 0, size))
+                    : columns.scan(filter, 0, size);
+
+            int[] matches = Arrays.copyOf(scan.ids, scan.count);
+            Arrays.sort(matches);
+
+            int from = Math.min(query.getOffset(), matches.length);
+            int to = (int) Math.min((long) from + query.getLimit(), matches.length);
+            List<Product> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                page.add(materialize(slots.get(matches[i])));
+            }
+
+            return new ProductQueryResult(matches.length, page, ProductFacets.labelPriceCounts(scan.priceCounts),
+                    ProductFacets.labelStockCounts(scan.stockCounts));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ProductQueryResult queryIndex(ProductQuery query, String lowered) {
+        RoaringBitmap matches = index.evaluate(query.getMinPrice(), query.getMaxPrice(), query.isInStockOnly(),
+                lowered, productId -> prices[slots.get(productId)]);
+
+        int[] pageIds = matches.page(query.getOffset(), query.getLimit());
+        List<Product> page = new ArrayList<>(pageIds.length);
+        for (int productId : pageIds) {
+            page.add(materialize(slots.get(productId)));
+        }
+
+        return new ProductQueryResult(matches.cardinality(), page,
+                ProductFacets.labelPriceCounts(index.priceFacets(matches)),
+                ProductFacets.labelStockCounts(index.stockFacets(matches)));
+    }
+
+    /**
+     * Typo-tolerant search on product names
+     * @param keyword The search text, possibly misspelled
+     * @param limit Maximum number of results
+     * @return Products whose name shares at least 30% of its trigrams with the keyword, most similar first
+     */
+    public List<Product> fuzzySearch(String keyword, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Product> products = new ArrayList<>();
+            for (TrigramIndex.Match match : trigrams.search(keyword, limit, FUZZY_THRESHOLD)) {
+                products.add(materialize(slots.get(match.getProductId())));
+            }
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix What the user has typed so far
+     * @param limit Maximum number of suggestions
+     * @return Products whose name, or a word in it, starts with the prefix
+     */
+    public List<ProductSuggestion> suggest(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            return suggestions.suggest(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Approximate heap used by the columns, slot map, price index and arena, in bytes. The search indexes
+     * are not included.
+     */
+    public long getEstimatedBytes() {
+        lock.readLock().lock();
+        try {
+            // 7 parallel columns (one of them long) + slot map + price index + arena
+            long perSlot = 4L * 6 + 8;
+            return ids.length * perSlot + slots.capacity() * 8L + priceOrder.length * 4L + arena.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- internals (callers hold the lock)
+
+    private void putLocked(Product product) {
+        int slot = slots.get(product.getProductId());
+        if (slot < 0) {
+            ensureCapacity(size + 1);
+            slot = size++;
+            slots.put(product.getProductId(), slot);
+        } else {
+            arenaGarbage += Math.max(0, nameLengths[slot]) + Math.max(0, descriptionLengths[slot]);
+            unindex(slot);
+        }
+
+        ids[slot] = product.getProductId();
+        prices[slot] = product.getPrice();
+        stocks[slot] = product.getStock();
+
+        nameLengths[slot] = appendString(product.getName());
+        nameOffsets[slot] = arenaUsed - Math.max(0, nameLengths[slot]);
+        descriptionLengths[slot] = appendString(product.getDescription());
+        descriptionOffsets[slot] = arenaUsed - Math.max(0, descriptionLengths[slot]);
+
+        index.add(product.getProductId(), product.getPrice(), product.getStock(), product.getName(),
+                product.getDescription());
+        trigrams.add(product.getProductId(), product.getName());
+        suggestions.add(product.getProductId(), product.getName(), product.getStock() > 0);
+    }
+
+    private void unindex(int slot) {
+        String name = readString(nameOffsets[slot], nameLengths[slot]);
+        index.remove(ids[slot], prices[slot], stocks[slot], name,
+                readString(descriptionOffsets[slot], descriptionLengths[slot]));
+        trigrams.remove(ids[slot], name);
+        suggestions.remove(ids[slot], name);
+    }
+
+    /**
+     * @return The number of bytes appended, or -1 for null
+     */
+    private int appendString(String value) {
+        if (value == null) {
+            return -1;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (arenaUsed + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + bytes.length));
+        }
+        System.arraycopy(bytes, 0, arena, arenaUsed, bytes.length);
+        arenaUsed += bytes.length;
+        return bytes.length;
+    }
+
+    private String readString(int offset, int length) {
+        return readString(arena, offset, length);
+    }
+
+    private static String readString(byte[] arena, int offset, int length) {
+        return length < 0 ? null : new String(arena, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private Product materialize(int slot) {
+        Product product = new Product();
+        product.setProductId(ids[slot]);
+        product.setName(readString(nameOffsets[slot], nameLengths[slot]));
+        product.setDescription(readString(descriptionOffsets[slot], descriptionLengths[slot]));
+        product.setPrice(prices[slot]);
+        product.setStock(stocks[slot]);
+        return product;
+    }
+
+    private boolean matches(int offset, int length, byte[] needle, String lowered, boolean ascii) {
+        return matches(arena, offset, length, needle, lowered, ascii);
+    }
+
+    private static boolean matches(byte[] arena, int offset, int length, byte[] needle, String lowered,
+                                   boolean ascii) {
+        if (length < 0 || length < (ascii ? needle.length : 0)) {
+            return false;
+        }
+        if (!ascii) {
+            return readString(arena, offset, length).toLowerCase().contains(lowered);
+        }
+
+        // ASCII keyword: compare the raw UTF-8 bytes, lowercasing A-Z on the fly
+        int last = offset + length - needle.length;
+        for (int start = offset; start <= last; start++) {
+            int i = 0;
+            while (i < needle.length) {
+                byte b = arena[start + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != needle[i]) {
+                    break;
+                }
+                i++;
+            }
+            if (i == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void copySlot(int from, int to) {
+        ids[to] = ids[from];
+        prices[to] = prices[from];
+        stocks[to] = stocks[from];
+        nameOffsets[to] = nameOffsets[from];
+        nameLengths[to] = nameLengths[from];
+        descriptionOffsets[to] = descriptionOffsets[from];
+        descriptionLengths[to] = descriptionLengths[from];
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(needed, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        stocks = Arrays.copyOf(stocks, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        descriptionOffsets = Arrays.copyOf(descriptionOffsets, capacity);
+        descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+    }
+
+    private void compactIfNeeded() {
+        if (arenaGarbage < MIN_GARBAGE_TO_COMPACT || arenaGarbage < arenaUsed / 2) {
+            return;
+        }
+
+        byte[] compacted = new byte[Math.max(INITIAL_CAPACITY, (arenaUsed - arenaGarbage) * 2)];
+        int used = 0;
+        for (int slot = 0; slot < size; slot++) {
+            // Every offset moves, even for empty and null strings, an old one could point past the new arena
+            int nameLength = Math.max(0, nameLengths[slot]);
+            System.arraycopy(arena, nameOffsets[slot], compacted, used, nameLength);
+            nameOffsets[slot] = used;
+            used += nameLength;
+
+            int descriptionLength = Math.max(0, descriptionLengths[slot]);
+            System.arraycopy(arena, descriptionOffsets[slot], compacted, used, descriptionLength);
+            descriptionOffsets[slot] = used;
+            used += descriptionLength;
+        }
+        arena = compacted;
+        arenaUsed = used;
+        arenaGarbage = 0;
+    }
+
+    private void rebuildPriceOrder() {
+        if (!priceOrderDirty) {
+            return;
+        }
+        // Prices can use the full long range, so sort slot indexes by price instead of packing (price, slot) pairs
+        Integer[] order = new Integer[size];
+        for (int slot = 0; slot < size; slot++) {
+            order[slot] = slot;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(prices[a], prices[b]));
+
+        priceOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            priceOrder[i] = order[i];
+        }
+        priceOrderDirty = false;
+    }
+
+    private int lowerBound(long minPrice) {
+        int lo = 0;
+        int hi = priceOrder.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prices[priceOrder[mid]] < minPrice) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The columns a scan reads, taken while the caller holds the read lock so they can't change underneath it.
+     * Plain arrays, so the scan tasks don't hold on to the store itself.
+     */
+    private static class Columns implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] ids;
+        private final long[] prices;
+        private final int[] stocks;
+        private final int[] nameOffsets;
+        private final int[] nameLengths;
+        private final int[] descriptionOffsets;
+        private final int[] descriptionLengths;
+        private final byte[] arena;
+
+        private Columns(int[] ids, long[] prices, int[] stocks, int[] nameOffsets, int[] nameLengths,
+                        int[] descriptionOffsets, int[] descriptionLengths, byte[] arena) {
+            this.ids = ids;
+            this.prices = prices;
+            this.stocks = stocks;
+            this.nameOffsets = nameOffsets;
+            this.nameLengths = nameLengths;
+            this.descriptionOffsets = descriptionOffsets;
+            this.descriptionLengths = descriptionLengths;
+            this.arena = arena;
+        }
+
+        private ScanResult scan(Filter filter, int from, int to) {
+            ScanResult result = new ScanResult(Math.min(to - from, 64));
+            for (int slot = from; slot < to; slot++) {
+                long price = prices[slot];
+                if (price < filter.minPrice || price > filter.maxPrice) {
+                    continue;
+                }
+                if (filter.inStockOnly && stocks[slot] <= 0) {
+                    continue;
+                }
+                if (filter.needle != null &&
+                        !matches(arena, nameOffsets[slot], nameLengths[slot], filter.needle, filter.lowered,
+                                filter.ascii) &&
+                        !matches(arena, descriptionOffsets[slot], descriptionLengths[slot], filter.needle,
+                                filter.lowered, filter.ascii)) {
+                    continue;
+                }
+                result.add(ids[slot], price, stocks[slot]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Splits the slot range in half until it is small enough to scan directly
+     */
+    private static class ScanTask extends RecursiveTask<ScanResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final Columns columns;
+        private final Filter filter;
+        private final int from;
+        private final int to;
+
+        private ScanTask(Columns columns, Filter filter, int from, int to) {
+            this.columns = columns;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            if (to - from <= SCAN_LEAF_SIZE) {
+                return columns.scan(filter, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(columns, filter, from, mid);
+            left.fork();
+            ScanResult right = new ScanTask(columns, filter, mid, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private static class Filter implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long minPrice;
+        private final long maxPrice;
+        private final boolean inStockOnly;
+        private final byte[] needle;
+        private final String lowered;
+        private final boolean ascii;
+
+        private Filter(long minPrice, long maxPrice, boolean inStockOnly, byte[] needle, String lowered, boolean ascii) {
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            this.inStockOnly = inStockOnly;
+            this.needle = needle;
+            this.lowered = lowered;
+            this.ascii = ascii;
+        }
+    }
+
+    /**
+     * Matching product IDs and facet counts of one slot range
+     */
+    private static class ScanResult {
+        private int[] ids;
+        private int count;
+        private final long[] priceCounts = new long[ProductFacets.PRICE_BUCKETS];
+        private final long[] stockCounts = new long[ProductFacets.STOCK_BUCKETS];
+
+        private ScanResult(int initialCapacity) {
+            ids = new int[Math.max(1, initialCapacity)];
+        }
+
+        private void add(int productId, long price, int stock) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = productId;
+            priceCounts[ProductFacets.priceBucket(price)]++;
+            stockCounts[ProductFacets.stockBucket(stock)]++;
+        }
+
+        private ScanResult merge(ScanResult other) {
+            if (count + other.count > ids.length) {
+                ids = Arrays.copyOf(ids, count + other.count);
+            }
+            System.arraycopy(other.ids, 0, ids, count, other.count);
+            count += other.count;
+            for (int i = 0; i < priceCounts.length; i++) {
+                priceCounts[i] += other.priceCounts[i];
+            }
+            for (int i = 0; i < stockCounts.length; i++) {
+                stockCounts[i] += other.stockCounts[i];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.caom.cache;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of non-negative ints, in the style of Roaring bitmaps.
+ *
+ * Values are split on their high 16 bits into chunks of 65536. Each chunk is stored in whichever container is
+ * smaller for its density: a sorted char array while it holds up to 4096 values, a 1024-word bitmap after that.
+ * AND / OR work chunk by chunk, so sparse sets never pay for the empty space between their values.
+ *
+ * Not thread safe, callers synchronize (the ProductIndex only touches it under the ProductStore lock).
+ * and() / or() / andNot() always return a new bitmap that shares nothing with their inputs.
+ */
+public class RoaringBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int i = indexOf(high);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) value);
+        } else {
+            insertAt(-i - 1, high, new ArrayContainer().add((char) value));
+        }
+    }
+
+    public void remove(int value) {
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0) {
+            return;
+        }
+        containers[i] = containers[i].remove((char) value);
+        if (containers[i].cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        }
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return A new bitmap holding the values present in both
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new bitmap holding the values present in either
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new bitmap holding the values present in this one but not in other
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container c = j < other.size && other.keys[j] == keys[i]
+                    ? containers[i].andNot(other.containers[j])
+                    : containers[i].copy();
+            if (c.cardinality() > 0) {
+                result.append(keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of values present in both, without building the intersection
+     */
+    public int andCardinality(RoaringBitmap other) {
+        int cardinality = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                cardinality += containers[i].andCardinality(other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Read one page of values in ascending order. Whole chunks before the offset are skipped by their cardinality.
+     * @param offset Number of values to skip
+     * @param limit Maximum number of values to return
+     * @return The values
+     */
+    public int[] page(int offset, int limit) {
+        int[] page = new int[Math.max(0, Math.min(limit, cardinality() - offset))];
+        int skip = offset;
+        int filled = 0;
+        for (int i = 0; i < size && filled < page.length; i++) {
+            int cardinality = containers[i].cardinality();
+            if (skip >= cardinality) {
+                skip -= cardinality;
+                continue;
+            }
+            filled = containers[i].copyTo(keys[i] << 16, skip, page, filled);
+            skip = 0;
+        }
+        return page;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertAt(int i, char high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = container;
+        size++;
+    }
+
+    // Keys arrive in ascending order while building and() / or() results
+    private void append(char high, Container container) {
+        insertAt(size, high, container);
+    }
+
+    /**
+     * One 65536-value chunk. Mutators return the container to keep, which changes when it switches representation.
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        /**
+         * Copy values into out, starting from the skip-th value of this container
+         * @return The new number of filled slots in out
+         */
+        abstract int copyTo(int base, int skip, int[] out, int filled);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] merged = new char[cardinality + o.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < o.cardinality) {
+                if (j >= o.cardinality || (i < cardinality && values[i] < o.values[j])) {
+                    merged[n++] = values[i++];
+                } else if (i >= cardinality || values[i] > o.values[j]) {
+                    merged[n++] = o.values[j++];
+                } else {
+                    merged[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer(merged, n);
+            return n > ARRAY_MAX ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    result[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            return and(other).cardinality();
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        int copyTo(int base, int skip, int[] out, int filled) {
+            for (int i = skip; i < cardinality && filled < out.length; i++) {
+                out[filled++] = base | values[i];
+            }
+            return filled;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        private BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | (1L << value);
+            if (before != words[value >>> 6]) {
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before & ~(1L << value);
+            if (before != words[value >>> 6]) {
+                cardinality--;
+            }
+            return cardinality <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[1024];
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                result[i] = words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, n);
+            return n <= ARRAY_MAX ? bitmap.toArray() : bitmap;
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++) {
+                    result[o.values[i] >>> 6] |= 1L << o.values[i];
+                }
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < 1024; i++) {
+                    result[i] |= o[i];
+                }
+            }
+            int n = 0;
+            for (long word : result) {
+                n += Long.bitCount(word);
+            }
+            return new BitmapContainer(result, n);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++) {
+                    result[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+                }
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < 1024; i++) {
+                    result[i] &= ~o[i];
+                }
+            }
+            int n = 0;
+            for (long word : result) {
+                n += Long.bitCount(word);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, n);
+            return n <= ARRAY_MAX ? bitmap.toArray() : bitmap;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.andCardinality(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                n += Long.bitCount(words[i] & o[i]);
+            }
+            return n;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < 1024; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int copyTo(int base, int skip, int[] out, int filled) {
+            int i = 0;
+            // Skip whole words first
+            while (i < 1024 && skip >= Long.bitCount(words[i])) {
+                skip -= Long.bitCount(words[i]);
+                i++;
+            }
+            for (; i < 1024 && filled < out.length; i++) {
+                long word = words[i];
+                while (word != 0 && filled < out.length) {
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        out[filled++] = base | (i << 6) | Long.numberOfTrailingZeros(word);
+                    }
+                    word &= word - 1;
+                }
+            }
+            return filled;
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.caom.cache;
+
+import com.caom.dtos.response.ProductSuggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix trie of product names for typeahead.
+ *
+ * Every product is reachable from its full lowercase name and from each word in it, so "pho" finds both
+ * "Phone Case" and "Wireless Phone Charger". Each node keeps the best K completions of its whole subtree, so a
+ * lookup is one walk down the prefix and no subtree search. Ranking: in-stock products first, then shorter names,
+ * then alphabetical.
+ *
+ * On a write only the nodes on the changed key's path are touched. An insert is merged into each node's top K
+ * directly; a removal only re-ranks the nodes whose top K contained the product, from their own terminal entries
+ * and their children's (already correct) top K. Maintained by the ProductStore under its lock, not thread safe
+ * on its own.
+ */
+public class SuggestionTrie {
+
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private final Node root = new Node();
+    // While true, add() only records terminals and endBulkLoad() ranks the whole trie once
+    private boolean bulkLoading;
+
+    /**
+     * Add a product. Callers remove the previous version of a product before adding it again.
+     */
+    public void add(int productId, String name, boolean inStock) {
+        if (name == null) {
+            return;
+        }
+        Entry entry = new Entry(productId, name, inStock);
+        for (String key : keys(name)) {
+            List<Node> path = walk(key, true);
+            Node end = path.get(path.size() - 1);
+            if (end.terminals == null) {
+                end.terminals = new ArrayList<>(1);
+            }
+            end.terminals.add(entry);
+            if (!bulkLoading) {
+                for (Node node : path) {
+                    node.top = offer(node.top, entry);
+                }
+            }
+        }
+    }
+
+    public void remove(int productId, String name) {
+        if (name == null) {
+            return;
+        }
+        for (String key : keys(name)) {
+            List<Node> path = walk(key, false);
+            if (path == null) {
+                continue;
+            }
+            Node end = path.get(path.size() - 1);
+            if (end.terminals != null) {
+                end.terminals.removeIf(entry -> entry.productId == productId);
+                if (end.terminals.isEmpty()) {
+                    end.terminals = null;
+                }
+            }
+            rerank(path, productId);
+        }
+    }
+
+    /**
+     * Start loading many products, skipping the per-write ranking until endBulkLoad()
+     */
+    public void beginBulkLoad() {
+        bulkLoading = true;
+    }
+
+    /**
+     * Rank every node once, children before parents
+     */
+    public void endBulkLoad() {
+        bulkLoading = false;
+        rankSubtree(root);
+    }
+
+    public void clear() {
+        root.labels = new char[0];
+        root.children = new Node[0];
+        root.terminals = null;
+        root.top = new Entry[0];
+    }
+
+    /**
+     * @param prefix What the user has typed so far
+     * @param limit Maximum number of suggestions, capped at MAX_SUGGESTIONS
+     * @return The best completions, best first
+     */
+    public List<ProductSuggestion> suggest(String prefix, int limit) {
+        List<ProductSuggestion> suggestions = new ArrayList<>();
+        List<Node> path = walk(prefix.toLowerCase(), false);
+        if (path == null) {
+            return suggestions;
+        }
+
+        Entry[] top = path.get(path.size() - 1).top;
+        for (int i = 0; i < top.length && i < limit; i++) {
+            suggestions.add(new ProductSuggestion(top[i].productId, top[i].name));
+        }
+        return suggestions;
+    }
+
+    /**
+     * @return Nodes from the root to the end of key, or null if it isn't in the trie and create is false
+     */
+    private List<Node> walk(String key, boolean create) {
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < key.length(); i++) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = node.addChild(key.charAt(i));
+            }
+            node = child;
+            path.add(node);
+        }
+        return path;
+    }
+
+    // Bottom-up, so every node merges children whose top K is already current
+    private void rerank(List<Node> path, int removedProductId) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            if (containsProduct(node.top, removedProductId)) {
+                rank(node);
+            }
+
+            // Prune branches that no longer lead to any product
+            if (i > 0 && node.top.length == 0) {
+                path.get(i - 1).removeChild(node);
+            }
+        }
+    }
+
+    private void rankSubtree(Node node) {
+        // Names are at most 100 characters, so the recursion stays shallow
+        for (Node child : node.children) {
+            rankSubtree(child);
+        }
+        rank(node);
+    }
+
+    private static void rank(Node node) {
+        Entry[] top = new Entry[0];
+        if (node.terminals != null) {
+            for (Entry entry : node.terminals) {
+                top = offer(top, entry);
+            }
+        }
+        for (Node child : node.children) {
+            for (Entry entry : child.top) {
+                top = offer(top, entry);
+            }
+        }
+        node.top = top;
+    }
+
+    /**
+     * @return top with entry merged in, still sorted, without duplicate products and at most MAX_SUGGESTIONS long
+     */
+    private static Entry[] offer(Entry[] top, Entry entry) {
+        if (top.length == MAX_SUGGESTIONS && entry.compareTo(top[top.length - 1]) >= 0) {
+            return top;
+        }
+        if (containsProduct(top, entry.productId)) {
+            // Same product reached through another key, the entries are equal
+            return top;
+        }
+
+        int i = 0;
+        while (i < top.length && top[i].compareTo(entry) <= 0) {
+            i++;
+        }
+        Entry[] merged = new Entry[Math.min(MAX_SUGGESTIONS, top.length + 1)];
+        System.arraycopy(top, 0, merged, 0, i);
+        merged[i] = entry;
+        System.arraycopy(top, i, merged, i + 1, merged.length - i - 1);
+        return merged;
+    }
+
+    private static List<String> keys(String name) {
+        String lowered = name.toLowerCase();
+        List<String> keys = new ArrayList<>();
+        keys.add(lowered);
+        for (String word : lowered.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && !keys.contains(word)) {
+                keys.add(word);
+            }
+        }
+        return keys;
+    }
+
+    private static boolean containsProduct(Entry[] entries, int productId) {
+        for (Entry entry : entries) {
+            if (entry.productId == productId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Node {
+        // Children sorted by label, binary searched
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        // Products whose key ends exactly here, null if none
+        private List<Entry> terminals;
+        private Entry[] top = new Entry[0];
+
+        private Node child(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            return i >= 0 ? children[i] : null;
+        }
+
+        private Node addChild(char label) {
+            int i = -Arrays.binarySearch(labels, label) - 1;
+            Node child = new Node();
+
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newLabels[i] = label;
+            newChildren[i] = child;
+            System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+
+        private void removeChild(Node child) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    char[] newLabels = new char[labels.length - 1];
+                    Node[] newChildren = new Node[children.length - 1];
+                    System.arraycopy(labels, 0, newLabels, 0, i);
+                    System.arraycopy(children, 0, newChildren, 0, i);
+                    System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+                    System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+                    labels = newLabels;
+                    children = newChildren;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final int productId;
+        private final String name;
+        private final boolean inStock;
+
+        private Entry(int productId, String name, boolean inStock) {
+            this.productId = productId;
+            this.name = name;
+            this.inStock = inStock;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (inStock != other.inStock) {
+                return inStock ? -1 : 1;
+            }
+            if (name.length() != other.name.length()) {
+                return Integer.compare(name.length(), other.name.length());
+            }
+            int byName = name.compareToIgnoreCase(other.name);
+            return byName != 0 ? byName : Integer.compare(productId, other.productId);
+        }
+    }
+}
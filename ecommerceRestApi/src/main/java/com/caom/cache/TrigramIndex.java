@@ -0,0 +1,311 @@
+package com.caom.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Trigram index over product names for typo-tolerant search.
+ *
+ * Names are split into words, each word is padded like pg_trgm does ("  word ") and cut into three-character
+ * trigrams. Similarity is the Jaccard index of the two trigram sets, so "headphnes" still shares most of its
+ * trigrams with "headphones".
+ *
+ * Trigrams are packed into a long and map to a bitmap of product IDs in an open-addressing table, so nothing is
+ * boxed. A match needs at least threshold x (query trigrams) trigrams in common, so instead of counting per product
+ * the query adds its posting bitmaps up as a bit-sliced counter (one bitmap per bit of the count) and keeps only
+ * the products whose count reaches that minimum. The work is a few bitmap operations per query trigram, whatever
+ * the number of products, and only the products that can pass the threshold are scored and go through the
+ * bounded min-heap for the best K.
+ *
+ * Maintained by the ProductStore under its lock, not thread safe on its own.
+ */
+public class TrigramIndex {
+
+    private final Postings postings = new Postings();
+    // productId -> number of distinct trigrams in its name
+    private final IntIntMap trigramCounts = new IntIntMap(1024);
+
+    public void add(int productId, String name) {
+        long[] trigrams = trigrams(name);
+        if (trigrams.length == 0) {
+            return;
+        }
+        for (long trigram : trigrams) {
+            postings.getOrCreate(trigram).add(productId);
+        }
+        trigramCounts.put(productId, trigrams.length);
+    }
+
+    public void remove(int productId, String name) {
+        for (long trigram : trigrams(name)) {
+            RoaringBitmap posting = postings.get(trigram);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+        trigramCounts.remove(productId);
+    }
+
+    public void clear() {
+        postings.clear();
+        trigramCounts.clear();
+    }
+
+    /**
+     * Find the names most similar to the query
+     * @param query The (possibly misspelled) search text
+     * @param k Maximum number of results
+     * @param threshold Minimum similarity between 0 and 1
+     * @return Up to k matches, most similar first
+     */
+    public List<Match> search(String query, int k, double threshold) {
+        long[] queryTrigrams = trigrams(query);
+        if (queryTrigrams.length == 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // The union is at least the query's trigrams, so similarity >= threshold needs this many in common
+        int minShared = Math.max(1, (int) Math.ceil(threshold * queryTrigrams.length - 1e-9));
+
+        // Bit i of a product's shared count is whether it's in counts.get(i)
+        List<RoaringBitmap> counts = new ArrayList<>();
+        for (long trigram : queryTrigrams) {
+            RoaringBitmap carry = postings.get(trigram);
+            for (int bit = 0; carry != null && !carry.isEmpty(); bit++) {
+                if (bit == counts.size()) {
+                    counts.add(carry);
+                    break;
+                }
+                RoaringBitmap current = counts.get(bit);
+                RoaringBitmap overflow = current.and(carry);
+                counts.set(bit, current.or(carry).andNot(overflow));
+                carry = overflow;
+            }
+        }
+
+        PriorityQueue<Match> heap = new PriorityQueue<>(k + 1);
+        atLeast(counts, minShared).forEach(productId -> {
+            int common = 0;
+            for (int bit = 0; bit < counts.size(); bit++) {
+                if (counts.get(bit).contains(productId)) {
+                    common |= 1 << bit;
+                }
+            }
+            int union = queryTrigrams.length + trigramCounts.get(productId) - common;
+            double similarity = (double) common / union;
+            if (similarity < threshold) {
+                return;
+            }
+            heap.offer(new Match(productId, similarity));
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        });
+
+        List<Match> matches = new ArrayList<>(heap);
+        matches.sort((a, b) -> b.compareTo(a));
+        return matches;
+    }
+
+    /**
+     * Helper method to compare a bit-sliced count against a constant, from the highest bit down
+     * @return The products whose count is at least min
+     */
+    private static RoaringBitmap atLeast(List<RoaringBitmap> counts, int min) {
+        if (counts.isEmpty() || min >= 1 << counts.size()) {
+            return new RoaringBitmap();
+        }
+
+        // Products whose count so far equals min's bits so far, and those already above it
+        RoaringBitmap equal = counts.get(0);
+        for (int bit = 1; bit < counts.size(); bit++) {
+            equal = equal.or(counts.get(bit));
+        }
+        RoaringBitmap greater = new RoaringBitmap();
+        for (int bit = counts.size() - 1; bit >= 0; bit--) {
+            if ((min & (1 << bit)) != 0) {
+                equal = equal.and(counts.get(bit));
+            } else {
+                greater = greater.or(equal.and(counts.get(bit)));
+                equal = equal.andNot(counts.get(bit));
+            }
+        }
+        return greater.or(equal);
+    }
+
+    /**
+     * @return The distinct trigrams of the text, each packed as three 16-bit chars
+     */
+    static long[] trigrams(String text) {
+        if (text == null) {
+            return new long[0];
+        }
+
+        String lowered = text.toLowerCase();
+        long[] trigrams = new long[lowered.length() + 2];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= lowered.length(); i++) {
+            boolean wordChar = i < lowered.length() && Character.isLetterOrDigit(lowered.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String padded = "  " + lowered.substring(start, i) + " ";
+                for (int j = 0; j + 3 <= padded.length(); j++) {
+                    if (count == trigrams.length) {
+                        trigrams = Arrays.copyOf(trigrams, count * 2);
+                    }
+                    trigrams[count++] = ((long) padded.charAt(j) << 32) | ((long) padded.charAt(j + 1) << 16) |
+                            padded.charAt(j + 2);
+                }
+                start = -1;
+            }
+        }
+
+        // Sort and drop repeats, a word can repeat a trigram and two words can share one
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[i] != trigrams[distinct - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Open-addressing trigram -> posting bitmap table (linear probing). Trigrams are never negative, so -1 marks an
+     * empty slot.
+     */
+    private static class Postings {
+        private static final long EMPTY = -1L;
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] keys;
+        private RoaringBitmap[] values;
+        private int count;
+
+        private Postings() {
+            clear();
+        }
+
+        private void clear() {
+            keys = new long[INITIAL_CAPACITY];
+            values = new RoaringBitmap[INITIAL_CAPACITY];
+            Arrays.fill(keys, EMPTY);
+            count = 0;
+        }
+
+        private RoaringBitmap get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == EMPTY) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        private RoaringBitmap getOrCreate(long key) {
+            if ((count + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = key;
+                values[i] = new RoaringBitmap();
+                count++;
+            }
+            return values[i];
+        }
+
+        private void remove(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != key) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            // Backward-shift deletion, same as IntIntMap
+            int hole = i;
+            for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (movable) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = EMPTY;
+            values[hole] = null;
+            count--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            RoaringBitmap[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new RoaringBitmap[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = mix(oldKeys[i]) & mask;
+                    while (keys[j] != EMPTY) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * A product and how similar its name is to the query
+     */
+    public static class Match implements Comparable<Match> {
+        private final int productId;
+        private final double similarity;
+
+        public Match(int productId, double similarity) {
+            this.productId = productId;
+            this.similarity = similarity;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        // Lower similarity first, ties broken so the lower product ID ranks higher
+        @Override
+        public int compareTo(Match other) {
+            int bySimilarity = Double.compare(similarity, other.similarity);
+            return bySimilarity != 0 ? bySimilarity : Integer.compare(other.productId, productId);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.caom.cdc;
+
+import com.caom.models.ProductChange;
+import com.caom.repos.product.CachedProductDAO;
+import com.caom.repos.product.ProductChangeDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the product_changes log and reloads the products other instances (or admin scripts) changed, so the
+ * local catalog and its indexes stay coherent without a short TTL.
+ *
+ * Change IDs come from a sequence, so a transaction can commit a lower ID after a higher one was already read.
+ * The cursor therefore only moves past changes that are settled (older than a few seconds); newer ones are read
+ * again on the next poll, which is harmless because a reload just re-reads the current row.
+ */
+public class ProductChangeListener {
+
+    private final Logger logger = LoggerFactory.getLogger(ProductChangeListener.class);
+
+    private final ProductChangeDAO productChangeDAO;
+    private final CachedProductDAO cachedProductDAO;
+    private volatile int batchSize;
+    private final int settleSeconds;
+    private final int retentionHours;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "product-change-listener");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long cursor;
+    private long lastPurge = System.currentTimeMillis();
+
+    /**
+     * @param productChangeDAO DAO for the change log
+     * @param cachedProductDAO The catalog to keep current
+     * @param batchSize Maximum changes read per poll
+     * @param settleSeconds Age after which no earlier change can still commit
+     * @param retentionHours How long entries are kept in the log before being purged
+     */
+    public ProductChangeListener(ProductChangeDAO productChangeDAO, CachedProductDAO cachedProductDAO,
+                                 int batchSize, int settleSeconds, int retentionHours) {
+        this.productChangeDAO = productChangeDAO;
+        this.cachedProductDAO = cachedProductDAO;
+        this.batchSize = batchSize;
+        this.settleSeconds = settleSeconds;
+        this.retentionHours = retentionHours;
+    }
+
+    /**
+     * @return The latest change ID, to be read before the catalog is loaded so no change falls in between
+     */
+    public long currentPosition() {
+        return Math.max(0, productChangeDAO.getLatestChangeId());
+    }
+
+    /**
+     * @param batchSize Maximum changes read per poll, from the next poll on
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Start polling
+     * @param fromChangeId Changes after this ID are applied
+     * @param pollMillis Delay between polls
+     */
+    public void start(long fromChangeId, long pollMillis) {
+        this.cursor = fromChangeId;
+        scheduler.scheduleWithFixedDelay(this::pollSafely, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Apply the next batches of changes
+     * @return The number of changes read
+     */
+    public int poll() {
+        int total = 0;
+        int limit = batchSize;
+        while (true) {
+            List<ProductChange> changes = productChangeDAO.getChangesAfter(cursor, limit, settleSeconds);
+            if (changes == null || changes.isEmpty()) {
+                break;
+            }
+
+            Set<Integer> productIds = new HashSet<>();
+            for (ProductChange change : changes) {
+                productIds.add(change.getProductId());
+            }
+            if (!cachedProductDAO.reload(productIds)) {
+                // Try the same changes again next time
+                break;
+            }
+            total += changes.size();
+
+            long settledUpTo = cursor;
+            for (ProductChange change : changes) {
+                if (!change.isSettled()) {
+                    break;
+                }
+                settledUpTo = change.getChangeId();
+            }
+            boolean allSettled = settledUpTo == changes.get(changes.size() - 1).getChangeId();
+            cursor = settledUpTo;
+
+            // Keep reading while we're behind, stop at the unsettled tail
+            if (!allSettled || changes.size() < limit) {
+                break;
+            }
+        }
+
+        purgeIfDue();
+        return total;
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (Exception e) {
+            // Never let an exception cancel the schedule
+            logger.error("Product change poll failed: ", e);
+        }
+    }
+
+    private void purgeIfDue() {
+        if (System.currentTimeMillis() - lastPurge < 60 * 60 * 1000L) {
+            return;
+        }
+        lastPurge = System.currentTimeMillis();
+        int purged = productChangeDAO.purgeChanges(retentionHours);
+        if (purged > 0) {
+            logger.info("Purged " + purged + " old product changes");
+        }
+    }
+}
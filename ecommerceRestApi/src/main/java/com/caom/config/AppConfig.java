@@ -0,0 +1,283 @@
+package com.caom.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Application settings, read once at startup instead of every time something needs one.
+ *
+ * A setting is looked up in, from strongest to weakest:
+ * 1. A system property, e.g. -Dserver.port=8080
+ * 2. An environment variable named ECOMMERCE_ plus the key in upper case with dots as underscores, e.g.
+ *    ECOMMERCE_SERVER_PORT=8080 (the prefix keeps USERNAME and friends from leaking in)
+ * 3. The external config file, if config.file (or ECOMMERCE_CONFIG_FILE) points at one
+ * 4. application.properties on the classpath
+ * 5. The default passed in by the caller
+ *
+ * get* methods are for settings that only take effect on restart (ports, thread counts, cache sizes). watch* methods
+ * are for tunables that are safe to change while running: the callback gets the value now and again whenever a
+ * reload changes it. Reloading re-reads the external file when it's modified, so those knobs can be turned without a
+ * redeploy.
+ */
+public class AppConfig {
+
+    private static final String ENV_PREFIX = "ECOMMERCE_";
+
+    private static volatile AppConfig instance;
+
+    private final Logger logger = LoggerFactory.getLogger(AppConfig.class);
+
+    private final Path externalFile;
+    private final List<Watch<?>> watches = new CopyOnWriteArrayList<>();
+
+    private volatile Properties properties;
+    private volatile long externalFileModified;
+    private ScheduledExecutorService reloader;
+
+    /**
+     * @param externalFile A properties file that overrides the classpath one and is watched for changes, or null
+     */
+    public AppConfig(Path externalFile) {
+        this.externalFile = externalFile;
+        this.properties = readFiles();
+    }
+
+    /**
+     * @return The application's settings, loaded on first use
+     */
+    public static AppConfig get() {
+        AppConfig config = instance;
+        if (config != null) {
+            return config;
+        }
+
+        synchronized (AppConfig.class) {
+            if (instance == null) {
+                String file = System.getProperty("config.file", System.getenv(ENV_PREFIX + "CONFIG_FILE"));
+                instance = new AppConfig(file != null && !file.trim().isEmpty() ? Paths.get(file.trim()) : null);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Helper method to merge application.properties from the classpath with the external file
+     */
+    private Properties readFiles() {
+        Properties merged = new Properties();
+
+        try (InputStream in = AppConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (in != null) {
+                merged.load(in);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read application.properties from the classpath: " + e.getMessage());
+        }
+
+        if (externalFile != null) {
+            try (Reader reader = Files.newBufferedReader(externalFile)) {
+                externalFileModified = Files.getLastModifiedTime(externalFile).toMillis();
+                merged.load(reader);
+            } catch (IOException e) {
+                logger.warn("Could not read config file " + externalFile + ": " + e.getMessage());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @param key The setting's key, e.g. server.port
+     * @return The raw value from the strongest source that has it, or null
+     */
+    public String getRaw(String key) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(ENV_PREFIX + key.toUpperCase().replace('.', '_').replace('-', '_'));
+        }
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null ? value.trim() : null;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = getRaw(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return parse(key, defaultValue, Integer::parseInt);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return parse(key, defaultValue, Long::parseLong);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return parse(key, defaultValue, AppConfig::parseBoolean);
+    }
+
+    /**
+     * @return The comma separated values of a setting, without blanks, empty if it isn't set
+     */
+    public List<String> getList(String key) {
+        List<String> values = new ArrayList<>();
+        for (String value : getString(key, "").split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Helper method to read a typed setting, a value that doesn't parse is a startup error rather than a silent
+     * fallback to the default
+     */
+    private <T> T parse(String key, T defaultValue, Function<String, T> parser) {
+        String value = getRaw(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Expected true or false");
+    }
+
+    /**
+     * Apply an int tunable now and on every reload that changes it
+     * @param key The setting's key
+     * @param defaultValue Used when no source has the key
+     * @param onChange Applies the value
+     */
+    public void watchInt(String key, int defaultValue, Consumer<Integer> onChange) {
+        watch(key, defaultValue, Integer::parseInt, onChange);
+    }
+
+    /**
+     * Apply a long tunable now and on every reload that changes it
+     * @param key The setting's key
+     * @param defaultValue Used when no source has the key
+     * @param onChange Applies the value
+     */
+    public void watchLong(String key, long defaultValue, Consumer<Long> onChange) {
+        watch(key, defaultValue, Long::parseLong, onChange);
+    }
+
+    private <T> void watch(String key, T defaultValue, Function<String, T> parser, Consumer<T> onChange) {
+        Watch<T> watch = new Watch<>(key, defaultValue, parser, onChange);
+        watch.lastValue = getRaw(key);
+        onChange.accept(parse(key, defaultValue, parser));
+        watches.add(watch);
+    }
+
+    /**
+     * Re-read the config files and apply every watched tunable that changed. A value that doesn't parse is logged
+     * and the old one stays in effect.
+     * @return The number of tunables that changed
+     */
+    public int reload() {
+        properties = readFiles();
+
+        int changed = 0;
+        for (Watch<?> watch : watches) {
+            if (watch.apply()) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Check the external config file every intervalMillis and reload when it has been modified
+     * @param intervalMillis Time between checks
+     */
+    public synchronized void startReloading(long intervalMillis) {
+        if (externalFile == null || reloader != null) {
+            return;
+        }
+
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "config-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                if (Files.getLastModifiedTime(externalFile).toMillis() != externalFileModified) {
+                    logger.info("Config file changed, " + reload() + " settings updated");
+                }
+            } catch (Exception e) {
+                logger.warn("Could not check config file " + externalFile + ": " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A tunable and what to do when it changes
+     */
+    private class Watch<T> {
+        private final String key;
+        private final T defaultValue;
+        private final Function<String, T> parser;
+        private final Consumer<T> onChange;
+        private String lastValue;
+
+        private Watch(String key, T defaultValue, Function<String, T> parser, Consumer<T> onChange) {
+            this.key = key;
+            this.defaultValue = defaultValue;
+            this.parser = parser;
+            this.onChange = onChange;
+        }
+
+        /**
+         * @return true if the value changed and was applied
+         */
+        private boolean apply() {
+            String value = getRaw(key);
+            if (Objects.equals(value, lastValue)) {
+                return false;
+            }
+
+            try {
+                T parsed = parse(key, defaultValue, parser);
+                onChange.accept(parsed);
+                lastValue = value;
+                logger.info("Applied " + key + " = " + parsed);
+                return true;
+            } catch (IllegalStateException e) {
+                logger.warn(e.getMessage() + ", keeping the previous value");
+                return false;
+            }
+        }
+    }
+}
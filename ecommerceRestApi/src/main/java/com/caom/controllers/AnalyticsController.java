@@ -0,0 +1,165 @@
+package com.caom.controllers;
+
+import com.caom.analytics.SalesAnalytics;
+import com.caom.dtos.response.ErrorMessage;
+import com.caom.eventlog.InventoryLedger;
+import com.caom.eventlog.OrderEventLog;
+import com.caom.models.Role;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AnalyticsController {
+
+    private final Logger logger = LoggerFactory.getLogger(AnalyticsController.class);
+
+    private final SalesAnalytics salesAnalytics;
+    private final InventoryLedger inventoryLedger;
+    private final OrderEventLog orderEventLog;
+
+    public AnalyticsController(SalesAnalytics salesAnalytics, InventoryLedger inventoryLedger,
+                               OrderEventLog orderEventLog) {
+        this.salesAnalytics = salesAnalytics;
+        this.inventoryLedger = inventoryLedger;
+        this.orderEventLog = orderEventLog;
+    }
+
+    /**
+     * Get the best-selling products (admin only)
+     */
+    public void getTopProductsHandler(Context ctx) {
+        if (!isAdmin(ctx)) {
+            return;
+        }
+
+        try {
+            String nStr = ctx.queryParam("n");
+            int n = nStr != null ? Integer.parseInt(nStr) : 10;
+
+            if (n <= 0 || n > 1000) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("n must be between 1 and 1000"));
+                return;
+            }
+
+            boolean byRevenue = !"units".equalsIgnoreCase(ctx.queryParam("by"));
+
+            ctx.status(200);
+            ctx.json(salesAnalytics.getTopProducts(n, byRevenue));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid n format. Please provide a numeric value."));
+        }
+    }
+
+    /**
+     * Get revenue per day, defaults to the last 30 days (admin only)
+     */
+    public void getRevenueByDayHandler(Context ctx) {
+        if (!isAdmin(ctx)) {
+            return;
+        }
+
+        try {
+            String fromStr = ctx.queryParam("from");
+            String toStr = ctx.queryParam("to");
+
+            LocalDate to = toStr != null ? LocalDate.parse(toStr) : LocalDate.now();
+            LocalDate from = fromStr != null ? LocalDate.parse(fromStr) : to.minusDays(29);
+
+            if (from.isAfter(to)) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("Invalid date range. from must be on or before to."));
+                return;
+            }
+
+            ctx.status(200);
+            ctx.json(salesAnalytics.getRevenueByDay(from, to));
+        } catch (DateTimeParseException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid date format. Please use YYYY-MM-DD."));
+        }
+    }
+
+    /**
+     * Get the number and value of orders in each status (admin only)
+     */
+    public void getStatusCountsHandler(Context ctx) {
+        if (!isAdmin(ctx)) {
+            return;
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("counts", salesAnalytics.getStatusCounts());
+        response.put("revenue", salesAnalytics.getStatusRevenue());
+
+        ctx.status(200);
+        ctx.json(response);
+    }
+
+    /**
+     * Get the units of each product currently held by orders (admin only)
+     */
+    public void getInventoryHandler(Context ctx) {
+        if (!isAdmin(ctx)) {
+            return;
+        }
+
+        ctx.status(200);
+        ctx.json(inventoryLedger.getHeldUnits());
+    }
+
+    /**
+     * Get order events from the audit log, oldest first (admin only)
+     */
+    public void getOrderEventsHandler(Context ctx) {
+        if (!isAdmin(ctx)) {
+            return;
+        }
+
+        try {
+            String afterStr = ctx.queryParam("after");
+            String limitStr = ctx.queryParam("limit");
+            long after = afterStr != null ? Long.parseLong(afterStr) : 0;
+            int limit = limitStr != null ? Integer.parseInt(limitStr) : 100;
+
+            if (after < 0 || limit <= 0 || limit > 1000) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("after must not be negative and limit must be between 1 and 1000"));
+                return;
+            }
+
+            ctx.status(200);
+            ctx.json(orderEventLog.readEvents(after, limit));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid after or limit format. Please provide numeric values."));
+        } catch (IOException e) {
+            logger.error("Could not read the order event log: ", e);
+            ctx.status(500);
+            ctx.json(new ErrorMessage("The order event log could not be read"));
+        }
+    }
+
+    private boolean isAdmin(Context ctx) {
+        if (ctx.sessionAttribute("userId") == null) {
+            ctx.status(401);
+            ctx.json(new ErrorMessage("You must be logged in to view analytics!"));
+            return false;
+        }
+
+        if (ctx.sessionAttribute("role") != Role.ADMIN) {
+            ctx.status(403);
+            ctx.json(new ErrorMessage("You must be an admin to view analytics!"));
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -1,6 +1,10 @@
 package com.caom.controllers;
 
+import com.caom.dtos.request.CartChange;
+import com.caom.dtos.response.CartValidation;
 import com.caom.dtos.response.ErrorMessage;
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.exceptions.ProductNotFoundException;
 import com.caom.models.Cart;
 import com.caom.models.Product;
 import com.caom.models.Role;
@@ -8,6 +12,7 @@ import com.caom.models.User;
 import com.caom.services.CartService;
 import com.caom.services.ProductService;
 import com.caom.services.UserService;
+import com.caom.util.Money;
 import io.javalin.http.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,8 +57,8 @@ public class CartController {
                 enrichedItem.put("productId", item.getProductId());
                 enrichedItem.put("quantity", item.getQuantity());
                 enrichedItem.put("productName", product.getName());
-                enrichedItem.put("productPrice", product.getPrice());
-                enrichedItem.put("totalPrice", product.getPrice() * item.getQuantity());
+                enrichedItem.put("productPrice", Money.toBigDecimal(product.getPrice()));
+                enrichedItem.put("totalPrice", Money.toBigDecimal(Money.times(product.getPrice(), item.getQuantity())));
                 enrichedItem.put("inStock", product.getStock() >= item.getQuantity());
 
                 enrichedCartItems.add(enrichedItem);
@@ -61,11 +66,11 @@ public class CartController {
         }
 
         // Calculate cart total
-        double cartTotal = cartService.calculateCartTotal(userId);
+        long cartTotal = cartService.calculateCartTotal(userId);
 
         Map<String, Object> response = new HashMap<>();
         response.put("items", enrichedCartItems);
-        response.put("total", cartTotal);
+        response.put("total", Money.toBigDecimal(cartTotal));
 
         ctx.status(200);
         ctx.json(response);
@@ -114,6 +119,64 @@ public class CartController {
         ctx.json(addedItem);
     }
 
+    /**
+     * Add, change or remove many cart lines in one request
+     * Body: {"items": [{"productId": 1, "quantity": 2, "operation": "ADD"}, ...]}, operation is ADD (default), SET
+     * or REMOVE
+     */
+    public void bulkUpdateCartHandler(Context ctx) {
+        // Verify user is logged in
+        if(ctx.sessionAttribute("userId") == null) {
+            ctx.status(401);
+            ctx.json(new ErrorMessage("You must be logged in to update your cart"));
+            return;
+        }
+
+        int userId = ctx.sessionAttribute("userId");
+
+        try {
+            Map<String, Object> requestBody = ctx.bodyAsClass(Map.class);
+            List<Map<String, Object>> itemsData = (List<Map<String, Object>>) requestBody.get("items");
+
+            if (itemsData == null || itemsData.isEmpty() || itemsData.size() > 1000) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("items must contain between 1 and 1000 lines"));
+                return;
+            }
+
+            List<CartChange> changes = new ArrayList<>();
+            for (Map<String, Object> itemData : itemsData) {
+                Object operation = itemData.get("operation");
+                Object quantity = itemData.get("quantity");
+                changes.add(new CartChange(((Number) itemData.get("productId")).intValue(),
+                        quantity != null ? ((Number) quantity).intValue() : 0,
+                        operation != null ? CartChange.Operation.valueOf(operation.toString().toUpperCase())
+                                : CartChange.Operation.ADD));
+            }
+
+            List<Cart> cart = cartService.applyCartChanges(userId, changes);
+            if (cart == null) {
+                ctx.status(500);
+                ctx.json(new ErrorMessage("Something went wrong!"));
+                return;
+            }
+
+            logger.info("User ID: " + userId + " applied " + changes.size() + " cart changes");
+            ctx.status(200);
+            ctx.json(cart);
+        } catch (ProductNotFoundException e) {
+            ctx.status(404);
+            ctx.json(new ErrorMessage(e.getMessage()));
+        } catch (InsufficientStockException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage(e.getMessage()));
+        } catch (IllegalArgumentException | ClassCastException | NullPointerException | ArithmeticException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid cart line: each item needs a numeric productId and quantity, and " +
+                    "an operation of ADD, SET or REMOVE"));
+        }
+    }
+
     /**
      * Update cart item quantity
      */
@@ -229,15 +292,16 @@ public class CartController {
 
         int userId = ctx.sessionAttribute("userId");
 
-        // Validate cart stock
-        boolean valid = cartService.validateCartStock(userId);
+        // Validate cart stock, the response lists every line to fix and the cart total
+        CartValidation validation = cartService.validateCart(userId);
 
-        if (valid) {
-            ctx.status(200);
-            ctx.json(new ErrorMessage("All items in cart have sufficient stock"));
-        } else {
-            ctx.status(400);
-            ctx.json(new ErrorMessage("Some items in your cart have insufficient stock"));
+        if (validation == null) {
+            ctx.status(500);
+            ctx.json(new ErrorMessage("Something went wrong!"));
+            return;
         }
+
+        ctx.status(validation.isValid() ? 200 : 400);
+        ctx.json(validation);
     }
 }
\ No newline at end of file
@@ -1,17 +1,27 @@
 package com.caom.controllers;
 
+import com.caom.dtos.request.OrderStatusChange;
 import com.caom.dtos.response.ErrorMessage;
+import com.caom.dtos.response.OrderStatusResult;
+import com.caom.exceptions.IdempotencyKeyReusedException;
+import com.caom.exceptions.InsufficientStockException;
 import com.caom.exceptions.OrderNotFoundException;
+import com.caom.exceptions.OrderQueueFullException;
 import com.caom.exceptions.UnauthorizedActionException;
 import com.caom.models.Order;
 import com.caom.models.OrderItem;
 import com.caom.models.OrderStatus;
+import com.caom.models.Role;
 import com.caom.models.User;
+import com.caom.pipeline.OrderPipeline;
+import com.caom.pipeline.OrderTicket;
 import com.caom.services.OrderService;
 import com.caom.services.UserService;
+import com.caom.util.Money;
 import org.slf4j.LoggerFactory;
 
 import io.javalin.http.Context;
+import io.javalin.validation.ValidationException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,10 +35,16 @@ public class OrderController {
     private final Logger logger = LoggerFactory.getLogger(OrderController.class);
     private final OrderService orderService;
     private final UserService userService;
+    private final OrderPipeline orderPipeline;
 
     public OrderController(OrderService orderService, UserService userService) {
+        this(orderService, userService, null);
+    }
+
+    public OrderController(OrderService orderService, UserService userService, OrderPipeline orderPipeline) {
         this.orderService = orderService;
         this.userService = userService;
+        this.orderPipeline = orderPipeline;
     }
 
     /**
@@ -64,8 +80,29 @@ public class OrderController {
                 orderItems.add(item);
             }
 
+            // Retries carrying the same Idempotency-Key get the original order (or request) back
+            String idempotencyKey = ctx.header("Idempotency-Key");
+
+            // Async mode: queue the order and let the client poll for the result
+            if (isAsyncRequested(ctx) && orderPipeline != null) {
+                String requestHash = OrderService.requestHash(orderItems);
+                Order existingOrder = orderService.getOrderByIdempotencyKey(userId, idempotencyKey, requestHash);
+                if (existingOrder != null) {
+                    ctx.status(201);
+                    ctx.json(existingOrder);
+                    return;
+                }
+
+                OrderTicket ticket = orderPipeline.submit(userId, orderItems, idempotencyKey, requestHash);
+
+                ctx.status(202);
+                ctx.header("Location", "/orders/requests/" + ticket.getRequestId());
+                ctx.json(toTicketResponse(ticket));
+                return;
+            }
+
             // Create the order
-            Order createdOrder = orderService.createOrder(userId, orderItems);
+            Order createdOrder = orderService.createOrder(userId, orderItems, idempotencyKey);
 
             logger.info("User ID: " + userId + " created order ID: " + createdOrder.getOrderId());
 
@@ -73,6 +110,13 @@ public class OrderController {
             ctx.status(201);
             ctx.json(createdOrder);
 
+        } catch (OrderQueueFullException e) {
+            ctx.status(503);
+            ctx.header("Retry-After", "1");
+            ctx.json(new ErrorMessage(e.getMessage()));
+        } catch (IdempotencyKeyReusedException e) {
+            ctx.status(422);
+            ctx.json(new ErrorMessage(e.getMessage()));
         } catch (Exception e) {
             logger.error("Error creating order: ", e);
             ctx.status(500);
@@ -81,6 +125,86 @@ public class OrderController {
         }
     }
 
+    /**
+     * Check out the user's cart: create an order from every cart line and empty the cart, in one transaction
+     */
+    public void createOrderFromCartHandler(Context ctx) {
+        // Verify user is logged in
+        if(ctx.sessionAttribute("userId") == null) {
+            ctx.status(401);
+            ctx.json(new ErrorMessage("You must be logged in to create an order"));
+            return;
+        }
+
+        int userId = ctx.sessionAttribute("userId");
+
+        try {
+            Order createdOrder = orderService.createOrderFromCart(userId);
+            if (createdOrder == null) {
+                ctx.status(500);
+                ctx.json(new ErrorMessage("Something went wrong!"));
+                return;
+            }
+
+            logger.info("User ID: " + userId + " checked out cart as order ID: " + createdOrder.getOrderId());
+
+            ctx.status(201);
+            ctx.json(createdOrder);
+        } catch (InsufficientStockException | IllegalStateException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage(e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error checking out cart: ", e);
+            ctx.status(500);
+            ctx.json(new ErrorMessage("An error occurred while creating the order: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the status of an order queued with the async mode of createOrderHandler
+     */
+    public void getOrderRequestStatusHandler(Context ctx) {
+        // Verify user is logged in
+        if(ctx.sessionAttribute("userId") == null) {
+            ctx.status(401);
+            ctx.json(new ErrorMessage("You must be logged in to access orders"));
+            return;
+        }
+
+        int userId = ctx.sessionAttribute("userId");
+        OrderTicket ticket = orderPipeline == null ? null : orderPipeline.getTicket(ctx.pathParam("requestId"));
+
+        // Don't reveal other users' requests
+        if (ticket == null || ticket.getUserId() != userId) {
+            ctx.status(404);
+            ctx.json(new ErrorMessage("Order request not found"));
+            return;
+        }
+
+        ctx.status(200);
+        ctx.json(toTicketResponse(ticket));
+    }
+
+    private boolean isAsyncRequested(Context ctx) {
+        String prefer = ctx.header("Prefer");
+        return "true".equalsIgnoreCase(ctx.queryParam("async")) ||
+                (prefer != null && prefer.toLowerCase().contains("respond-async"));
+    }
+
+    private Map<String, Object> toTicketResponse(OrderTicket ticket) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("requestId", ticket.getRequestId());
+        response.put("status", ticket.getStatus());
+        response.put("statusUrl", "/orders/requests/" + ticket.getRequestId());
+        if (ticket.getOrder() != null && ticket.getStatus().isFinal()) {
+            response.put("order", ticket.getOrder());
+        }
+        if (ticket.getErrorMessage() != null) {
+            response.put("error", ticket.getErrorMessage());
+        }
+        return response;
+    }
+
     /**
      * Get all orders (admin only)
      */
@@ -135,7 +259,7 @@ public class OrderController {
                 Map<String, Object> enrichedOrder = new HashMap<>();
                 enrichedOrder.put("orderId", order.getOrderId());
                 enrichedOrder.put("status", order.getStatus());
-                enrichedOrder.put("totalPrice", order.getTotalPrice());
+                enrichedOrder.put("totalPrice", Money.toBigDecimal(order.getTotalPrice()));
                 enrichedOrder.put("createdAt", order.getCreatedAt());
                 enrichedOrder.put("items", order.getOrderItems());
 
@@ -242,6 +366,70 @@ public class OrderController {
         }
     }
 
+    /**
+     * Update the status of many orders at once (admin only)
+     * Body: {"status": "SHIPPED", "orderIds": [1, 2, 3]}
+     */
+    public void updateOrderStatusesHandler(Context ctx) {
+        // Verify user is logged in
+        if(ctx.sessionAttribute("userId") == null) {
+            ctx.status(401);
+            ctx.json(new ErrorMessage("You must be logged in to update orders"));
+            return;
+        }
+
+        // The role is in the session, no need to load the user
+        if (ctx.sessionAttribute("role") != Role.ADMIN) {
+            ctx.status(403);
+            ctx.json(new ErrorMessage("Only administrators can update orders in bulk"));
+            return;
+        }
+
+        try {
+            OrderStatusChange request = ctx.bodyValidator(OrderStatusChange.class).get();
+            List<Integer> orderIds = request.getOrderIds();
+
+            if (request.getStatus() == null || request.getStatus().trim().isEmpty()) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("Status is required"));
+                return;
+            }
+            if (orderIds == null || orderIds.isEmpty() || orderIds.size() > 1000) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("orderIds must contain between 1 and 1000 order IDs"));
+                return;
+            }
+            if (orderIds.contains(null)) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("orderIds must be a list of numeric order IDs"));
+                return;
+            }
+
+            OrderStatus status = OrderStatus.fromString(request.getStatus());
+            List<OrderStatusResult> results = orderService.updateOrderStatuses(orderIds, status);
+
+            int updated = 0;
+            for (OrderStatusResult result : results) {
+                if (result.isUpdated()) {
+                    updated++;
+                }
+            }
+            logger.info("User ID: " + ctx.sessionAttribute("userId") + " moved " + updated + " of " +
+                    results.size() + " orders to " + status);
+
+            ctx.status(200);
+            ctx.json(results);
+        } catch (ValidationException e) {
+            // The body isn't JSON or a field has the wrong type
+            ctx.status(400);
+            ctx.json(new ErrorMessage("orderIds must be a list of numeric order IDs"));
+        } catch (Exception e) {
+            logger.error("Error updating order statuses: ", e);
+            ctx.status(500);
+            ctx.json(new ErrorMessage("An error occurred while updating the orders: " + e.getMessage()));
+        }
+    }
+
     /**
      * Cancel an order
      */
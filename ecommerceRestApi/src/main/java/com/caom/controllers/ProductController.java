@@ -1,9 +1,13 @@
 package com.caom.controllers;
 
+import com.caom.cache.SuggestionTrie;
+import com.caom.dtos.request.ProductQuery;
 import com.caom.dtos.response.ErrorMessage;
+import com.caom.dtos.response.ProductQueryResult;
 import com.caom.models.Product;
 import com.caom.models.Role;
 import com.caom.services.ProductService;
+import com.caom.util.Money;
 import io.javalin.http.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -208,8 +212,8 @@ public class ProductController {
         String maxPriceStr = ctx.queryParam("max");
 
         try {
-            double minPrice = minPriceStr != null ? Double.parseDouble(minPriceStr) : 0;
-            double maxPrice = maxPriceStr != null ? Double.parseDouble(maxPriceStr) : Double.MAX_VALUE;
+            long minPrice = minPriceStr != null ? Money.parse(minPriceStr) : 0;
+            long maxPrice = maxPriceStr != null ? Money.parse(maxPriceStr) : Long.MAX_VALUE;
 
             if (minPrice < 0 || maxPrice < minPrice) {
                 ctx.status(400);
@@ -220,12 +224,82 @@ public class ProductController {
             List<Product> products = productService.getProductsByPriceRange(minPrice, maxPrice);
             ctx.status(200);
             ctx.json(products);
-        } catch (NumberFormatException e) {
+        } catch (NumberFormatException | ArithmeticException e) {
             ctx.status(400);
             ctx.json(new ErrorMessage("Invalid price format. Please provide numeric values."));
         }
     }
 
+    /**
+     * Combined filter: ?min=&max=&inStock=true&q=&offset=&limit=, returns one page plus price and stock facets
+     */
+    public void queryProductsHandler(Context ctx) {
+        try {
+            ProductQuery query = new ProductQuery();
+
+            String minPriceStr = ctx.queryParam("min");
+            String maxPriceStr = ctx.queryParam("max");
+            String offsetStr = ctx.queryParam("offset");
+            String limitStr = ctx.queryParam("limit");
+
+            if (minPriceStr != null) {
+                query.setMinPrice(Money.parse(minPriceStr));
+            }
+            if (maxPriceStr != null) {
+                query.setMaxPrice(Money.parse(maxPriceStr));
+            }
+            query.setInStockOnly(Boolean.parseBoolean(ctx.queryParam("inStock")));
+            query.setKeyword(ctx.queryParam("q"));
+            if (offsetStr != null) {
+                query.setOffset(Integer.parseInt(offsetStr));
+            }
+            if (limitStr != null) {
+                query.setLimit(Integer.parseInt(limitStr));
+            }
+
+            if (query.getLimit() > 1000) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("limit must be between 1 and 1000"));
+                return;
+            }
+
+            ProductQueryResult result = productService.queryProducts(query);
+            if (result == null) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("Invalid query. Prices and offset must be >= 0, max price must be >= min price and limit must be > 0."));
+                return;
+            }
+
+            ctx.status(200);
+            ctx.json(result);
+        } catch (NumberFormatException | ArithmeticException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid number format. Please provide numeric values."));
+        }
+    }
+
+    /**
+     * Typeahead: ?q=<what was typed so far>&limit=, answered from memory on every keystroke
+     */
+    public void suggestProductsHandler(Context ctx) {
+        try {
+            String limitStr = ctx.queryParam("limit");
+            int limit = limitStr != null ? Integer.parseInt(limitStr) : SuggestionTrie.MAX_SUGGESTIONS;
+
+            if (limit <= 0 || limit > SuggestionTrie.MAX_SUGGESTIONS) {
+                ctx.status(400);
+                ctx.json(new ErrorMessage("limit must be between 1 and " + SuggestionTrie.MAX_SUGGESTIONS));
+                return;
+            }
+
+            ctx.status(200);
+            ctx.json(productService.suggestProducts(ctx.queryParam("q"), limit));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            ctx.json(new ErrorMessage("Invalid limit format. Please provide a numeric value."));
+        }
+    }
+
     public void getProductsInStockHandler(Context ctx) {
         List<Product> products = productService.getAvailableProducts();
         ctx.status(200);
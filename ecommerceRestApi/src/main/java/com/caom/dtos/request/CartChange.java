@@ -0,0 +1,53 @@
+package com.caom.dtos.request;
+
+/**
+ * One line of a bulk cart request
+ */
+public class CartChange {
+
+    public enum Operation {
+        // Add quantity to what's already in the cart
+        ADD,
+        // Replace the quantity in the cart, 0 removes the line
+        SET,
+        // Remove the line, quantity is ignored
+        REMOVE
+    }
+
+    private int productId;
+    private int quantity;
+    private Operation operation = Operation.ADD;
+
+    public CartChange() {
+    }
+
+    public CartChange(int productId, int quantity, Operation operation) {
+        this.productId = productId;
+        this.quantity = quantity;
+        this.operation = operation;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(Operation operation) {
+        this.operation = operation;
+    }
+}
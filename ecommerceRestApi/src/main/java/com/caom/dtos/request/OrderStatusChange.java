@@ -0,0 +1,36 @@
+package com.caom.dtos.request;
+
+import java.util.List;
+
+/**
+ * Body of a bulk order status request
+ */
+public class OrderStatusChange {
+
+    private String status;
+    private List<Integer> orderIds;
+
+    public OrderStatusChange() {
+    }
+
+    public OrderStatusChange(String status, List<Integer> orderIds) {
+        this.status = status;
+        this.orderIds = orderIds;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public List<Integer> getOrderIds() {
+        return orderIds;
+    }
+
+    public void setOrderIds(List<Integer> orderIds) {
+        this.orderIds = orderIds;
+    }
+}
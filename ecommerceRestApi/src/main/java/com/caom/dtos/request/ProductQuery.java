@@ -0,0 +1,69 @@
+package com.caom.dtos.request;
+
+/**
+ * Combined product filter used by /products/query. Every criterion is optional and they are ANDed together.
+ */
+public class ProductQuery {
+
+    // Minor units (cents), see Money
+    private long minPrice = 0;
+    private long maxPrice = Long.MAX_VALUE;
+    private boolean inStockOnly;
+    private String keyword;
+    private int offset = 0;
+    private int limit = 50;
+
+    public ProductQuery() {
+    }
+
+    public long getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(long minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public long getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(long maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public boolean isInStockOnly() {
+        return inStockOnly;
+    }
+
+    public void setInStockOnly(boolean inStockOnly) {
+        this.inStockOnly = inStockOnly;
+    }
+
+    /**
+     * @return The search term, or null to match every product
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    public void setKeyword(String keyword) {
+        this.keyword = keyword;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,76 @@
+package com.caom.dtos.response;
+
+/**
+ * A cart line that can't be ordered as it is
+ */
+public class CartShortfall {
+
+    private int cartItemId;
+    private int productId;
+    // Null if the product no longer exists
+    private String productName;
+    private int requested;
+    private int available;
+    // How many units to take off the line
+    private int shortfall;
+
+    public CartShortfall() {
+    }
+
+    public CartShortfall(int cartItemId, int productId, String productName, int requested, int available) {
+        this.cartItemId = cartItemId;
+        this.productId = productId;
+        this.productName = productName;
+        this.requested = requested;
+        this.available = available;
+        this.shortfall = requested - available;
+    }
+
+    public int getCartItemId() {
+        return cartItemId;
+    }
+
+    public void setCartItemId(int cartItemId) {
+        this.cartItemId = cartItemId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public void setProductName(String productName) {
+        this.productName = productName;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    public void setRequested(int requested) {
+        this.requested = requested;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(int available) {
+        this.available = available;
+    }
+
+    public int getShortfall() {
+        return shortfall;
+    }
+
+    public void setShortfall(int shortfall) {
+        this.shortfall = shortfall;
+    }
+}
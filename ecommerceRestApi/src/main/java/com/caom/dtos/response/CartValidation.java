@@ -0,0 +1,56 @@
+package com.caom.dtos.response;
+
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CartValidation {
+
+    private int itemCount;
+    // Price of every line whose product still exists, minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    private long total;
+    private List<CartShortfall> shortfalls = new ArrayList<>();
+
+    public CartValidation() {
+    }
+
+    public CartValidation(int itemCount, long total, List<CartShortfall> shortfalls) {
+        this.itemCount = itemCount;
+        this.total = total;
+        this.shortfalls = shortfalls;
+    }
+
+    /**
+     * @return true if every line can be ordered as it is
+     */
+    public boolean isValid() {
+        return shortfalls.isEmpty();
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public void setItemCount(int itemCount) {
+        this.itemCount = itemCount;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public List<CartShortfall> getShortfalls() {
+        return shortfalls;
+    }
+
+    public void setShortfalls(List<CartShortfall> shortfalls) {
+        this.shortfalls = shortfalls;
+    }
+}
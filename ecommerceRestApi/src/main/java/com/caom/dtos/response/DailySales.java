@@ -0,0 +1,46 @@
+package com.caom.dtos.response;
+
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+public class DailySales {
+
+    private String date;
+    private long orders;
+    // Minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    private long revenue;
+
+    public DailySales() {
+    }
+
+    public DailySales(String date, long orders, long revenue) {
+        this.date = date;
+        this.orders = orders;
+        this.revenue = revenue;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+
+    public void setOrders(long orders) {
+        this.orders = orders;
+    }
+
+    public long getRevenue() {
+        return revenue;
+    }
+
+    public void setRevenue(long revenue) {
+        this.revenue = revenue;
+    }
+}
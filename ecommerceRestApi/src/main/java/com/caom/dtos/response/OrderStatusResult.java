@@ -0,0 +1,58 @@
+package com.caom.dtos.response;
+
+import com.caom.models.OrderStatus;
+
+/**
+ * Outcome of one order in a bulk status update
+ */
+public class OrderStatusResult {
+
+    private int orderId;
+    private boolean updated;
+    // The order's status after the request, null if it doesn't exist
+    private OrderStatus status;
+    // Why it wasn't updated, null if it was
+    private String error;
+
+    public OrderStatusResult() {
+    }
+
+    public OrderStatusResult(int orderId, boolean updated, OrderStatus status, String error) {
+        this.orderId = orderId;
+        this.updated = updated;
+        this.status = status;
+        this.error = error;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(int orderId) {
+        this.orderId = orderId;
+    }
+
+    public boolean isUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(boolean updated) {
+        this.updated = updated;
+    }
+
+    public OrderStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(OrderStatus status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,58 @@
+package com.caom.dtos.response;
+
+import com.caom.models.Product;
+
+import java.util.List;
+import java.util.Map;
+
+public class ProductQueryResult {
+
+    // Number of products matching the filter, before pagination
+    private int total;
+    private List<Product> products;
+    private Map<String, Long> priceFacets;
+    private Map<String, Long> stockFacets;
+
+    public ProductQueryResult() {
+    }
+
+    public ProductQueryResult(int total, List<Product> products, Map<String, Long> priceFacets,
+                              Map<String, Long> stockFacets) {
+        this.total = total;
+        this.products = products;
+        this.priceFacets = priceFacets;
+        this.stockFacets = stockFacets;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<Product> products) {
+        this.products = products;
+    }
+
+    public Map<String, Long> getPriceFacets() {
+        return priceFacets;
+    }
+
+    public void setPriceFacets(Map<String, Long> priceFacets) {
+        this.priceFacets = priceFacets;
+    }
+
+    public Map<String, Long> getStockFacets() {
+        return stockFacets;
+    }
+
+    public void setStockFacets(Map<String, Long> stockFacets) {
+        this.stockFacets = stockFacets;
+    }
+}
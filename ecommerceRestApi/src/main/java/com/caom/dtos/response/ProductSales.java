@@ -0,0 +1,46 @@
+package com.caom.dtos.response;
+
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+public class ProductSales {
+
+    private int productId;
+    private long unitsSold;
+    // Minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    private long revenue;
+
+    public ProductSales() {
+    }
+
+    public ProductSales(int productId, long unitsSold, long revenue) {
+        this.productId = productId;
+        this.unitsSold = unitsSold;
+        this.revenue = revenue;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public void setUnitsSold(long unitsSold) {
+        this.unitsSold = unitsSold;
+    }
+
+    public long getRevenue() {
+        return revenue;
+    }
+
+    public void setRevenue(long revenue) {
+        this.revenue = revenue;
+    }
+}
@@ -0,0 +1,26 @@
+package com.caom.eventlog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * In-memory state derived from the order event log, which can be snapshotted and rebuilt by replay
+ */
+public interface EventProjection {
+
+    /**
+     * Apply one event. Called in log order, never concurrently.
+     */
+    void apply(OrderEvent event);
+
+    /**
+     * Write the current state into a snapshot
+     */
+    void writeState(DataOutputStream out) throws IOException;
+
+    /**
+     * Replace the current state with the one written by writeState
+     */
+    void readState(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,92 @@
+package com.caom.eventlog;
+
+import com.caom.models.OrderItem;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Units of each product currently taken out of stock by orders: added when an order is created, given back when
+ * its stock is restored. Rebuilt from the order event log, so it can be reconciled against product.stock.
+ */
+public class InventoryLedger implements EventProjection {
+
+    private final Map<Integer, AtomicLong> heldUnits = new ConcurrentHashMap<>();
+
+    @Override
+    public void apply(OrderEvent event) {
+        int sign;
+        if (event.getType() == OrderEventType.ORDER_CREATED) {
+            sign = 1;
+        } else if (event.getType() == OrderEventType.STOCK_RESTORED) {
+            sign = -1;
+        } else {
+            return;
+        }
+
+        if (event.getOrder().getOrderItems() == null) {
+            return;
+        }
+        for (OrderItem item : event.getOrder().getOrderItems()) {
+            heldUnits.computeIfAbsent(item.getProductId(), id -> new AtomicLong())
+                    .addAndGet((long) sign * item.getQuantity());
+        }
+    }
+
+    /**
+     * @param productId The product ID
+     * @return Units of the product held by orders
+     */
+    public long getHeldUnits(int productId) {
+        AtomicLong units = heldUnits.get(productId);
+        return units != null ? units.get() : 0;
+    }
+
+    /**
+     * @return Units held by orders for every product that has any
+     */
+    public Map<Integer, Long> getHeldUnits() {
+        Map<Integer, Long> units = new HashMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : heldUnits.entrySet()) {
+            if (entry.getValue().get() != 0) {
+                units.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Replace every count, e.g. with totals rebuilt from the database
+     * @param units Units held by orders per product
+     */
+    public void reset(Map<Integer, Long> units) {
+        heldUnits.clear();
+        for (Map.Entry<Integer, Long> entry : units.entrySet()) {
+            heldUnits.put(entry.getKey(), new AtomicLong(entry.getValue()));
+        }
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        Map<Integer, Long> units = getHeldUnits();
+        out.writeInt(units.size());
+        for (Map.Entry<Integer, Long> entry : units.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        heldUnits.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            heldUnits.put(in.readInt(), new AtomicLong(in.readLong()));
+        }
+    }
+}
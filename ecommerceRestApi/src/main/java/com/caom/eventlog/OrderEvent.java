@@ -0,0 +1,46 @@
+package com.caom.eventlog;
+
+import com.caom.models.Order;
+import com.caom.models.OrderStatus;
+
+/**
+ * One entry of the order event log. Every event carries the whole order (with its items) as it was after the
+ * change, so replaying one never needs any other state.
+ */
+public class OrderEvent {
+
+    private final long sequence;
+    private final long timestamp;
+    private final OrderEventType type;
+    private final Order order;
+    // Only for ORDER_STATUS_CHANGED
+    private final OrderStatus oldStatus;
+
+    public OrderEvent(long sequence, long timestamp, OrderEventType type, Order order, OrderStatus oldStatus) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.order = order;
+        this.oldStatus = oldStatus;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public OrderEventType getType() {
+        return type;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public OrderStatus getOldStatus() {
+        return oldStatus;
+    }
+}
@@ -0,0 +1,525 @@
+package com.caom.eventlog;
+
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of order and stock events, written sequentially to segment files in one directory. It is the
+ * audit trail of every order change made through this instance, and the source the in-memory projections (sales
+ * analytics, inventory ledger) are rebuilt from at startup: load the latest snapshot, then replay only the events
+ * after it.
+ *
+ * Segments are named events-&lt;first sequence&gt;.log and rolled at segmentBytes. Each record is
+ *   int length, length bytes of body, int CRC32 of the body
+ * and the body (big endian) is
+ *   byte type, long sequence, long timestamp, int orderId, int userId, long totalPrice, byte status,
+ *   long createdAt (-1 for null), short itemCount, itemCount x [int productId, int quantity, long price],
+ *   byte oldStatus (-1 for none).
+ *
+ * Appends go straight to the file channel, a background thread forces them to disk every flushMillis. A crash can
+ * leave a torn record at the end of the last segment, recover() cuts it off. The snapshot (magic, version,
+ * sequence, every projection's state, CRC32) is written every snapshotEvery events and on shutdown, to a temporary
+ * file that is moved into place.
+ */
+public class OrderEventLog {
+
+    private static final int SNAPSHOT_MAGIC = 0x4F45564C; // "OEVL"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_NAME = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Anything bigger is a corrupt length, not a record
+    private static final int MAX_RECORD_BYTES = 1 << 24;
+
+    private final Logger logger = LoggerFactory.getLogger(OrderEventLog.class);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int snapshotEvery;
+    private final List<EventProjection> projections = new CopyOnWriteArrayList<>();
+
+    private FileChannel segment;
+    private long lastSequence;
+    private int eventsSinceSnapshot;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * @param directory Where the segments and the snapshot live, created if missing
+     * @param segmentBytes Size at which a new segment is started
+     * @param snapshotEvery Number of events between snapshots
+     */
+    public OrderEventLog(Path directory, long segmentBytes, int snapshotEvery) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Register a projection, before recover()
+     */
+    public void register(EventProjection projection) {
+        projections.add(projection);
+    }
+
+    /**
+     * Open the log and bring every projection up to date: read the latest snapshot and replay the events after it.
+     * A torn record at the end of the log is truncated.
+     * @return true if the projections were restored, false if there is no usable snapshot and the caller has to
+     * rebuild them some other way (and should then call writeSnapshot())
+     * @throws IOException If the log can't be opened, or is corrupt anywhere but at its end
+     */
+    public synchronized boolean recover() throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+
+        long snapshotSequence = readSnapshot();
+        // Without a snapshot the projections are rebuilt elsewhere, so only find where the log ends
+        long[] replayed = new long[1];
+        lastSequence = replay(snapshotSequence < 0 ? Long.MAX_VALUE : snapshotSequence, true, event -> {
+            for (EventProjection projection : projections) {
+                projection.apply(event);
+            }
+            replayed[0]++;
+        });
+        if (snapshotSequence > lastSequence) {
+            // The segments were removed, carry on numbering after the snapshot
+            lastSequence = snapshotSequence;
+        }
+
+        openSegmentForAppend();
+        eventsSinceSnapshot = (int) replayed[0];
+
+        if (snapshotSequence < 0) {
+            logger.info("No order event snapshot, log ends at sequence " + lastSequence);
+            return false;
+        }
+        logger.info("Order events recovered from snapshot at sequence " + snapshotSequence + " plus " +
+                replayed[0] + " events in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    /**
+     * Force appended events to disk every flushMillis
+     */
+    public void startFlushing(long flushMillis) {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-event-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append an event and apply it to every projection
+     * @param type What happened
+     * @param order The order after the change, with its items
+     * @param oldStatus The status before the change, for ORDER_STATUS_CHANGED (null otherwise)
+     * @return The logged event
+     */
+    public synchronized OrderEvent append(OrderEventType type, Order order, OrderStatus oldStatus) {
+        OrderEvent event = new OrderEvent(lastSequence + 1, System.currentTimeMillis(), type, order, oldStatus);
+
+        long recordStart = -1;
+        try {
+            ByteBuffer record = encode(event);
+            if (segment.position() > 0 && segment.position() + record.remaining() > segmentBytes) {
+                segment.force(false);
+                segment.close();
+                segment = openSegment(event.getSequence());
+            }
+            recordStart = segment.position();
+            while (record.hasRemaining()) {
+                segment.write(record);
+            }
+        } catch (IOException e) {
+            // The database change already happened, so keep the projections current even if the audit record is lost
+            logger.error("Could not append order event " + event.getSequence() + ": ", e);
+            discardPartialRecord(recordStart);
+        }
+        lastSequence = event.getSequence();
+
+        for (EventProjection projection : projections) {
+            projection.apply(event);
+        }
+
+        if (++eventsSinceSnapshot >= snapshotEvery) {
+            eventsSinceSnapshot = 0;
+            if (flusher != null) {
+                // Only the serialization needs this lock, don't make the caller wait for the file
+                flusher.execute(this::writeSnapshot);
+            } else {
+                writeSnapshot();
+            }
+        }
+        return event;
+    }
+
+    // A half-written record would make every record after it unreadable
+    private void discardPartialRecord(long recordStart) {
+        if (recordStart < 0) {
+            return;
+        }
+        try {
+            segment.truncate(recordStart);
+            segment.position(recordStart);
+        } catch (IOException e) {
+            logger.error("Could not discard a partial order event record: ", e);
+        }
+    }
+
+    /**
+     * Read logged events, e.g. for auditing
+     * @param afterSequence Only events after this sequence
+     * @param limit Maximum number of events
+     * @return Up to limit events, oldest first
+     */
+    public List<OrderEvent> readEvents(long afterSequence, int limit) throws IOException {
+        List<OrderEvent> events = new ArrayList<>();
+        long until;
+        synchronized (this) {
+            flush();
+            until = lastSequence;
+        }
+        for (Path file : segmentsFrom(afterSequence + 1)) {
+            if (readSegment(file, afterSequence, until, false, event -> {
+                if (events.size() < limit) {
+                    events.add(event);
+                }
+            }) < 0 || events.size() >= limit) {
+                break;
+            }
+        }
+        return events;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Snapshot every projection at the current sequence
+     * @return true if the snapshot was written
+     */
+    public boolean writeSnapshot() {
+        long sequence;
+        byte[] state;
+        // Serialize under the append lock so the state matches the sequence exactly, write the file outside it
+        synchronized (this) {
+            sequence = lastSequence;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(sequence);
+                for (EventProjection projection : projections) {
+                    projection.writeState(out);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+                out.writeLong(crc.getValue());
+                state = bytes.toByteArray();
+            } catch (IOException e) {
+                logger.error("Could not serialize order event snapshot: ", e);
+                return false;
+            }
+            eventsSinceSnapshot = 0;
+            flush();
+        }
+
+        Path file = directory.resolve(SNAPSHOT_NAME);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, SNAPSHOT_NAME, ".tmp");
+            Files.write(temp, state);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Order event snapshot written at sequence " + sequence);
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not write order event snapshot: ", e);
+            return false;
+        } finally {
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    /**
+     * Stop flushing, write a final snapshot and close the log
+     */
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        writeSnapshot();
+        synchronized (this) {
+            try {
+                if (segment != null) {
+                    segment.force(false);
+                    segment.close();
+                }
+            } catch (IOException e) {
+                logger.error("Could not close the order event log: ", e);
+            }
+        }
+    }
+
+    private synchronized void flush() {
+        try {
+            if (segment != null && segment.isOpen()) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            logger.error("Could not flush the order event log: ", e);
+        }
+    }
+
+    /**
+     * @return The sequence the snapshot was taken at, after loading it into the projections, or -1 if there is none
+     */
+    private long readSnapshot() {
+        Path file = directory.resolve(SNAPSHOT_NAME);
+        if (!Files.exists(file)) {
+            return -1;
+        }
+
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < 24) {
+                throw new IOException("Snapshot is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not an order event snapshot, or written by another version");
+            }
+            long sequence = in.readLong();
+            for (EventProjection projection : projections) {
+                projection.readState(in);
+            }
+            return sequence;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable order event snapshot " + file + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Read every event after afterSequence, cutting a torn tail off the last segment if repair is set
+     * @return The last sequence in the log
+     */
+    private long replay(long afterSequence, boolean repair, Consumer<OrderEvent> consumer) throws IOException {
+        List<Path> segments = segmentsFrom(0);
+        long last = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            boolean tail = i == segments.size() - 1;
+            Path file = segments.get(i);
+            if (!tail && firstSequence(segments.get(i + 1)) - 1 <= afterSequence) {
+                // Every event in here is covered by the snapshot, only the next segment's name matters
+                last = firstSequence(segments.get(i + 1)) - 1;
+                continue;
+            }
+
+            long end = readSegment(file, afterSequence, Long.MAX_VALUE, repair && tail, consumer);
+            if (end < 0) {
+                throw new IOException("Order event segment " + file + " is corrupt");
+            }
+            if (end > 0) {
+                last = end;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Read one segment, passing events with afterSequence &lt; sequence &lt;= until to the consumer
+     * @param truncate Cut the file at the first bad record instead of failing
+     * @return The last sequence read, 0 if the segment is empty, -1 if it has a bad record and truncate is off
+     */
+    private long readSegment(Path file, long afterSequence, long until, boolean truncate,
+                             Consumer<OrderEvent> consumer) throws IOException {
+        long last = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            while (buffer.hasRemaining()) {
+                int position = buffer.position();
+                OrderEvent event = decode(buffer);
+                if (event == null) {
+                    if (!truncate) {
+                        return -1;
+                    }
+                    logger.warn("Truncating torn order event record at " + file + ":" + position);
+                    channel.truncate(position);
+                    break;
+                }
+                if (event.getSequence() > until) {
+                    break;
+                }
+                last = event.getSequence();
+                if (event.getSequence() > afterSequence) {
+                    consumer.accept(event);
+                }
+            }
+        }
+        return last;
+    }
+
+    private void openSegmentForAppend() throws IOException {
+        List<Path> segments = segmentsFrom(0);
+        segment = segments.isEmpty()
+                ? openSegment(lastSequence + 1)
+                : FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE);
+        segment.position(segment.size());
+    }
+
+    private FileChannel openSegment(long firstSequence) throws IOException {
+        Path file = directory.resolve(SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return The segments that can contain sequence or anything after it, in order
+     */
+    private List<Path> segmentsFrom(long sequence) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // Zero padded, so name order is sequence order
+        segments.sort(null);
+
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (firstSequence(segments.get(i)) <= sequence) {
+                first = i;
+            }
+        }
+        return segments.subList(first, segments.size());
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static ByteBuffer encode(OrderEvent event) {
+        Order order = event.getOrder();
+        List<OrderItem> items = order.getOrderItems() != null ? order.getOrderItems() : new ArrayList<>();
+
+        int bodyLength = 1 + 8 + 8 + 4 + 4 + 8 + 1 + 8 + 2 + items.size() * 16 + 1;
+        ByteBuffer record = ByteBuffer.allocate(4 + bodyLength + 4);
+        record.putInt(bodyLength);
+        record.put(event.getType().getCode());
+        record.putLong(event.getSequence());
+        record.putLong(event.getTimestamp());
+        record.putInt(order.getOrderId());
+        record.putInt(order.getUserId());
+        record.putLong(order.getTotalPrice());
+        record.put((byte) order.getStatus().ordinal());
+        record.putLong(order.getCreatedAt() != null ? order.getCreatedAt().getTime() : -1);
+        record.putShort((short) items.size());
+        for (OrderItem item : items) {
+            record.putInt(item.getProductId());
+            record.putInt(item.getQuantity());
+            record.putLong(item.getPrice());
+        }
+        record.put(event.getOldStatus() != null ? (byte) event.getOldStatus().ordinal() : -1);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, bodyLength);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * @return The next event, or null if the buffer holds a torn or corrupt record there (position is then undefined)
+     */
+    static OrderEvent decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int bodyLength = buffer.getInt();
+        if (bodyLength <= 0 || bodyLength > MAX_RECORD_BYTES || buffer.remaining() < bodyLength + 4) {
+            return null;
+        }
+
+        int bodyStart = buffer.position();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyStart + bodyLength);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if (buffer.getInt(bodyStart + bodyLength) != (int) crc.getValue()) {
+            return null;
+        }
+
+        try {
+            OrderEventType type = OrderEventType.fromCode(buffer.get());
+            long sequence = buffer.getLong();
+            long timestamp = buffer.getLong();
+
+            Order order = new Order();
+            order.setOrderId(buffer.getInt());
+            order.setUserId(buffer.getInt());
+            order.setTotalPrice(buffer.getLong());
+            order.setStatus(OrderStatus.values()[buffer.get()]);
+            long createdAt = buffer.getLong();
+            order.setCreatedAt(createdAt >= 0 ? new Timestamp(createdAt) : null);
+            int itemCount = buffer.getShort() & 0xFFFF;
+            List<OrderItem> items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                items.add(new OrderItem(order.getOrderId(), buffer.getInt(), buffer.getInt(), buffer.getLong()));
+            }
+            order.setOrderItems(items);
+            byte oldStatus = buffer.get();
+
+            buffer.position(bodyStart + bodyLength + 4);
+            return new OrderEvent(sequence, timestamp, type, order,
+                    oldStatus >= 0 ? OrderStatus.values()[oldStatus] : null);
+        } catch (RuntimeException e) {
+            // Checksum matched but the body doesn't parse, e.g. written by a newer version
+            return null;
+        }
+    }
+}
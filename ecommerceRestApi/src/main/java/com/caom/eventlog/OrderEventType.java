@@ -0,0 +1,31 @@
+package com.caom.eventlog;
+
+/**
+ * Kinds of record in the order event log. The code is what's written to disk, so never reuse one.
+ */
+public enum OrderEventType {
+    ORDER_CREATED(1),
+    ORDER_STATUS_CHANGED(2),
+    ORDER_DELETED(3),
+    // Items of an order went back into stock (cancelled, or deleted before being cancelled)
+    STOCK_RESTORED(4);
+
+    private final byte code;
+
+    OrderEventType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static OrderEventType fromCode(byte code) {
+        for (OrderEventType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown order event type " + code);
+    }
+}
@@ -0,0 +1,47 @@
+package com.caom.eventlog;
+
+import com.caom.analytics.SalesAnalytics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Feeds order events into the SalesAnalytics totals
+ */
+public class SalesAnalyticsProjection implements EventProjection {
+
+    private final SalesAnalytics salesAnalytics;
+
+    public SalesAnalyticsProjection(SalesAnalytics salesAnalytics) {
+        this.salesAnalytics = salesAnalytics;
+    }
+
+    @Override
+    public void apply(OrderEvent event) {
+        switch (event.getType()) {
+            case ORDER_CREATED:
+                salesAnalytics.add(event.getOrder());
+                break;
+            case ORDER_STATUS_CHANGED:
+                salesAnalytics.changeStatus(event.getOrder(), event.getOldStatus(), event.getOrder().getStatus());
+                break;
+            case ORDER_DELETED:
+                salesAnalytics.remove(event.getOrder());
+                break;
+            default:
+                // Stock movements don't change sales
+                break;
+        }
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        salesAnalytics.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInputStream in) throws IOException {
+        salesAnalytics.readState(in);
+    }
+}
@@ -0,0 +1,12 @@
+package com.caom.exceptions;
+
+public class IdempotencyKeyReusedException extends Exception {
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+
+    public IdempotencyKeyReusedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package com.caom.exceptions;
+
+public class OrderQueueFullException extends Exception {
+
+    public OrderQueueFullException(String message) {
+        super(message);
+    }
+
+    public OrderQueueFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,5 +1,11 @@
 package com.caom.models;
 
+import com.caom.util.Money;
+import com.caom.util.MoneyDeserializer;
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.time.ZonedDateTime;
@@ -9,7 +15,10 @@ import java.util.List;
 public class Order {
     private int orderId;
     private int userId;
-    private double totalPrice;
+    // Minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    @JsonDeserialize(using = MoneyDeserializer.class)
+    private long totalPrice;
     private OrderStatus status;
     private Timestamp createdAt;
     private List<OrderItem> orderItems;
@@ -19,7 +28,7 @@ public class Order {
         this.status = OrderStatus.PENDING;
     }
 
-    public Order(int userId, double totalPrice) {
+    public Order(int userId, long totalPrice) {
         this.userId = userId;
         this.totalPrice = totalPrice;
         this.status = OrderStatus.PENDING;
@@ -42,11 +51,11 @@ public class Order {
         this.userId = userId;
     }
 
-    public double getTotalPrice() {
+    public long getTotalPrice() {
         return totalPrice;
     }
 
-    public void setTotalPrice(double totalPrice) {
+    public void setTotalPrice(long totalPrice) {
         this.totalPrice = totalPrice;
     }
 
@@ -79,7 +88,7 @@ public class Order {
         return "Order{" +
                 "orderId=" + orderId +
                 ", userId=" + userId +
-                ", totalPrice=" + totalPrice +
+                ", totalPrice=" + Money.format(totalPrice) +
                 ", status=" + status +
                 ", createdAt=" + createdAt +
                 ", items=" + (orderItems != null ? orderItems.size() : 0) +
@@ -1,5 +1,11 @@
 package com.caom.models;
 
+import com.caom.util.Money;
+import com.caom.util.MoneyDeserializer;
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import java.math.BigDecimal;
 
 public class OrderItem {
@@ -7,7 +13,10 @@ public class OrderItem {
     private int orderId;
     private int productId;
     private int quantity;
-    private double price;
+    // Minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    @JsonDeserialize(using = MoneyDeserializer.class)
+    private long price;
     private String productName; // Optional field for display purposes, not stored in DB
 
     // Constructors
@@ -19,7 +28,7 @@ public class OrderItem {
         this.quantity = quantity;
     }
 
-    public OrderItem(int orderId, int productId, int quantity, double price) {
+    public OrderItem(int orderId, int productId, int quantity, long price) {
         this.orderId = orderId;
         this.productId = productId;
         this.quantity = quantity;
@@ -59,11 +68,11 @@ public class OrderItem {
         this.quantity = quantity;
     }
 
-    public double getPrice() {
+    public long getPrice() {
         return price;
     }
 
-    public void setPrice(double price) {
+    public void setPrice(long price) {
         this.price = price;
     }
 
@@ -77,10 +86,11 @@ public class OrderItem {
 
     /**
      * Calculate the total price for this item (price × quantity)
-     * @return The total price for this item
+     * @return The total price for this item, in minor units
      */
-    public double getSubtotal() {
-        return price * quantity;
+    @JsonSerialize(using = MoneySerializer.class)
+    public long getSubtotal() {
+        return Money.times(price, quantity);
     }
 
     @Override
@@ -90,7 +100,7 @@ public class OrderItem {
                 ", orderId=" + orderId +
                 ", productId=" + productId +
                 ", quantity=" + quantity +
-                ", price=" + price +
+                ", price=" + Money.format(price) +
                 '}';
     }
 }
\ No newline at end of file
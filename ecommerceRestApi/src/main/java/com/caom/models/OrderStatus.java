@@ -18,4 +18,20 @@ public enum OrderStatus {
             return PENDING;
         }
     }
+
+    /**
+     * Order lifecycle: PENDING -> SHIPPED -> DELIVERED, and PENDING -> CANCELLED. DELIVERED and CANCELLED are final.
+     * @param next The status to move to
+     * @return true if an order in this status may move to next
+     */
+    public boolean canTransitionTo(OrderStatus next) {
+        switch (this) {
+            case PENDING:
+                return next == SHIPPED || next == CANCELLED;
+            case SHIPPED:
+                return next == DELIVERED;
+            default:
+                return false;
+        }
+    }
 }
\ No newline at end of file
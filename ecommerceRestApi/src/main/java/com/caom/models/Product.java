@@ -1,11 +1,19 @@
 package com.caom.models;
 
+import com.caom.util.MoneyDeserializer;
+import com.caom.util.MoneySerializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 public class Product {
 
     private int productId;
     private String name;
     private String description;
-    private double price;
+    // Minor units (cents), see Money
+    @JsonSerialize(using = MoneySerializer.class)
+    @JsonDeserialize(using = MoneyDeserializer.class)
+    private long price;
     private int stock;
 
     public int getProductId() {
@@ -32,11 +40,11 @@ public class Product {
         this.description = description;
     }
 
-    public double getPrice() {
+    public long getPrice() {
         return price;
     }
 
-    public void setPrice(double price) {
+    public void setPrice(long price) {
         this.price = price;
     }
 
@@ -0,0 +1,56 @@
+package com.caom.models;
+
+/**
+ * One row of the product_changes log: a product was inserted, updated or deleted
+ */
+public class ProductChange {
+
+    private long changeId;
+    private int productId;
+    // I, U or D
+    private String operation;
+    // True once the change is old enough that no change with a lower ID can still commit
+    private boolean settled;
+
+    public ProductChange() {
+    }
+
+    public ProductChange(long changeId, int productId, String operation, boolean settled) {
+        this.changeId = changeId;
+        this.productId = productId;
+        this.operation = operation;
+        this.settled = settled;
+    }
+
+    public long getChangeId() {
+        return changeId;
+    }
+
+    public void setChangeId(long changeId) {
+        this.changeId = changeId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public void setSettled(boolean settled) {
+        this.settled = settled;
+    }
+}
@@ -0,0 +1,280 @@
+package com.caom.pipeline;
+
+import com.caom.models.Order;
+import com.caom.repos.order.OrderDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for order inserts.
+ *
+ * Concurrent createOrder calls hand their order to this writer instead of opening their own transaction. A writer
+ * thread waits a short window (or until the batch is full), then writes every collected order and its items in one
+ * transaction with multi-row inserts and hands each caller back its own saved order.
+ *
+ * Every writer thread commits on a connection of its own, a transaction on the shared connection would take in
+ * whatever other threads run on it at the same time.
+ */
+public class OrderGroupCommitWriter {
+
+    private final Logger logger = LoggerFactory.getLogger(OrderGroupCommitWriter.class);
+
+    private final OrderDAO orderDAO;
+    private final Supplier<Connection> connectionFactory;
+    private final BlockingQueue<PendingWrite> queue;
+    private final List<Thread> writerThreads = new ArrayList<>();
+
+    // Tunable while running, each batch reads them once when it starts
+    private volatile int maxBatchSize;
+    private volatile long maxWaitNanos;
+    private volatile long callerTimeoutMillis;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param connectionFactory Opens a new connection for a writer thread, e.g. ConnectionUtil::openConnection.
+     *                          It may return null if the database can't be reached.
+     * @param queueCapacity How many orders can wait to be written before callers are rejected
+     * @param writers Number of writer threads (each one commits its own batches)
+     * @param maxBatchSize Maximum number of orders per transaction
+     * @param maxWaitMicros How long a writer waits for more orders after the first one arrives
+     * @param callerTimeoutMillis How long a caller waits for its order to be committed
+     */
+    public OrderGroupCommitWriter(OrderDAO orderDAO, Supplier<Connection> connectionFactory, int queueCapacity,
+                                  int writers, int maxBatchSize, long maxWaitMicros, long callerTimeoutMillis) {
+        this.orderDAO = orderDAO;
+        this.connectionFactory = connectionFactory;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.callerTimeoutMillis = callerTimeoutMillis;
+
+        for (int i = 0; i < writers; i++) {
+            Thread t = new Thread(this::runWriter, "order-group-commit-" + i);
+            t.setDaemon(true);
+            t.start();
+            writerThreads.add(t);
+        }
+    }
+
+    /**
+     * Write an order (with its items) as part of the next group commit and wait for it
+     * @param order The order to create, with its order items set
+     * @param onFailure Runs once if the order ends up not being saved, even when that is only known after the caller
+     *                  stopped waiting, e.g. to give back the stock taken for it (may be null)
+     * @return The saved order with its generated ID
+     * @throws Exception if the batch could not be written or the commit took too long
+     */
+    public Order write(Order order, Consumer<Order> onFailure) throws Exception {
+        PendingWrite pending = new PendingWrite(order, onFailure);
+
+        boolean queued;
+        try {
+            queued = running && queue.offer(pending, callerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pending.fail(e);
+            throw e;
+        }
+        if (!queued) {
+            IllegalStateException e = new IllegalStateException("Order writer is overloaded, please try again shortly");
+            pending.fail(e);
+            throw e;
+        }
+
+        try {
+            return pending.future.get(callerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            // The order may still be committed later, but the caller can't wait any longer. If it isn't, onFailure
+            // still runs when the batch fails.
+            throw new TimeoutException("Timed out waiting for the order to be saved");
+        }
+    }
+
+    /**
+     * Stop the writer threads once the queue is drained
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread t : writerThreads) {
+            try {
+                t.join(callerTimeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param maxBatchSize Maximum number of orders per transaction, from the next batch on
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param maxWaitMicros How long a writer waits for more orders after the first one arrives, from the next batch on
+     */
+    public void setMaxWaitMicros(long maxWaitMicros) {
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+    }
+
+    /**
+     * @param callerTimeoutMillis How long a caller waits for its order to be committed
+     */
+    public void setCallerTimeoutMillis(long callerTimeoutMillis) {
+        this.callerTimeoutMillis = callerTimeoutMillis;
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        Connection conn = null;
+
+        try {
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+
+                    // Keep collecting until the batch is full or the window closes
+                    int batchLimit = maxBatchSize;
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < batchLimit) {
+                        queue.drainTo(batch, batchLimit - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= batchLimit || remaining <= 0) {
+                            break;
+                        }
+                        PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    conn = connect(conn);
+                    if (conn == null) {
+                        failAll(batch, new IllegalStateException("Could not connect to the database"));
+                    } else if (!flush(batch, conn)) {
+                        // The connection may be what broke, start the next batch on a fresh one
+                        closeQuietly(conn);
+                        conn = null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failAll(batch, e);
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error in group commit writer: ", e);
+                    failAll(batch, e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Helper method to keep using the writer's connection while it's open, or open a new one
+     * @return The connection, or null if there is none
+     */
+    private Connection connect(Connection conn) {
+        try {
+            if (conn != null && !conn.isClosed()) {
+                return conn;
+            }
+        } catch (SQLException e) {
+            logger.warn("Group commit connection is unusable, opening a new one: " + e.getMessage());
+        }
+        closeQuietly(conn);
+        return connectionFactory.get();
+    }
+
+    private void closeQuietly(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn("Could not close group commit connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to write a batch and hand every caller its outcome
+     * @return true if the batch was saved
+     */
+    private boolean flush(List<PendingWrite> batch, Connection conn) {
+        List<Order> orders = new ArrayList<>(batch.size());
+        for (PendingWrite pending : batch) {
+            orders.add(pending.order);
+        }
+
+        List<Order> saved = orderDAO.createAll(conn, orders);
+
+        if (saved == null) {
+            failAll(batch, new IllegalStateException("The order could not be saved"));
+            return false;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(saved.get(i));
+        }
+        return true;
+    }
+
+    private void failAll(List<PendingWrite> batch, Exception cause) {
+        for (PendingWrite pending : batch) {
+            pending.fail(cause);
+        }
+    }
+
+    private static class PendingWrite {
+        private final Order order;
+        private final Consumer<Order> onFailure;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+
+        private PendingWrite(Order order, Consumer<Order> onFailure) {
+            this.order = order;
+            this.onFailure = onFailure;
+        }
+
+        /**
+         * Fail the write, running onFailure only the first time
+         */
+        private synchronized void fail(Exception cause) {
+            if (future.isDone()) {
+                return;
+            }
+            // Before completing, so whatever onFailure gives back is back by the time the caller hears of it
+            if (onFailure != null) {
+                onFailure.accept(order);
+            }
+            future.completeExceptionally(cause);
+        }
+    }
+}
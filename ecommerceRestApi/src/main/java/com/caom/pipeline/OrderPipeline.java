@@ -0,0 +1,448 @@
+package com.caom.pipeline;
+
+import com.caom.exceptions.IdempotencyKeyReusedException;
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.exceptions.OrderQueueFullException;
+import com.caom.exceptions.ProductNotFoundException;
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.models.Product;
+import com.caom.repos.order.OrderDAO;
+import com.caom.repos.product.ProductDAO;
+import com.caom.util.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Staged, asynchronous order processing: validate -> reserve -> persist -> confirm.
+ *
+ * Each stage has its own bounded queue and worker threads. When a queue is full the stage in front of it blocks,
+ * so a slow database pushes back all the way to submit(), which rejects new requests instead of piling them up.
+ * The persist stage drains several orders at once and writes them in a single transaction, each persist worker on a
+ * connection of its own. A request that fails at any stage gives back whatever stock it had reserved.
+ */
+public class OrderPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(OrderPipeline.class);
+
+    private final OrderDAO orderDAO;
+    private final ProductDAO productDAO;
+    private final Supplier<Connection> connectionFactory;
+    private final Consumer<OrderTicket> confirmListener;
+
+    private final BlockingQueue<OrderTicket> validateQueue;
+    private final BlockingQueue<OrderTicket> reserveQueue;
+    private final BlockingQueue<OrderTicket> persistQueue;
+    private final BlockingQueue<OrderTicket> confirmQueue;
+
+    private final ExecutorService workers;
+    private final Map<String, OrderTicket> tickets = new ConcurrentHashMap<>();
+    // Tickets by user and idempotency key, kept as long as the tickets themselves
+    private final Map<String, OrderTicket> ticketsByKey = new ConcurrentHashMap<>();
+
+    private volatile int persistBatchSize;
+    private volatile long submitTimeoutMillis;
+    private volatile long ticketRetentionMillis;
+
+    private volatile boolean running = true;
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    /**
+     * @param connectionFactory Opens a new connection for a persist worker, e.g. ConnectionUtil::openConnection.
+     *                          It may return null if the database can't be reached.
+     * @param queueCapacity Capacity of each stage queue
+     * @param validateWorkers Threads validating products and prices
+     * @param reserveWorkers Threads decrementing stock
+     * @param persistWorkers Threads writing batches of orders
+     * @param persistBatchSize Maximum number of orders written in one transaction
+     * @param submitTimeoutMillis How long submit() waits for room in the first queue before rejecting
+     * @param ticketRetentionMillis How long finished requests can still be polled
+     * @param confirmListener Called with the ticket of every confirmed order, e.g. to update caches (may be null)
+     */
+    public OrderPipeline(OrderDAO orderDAO, ProductDAO productDAO, Supplier<Connection> connectionFactory,
+                         int queueCapacity, int validateWorkers, int reserveWorkers, int persistWorkers,
+                         int persistBatchSize, long submitTimeoutMillis, long ticketRetentionMillis,
+                         Consumer<OrderTicket> confirmListener) {
+        this.orderDAO = orderDAO;
+        this.productDAO = productDAO;
+        this.connectionFactory = connectionFactory;
+        this.confirmListener = confirmListener;
+        this.persistBatchSize = persistBatchSize;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+        this.ticketRetentionMillis = ticketRetentionMillis;
+
+        this.validateQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.reserveQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.persistQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.confirmQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.workers = Executors.newFixedThreadPool(validateWorkers + reserveWorkers + persistWorkers + 1, r -> {
+            Thread t = new Thread(r, "order-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (int i = 0; i < validateWorkers; i++) {
+            workers.submit(() -> runStage(validateQueue, reserveQueue, this::validate));
+        }
+        for (int i = 0; i < reserveWorkers; i++) {
+            workers.submit(() -> runStage(reserveQueue, persistQueue, this::reserve));
+        }
+        for (int i = 0; i < persistWorkers; i++) {
+            workers.submit(this::runPersistStage);
+        }
+        workers.submit(() -> runStage(confirmQueue, null, this::confirm));
+    }
+
+    /**
+     * Queue a new order request
+     * @param userId User ID of the order owner
+     * @param orderItems Items to order (product ID and quantity)
+     * @return The ticket used to poll the request
+     * @throws OrderQueueFullException if the pipeline is saturated
+     */
+    public OrderTicket submit(int userId, List<OrderItem> orderItems) throws OrderQueueFullException {
+        try {
+            return submit(userId, orderItems, null, null);
+        } catch (IdempotencyKeyReusedException e) {
+            // Can't happen without a key
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queue a new order request at most once per idempotency key. While the first request's ticket is kept, repeats
+     * of the key get that ticket back instead of placing the order again, unless it failed and may be retried.
+     * @param userId User ID of the order owner
+     * @param orderItems Items to order (product ID and quantity)
+     * @param idempotencyKey Key sent by the client, or null to always queue a new request
+     * @param requestHash Hash of the requested items, a repeat of the key must have the same one
+     * @return The ticket used to poll the request
+     * @throws OrderQueueFullException if the pipeline is saturated
+     * @throws IdempotencyKeyReusedException if the key was already used for different items
+     */
+    public OrderTicket submit(int userId, List<OrderItem> orderItems, String idempotencyKey, String requestHash)
+            throws OrderQueueFullException, IdempotencyKeyReusedException {
+        boolean keyed = idempotencyKey != null && !idempotencyKey.trim().isEmpty();
+        OrderTicket ticket = new OrderTicket(UUID.randomUUID().toString(), userId, orderItems,
+                keyed ? idempotencyKey : null, requestHash);
+        purgeFinishedTickets();
+
+        // Keys are scoped per user so two customers can't collide on the same key
+        String scopedKey = keyed ? userId + ":" + idempotencyKey : null;
+        if (keyed) {
+            OrderTicket claimed = ticketsByKey.compute(scopedKey, (key, existing) ->
+                    existing == null || existing.getStatus() == OrderRequestStatus.FAILED ? ticket : existing);
+            if (claimed != ticket) {
+                if (!Objects.equals(claimed.getRequestHash(), requestHash)) {
+                    throw new IdempotencyKeyReusedException(
+                            "This idempotency key was already used for a different request");
+                }
+                return claimed;
+            }
+        }
+        tickets.put(ticket.getRequestId(), ticket);
+
+        boolean accepted;
+        try {
+            accepted = running && validateQueue.offer(ticket, submitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+
+        if (!accepted) {
+            tickets.remove(ticket.getRequestId());
+            if (keyed) {
+                ticketsByKey.remove(scopedKey, ticket);
+            }
+            throw new OrderQueueFullException("Too many orders are being processed, please try again shortly");
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Get a queued or recently finished request
+     * @param requestId The request ID returned by submit
+     * @return The ticket, or null if it is unknown or has expired
+     */
+    public OrderTicket getTicket(String requestId) {
+        return tickets.get(requestId);
+    }
+
+    /**
+     * @param persistBatchSize Maximum number of orders written in one transaction, from the next batch on
+     */
+    public void setPersistBatchSize(int persistBatchSize) {
+        this.persistBatchSize = persistBatchSize;
+    }
+
+    /**
+     * @param submitTimeoutMillis How long submit() waits for room in the first queue before rejecting
+     */
+    public void setSubmitTimeoutMillis(long submitTimeoutMillis) {
+        this.submitTimeoutMillis = submitTimeoutMillis;
+    }
+
+    /**
+     * @param ticketRetentionMillis How long finished requests can still be polled
+     */
+    public void setTicketRetentionMillis(long ticketRetentionMillis) {
+        this.ticketRetentionMillis = ticketRetentionMillis;
+    }
+
+    /**
+     * Stop accepting orders and stop the workers once the queues are drained
+     */
+    public void shutdown() {
+        running = false;
+        workers.shutdown();
+    }
+
+    // ---------------------------------------------------------------- stages
+
+    private interface Stage {
+        void process(OrderTicket ticket) throws Exception;
+    }
+
+    private void runStage(BlockingQueue<OrderTicket> in, BlockingQueue<OrderTicket> out, Stage stage) {
+        while (running || !in.isEmpty()) {
+            OrderTicket ticket = null;
+            try {
+                ticket = in.poll(100, TimeUnit.MILLISECONDS);
+                if (ticket == null) {
+                    continue;
+                }
+
+                stage.process(ticket);
+
+                if (out != null) {
+                    // Blocks when the next stage is full, which is our back-pressure
+                    out.put(ticket);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (ticket != null) {
+                    ticket.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that every product exists and has enough stock, and fill in the prices
+     */
+    private void validate(OrderTicket ticket) throws Exception {
+        long totalPrice = 0;
+
+        for (OrderItem item : ticket.getOrderItems()) {
+            Product product = productDAO.getById(item.getProductId());
+            if (product == null) {
+                throw new ProductNotFoundException("Product with ID " + item.getProductId() + " not found");
+            }
+
+            if (product.getStock() < item.getQuantity()) {
+                throw new InsufficientStockException("Insufficient stock for product: " + product.getName() +
+                        ". Available: " + product.getStock() +
+                        ", Requested: " + item.getQuantity());
+            }
+
+            item.setPrice(product.getPrice());
+            item.setProductName(product.getName());
+            totalPrice = Money.plus(totalPrice, Money.times(product.getPrice(), item.getQuantity()));
+        }
+
+        ticket.setTotalPrice(totalPrice);
+        ticket.setStatus(OrderRequestStatus.VALIDATED);
+    }
+
+    /**
+     * Take the stock with conditional decrements, giving back what we took if any item runs out
+     */
+    private void reserve(OrderTicket ticket) throws Exception {
+        List<OrderItem> reserved = new ArrayList<>();
+
+        try {
+            for (OrderItem item : ticket.getOrderItems()) {
+                if (!productDAO.updateStock(item.getProductId(), -item.getQuantity())) {
+                    throw new InsufficientStockException("Insufficient stock for product ID: " +
+                            item.getProductId());
+                }
+                reserved.add(item);
+            }
+        } catch (Exception e) {
+            releaseStock(reserved);
+            throw e;
+        }
+
+        ticket.setStatus(OrderRequestStatus.RESERVED);
+    }
+
+    private void runPersistStage() {
+        List<OrderTicket> batch = new ArrayList<>(persistBatchSize);
+        Connection conn = null;
+
+        try {
+            while (running || !persistQueue.isEmpty()) {
+                try {
+                    OrderTicket first = persistQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+
+                    // Take whatever else is already waiting so it goes out in the same transaction
+                    batch.add(first);
+                    persistQueue.drainTo(batch, persistBatchSize - 1);
+
+                    conn = connect(conn);
+                    if (!persistBatch(batch, conn)) {
+                        // The connection may be what broke, start the next batch on a fresh one
+                        closeQuietly(conn);
+                        conn = null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failUnsaved(batch, new IllegalStateException("The order pipeline is shutting down"));
+                    return;
+                } catch (Exception e) {
+                    // Anything else only loses this batch, the worker carries on with the next one
+                    logger.error("Unexpected error persisting a batch of " + batch.size() + " orders: ", e);
+                    failUnsaved(batch, new IllegalStateException("The order could not be saved"));
+                    closeQuietly(conn);
+                    conn = null;
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Helper method to keep using the worker's connection while it's open, or open a new one
+     * @return The connection, or null if there is none
+     */
+    private Connection connect(Connection conn) {
+        try {
+            if (conn != null && !conn.isClosed()) {
+                return conn;
+            }
+        } catch (SQLException e) {
+            logger.warn("Persist stage connection is unusable, opening a new one: " + e.getMessage());
+        }
+        closeQuietly(conn);
+        return connectionFactory.get();
+    }
+
+    private void closeQuietly(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn("Could not close persist stage connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to write a batch of reserved orders in one transaction
+     * @return true if the batch was saved
+     */
+    private boolean persistBatch(List<OrderTicket> batch, Connection conn) throws InterruptedException {
+        List<Order> orders = new ArrayList<>(batch.size());
+        for (OrderTicket ticket : batch) {
+            Order order = new Order(ticket.getUserId(), ticket.getTotalPrice());
+            order.setStatus(OrderStatus.PENDING);
+            order.setOrderItems(ticket.getOrderItems());
+            orders.add(order);
+        }
+
+        List<Order> saved = conn != null ? orderDAO.createAll(conn, orders) : null;
+
+        if (saved == null) {
+            logger.error("Failed to persist a batch of " + batch.size() + " orders, releasing their stock");
+            failUnsaved(batch, new IllegalStateException("The order could not be saved"));
+            return false;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            OrderTicket ticket = batch.get(i);
+            ticket.setOrder(saved.get(i));
+            ticket.setStatus(OrderRequestStatus.PERSISTED);
+            confirmQueue.put(ticket);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to fail the tickets of a batch that weren't saved and give back their stock. Tickets already
+     * persisted keep it, their orders exist.
+     */
+    private void failUnsaved(List<OrderTicket> batch, Exception cause) {
+        for (OrderTicket ticket : batch) {
+            if (ticket.getStatus() == OrderRequestStatus.RESERVED) {
+                try {
+                    releaseStock(ticket.getOrderItems());
+                } catch (RuntimeException e) {
+                    logger.error("Could not release the stock of request " + ticket.getRequestId() + ": ", e);
+                }
+                ticket.fail(cause);
+            }
+        }
+    }
+
+    private void confirm(OrderTicket ticket) {
+        if (confirmListener != null) {
+            // The order is saved whatever the listener does, failing the ticket would let a retry create it again
+            try {
+                confirmListener.accept(ticket);
+            } catch (RuntimeException e) {
+                logger.error("Confirm listener failed for order ID: " + ticket.getOrder().getOrderId() + ": ", e);
+            }
+        }
+        ticket.confirm(ticket.getOrder());
+        logger.info("User ID: " + ticket.getUserId() + " created order ID: " + ticket.getOrder().getOrderId() +
+                " (request " + ticket.getRequestId() + ")");
+    }
+
+    private void releaseStock(List<OrderItem> items) {
+        for (OrderItem item : items) {
+            productDAO.updateStock(item.getProductId(), item.getQuantity());
+        }
+    }
+
+    private void purgeFinishedTickets() {
+        long now = System.currentTimeMillis();
+        // No need to walk the whole map on every submit
+        if (now - lastPurge < 1000) {
+            return;
+        }
+        lastPurge = now;
+
+        long cutoff = now - ticketRetentionMillis;
+        tickets.values().removeIf(t -> t.getStatus().isFinal() && t.getCompletedAt() < cutoff);
+        ticketsByKey.values().removeIf(t -> t.getStatus().isFinal() && t.getCompletedAt() < cutoff);
+    }
+}
@@ -0,0 +1,17 @@
+package com.caom.pipeline;
+
+public enum OrderRequestStatus {
+    QUEUED,
+    VALIDATED,
+    RESERVED,
+    PERSISTED,
+    CONFIRMED,
+    FAILED;
+
+    /**
+     * @return true if the request will not move to another status
+     */
+    public boolean isFinal() {
+        return this == CONFIRMED || this == FAILED;
+    }
+}
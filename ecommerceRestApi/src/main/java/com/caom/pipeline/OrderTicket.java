@@ -0,0 +1,130 @@
+package com.caom.pipeline;
+
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tracks one order request while it moves through the OrderPipeline
+ */
+public class OrderTicket {
+
+    private final String requestId;
+    private final int userId;
+    private final List<OrderItem> orderItems;
+    private final String idempotencyKey;
+    private final String requestHash;
+    private final long submittedAt;
+    private final CompletableFuture<Order> result = new CompletableFuture<>();
+
+    private volatile OrderRequestStatus status = OrderRequestStatus.QUEUED;
+    private volatile long totalPrice;
+    private volatile Order order;
+    private volatile String errorMessage;
+    private volatile long completedAt;
+
+    public OrderTicket(String requestId, int userId, List<OrderItem> orderItems) {
+        this(requestId, userId, orderItems, null, null);
+    }
+
+    /**
+     * @param idempotencyKey Key sent by the client (may be null)
+     * @param requestHash Hash of the requested items, compared when the key is reused (may be null)
+     */
+    public OrderTicket(String requestId, int userId, List<OrderItem> orderItems, String idempotencyKey,
+                       String requestHash) {
+        this.requestId = requestId;
+        this.userId = userId;
+        this.orderItems = orderItems;
+        this.idempotencyKey = idempotencyKey;
+        this.requestHash = requestHash;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public List<OrderItem> getOrderItems() {
+        return orderItems;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public OrderRequestStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(OrderRequestStatus status) {
+        this.status = status;
+    }
+
+    public long getTotalPrice() {
+        return totalPrice;
+    }
+
+    public void setTotalPrice(long totalPrice) {
+        this.totalPrice = totalPrice;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Future completed when the order is confirmed, or completed exceptionally when it fails
+     */
+    public CompletableFuture<Order> getResult() {
+        return result;
+    }
+
+    /**
+     * Mark the request as confirmed
+     * @param confirmedOrder The persisted order
+     */
+    public void confirm(Order confirmedOrder) {
+        this.order = confirmedOrder;
+        this.status = OrderRequestStatus.CONFIRMED;
+        this.completedAt = System.currentTimeMillis();
+        result.complete(confirmedOrder);
+    }
+
+    /**
+     * Mark the request as failed
+     * @param cause Why the order could not be created
+     */
+    public void fail(Exception cause) {
+        this.errorMessage = cause.getMessage();
+        this.status = OrderRequestStatus.FAILED;
+        this.completedAt = System.currentTimeMillis();
+        result.completeExceptionally(cause);
+    }
+}
@@ -0,0 +1,24 @@
+package com.caom.repos.analytics;
+
+import com.caom.models.Order;
+
+import java.util.function.Consumer;
+
+public interface SalesDAO {
+
+    /**
+     * Get the smallest and largest order IDs, used to split a full scan into ranges
+     * @return {minOrderId, maxOrderId}, or null if there are no orders
+     */
+    int[] getOrderIdBounds();
+
+    /**
+     * Stream every order (with its items) whose ID is in the given range, in order ID order.
+     * Uses its own connection so several ranges can be scanned in parallel.
+     * @param fromOrderId First order ID (inclusive)
+     * @param toOrderId Last order ID (inclusive)
+     * @param consumer Called once per order
+     * @return true if the scan completed, false otherwise
+     */
+    boolean scanOrders(int fromOrderId, int toOrderId, Consumer<Order> consumer);
+}
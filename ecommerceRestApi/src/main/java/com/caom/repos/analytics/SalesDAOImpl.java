@@ -0,0 +1,98 @@
+package com.caom.repos.analytics;
+
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.util.ConnectionUtil;
+import com.caom.util.Money;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+public class SalesDAOImpl implements SalesDAO {
+
+    // Rows fetched per round trip while streaming a range
+    private static final int FETCH_SIZE = 5000;
+
+    @Override
+    public int[] getOrderIdBounds() {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT MIN(order_id) AS min_id, MAX(order_id) AS max_id FROM orders";
+
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(sql);
+
+            if (rs.next() && rs.getObject("min_id") != null) {
+                return new int[]{rs.getInt("min_id"), rs.getInt("max_id")};
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get order ID bounds");
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean scanOrders(int fromOrderId, int toOrderId, Consumer<Order> consumer) {
+        String sql = "SELECT o.order_id, o.user_id, o.total_price, o.status, o.created_at, " +
+                "oi.order_item_id, oi.product_id, oi.quantity, oi.price " +
+                "FROM orders o LEFT JOIN order_item oi ON oi.order_id = o.order_id " +
+                "WHERE o.order_id BETWEEN ? AND ? ORDER BY o.order_id";
+
+        try (Connection conn = ConnectionUtil.openConnection()) {
+            if (conn == null) {
+                return false;
+            }
+            // The driver only streams with a fetch size when autocommit is off
+            conn.setAutoCommit(false);
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setInt(1, fromOrderId);
+            ps.setInt(2, toOrderId);
+
+            ResultSet rs = ps.executeQuery();
+            Order current = null;
+
+            while (rs.next()) {
+                int orderId = rs.getInt("order_id");
+
+                if (current == null || current.getOrderId() != orderId) {
+                    if (current != null) {
+                        consumer.accept(current);
+                    }
+                    current = new Order();
+                    current.setOrderId(orderId);
+                    current.setUserId(rs.getInt("user_id"));
+                    current.setTotalPrice(Money.fromBigDecimal(rs.getBigDecimal("total_price")));
+                    current.setStatus(OrderStatus.fromString(rs.getString("status")));
+                    current.setCreatedAt(rs.getTimestamp("created_at"));
+                    current.setOrderItems(new ArrayList<>());
+                }
+
+                if (rs.getObject("order_item_id") != null) {
+                    OrderItem item = new OrderItem();
+                    item.setOrderItemId(rs.getInt("order_item_id"));
+                    item.setOrderId(orderId);
+                    item.setProductId(rs.getInt("product_id"));
+                    item.setQuantity(rs.getInt("quantity"));
+                    item.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+                    current.getOrderItems().add(item);
+                }
+            }
+
+            if (current != null) {
+                consumer.accept(current);
+            }
+
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Could not scan orders " + fromOrderId + " to " + toOrderId);
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
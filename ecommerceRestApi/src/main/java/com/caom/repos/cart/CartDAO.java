@@ -1,8 +1,12 @@
 package com.caom.repos.cart;
 
+import com.caom.dtos.response.CartValidation;
+import com.caom.exceptions.InsufficientStockException;
 import com.caom.models.Cart;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface CartDAO {
 
@@ -34,28 +38,51 @@ public interface CartDAO {
     Cart getById(int id);
 
     /**
-     * Update an existing cart item
+     * Update an existing cart item. During a request the update is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param obj The Cart object with updated values
      * @return The updated Cart object if successful, null otherwise
      */
     Cart update(Cart obj);
 
     /**
-     * Delete a cart item by its ID
+     * Delete a cart item by its ID. During a request the delete is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param id The ID of the cart item to delete
      * @return true if deletion was successful, false otherwise
      */
     boolean deleteById(int id);
 
     /**
-     * Add or update an item in a user's cart
+     * Add an item to a user's cart, or add to its quantity if it's already there, as long as the product has stock
+     * for the resulting quantity. Single statement, relies on the (user_id, product_id) unique constraint (see
+     * applyChanges).
      * @param userId The ID of the user
      * @param productId The ID of the product to add
-     * @param quantity The quantity to add or update
-     * @return The updated or created Cart object
+     * @param quantity The quantity to add
+     * @return The updated or created Cart object, or null if the product doesn't exist or is short of stock
      */
     Cart addToCart(int userId, int productId, int quantity);
 
+    /**
+     * Set the quantity of many lines in a user's cart and remove others, in one transaction. Needs
+     *   ALTER TABLE cart_item ADD CONSTRAINT cart_item_user_product_key UNIQUE (user_id, product_id);
+     * @param userId The ID of the user
+     * @param quantities New quantity per product ID, lines are created if missing
+     * @param removedProductIds Products whose lines should be removed
+     * @return The user's cart after the change, or null if nothing was saved
+     * @throws InsufficientStockException if a product no longer has the stock for its line (nothing is changed)
+     */
+    List<Cart> applyChanges(int userId, Map<Integer, Integer> quantities, Collection<Integer> removedProductIds)
+            throws InsufficientStockException;
+
+    /**
+     * Check every line of a user's cart against product stock and price it, with one query
+     * @param userId The ID of the user
+     * @return The total and the lines that are short of stock, or null if the cart could not be read
+     */
+    CartValidation validateCart(int userId);
+
     /**
      * Remove all items from a user's cart
      * @param userId The ID of the user whose cart to clear
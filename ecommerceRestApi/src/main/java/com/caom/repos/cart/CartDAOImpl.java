@@ -1,11 +1,21 @@
 package com.caom.repos.cart;
 
+import com.caom.dtos.response.CartShortfall;
+import com.caom.dtos.response.CartValidation;
+import com.caom.exceptions.InsufficientStockException;
 import com.caom.models.Cart;
+import com.caom.uow.UnitOfWork;
 import com.caom.util.ConnectionUtil;
+import com.caom.util.Money;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CartDAOImpl implements CartDAO {
 
@@ -13,25 +23,24 @@ public class CartDAOImpl implements CartDAO {
     public List<Cart> getAllByUserId(int userId) {
         List<Cart> userCartItems = new ArrayList<>();
 
-        try(Connection conn = ConnectionUtil.getConnection()){
-            String sql = "SELECT * FROM cart_item WHERE user_id = ?";
+        String sql = "SELECT * FROM cart_item WHERE user_id = ?";
+        Connection conn = ConnectionUtil.getReadConnection();
 
-            PreparedStatement ps = conn.prepareStatement(sql);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, userId);
 
-            ResultSet rs = ps.executeQuery();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()){
+                    Cart item = new Cart();
 
-            while (rs.next()){
-                Cart item = new Cart();
-
-                item.setCartItemId(rs.getInt("cart_item_id"));
-                item.setUserId(rs.getInt("user_id"));
-                item.setProductId(rs.getInt("product_id"));
-                item.setQuantity(rs.getInt("quantity"));
+                    item.setCartItemId(rs.getInt("cart_item_id"));
+                    item.setUserId(rs.getInt("user_id"));
+                    item.setProductId(rs.getInt("product_id"));
+                    item.setQuantity(rs.getInt("quantity"));
 
-                userCartItems.add(item);
+                    userCartItems.add(item);
+                }
             }
-
         } catch (SQLException e) {
             System.out.println("Could not retrieve cart items for user ID: " + userId);
             e.printStackTrace();
@@ -153,9 +162,25 @@ public class CartDAOImpl implements CartDAO {
 
     @Override
     public Cart update(Cart obj) {
-        try (Connection conn = ConnectionUtil.getConnection()){
-            String sql = "UPDATE cart_item SET quantity = ? WHERE cart_item_id = ? RETURNING *";
+        String sql = "UPDATE cart_item SET quantity = ? WHERE cart_item_id = ? RETURNING *";
+
+        // Inside a request the update joins the request's transaction, the line is returned as it will be saved
+        Cart queued = new Cart();
+        queued.setCartItemId(obj.getCartItemId());
+        queued.setUserId(obj.getUserId());
+        queued.setProductId(obj.getProductId());
+        queued.setQuantity(obj.getQuantity());
+        if (UnitOfWork.defer(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, queued.getQuantity());
+                ps.setInt(2, queued.getCartItemId());
+                ps.executeUpdate();
+            }
+        })) {
+            return queued;
+        }
 
+        try (Connection conn = ConnectionUtil.getConnection()){
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setInt(1, obj.getQuantity());
             ps.setInt(2, obj.getCartItemId());
@@ -181,9 +206,19 @@ public class CartDAOImpl implements CartDAO {
 
     @Override
     public boolean deleteById(int id) {
-        try (Connection conn = ConnectionUtil.getConnection()){
-            String sql = "DELETE FROM cart_item WHERE cart_item_id = ?";
+        String sql = "DELETE FROM cart_item WHERE cart_item_id = ?";
 
+        // Inside a request the delete joins the request's transaction
+        if (UnitOfWork.defer(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                ps.executeUpdate();
+            }
+        })) {
+            return true;
+        }
+
+        try (Connection conn = ConnectionUtil.getConnection()){
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setInt(1, id);
 
@@ -199,67 +234,107 @@ public class CartDAOImpl implements CartDAO {
 
     @Override
     public Cart addToCart(int userId, int productId, int quantity) {
+        // One statement: insert the line, or add to it, only while the product has the stock for the total. The
+        // conflict check runs against the locked existing row, so concurrent adds can't both pass on the same stock.
+        String sql = "INSERT INTO cart_item (user_id, product_id, quantity) " +
+                "SELECT ?, p.product_id, ? FROM product p WHERE p.product_id = ? AND p.stock >= ? " +
+                "ON CONFLICT (user_id, product_id) DO UPDATE SET quantity = cart_item.quantity + EXCLUDED.quantity " +
+                "WHERE (SELECT stock FROM product WHERE product_id = EXCLUDED.product_id) >= " +
+                "cart_item.quantity + EXCLUDED.quantity " +
+                "RETURNING *";
+
         try (Connection conn = ConnectionUtil.getConnection()){
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setInt(1, userId);
+            ps.setInt(2, quantity);
+            ps.setInt(3, productId);
+            ps.setInt(4, quantity);
+
+            ResultSet rs = ps.executeQuery();
+
+            if (rs.next()) {
+                Cart item = new Cart();
+                item.setCartItemId(rs.getInt("cart_item_id"));
+                item.setUserId(rs.getInt("user_id"));
+                item.setProductId(rs.getInt("product_id"));
+                item.setQuantity(rs.getInt("quantity"));
+
+                return item;
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not add item to cart");
+            e.printStackTrace();
+        }
+
+        // The product doesn't exist or doesn't have enough stock
+        return null;
+    }
+
+    @Override
+    public List<Cart> applyChanges(int userId, Map<Integer, Integer> quantities,
+                                   Collection<Integer> removedProductIds) throws InsufficientStockException {
+        // Its own connection, on the shared one other requests could commit or roll back part of the change
+        UnitOfWork.recordDatabaseCall();
+        try (Connection conn = ConnectionUtil.openConnection()){
+            if (conn == null) {
+                System.out.println("Could not establish connection for cart operation");
+                return null;
+            }
             conn.setAutoCommit(false);
 
             try {
-                // First check if the item already exists in the cart
-                String checkSql = "SELECT * FROM cart_item WHERE user_id = ? AND product_id = ?";
-                PreparedStatement checkPs = conn.prepareStatement(checkSql);
-                checkPs.setInt(1, userId);
-                checkPs.setInt(2, productId);
-
-                ResultSet rs = checkPs.executeQuery();
-
-                if (rs.next()) {
-                    // Item exists, update quantity
-                    int currentQuantity = rs.getInt("quantity");
-                    int newQuantity = currentQuantity + quantity;
-
-                    String updateSql = "UPDATE cart_item SET quantity = ? WHERE cart_item_id = ? RETURNING *";
-                    PreparedStatement updatePs = conn.prepareStatement(updateSql);
-                    updatePs.setInt(1, newQuantity);
-                    updatePs.setInt(2, rs.getInt("cart_item_id"));
-
-                    ResultSet updatedRs = updatePs.executeQuery();
-
-                    if (updatedRs.next()) {
-                        Cart updatedItem = new Cart();
-                        updatedItem.setCartItemId(updatedRs.getInt("cart_item_id"));
-                        updatedItem.setUserId(updatedRs.getInt("user_id"));
-                        updatedItem.setProductId(updatedRs.getInt("product_id"));
-                        updatedItem.setQuantity(updatedRs.getInt("quantity"));
-
-                        conn.commit();
-                        return updatedItem;
+                if (!quantities.isEmpty()) {
+                    // One multi-row upsert, relies on the (user_id, product_id) unique constraint. A line is only
+                    // written while its product has the stock, so a buyer taking it after the service's check
+                    // leaves the line out instead of overselling.
+                    StringBuilder sql = new StringBuilder("INSERT INTO cart_item (user_id, product_id, quantity) " +
+                            "SELECT v.user_id, v.product_id, v.quantity FROM (VALUES ");
+                    for (int i = 0; i < quantities.size(); i++) {
+                        sql.append(i == 0 ? "" : ", ").append("(?, ?, ?)");
                     }
-                } else {
-                    // Item doesn't exist, create new cart item
-                    String insertSql = "INSERT INTO cart_item (user_id, product_id, quantity) VALUES (?, ?, ?) RETURNING *";
-                    PreparedStatement insertPs = conn.prepareStatement(insertSql);
-                    insertPs.setInt(1, userId);
-                    insertPs.setInt(2, productId);
-                    insertPs.setInt(3, quantity);
-
-                    ResultSet insertedRs = insertPs.executeQuery();
-
-                    if (insertedRs.next()) {
-                        Cart newItem = new Cart();
-                        newItem.setCartItemId(insertedRs.getInt("cart_item_id"));
-                        newItem.setUserId(insertedRs.getInt("user_id"));
-                        newItem.setProductId(insertedRs.getInt("product_id"));
-                        newItem.setQuantity(insertedRs.getInt("quantity"));
-
-                        conn.commit();
-                        return newItem;
+                    sql.append(") AS v(user_id, product_id, quantity) " +
+                            "JOIN product p ON p.product_id = v.product_id WHERE p.stock >= v.quantity " +
+                            "ON CONFLICT (user_id, product_id) DO UPDATE SET quantity = EXCLUDED.quantity " +
+                            "RETURNING product_id");
+
+                    Set<Integer> written = new HashSet<>();
+                    try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                        int p = 1;
+                        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+                            ps.setInt(p++, userId);
+                            ps.setInt(p++, line.getKey());
+                            ps.setInt(p++, line.getValue());
+                        }
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                written.add(rs.getInt("product_id"));
+                            }
+                        }
+                    }
+
+                    // All or nothing, a line left out means its stock went since the service checked it
+                    for (int productId : quantities.keySet()) {
+                        if (!written.contains(productId)) {
+                            conn.rollback();
+                            throw new InsufficientStockException("Insufficient stock for product ID: " + productId +
+                                    ", it changed while the cart was being saved");
+                        }
                     }
                 }
 
-                conn.rollback();
-                return null;
+                if (!removedProductIds.isEmpty()) {
+                    String deleteSql = "DELETE FROM cart_item WHERE user_id = ? AND product_id = ANY(?)";
+                    try (PreparedStatement deletePs = conn.prepareStatement(deleteSql)) {
+                        deletePs.setInt(1, userId);
+                        deletePs.setArray(2, conn.createArrayOf("integer", removedProductIds.toArray()));
+                        deletePs.executeUpdate();
+                    }
+                }
+
+                conn.commit();
             } catch (SQLException e) {
                 conn.rollback();
-                System.out.println("Transaction failed while adding to cart");
+                System.out.println("Transaction failed while changing the cart");
                 e.printStackTrace();
                 return null;
             } finally {
@@ -270,6 +345,48 @@ public class CartDAOImpl implements CartDAO {
             e.printStackTrace();
             return null;
         }
+
+        return getAllByUserId(userId);
+    }
+
+    @Override
+    public CartValidation validateCart(int userId) {
+        // LEFT JOIN so lines whose product was deleted show up as short of everything
+        String sql = "SELECT c.cart_item_id, c.product_id, c.quantity, p.name, p.price, " +
+                "COALESCE(p.stock, 0) AS stock FROM cart_item c " +
+                "LEFT JOIN product p ON p.product_id = c.product_id WHERE c.user_id = ?";
+
+        Connection conn = ConnectionUtil.getReadConnection();
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+
+            int itemCount = 0;
+            long total = 0;
+            List<CartShortfall> shortfalls = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    itemCount++;
+                    int quantity = rs.getInt("quantity");
+                    int stock = rs.getInt("stock");
+                    BigDecimal price = rs.getBigDecimal("price");
+
+                    if (price != null) {
+                        total = Money.plus(total, Money.times(Money.fromBigDecimal(price), quantity));
+                    }
+                    if (stock < quantity) {
+                        shortfalls.add(new CartShortfall(rs.getInt("cart_item_id"), rs.getInt("product_id"),
+                                rs.getString("name"), quantity, stock));
+                    }
+                }
+            }
+
+            return new CartValidation(itemCount, total, shortfalls);
+        } catch (SQLException e) {
+            System.out.println("Could not validate cart for user ID: " + userId);
+            e.printStackTrace();
+            return null;
+        }
     }
 
     @Override
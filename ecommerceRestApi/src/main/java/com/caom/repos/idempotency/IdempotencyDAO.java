@@ -0,0 +1,26 @@
+package com.caom.repos.idempotency;
+
+import com.caom.exceptions.IdempotencyKeyReusedException;
+
+public interface IdempotencyDAO {
+
+    /**
+     * Get the order that was created for an idempotency key
+     * @param userId The ID of the user who sent the key
+     * @param idempotencyKey The key sent by the client
+     * @param requestHash Hash of the request the key came with this time
+     * @return The order ID if the key was already used, null otherwise
+     * @throws IdempotencyKeyReusedException if the key was saved with a different request hash
+     */
+    Integer getOrderId(int userId, String idempotencyKey, String requestHash) throws IdempotencyKeyReusedException;
+
+    /**
+     * Remember the order created for an idempotency key
+     * @param userId The ID of the user who sent the key
+     * @param idempotencyKey The key sent by the client
+     * @param requestHash Hash of the request the key came with
+     * @param orderId The ID of the created order
+     * @return true if the key was saved, false otherwise
+     */
+    boolean save(int userId, String idempotencyKey, String requestHash, int orderId);
+}
@@ -0,0 +1,72 @@
+package com.caom.repos.idempotency;
+
+import com.caom.exceptions.IdempotencyKeyReusedException;
+import com.caom.util.ConnectionUtil;
+
+import java.sql.*;
+
+/**
+ * Stores idempotency keys so retries are still recognised after a restart.
+ *
+ * Expects the following table:
+ *   CREATE TABLE idempotency_key (
+ *       user_id INT NOT NULL,
+ *       idempotency_key VARCHAR(255) NOT NULL,
+ *       order_id INT NOT NULL,
+ *       request_hash CHAR(64) NOT NULL,
+ *       created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+ *       PRIMARY KEY (user_id, idempotency_key)
+ *   );
+ * (on an existing table: ALTER TABLE idempotency_key ADD COLUMN request_hash CHAR(64) NOT NULL DEFAULT '';
+ * keys saved before that match any request)
+ */
+public class IdempotencyDAOImpl implements IdempotencyDAO {
+
+    @Override
+    public Integer getOrderId(int userId, String idempotencyKey, String requestHash)
+            throws IdempotencyKeyReusedException {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT order_id, request_hash FROM idempotency_key WHERE user_id = ? AND idempotency_key = ?";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setInt(1, userId);
+            ps.setString(2, idempotencyKey);
+
+            ResultSet rs = ps.executeQuery();
+
+            if (rs.next()) {
+                String savedHash = rs.getString("request_hash");
+                if (!savedHash.trim().isEmpty() && !savedHash.trim().equals(requestHash)) {
+                    throw new IdempotencyKeyReusedException(
+                            "This idempotency key was already used for a different request");
+                }
+                return rs.getInt("order_id");
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not look up idempotency key for user ID: " + userId);
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean save(int userId, String idempotencyKey, String requestHash, int orderId) {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "INSERT INTO idempotency_key (user_id, idempotency_key, order_id, request_hash) " +
+                    "VALUES (?, ?, ?, ?) ON CONFLICT (user_id, idempotency_key) DO NOTHING";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setInt(1, userId);
+            ps.setString(2, idempotencyKey);
+            ps.setInt(3, orderId);
+            ps.setString(4, requestHash);
+
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.out.println("Could not save idempotency key for user ID: " + userId);
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.caom.repos.order;
 
+import com.caom.exceptions.InsufficientStockException;
 import com.caom.models.Order;
 import com.caom.models.OrderItem;
 import com.caom.models.OrderStatus;
 
+import java.sql.Connection;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface OrderDAO {
 
@@ -15,6 +20,25 @@ public interface OrderDAO {
      */
     Order create(Order order);
 
+    /**
+     * Create several orders, together with their items, in a single transaction
+     * @param conn The connection to write on, owned by the caller and left open. It must not be shared with other
+     *             threads, since the transaction would take in whatever they run on it meanwhile.
+     * @param orders The orders to create, each with its order items set
+     * @return The created orders (same order as the input) with generated IDs, or null if nothing was saved
+     */
+    List<Order> createAll(Connection conn, List<Order> orders);
+
+    /**
+     * Turn a user's cart into an order in one transaction: lock the cart lines and their products, take the stock
+     * with one set-wise update, insert the order and its items, and empty the cart
+     * @param userId The user checking out
+     * @return The created order with its items, or null if nothing was saved
+     * @throws InsufficientStockException if any line is short of stock (nothing is changed)
+     * @throws IllegalStateException if the cart is empty
+     */
+    Order createFromCart(int userId) throws InsufficientStockException;
+
     /**
      * Get an order by its ID
      * @param orderId The order ID to find
@@ -22,6 +46,13 @@ public interface OrderDAO {
      */
     Order getById(int orderId);
 
+    /**
+     * Get several orders in one round trip
+     * @param orderIds The order IDs
+     * @return The orders that exist, in no particular order (without their items)
+     */
+    List<Order> getByIds(Collection<Integer> orderIds);
+
     /**
      * Get all orders for a specific user
      * @param userId The user ID to find orders for
@@ -36,14 +67,16 @@ public interface OrderDAO {
     List<Order> getAllOrders();
 
     /**
-     * Update an order's information
+     * Update an order's information. During a request the update is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param order The order with updated information
      * @return true if successful, false otherwise
      */
     boolean update(Order order);
 
     /**
-     * Update an order's status
+     * Update an order's status. During a request the update is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param orderId The order ID to update
      * @param status The new status
      * @return true if successful, false otherwise
@@ -51,7 +84,44 @@ public interface OrderDAO {
     boolean updateStatus(int orderId, OrderStatus status);
 
     /**
-     * Delete an order by its ID
+     * Move several orders to one status with a single statement. Only orders whose current status is one of
+     * fromStatuses change, so an order moved by a concurrent request is left alone.
+     * @param orderIds The orders to update
+     * @param status The new status
+     * @param fromStatuses The statuses an order may be moved from
+     * @return The status each updated order had before, by order ID, or null if nothing was saved
+     */
+    Map<Integer, OrderStatus> updateStatuses(Collection<Integer> orderIds, OrderStatus status,
+                                             Collection<OrderStatus> fromStatuses);
+
+    /**
+     * Cancel orders and put their items back in stock, in one transaction: one statement for the status change and
+     * one batched increment for the stock. Orders that are already cancelled (also by a concurrent request) are
+     * skipped, so their stock is never restored twice.
+     * @param orders The orders to cancel, with their items
+     * @return The status each cancelled order had before, by order ID, or null if nothing was saved
+     */
+    Map<Integer, OrderStatus> cancelAndRestoreStock(List<Order> orders);
+
+    /**
+     * Cancel one order and put its items back in stock, like cancelAndRestoreStock(List). During a request it is
+     * queued for the request's transaction (see UnitOfWork) and onCancelled runs once that commits.
+     * @param order The order to cancel, with its items
+     * @param onCancelled Called with the status the order had, only if this call cancelled it
+     * @return false if the cancel ran straight away and nothing was saved
+     */
+    boolean cancelAndRestoreStock(Order order, Consumer<OrderStatus> onCancelled);
+
+    /**
+     * Delete an order and, unless it was cancelled, put its items back in stock, in one transaction
+     * @param order The order to delete, with its items
+     * @return The status the order had when it was deleted, or null if it wasn't deleted
+     */
+    OrderStatus deleteAndRestoreStock(Order order);
+
+    /**
+     * Delete an order by its ID. During a request the delete is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param orderId The order ID to delete
      * @return true if successful, false otherwise
      */
@@ -72,7 +142,15 @@ public interface OrderDAO {
     List<OrderItem> getOrderItems(int orderId);
 
     /**
-     * Remove an item from an order
+     * Get the items of several orders in one round trip
+     * @param orderIds The order IDs to get items for
+     * @return Order items by order ID, orders without items are left out
+     */
+    Map<Integer, List<OrderItem>> getOrderItems(Collection<Integer> orderIds);
+
+    /**
+     * Remove an item from an order. During a request the delete is queued for the request's transaction (see
+     * UnitOfWork) rather than run straight away.
      * @param orderItemId The order item ID to remove
      * @return true if successful, false otherwise
      */
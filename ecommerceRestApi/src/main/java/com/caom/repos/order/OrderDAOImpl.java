@@ -1,25 +1,31 @@
 package com.caom.repos.order;
 
+import com.caom.exceptions.InsufficientStockException;
 import com.caom.models.*;
+import com.caom.uow.UnitOfWork;
 import com.caom.util.ConnectionUtil;
+import com.caom.util.Money;
 
 import java.sql.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Implementation of OrderDAO interface for database operations
  */
 public class OrderDAOImpl implements OrderDAO {
 
-    private final Connection connection;
-
-    public OrderDAOImpl() {
-        this.connection = ConnectionUtil.getConnection();
-    }
+    // 1000 rows * 5 columns stays well under Postgres' 32767 bind parameter limit
+    private static final int MAX_ROWS_PER_INSERT = 1000;
 
     @Override
     public Order create(Order order) {
@@ -30,7 +36,7 @@ public class OrderDAOImpl implements OrderDAO {
             PreparedStatement stmt = conn.prepareStatement(sql);
 
             stmt.setInt(1, order.getUserId());
-            stmt.setDouble(2, order.getTotalPrice());
+            stmt.setBigDecimal(2, Money.toBigDecimal(order.getTotalPrice()));
             stmt.setString(3, order.getStatus().name().toString());
 
             ResultSet rs = stmt.executeQuery();
@@ -39,8 +45,8 @@ public class OrderDAOImpl implements OrderDAO {
                 Order or = new Order();
                 or.setOrderId(rs.getInt("order_id"));
                 or.setUserId(rs.getInt("user_id"));
-                or.setTotalPrice(rs.getDouble("total_price"));
-                or.setTotalPrice(rs.getDouble("total_price"));
+                or.setTotalPrice(Money.fromBigDecimal(rs.getBigDecimal("total_price")));
+                or.setTotalPrice(Money.fromBigDecimal(rs.getBigDecimal("total_price")));
                 or.setStatus(OrderStatus.valueOf(rs.getString("status")));
                 System.out.println(or);
                 return or;
@@ -69,10 +75,225 @@ public class OrderDAOImpl implements OrderDAO {
         return null;
     }
 
+    @Override
+    public List<Order> createAll(Connection conn, List<Order> orders) {
+        if (orders.isEmpty()) {
+            return orders;
+        }
+
+        try {
+            conn.setAutoCommit(false);
+
+            try {
+                // Reserve all the order IDs up front so each caller knows which row is theirs
+                String idSql = "SELECT nextval(pg_get_serial_sequence('orders', 'order_id')) AS order_id " +
+                        "FROM generate_series(1, ?)";
+                try (PreparedStatement idPs = conn.prepareStatement(idSql)) {
+                    idPs.setInt(1, orders.size());
+                    try (ResultSet idRs = idPs.executeQuery()) {
+                        for (Order order : orders) {
+                            if (!idRs.next()) {
+                                throw new SQLException("Creating orders failed, not enough IDs obtained.");
+                            }
+                            order.setOrderId(idRs.getInt("order_id"));
+                        }
+                    }
+                }
+
+                // Multi-row inserts for the orders...
+                Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+                for (int from = 0; from < orders.size(); from += MAX_ROWS_PER_INSERT) {
+                    insertOrders(conn, orders.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, orders.size())),
+                            createdAt);
+                }
+
+                // ...and multi-row inserts for the items, chunked to stay under the bind parameter limit
+                List<OrderItem> items = new ArrayList<>();
+                for (Order order : orders) {
+                    for (OrderItem item : order.getOrderItems()) {
+                        item.setOrderId(order.getOrderId());
+                        items.add(item);
+                    }
+                }
+                for (int from = 0; from < items.size(); from += MAX_ROWS_PER_INSERT) {
+                    insertOrderItems(conn, items.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, items.size())));
+                }
+
+                conn.commit();
+                return orders;
+            } catch (SQLException e) {
+                conn.rollback();
+                System.out.println("Transaction rolled back. Could not create orders.");
+                e.printStackTrace();
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not use the connection for order creation");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to insert a chunk of orders (with pre-assigned IDs) with one statement
+     */
+    private void insertOrders(Connection conn, List<Order> orders, Timestamp createdAt) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO orders (order_id, user_id, total_price, status, created_at) VALUES ");
+        for (int i = 0; i < orders.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?::order_status, ?)");
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (Order order : orders) {
+                ps.setInt(p++, order.getOrderId());
+                ps.setInt(p++, order.getUserId());
+                ps.setBigDecimal(p++, Money.toBigDecimal(order.getTotalPrice()));
+                ps.setString(p++, order.getStatus().name());
+                ps.setTimestamp(p++, createdAt);
+                order.setCreatedAt(createdAt);
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Helper method to insert a chunk of order items with one statement
+     */
+    private void insertOrderItems(Connection conn, List<OrderItem> items) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO order_item (order_id, product_id, quantity, price) VALUES ");
+        for (int i = 0; i < items.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?)");
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (OrderItem item : items) {
+                ps.setInt(p++, item.getOrderId());
+                ps.setInt(p++, item.getProductId());
+                ps.setInt(p++, item.getQuantity());
+                ps.setBigDecimal(p++, Money.toBigDecimal(item.getPrice()));
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public Order createFromCart(int userId) throws InsufficientStockException {
+        // Locks in product ID order, so two checkouts sharing products can't deadlock
+        String cartSql = "SELECT c.product_id, c.quantity, p.name, p.price, p.stock FROM cart_item c " +
+                "JOIN product p ON p.product_id = c.product_id WHERE c.user_id = ? " +
+                "ORDER BY c.product_id FOR UPDATE";
+        String stockSql = "UPDATE product p SET stock = p.stock - c.quantity FROM cart_item c " +
+                "WHERE c.user_id = ? AND p.product_id = c.product_id";
+        String orderSql = "INSERT INTO orders (user_id, total_price, status) VALUES (?, ?, ?::order_status) " +
+                "RETURNING order_id, created_at";
+        String itemSql = "INSERT INTO order_item (order_id, product_id, quantity, price) " +
+                "SELECT ?, c.product_id, c.quantity, p.price FROM cart_item c " +
+                "JOIN product p ON p.product_id = c.product_id WHERE c.user_id = ?";
+        String clearSql = "DELETE FROM cart_item WHERE user_id = ?";
+
+        // A connection of its own, other requests' statements on the shared one would land in this transaction
+        UnitOfWork.recordDatabaseCall();
+        try (Connection conn = ConnectionUtil.openConnection()) {
+            if (conn == null) {
+                System.out.println("Could not establish connection for checkout");
+                return null;
+            }
+            conn.setAutoCommit(false);
+
+            try {
+                PreparedStatement cartPs = conn.prepareStatement(cartSql);
+                cartPs.setInt(1, userId);
+                ResultSet cartRs = cartPs.executeQuery();
+
+                List<OrderItem> items = new ArrayList<>();
+                long totalPrice = 0;
+                while (cartRs.next()) {
+                    OrderItem item = new OrderItem();
+                    item.setProductId(cartRs.getInt("product_id"));
+                    item.setQuantity(cartRs.getInt("quantity"));
+                    item.setPrice(Money.fromBigDecimal(cartRs.getBigDecimal("price")));
+                    item.setProductName(cartRs.getString("name"));
+
+                    int stock = cartRs.getInt("stock");
+                    if (stock < item.getQuantity()) {
+                        conn.rollback();
+                        throw new InsufficientStockException("Insufficient stock for product: " +
+                                item.getProductName() + ". Available: " + stock +
+                                ", Requested: " + item.getQuantity());
+                    }
+
+                    totalPrice = Money.plus(totalPrice, item.getSubtotal());
+                    items.add(item);
+                }
+                if (items.isEmpty()) {
+                    conn.rollback();
+                    throw new IllegalStateException("Your cart is empty");
+                }
+
+                // The products are locked and checked, so every line can be taken in one statement
+                PreparedStatement stockPs = conn.prepareStatement(stockSql);
+                stockPs.setInt(1, userId);
+                stockPs.executeUpdate();
+
+                Order order = new Order(userId, totalPrice);
+                PreparedStatement orderPs = conn.prepareStatement(orderSql);
+                orderPs.setInt(1, userId);
+                orderPs.setBigDecimal(2, Money.toBigDecimal(totalPrice));
+                orderPs.setString(3, order.getStatus().name());
+                ResultSet orderRs = orderPs.executeQuery();
+                if (!orderRs.next()) {
+                    throw new SQLException("Creating order failed, no ID obtained.");
+                }
+                order.setOrderId(orderRs.getInt("order_id"));
+                order.setCreatedAt(orderRs.getTimestamp("created_at"));
+
+                PreparedStatement itemPs = conn.prepareStatement(itemSql);
+                itemPs.setInt(1, order.getOrderId());
+                itemPs.setInt(2, userId);
+                itemPs.executeUpdate();
+
+                PreparedStatement clearPs = conn.prepareStatement(clearSql);
+                clearPs.setInt(1, userId);
+                clearPs.executeUpdate();
+
+                conn.commit();
+
+                for (OrderItem item : items) {
+                    item.setOrderId(order.getOrderId());
+                }
+                order.setOrderItems(items);
+                return order;
+            } catch (SQLException e) {
+                conn.rollback();
+                System.out.println("Transaction rolled back. Could not check out cart.");
+                e.printStackTrace();
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not establish connection for checkout");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public Order getById(int orderId) {
+        return UnitOfWork.find(Order.class, orderId, () -> loadById(orderId));
+    }
+
+    /**
+     * Helper method to read one order, getById goes through the request's identity map first
+     */
+    private Order loadById(int orderId) {
         String sql = "SELECT * FROM orders WHERE order_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
+        Connection conn = ConnectionUtil.getReadConnection();
 
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, orderId);
@@ -91,12 +312,40 @@ public class OrderDAOImpl implements OrderDAO {
         return null;
     }
 
+    @Override
+    public List<Order> getByIds(Collection<Integer> orderIds) {
+        List<Order> orders = new ArrayList<>();
+        if (orderIds.isEmpty()) {
+            return orders;
+        }
+
+        String sql = "SELECT * FROM orders WHERE order_id = ANY(?)";
+        Connection conn = ConnectionUtil.getReadConnection();
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", orderIds.toArray()));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(mapResultSetToOrder(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get orders by IDs");
+            e.printStackTrace();
+        }
+
+        return orders;
+    }
+
     @Override
     public List<Order> getOrdersByUserId(int userId) {
         List<Order> orders = new ArrayList<>();
         String sql = "SELECT * FROM orders WHERE user_id = ? ORDER BY created_at DESC";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        Connection conn = ConnectionUtil.getReadConnection();
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -115,21 +364,13 @@ public class OrderDAOImpl implements OrderDAO {
     public List<Order> getAllOrders() {
         List<Order> orders = new ArrayList<>();
         String sql = "SELECT * FROM orders ORDER BY created_at DESC";
-        try (Connection conn = ConnectionUtil.getConnection()){
-
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        Connection conn = ConnectionUtil.getReadConnection();
 
-            ResultSet rs = stmt.executeQuery();
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
                 orders.add(mapResultSetToOrder(rs));
             }
-            /*try (Statement stmt = connection.createStatement();
-                 ResultSet rs = stmt.executeQuery(sql)) {
-
-
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }*/
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -139,59 +380,359 @@ public class OrderDAOImpl implements OrderDAO {
 
     @Override
     public boolean update(Order order) {
+        UnitOfWork.evict(Order.class, order.getOrderId());
+        if (UnitOfWork.defer(conn -> executeUpdate(conn, order))) {
+            return true;
+        }
+
+        try {
+            return executeUpdate(ConnectionUtil.getConnection(), order);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to run an order update on a given connection
+     */
+    private boolean executeUpdate(Connection conn, Order order) throws SQLException {
         String sql = "UPDATE orders SET user_id = ?, total_price = ?, status = ? WHERE order_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, order.getUserId());
-            stmt.setDouble(2, order.getTotalPrice());
+            stmt.setBigDecimal(2, Money.toBigDecimal(order.getTotalPrice()));
             stmt.setString(3, order.getStatus().name());
             stmt.setInt(4, order.getOrderId());
 
             return stmt.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public boolean updateStatus(int orderId, OrderStatus status) {
+        // Inside a request the update joins the request's transaction, and the order it already loaded shows it
+        if (UnitOfWork.defer(conn -> executeStatusUpdate(conn, orderId, status))) {
+            Order loaded = UnitOfWork.peek(Order.class, orderId);
+            if (loaded != null) {
+                loaded.setStatus(status);
+            }
+            return true;
+        }
+
+        try {
+            return executeStatusUpdate(ConnectionUtil.getConnection(), orderId, status);
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
     }
 
-    @Override
-    public boolean updateStatus(int orderId, OrderStatus status) {
+    /**
+     * Helper method to run the single order status update on a given connection
+     */
+    private boolean executeStatusUpdate(Connection conn, int orderId, OrderStatus status) throws SQLException {
         String sql = "UPDATE orders SET status = ? WHERE order_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, status.name());
             stmt.setInt(2, orderId);
 
             return stmt.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public Map<Integer, OrderStatus> updateStatuses(Collection<Integer> orderIds, OrderStatus status,
+                                                    Collection<OrderStatus> fromStatuses) {
+        Map<Integer, OrderStatus> updated = new HashMap<>();
+        if (orderIds.isEmpty() || fromStatuses.isEmpty()) {
+            return updated;
+        }
+
+        for (int orderId : orderIds) {
+            UnitOfWork.evict(Order.class, orderId);
+        }
+
+        // Same shape as the cancel: lock, check the current status, and report what it was
+        String sql = "UPDATE orders o SET status = ?::order_status " +
+                "FROM (SELECT order_id, status FROM orders WHERE order_id = ANY(?) FOR UPDATE) old " +
+                "WHERE o.order_id = old.order_id AND old.status::text = ANY(?) " +
+                "RETURNING o.order_id, old.status";
+
+        String[] from = new String[fromStatuses.size()];
+        int i = 0;
+        for (OrderStatus fromStatus : fromStatuses) {
+            from[i++] = fromStatus.name();
+        }
+
+        // Its own connection and transaction, closing it must not take the shared connection down with it
+        UnitOfWork.recordDatabaseCall();
+        try (Connection conn = ConnectionUtil.openConnection()) {
+            if (conn == null) {
+                System.out.println("Could not establish connection to update order statuses");
+                return null;
+            }
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, status.name());
+                ps.setArray(2, conn.createArrayOf("integer", orderIds.toArray()));
+                ps.setArray(3, conn.createArrayOf("text", from));
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        updated.put(rs.getInt("order_id"), OrderStatus.fromString(rs.getString("status")));
+                    }
+                }
+                conn.commit();
+                return updated;
+            } catch (SQLException e) {
+                conn.rollback();
+                System.out.println("Transaction rolled back. Could not update order statuses.");
+                e.printStackTrace();
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not update order statuses");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public Map<Integer, OrderStatus> cancelAndRestoreStock(List<Order> orders) {
+        Map<Integer, OrderStatus> cancelled = new HashMap<>();
+        if (orders.isEmpty()) {
+            return cancelled;
+        }
+
+        for (Order order : orders) {
+            UnitOfWork.evict(Order.class, order.getOrderId());
+        }
+
+        // Its own connection, so no other request can commit or roll back half of the cancel
+        UnitOfWork.recordDatabaseCall();
+        try (Connection conn = ConnectionUtil.openConnection()) {
+            if (conn == null) {
+                System.out.println("Could not establish connection for order cancellation");
+                return null;
+            }
+            conn.setAutoCommit(false);
+
+            try {
+                cancelled.putAll(executeCancel(conn, orders));
+
+                conn.commit();
+                return cancelled;
+            } catch (SQLException e) {
+                conn.rollback();
+                System.out.println("Transaction rolled back. Could not cancel orders.");
+                e.printStackTrace();
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
+            System.out.println("Could not establish connection for order cancellation");
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean cancelAndRestoreStock(Order order, Consumer<OrderStatus> onCancelled) {
+        List<Order> orders = Collections.singletonList(order);
+        Map<Integer, OrderStatus> cancelled = new HashMap<>();
+
+        // Inside a request the cancel joins the request's transaction and the order it already loaded shows it,
+        // the caller hears back once it's committed
+        if (UnitOfWork.defer(conn -> cancelled.putAll(executeCancel(conn, orders)))) {
+            Order loaded = UnitOfWork.peek(Order.class, order.getOrderId());
+            if (loaded != null) {
+                loaded.setStatus(OrderStatus.CANCELLED);
+            }
+            UnitOfWork.afterCommit(() -> {
+                OrderStatus oldStatus = cancelled.get(order.getOrderId());
+                if (oldStatus != null) {
+                    onCancelled.accept(oldStatus);
+                }
+            });
+            return true;
+        }
+
+        Map<Integer, OrderStatus> result = cancelAndRestoreStock(orders);
+        if (result == null) {
             return false;
         }
+        OrderStatus oldStatus = result.get(order.getOrderId());
+        if (oldStatus != null) {
+            onCancelled.accept(oldStatus);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to cancel orders and restore their stock on a given connection, the caller owns the transaction
+     * @return The status each cancelled order had before, by order ID
+     */
+    private Map<Integer, OrderStatus> executeCancel(Connection conn, List<Order> orders) throws SQLException {
+        // Lock the rows first so the status we read is the one we change, a concurrent cancel waits for us
+        String sql = "UPDATE orders o SET status = 'CANCELLED'::order_status " +
+                "FROM (SELECT order_id, status FROM orders WHERE order_id = ANY(?) FOR UPDATE) old " +
+                "WHERE o.order_id = old.order_id AND old.status <> 'CANCELLED' " +
+                "RETURNING o.order_id, old.status";
+
+        Map<Integer, OrderStatus> cancelled = new HashMap<>();
+        Integer[] orderIds = new Integer[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            orderIds[i] = orders.get(i).getOrderId();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", orderIds));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    cancelled.put(rs.getInt("order_id"), OrderStatus.fromString(rs.getString("status")));
+                }
+            }
+        }
+
+        List<OrderItem> items = new ArrayList<>();
+        for (Order order : orders) {
+            if (cancelled.containsKey(order.getOrderId())) {
+                items.addAll(order.getOrderItems());
+            }
+        }
+        restoreStock(conn, items);
+        return cancelled;
+    }
+
+    @Override
+    public OrderStatus deleteAndRestoreStock(Order order) {
+        // RETURNING gives the status at the moment of deletion, not the one the caller read earlier
+        String sql = "DELETE FROM orders WHERE order_id = ? RETURNING status";
+        UnitOfWork.evict(Order.class, order.getOrderId());
+        UnitOfWork.evict(OrderItem.class, order.getOrderId());
+
+        // Its own connection, so no other request can commit the delete without the stock or the other way round
+        UnitOfWork.recordDatabaseCall();
+        try (Connection conn = ConnectionUtil.openConnection()) {
+            if (conn == null) {
+                System.out.println("Could not establish connection for order deletion");
+                return null;
+            }
+            conn.setAutoCommit(false);
+
+            try {
+                OrderStatus status;
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setInt(1, order.getOrderId());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            conn.rollback();
+                            return null;
+                        }
+                        status = OrderStatus.fromString(rs.getString("status"));
+                    }
+                }
+
+                if (status != OrderStatus.CANCELLED) {
+                    restoreStock(conn, order.getOrderItems());
+                }
+
+                conn.commit();
+                return status;
+            } catch (SQLException e) {
+                conn.rollback();
+                System.out.println("Transaction rolled back. Could not delete order.");
+                e.printStackTrace();
+                return null;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not establish connection for order deletion");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to add the items' quantities back to product stock with one atomic increment per chunk
+     */
+    private void restoreStock(Connection conn, List<OrderItem> items) throws SQLException {
+        // One row per product, an UPDATE ... FROM with the same product twice would only apply one of them
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (OrderItem item : items) {
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        List<Map.Entry<Integer, Integer>> rows = new ArrayList<>(quantities.entrySet());
+
+        for (int from = 0; from < rows.size(); from += MAX_ROWS_PER_INSERT) {
+            List<Map.Entry<Integer, Integer>> chunk = rows.subList(from, Math.min(from + MAX_ROWS_PER_INSERT,
+                    rows.size()));
+            StringBuilder sql = new StringBuilder("UPDATE product p SET stock = p.stock + v.qty FROM (VALUES ");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append("(?, ?)");
+            }
+            sql.append(") AS v(product_id, qty) WHERE p.product_id = v.product_id");
+
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                int p = 1;
+                for (Map.Entry<Integer, Integer> row : chunk) {
+                    ps.setInt(p++, row.getKey());
+                    ps.setInt(p++, row.getValue());
+                }
+                ps.executeUpdate();
+            }
+        }
     }
 
     @Override
     public boolean delete(int orderId) {
+        UnitOfWork.evict(Order.class, orderId);
+        UnitOfWork.evict(OrderItem.class, orderId);
+        if (UnitOfWork.defer(conn -> executeDelete(conn, orderId))) {
+            return true;
+        }
+
+        try {
+            return executeDelete(ConnectionUtil.getConnection(), orderId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to delete an order on a given connection
+     */
+    private boolean executeDelete(Connection conn, int orderId) throws SQLException {
         String sql = "DELETE FROM orders WHERE order_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, orderId);
 
             return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
         }
     }
 
     @Override
     public OrderItem addOrderItem(OrderItem orderItem) {
         String sql = "INSERT INTO order_item (order_id, product_id, quantity, price) VALUES (?, ?, ?, ?)";
+        UnitOfWork.evict(OrderItem.class, orderItem.getOrderId());
+
+        // Not queued, the caller needs the generated ID straight away
+        Connection conn = ConnectionUtil.getConnection();
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, orderItem.getOrderId());
             stmt.setInt(2, orderItem.getProductId());
             stmt.setInt(3, orderItem.getQuantity());
-            stmt.setDouble(4, orderItem.getPrice());
+            stmt.setBigDecimal(4, Money.toBigDecimal(orderItem.getPrice()));
 
             int affectedRows = stmt.executeUpdate();
 
@@ -215,34 +756,59 @@ public class OrderDAOImpl implements OrderDAO {
 
     @Override
     public List<OrderItem> getOrderItems(int orderId) {
+        return UnitOfWork.find(OrderItem.class, orderId, () -> loadOrderItems(orderId));
+    }
+
+    /**
+     * Helper method to read one order's items, getOrderItems goes through the request's identity map first
+     */
+    private List<OrderItem> loadOrderItems(int orderId) {
         List<OrderItem> orderItems = new ArrayList<>();
         String sql = "SELECT oi.*, p.name as product_name FROM order_item oi " +
                 "LEFT JOIN product p ON oi.product_id = p.product_id " +
                 "WHERE oi.order_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        Connection conn = ConnectionUtil.getReadConnection();
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, orderId);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    OrderItem item = new OrderItem();
-                    item.setOrderItemId(rs.getInt("order_item_id"));
-                    item.setOrderId(rs.getInt("order_id"));
-                    item.setProductId(rs.getInt("product_id"));
-                    item.setQuantity(rs.getInt("quantity"));
-                    item.setPrice(rs.getDouble("price"));
-
-                    // Get product name if available
-                    try {
-                        item.setProductName(rs.getString("product_name"));
-                    } catch (SQLException e) {
-                        // If column doesn't exist, ignore
-                    }
+                    orderItems.add(mapResultSetToOrderItem(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        return orderItems;
+    }
 
-                    orderItems.add(item);
+    @Override
+    public Map<Integer, List<OrderItem>> getOrderItems(Collection<Integer> orderIds) {
+        Map<Integer, List<OrderItem>> orderItems = new HashMap<>();
+        if (orderIds.isEmpty()) {
+            return orderItems;
+        }
+
+        String sql = "SELECT oi.*, p.name as product_name FROM order_item oi " +
+                "LEFT JOIN product p ON oi.product_id = p.product_id " +
+                "WHERE oi.order_id = ANY(?)";
+
+        Connection conn = ConnectionUtil.getReadConnection();
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", orderIds.toArray()));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    OrderItem item = mapResultSetToOrderItem(rs);
+                    orderItems.computeIfAbsent(item.getOrderId(), id -> new ArrayList<>()).add(item);
                 }
             }
         } catch (SQLException e) {
+            System.out.println("Could not get order items by order IDs");
             e.printStackTrace();
         }
 
@@ -251,16 +817,52 @@ public class OrderDAOImpl implements OrderDAO {
 
     @Override
     public boolean removeOrderItem(int orderItemId) {
+        // Loaded items are kept by order ID, which we don't have here
+        UnitOfWork.evictAll(OrderItem.class);
+        if (UnitOfWork.defer(conn -> executeRemoveOrderItem(conn, orderItemId))) {
+            return true;
+        }
+
+        try {
+            return executeRemoveOrderItem(ConnectionUtil.getConnection(), orderItemId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to delete an order item on a given connection
+     */
+    private boolean executeRemoveOrderItem(Connection conn, int orderItemId) throws SQLException {
         String sql = "DELETE FROM order_item WHERE order_item_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, orderItemId);
 
             return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Helper method to map a ResultSet row to an OrderItem object
+     */
+    private OrderItem mapResultSetToOrderItem(ResultSet rs) throws SQLException {
+        OrderItem item = new OrderItem();
+        item.setOrderItemId(rs.getInt("order_item_id"));
+        item.setOrderId(rs.getInt("order_id"));
+        item.setProductId(rs.getInt("product_id"));
+        item.setQuantity(rs.getInt("quantity"));
+        item.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+
+        // Get product name if available
+        try {
+            item.setProductName(rs.getString("product_name"));
         } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+            // If column doesn't exist, ignore
         }
+
+        return item;
     }
 
     /**
@@ -270,7 +872,7 @@ public class OrderDAOImpl implements OrderDAO {
         Order order = new Order();
         order.setOrderId(rs.getInt("order_id"));
         order.setUserId(rs.getInt("user_id"));
-        order.setTotalPrice(rs.getDouble("total_price"));
+        order.setTotalPrice(Money.fromBigDecimal(rs.getBigDecimal("total_price")));
         order.setStatus(OrderStatus.fromString(rs.getString("status")));
 
         // Convert SQL timestamp to ZonedDateTime
@@ -0,0 +1,366 @@
+package com.caom.repos.product;
+
+import com.caom.cache.CatalogSnapshot;
+import com.caom.cache.ProductStore;
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.dtos.response.ProductSuggestion;
+import com.caom.models.Product;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ProductDAO that serves reads from a ProductStore and writes through to the database.
+ *
+ * Every service that touches products shares this DAO, so stock changes made while ordering, cancelling or
+ * checking out land in the store as well as in the product table.
+ *
+ * On startup the store is loaded from the last catalog snapshot and brought current with a delta query on
+ * product.updated_at, instead of reading the whole table. Snapshots are written periodically and on shutdown.
+ */
+public class CachedProductDAO implements ProductDAO {
+
+    // Writes in flight during a sync can commit with an older updated_at, so each delta looks back this far
+    private static final long SYNC_OVERLAP_MILLIS = 60_000;
+
+    private final Logger logger = LoggerFactory.getLogger(CachedProductDAO.class);
+
+    private final ProductDAO productDAO;
+    private final ProductStore productStore;
+    // Write-through calls share it, a sync takes it exclusively so it can't put back a row older than a write
+    private final ReentrantReadWriteLock syncLock = new ReentrantReadWriteLock();
+
+    private volatile Timestamp lastSyncedAt = new Timestamp(0);
+    private ScheduledExecutorService snapshotScheduler;
+    private Path snapshotFile;
+
+    public CachedProductDAO(ProductDAO productDAO, ProductStore productStore) {
+        this.productDAO = productDAO;
+        this.productStore = productStore;
+    }
+
+    /**
+     * Fill the store: from the snapshot plus a delta query if there is a usable snapshot, from the whole product
+     * table otherwise
+     * @param snapshotFile The catalog snapshot file, doesn't have to exist
+     * @return The number of products loaded
+     */
+    public int warmUp(Path snapshotFile) {
+        long start = System.currentTimeMillis();
+
+        CatalogSnapshot snapshot = null;
+        try {
+            snapshot = CatalogSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable catalog snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+
+        if (snapshot != null) {
+            productStore.loadAll(snapshot.getProducts());
+            lastSyncedAt = new Timestamp(snapshot.getSyncedAt());
+            if (!refresh()) {
+                // Serve the snapshot rather than nothing, the next scheduled sync catches up
+                logger.warn("Could not bring the catalog snapshot up to date, serving it as is");
+            }
+            logger.info("Catalog warmed from snapshot in " + (System.currentTimeMillis() - start) + "ms, " +
+                    productStore.size() + " products");
+            return productStore.size();
+        }
+
+        Timestamp now = productDAO.getDatabaseTime();
+        productStore.loadAll(productDAO.getAll());
+        lastSyncedAt = now != null ? now : new Timestamp(System.currentTimeMillis());
+        logger.info("Catalog loaded from the database in " + (System.currentTimeMillis() - start) + "ms, " +
+                productStore.size() + " products");
+        return productStore.size();
+    }
+
+    /**
+     * Apply every product change since the last sync, and drop products that were deleted
+     * @return true if the store is now in sync with the database
+     */
+    public boolean refresh() {
+        syncLock.writeLock().lock();
+        try {
+            Timestamp now = productDAO.getDatabaseTime();
+            if (now == null) {
+                return false;
+            }
+
+            Timestamp since = new Timestamp(lastSyncedAt.getTime() - SYNC_OVERLAP_MILLIS);
+            List<Product> changed = productDAO.getUpdatedSince(since);
+            List<Integer> ids = productDAO.getAllIds();
+            if (changed == null || ids == null) {
+                return false;
+            }
+
+            for (Product product : changed) {
+                productStore.put(product);
+            }
+            int deleted = productStore.retainAll(new HashSet<>(ids));
+
+            lastSyncedAt = now;
+            logger.info("Catalog synced: " + changed.size() + " changed, " + deleted + " deleted");
+            return true;
+        } finally {
+            syncLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-read some products from the database, e.g. because another instance changed them. Products that no
+     * longer exist are removed from the store.
+     * @param productIds The products to reload
+     * @return true if the store now matches the database for those products
+     */
+    public boolean reload(Set<Integer> productIds) {
+        syncLock.writeLock().lock();
+        try {
+            List<Product> current = productDAO.getByIds(productIds);
+            if (current == null) {
+                return false;
+            }
+
+            Set<Integer> missing = new HashSet<>(productIds);
+            for (Product product : current) {
+                productStore.put(product);
+                missing.remove(product.getProductId());
+            }
+            for (int productId : missing) {
+                productStore.remove(productId);
+            }
+            return true;
+        } finally {
+            syncLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sync with the database and write the store to a snapshot file
+     * @param file Where to write the snapshot
+     * @return true if the snapshot was written
+     */
+    public boolean writeSnapshot(Path file) {
+        if (!refresh()) {
+            logger.warn("Catalog not in sync with the database, keeping the previous snapshot");
+            return false;
+        }
+
+        try {
+            List<Product> products = productStore.getAll();
+            CatalogSnapshot.write(file, lastSyncedAt.getTime(), products);
+            logger.info("Catalog snapshot written, " + products.size() + " products");
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not write catalog snapshot: ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Write a snapshot every intervalMillis and once more on shutdown()
+     * @param file Where to write the snapshots
+     * @param intervalMillis Time between snapshots
+     */
+    public void startSnapshots(Path file, long intervalMillis) {
+        this.snapshotFile = file;
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> writeSnapshot(file), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the periodic snapshots and write a final one
+     */
+    public void shutdown() {
+        if (snapshotScheduler == null) {
+            return;
+        }
+        snapshotScheduler.shutdownNow();
+        writeSnapshot(snapshotFile);
+    }
+
+    @Override
+    public Product create(Product obj) {
+        syncLock.readLock().lock();
+        try {
+            Product created = productDAO.create(obj);
+            if (created != null) {
+                productStore.put(created);
+            }
+            return created;
+        } finally {
+            syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Product> getAll() {
+        return productStore.getAll();
+    }
+
+    @Override
+    public Product getById(int id) {
+        Product product = productStore.get(id);
+        if (product != null) {
+            return product;
+        }
+
+        // Not loaded yet (e.g. created by another instance), read through and keep it
+        product = productDAO.getById(id);
+        if (product != null) {
+            productStore.put(product);
+        }
+        return product;
+    }
+
+    @Override
+    public Product update(Product obj) {
+        syncLock.readLock().lock();
+        try {
+            Product updated = productDAO.update(obj);
+            if (updated != null) {
+                productStore.put(updated);
+            }
+            return updated;
+        } finally {
+            syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteById(int id) {
+        syncLock.readLock().lock();
+        try {
+            boolean deleted = productDAO.deleteById(id);
+            if (deleted) {
+                productStore.remove(id);
+            }
+            return deleted;
+        } finally {
+            syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Product getProductByID(int id) {
+        return getById(id);
+    }
+
+    @Override
+    public List<Product> getProductsByPriceRange(long minPrice, long maxPrice) {
+        return productStore.findByPriceRange(minPrice, maxPrice);
+    }
+
+    @Override
+    public List<Product> getProductsInStock() {
+        return productStore.findInStock();
+    }
+
+    @Override
+    public boolean updateStock(int productId, int quantity) {
+        syncLock.readLock().lock();
+        try {
+            boolean updated = productDAO.updateStock(productId, quantity);
+            if (updated && !productStore.adjustStock(productId, quantity)) {
+                getById(productId);
+            }
+            return updated;
+        } finally {
+            syncLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Product> searchProducts(String keyword) {
+        return productStore.search(keyword);
+    }
+
+    @Override
+    public ProductQueryResult query(ProductQuery query) {
+        return productStore.query(query);
+    }
+
+    @Override
+    public List<Product> fuzzySearchProducts(String keyword, int limit) {
+        return productStore.fuzzySearch(keyword, limit);
+    }
+
+    @Override
+    public List<ProductSuggestion> suggestProducts(String prefix, int limit) {
+        return productStore.suggest(prefix, limit);
+    }
+
+    @Override
+    public Timestamp getDatabaseTime() {
+        return productDAO.getDatabaseTime();
+    }
+
+    @Override
+    public List<Product> getUpdatedSince(Timestamp since) {
+        return productDAO.getUpdatedSince(since);
+    }
+
+    @Override
+    public List<Integer> getAllIds() {
+        return productDAO.getAllIds();
+    }
+
+    @Override
+    public List<Product> getByIds(Collection<Integer> ids) {
+        List<Product> products = new ArrayList<>(ids.size());
+        List<Integer> missing = new ArrayList<>();
+        for (int id : ids) {
+            Product product = productStore.get(id);
+            if (product != null) {
+                products.add(product);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<Product> loaded = productDAO.getByIds(missing);
+            if (loaded == null) {
+                return null;
+            }
+            for (Product product : loaded) {
+                productStore.put(product);
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    @Override
+    public void stockChanged(Map<Integer, Integer> deltas) {
+        syncLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+                // A product that isn't loaded is read fresh from the database when it's first asked for
+                productStore.adjustStock(delta.getKey(), delta.getValue());
+            }
+        } finally {
+            syncLock.readLock().unlock();
+        }
+    }
+}
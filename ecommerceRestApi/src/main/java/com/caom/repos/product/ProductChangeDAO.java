@@ -0,0 +1,29 @@
+package com.caom.repos.product;
+
+import com.caom.models.ProductChange;
+
+import java.util.List;
+
+public interface ProductChangeDAO {
+
+    /**
+     * @return The highest change ID in the log, 0 if it is empty, -1 if it couldn't be read
+     */
+    long getLatestChangeId();
+
+    /**
+     * Read the next changes from the log
+     * @param changeId Only changes with a higher ID are returned
+     * @param limit Maximum number of changes
+     * @param settleSeconds Changes older than this are flagged as settled
+     * @return The changes in change ID order, or null if the log couldn't be read
+     */
+    List<ProductChange> getChangesAfter(long changeId, int limit, int settleSeconds);
+
+    /**
+     * Delete old entries from the log
+     * @param retentionHours Entries older than this are deleted
+     * @return The number of entries deleted, -1 on failure
+     */
+    int purgeChanges(int retentionHours);
+}
@@ -0,0 +1,117 @@
+package com.caom.repos.product;
+
+import com.caom.models.ProductChange;
+import com.caom.util.ConnectionUtil;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the product_changes log, filled by a trigger on every write to product, whoever makes it:
+ * <pre>
+ * CREATE TABLE product_changes (
+ *     change_id BIGSERIAL PRIMARY KEY,
+ *     product_id INT NOT NULL,
+ *     operation CHAR(1) NOT NULL,
+ *     changed_at TIMESTAMP NOT NULL DEFAULT clock_timestamp()
+ * );
+ * CREATE INDEX product_changes_changed_at_idx ON product_changes (changed_at);
+ * CREATE OR REPLACE FUNCTION log_product_change() RETURNS trigger AS $$
+ *     BEGIN
+ *         INSERT INTO product_changes (product_id, operation)
+ *         VALUES (COALESCE(NEW.product_id, OLD.product_id), LEFT(TG_OP, 1));
+ *         RETURN NULL;
+ *     END
+ * $$ LANGUAGE plpgsql;
+ * CREATE TRIGGER product_change_log AFTER INSERT OR UPDATE OR DELETE ON product
+ *     FOR EACH ROW EXECUTE FUNCTION log_product_change();
+ * </pre>
+ *
+ * Polled by a single background thread, so it keeps its own connection open instead of sharing the request one.
+ */
+public class ProductChangeDAOImpl implements ProductChangeDAO {
+
+    private Connection conn;
+
+    @Override
+    public long getLatestChangeId() {
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(change_id), 0) FROM product_changes")) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get latest product change");
+            e.printStackTrace();
+            closeQuietly();
+        }
+        return -1;
+    }
+
+    @Override
+    public List<ProductChange> getChangesAfter(long changeId, int limit, int settleSeconds) {
+        List<ProductChange> changes = new ArrayList<>();
+
+        String sql = "SELECT change_id, product_id, operation, " +
+                "changed_at < clock_timestamp() - make_interval(secs => ?) AS settled " +
+                "FROM product_changes WHERE change_id > ? ORDER BY change_id LIMIT ?";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, settleSeconds);
+            ps.setLong(2, changeId);
+            ps.setInt(3, limit);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    changes.add(new ProductChange(rs.getLong("change_id"), rs.getInt("product_id"),
+                            rs.getString("operation"), rs.getBoolean("settled")));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not read product changes");
+            e.printStackTrace();
+            closeQuietly();
+            return null;
+        }
+
+        return changes;
+    }
+
+    @Override
+    public int purgeChanges(int retentionHours) {
+        String sql = "DELETE FROM product_changes WHERE changed_at < now() - make_interval(hours => ?)";
+
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, retentionHours);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println("Could not purge product changes");
+            e.printStackTrace();
+            closeQuietly();
+            return -1;
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null || conn.isClosed()) {
+            conn = ConnectionUtil.openConnection();
+            if (conn == null) {
+                throw new SQLException("Could not open a connection for the product change feed");
+            }
+        }
+        return conn;
+    }
+
+    // Drop a connection that failed, the next call opens a new one
+    private void closeQuietly() {
+        try {
+            if (conn != null) {
+                conn.close();
+            }
+        } catch (SQLException ignored) {
+            // Already broken
+        }
+        conn = null;
+    }
+}
@@ -1,10 +1,16 @@
 package com.caom.repos.product;
 
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.dtos.response.ProductSuggestion;
 import com.caom.models.Product;
 import com.caom.models.User;
 import com.caom.repos.GeneralDAO;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface ProductDAO extends GeneralDAO<Product> {
 
@@ -51,11 +57,11 @@ public interface ProductDAO extends GeneralDAO<Product> {
 
     /**
      * Get products within a specified price range
-     * @param minPrice The minimum price
-     * @param maxPrice The maximum price
+     * @param minPrice The minimum price, in minor units
+     * @param maxPrice The maximum price, in minor units
      * @return List of products within the price range
      */
-    List<Product> getProductsByPriceRange(double minPrice, double maxPrice);
+    List<Product> getProductsByPriceRange(long minPrice, long maxPrice);
 
     /**
      * Get products that are in stock (quantity > 0)
@@ -78,4 +84,57 @@ public interface ProductDAO extends GeneralDAO<Product> {
      */
     List<Product> searchProducts(String keyword);
 
+    /**
+     * Filter products on price, stock and keyword at once
+     * @param query The combined filter and the page to return
+     * @return One page of matching products ordered by ID, the number of matches and facet counts over all matches
+     */
+    ProductQueryResult query(ProductQuery query);
+
+    /**
+     * Typo-tolerant search on product names, ranked by trigram similarity
+     * @param keyword The search term, possibly misspelled
+     * @param limit Maximum number of results
+     * @return The most similar products, best match first
+     */
+    List<Product> fuzzySearchProducts(String keyword, int limit);
+
+    /**
+     * Typeahead completions for what the user has typed so far
+     * @param prefix Start of a product name or of a word in it
+     * @param limit Maximum number of suggestions
+     * @return In-stock products first, then shorter names
+     */
+    List<ProductSuggestion> suggestProducts(String prefix, int limit);
+
+    /**
+     * @return The database's current time, so change timestamps are compared against a single clock
+     */
+    Timestamp getDatabaseTime();
+
+    /**
+     * Get products created or changed after a point in time
+     * @param since Exclusive lower bound on product.updated_at
+     * @return The changed products
+     */
+    List<Product> getUpdatedSince(Timestamp since);
+
+    /**
+     * @return The IDs of every product, used to find products deleted while we weren't watching
+     */
+    List<Integer> getAllIds();
+
+    /**
+     * Get several products in one round trip
+     * @param ids The product IDs
+     * @return The products that exist, in no particular order
+     */
+    List<Product> getByIds(Collection<Integer> ids);
+
+    /**
+     * Told after stock was changed in the database by a statement this DAO didn't run, e.g. the batched restock in
+     * an order transaction, so anything it keeps in memory can follow
+     * @param deltas Stock change per product ID
+     */
+    void stockChanged(Map<Integer, Integer> deltas);
 }
@@ -1,13 +1,20 @@
 package com.caom.repos.product;
 
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.dtos.response.ProductSuggestion;
 import com.caom.models.Product;
 import com.caom.models.Role;
 import com.caom.models.User;
 import com.caom.util.ConnectionUtil;
+import com.caom.util.Money;
+import com.caom.util.ProductFacets;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class ProductDAOImpl implements ProductDAO {
 
@@ -20,7 +27,7 @@ public class ProductDAOImpl implements ProductDAO {
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setString(1, obj.getName());
             ps.setString(2, obj.getDescription());
-            ps.setDouble(3, obj.getPrice());
+            ps.setBigDecimal(3, Money.toBigDecimal(obj.getPrice()));
             ps.setInt(4, obj.getStock());
 
             ResultSet rs = ps.executeQuery();
@@ -30,7 +37,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
                 return product;
             }
@@ -56,7 +63,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
 
                 allProducts.add(product);
@@ -84,7 +91,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
 
                 return product;
@@ -118,7 +125,7 @@ public class ProductDAOImpl implements ProductDAO {
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setString(1, obj.getName());
             ps.setString(2, obj.getDescription());
-            ps.setDouble(3, obj.getPrice());
+            ps.setBigDecimal(3, Money.toBigDecimal(obj.getPrice()));
             ps.setInt(4, obj.getStock());
             ps.setInt(5, obj.getProductId());
 
@@ -129,7 +136,7 @@ public class ProductDAOImpl implements ProductDAO {
                 updatedProduct.setProductId(rs.getInt("product_id"));
                 updatedProduct.setName(rs.getString("name"));
                 updatedProduct.setDescription(rs.getString("description"));
-                updatedProduct.setPrice(rs.getDouble("price"));
+                updatedProduct.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 updatedProduct.setStock(rs.getInt("stock"));
 
                 return updatedProduct;
@@ -197,15 +204,15 @@ public class ProductDAOImpl implements ProductDAO {
 
     // Additional methods specific to products
 
-    public List<Product> getProductsByPriceRange(double minPrice, double maxPrice) {
+    public List<Product> getProductsByPriceRange(long minPrice, long maxPrice) {
         List<Product> products = new ArrayList<>();
 
         try (Connection conn = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM product WHERE price BETWEEN ? AND ? ORDER BY price ASC";
 
             PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setDouble(1, minPrice);
-            ps.setDouble(2, maxPrice);
+            ps.setBigDecimal(1, Money.toBigDecimal(minPrice));
+            ps.setBigDecimal(2, Money.toBigDecimal(maxPrice));
 
             ResultSet rs = ps.executeQuery();
 
@@ -214,7 +221,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
 
                 products.add(product);
@@ -241,7 +248,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
 
                 products.add(product);
@@ -291,7 +298,7 @@ public class ProductDAOImpl implements ProductDAO {
                 product.setProductId(rs.getInt("product_id"));
                 product.setName(rs.getString("name"));
                 product.setDescription(rs.getString("description"));
-                product.setPrice(rs.getDouble("price"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
                 product.setStock(rs.getInt("stock"));
 
                 products.add(product);
@@ -303,4 +310,229 @@ public class ProductDAOImpl implements ProductDAO {
 
         return products;
     }
+
+    @Override
+    public ProductQueryResult query(ProductQuery query) {
+        List<Product> matches = new ArrayList<>();
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM product WHERE price BETWEEN ? AND ?" +
+                    (query.isInStockOnly() ? " AND stock > 0" : "") +
+                    (query.getKeyword() != null ? " AND (LOWER(name) LIKE ? OR LOWER(description) LIKE ?)" : "") +
+                    " ORDER BY product_id";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setBigDecimal(1, Money.toBigDecimal(query.getMinPrice()));
+            ps.setBigDecimal(2, Money.toBigDecimal(query.getMaxPrice()));
+            if (query.getKeyword() != null) {
+                String searchParam = "%" + query.getKeyword().toLowerCase() + "%";
+                ps.setString(3, searchParam);
+                ps.setString(4, searchParam);
+            }
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                Product product = new Product();
+                product.setProductId(rs.getInt("product_id"));
+                product.setName(rs.getString("name"));
+                product.setDescription(rs.getString("description"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+                product.setStock(rs.getInt("stock"));
+
+                matches.add(product);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not query products");
+            e.printStackTrace();
+        }
+
+        // Facets cover every match, the page is cut afterwards
+        long[] priceCounts = new long[ProductFacets.PRICE_BUCKETS];
+        long[] stockCounts = new long[ProductFacets.STOCK_BUCKETS];
+        for (Product product : matches) {
+            priceCounts[ProductFacets.priceBucket(product.getPrice())]++;
+            stockCounts[ProductFacets.stockBucket(product.getStock())]++;
+        }
+
+        int from = Math.min(query.getOffset(), matches.size());
+        int to = (int) Math.min((long) from + query.getLimit(), matches.size());
+        return new ProductQueryResult(matches.size(), new ArrayList<>(matches.subList(from, to)),
+                ProductFacets.labelPriceCounts(priceCounts), ProductFacets.labelStockCounts(stockCounts));
+    }
+
+    /**
+     * Needs the pg_trgm extension: CREATE EXTENSION IF NOT EXISTS pg_trgm;
+     */
+    @Override
+    public List<Product> fuzzySearchProducts(String keyword, int limit) {
+        List<Product> products = new ArrayList<>();
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM product WHERE name % ? ORDER BY similarity(name, ?) DESC LIMIT ?";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setString(1, keyword);
+            ps.setString(2, keyword);
+            ps.setInt(3, limit);
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                Product product = new Product();
+                product.setProductId(rs.getInt("product_id"));
+                product.setName(rs.getString("name"));
+                product.setDescription(rs.getString("description"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+                product.setStock(rs.getInt("stock"));
+
+                products.add(product);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not fuzzy search products");
+            e.printStackTrace();
+        }
+
+        return products;
+    }
+
+    @Override
+    public List<ProductSuggestion> suggestProducts(String prefix, int limit) {
+        List<ProductSuggestion> suggestions = new ArrayList<>();
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT product_id, name FROM product WHERE LOWER(name) LIKE ? OR LOWER(name) LIKE ? " +
+                    "ORDER BY (stock > 0) DESC, LENGTH(name), LOWER(name), product_id LIMIT ?";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            String lowered = prefix.toLowerCase().replace("%", "\\%").replace("_", "\\_");
+            ps.setString(1, lowered + "%");
+            ps.setString(2, "% " + lowered + "%");
+            ps.setInt(3, limit);
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                suggestions.add(new ProductSuggestion(rs.getInt("product_id"), rs.getString("name")));
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not suggest products");
+            e.printStackTrace();
+        }
+
+        return suggestions;
+    }
+
+    @Override
+    public Timestamp getDatabaseTime() {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT now()");
+            if (rs.next()) {
+                return rs.getTimestamp(1);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get database time");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Needs an updated_at column kept current by a trigger:
+     * <pre>
+     * ALTER TABLE product ADD COLUMN updated_at TIMESTAMP NOT NULL DEFAULT now();
+     * CREATE INDEX product_updated_at_idx ON product (updated_at);
+     * CREATE OR REPLACE FUNCTION touch_product() RETURNS trigger AS $$
+     *     BEGIN NEW.updated_at = now(); RETURN NEW; END
+     * $$ LANGUAGE plpgsql;
+     * CREATE TRIGGER product_touch BEFORE UPDATE ON product FOR EACH ROW EXECUTE FUNCTION touch_product();
+     * </pre>
+     */
+    @Override
+    public List<Product> getUpdatedSince(Timestamp since) {
+        List<Product> products = new ArrayList<>();
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM product WHERE updated_at > ?";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setTimestamp(1, since);
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                Product product = new Product();
+                product.setProductId(rs.getInt("product_id"));
+                product.setName(rs.getString("name"));
+                product.setDescription(rs.getString("description"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+                product.setStock(rs.getInt("stock"));
+
+                products.add(product);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get updated products");
+            e.printStackTrace();
+            return null;
+        }
+
+        return products;
+    }
+
+    @Override
+    public List<Integer> getAllIds() {
+        List<Integer> ids = new ArrayList<>();
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT product_id FROM product");
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get product IDs");
+            e.printStackTrace();
+            return null;
+        }
+
+        return ids;
+    }
+
+    @Override
+    public List<Product> getByIds(Collection<Integer> ids) {
+        List<Product> products = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return products;
+        }
+
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM product WHERE product_id = ANY(?)";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setArray(1, conn.createArrayOf("integer", ids.toArray()));
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                Product product = new Product();
+                product.setProductId(rs.getInt("product_id"));
+                product.setName(rs.getString("name"));
+                product.setDescription(rs.getString("description"));
+                product.setPrice(Money.fromBigDecimal(rs.getBigDecimal("price")));
+                product.setStock(rs.getInt("stock"));
+
+                products.add(product);
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not get products by IDs");
+            e.printStackTrace();
+            return null;
+        }
+
+        return products;
+    }
+
+    @Override
+    public void stockChanged(Map<Integer, Integer> deltas) {
+        // Nothing cached here
+    }
 }
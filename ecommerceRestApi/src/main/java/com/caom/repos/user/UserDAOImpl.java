@@ -3,6 +3,7 @@ package com.caom.repos.user;
 import com.caom.models.Order;
 import com.caom.models.Role;
 import com.caom.models.User;
+import com.caom.uow.UnitOfWork;
 import com.caom.util.ConnectionUtil;
 
 import java.sql.*;
@@ -80,13 +81,12 @@ public class UserDAOImpl implements UserDAO{
     @Override
     public List<User> getAll() {
         List<User> allUsers = new ArrayList<>();
-        Connection conn = ConnectionUtil.getConnection();
+        Connection conn = ConnectionUtil.getReadConnection();
 
         String sql = "SELECT * FROM users";
 
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()){
 
                 User u = new User();
@@ -114,8 +114,15 @@ public class UserDAOImpl implements UserDAO{
 
     @Override
     public User getById(int id) {
+        return UnitOfWork.find(User.class, id, () -> loadById(id));
+    }
+
+    /**
+     * Helper method to read one user, getById goes through the request's identity map first
+     */
+    private User loadById(int id) {
         String sql = "SELECT * FROM users WHERE user_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
+        Connection conn = ConnectionUtil.getReadConnection();
 
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, id);
@@ -140,6 +147,7 @@ public class UserDAOImpl implements UserDAO{
 
     @Override
     public User update(User obj) {
+        UnitOfWork.evict(User.class, obj.getUserId());
         try(Connection conn = ConnectionUtil.getConnection()) {
         String checkSql = "SELECT * FROM users WHERE user_id = ?";
         PreparedStatement checkPs = conn.prepareStatement(checkSql);
@@ -202,6 +210,7 @@ public class UserDAOImpl implements UserDAO{
 
     @Override
     public boolean deleteById(int id) {
+        UnitOfWork.evict(User.class, id);
         try(Connection conn = ConnectionUtil.getConnection()) {
             conn.setAutoCommit(false);
             try {
@@ -1,11 +1,21 @@
 package com.caom.services;
 
+import com.caom.dtos.request.CartChange;
+import com.caom.dtos.response.CartValidation;
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.exceptions.ProductNotFoundException;
 import com.caom.models.Cart;
 import com.caom.models.Product;
 import com.caom.repos.cart.CartDAO;
 import com.caom.repos.product.ProductDAO;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CartService {
 
@@ -39,27 +49,85 @@ public class CartService {
             return null;
         }
 
-        // Check if product exists and has enough stock
-        Product product = productDAO.getById(productId);
-        if (product == null) {
-            return null;
+        // Add to cart, the DAO checks the product exists and has stock for the new total in the same statement
+        return cartDAO.addToCart(userId, productId, quantity);
+    }
+
+    /**
+     * Apply many cart changes at once (e.g. re-ordering or adding a bundle). Every line is checked against stock
+     * with one product fetch and the whole request is saved as one batched upsert, or not at all.
+     * @param userId The ID of the user
+     * @param changes The changes, applied in order (two lines for the same product add up)
+     * @return The user's cart after the change, or null if it could not be saved
+     * @throws IllegalArgumentException if a line has an invalid product ID or quantity
+     * @throws ProductNotFoundException if any product does not exist
+     * @throws InsufficientStockException if any resulting quantity is more than the product's stock
+     */
+    public List<Cart> applyCartChanges(int userId, List<CartChange> changes)
+            throws ProductNotFoundException, InsufficientStockException {
+        Set<Integer> productIds = new LinkedHashSet<>();
+        for (CartChange change : changes) {
+            if (change.getProductId() <= 0 || change.getOperation() == null || change.getQuantity() < 0 ||
+                    (change.getOperation() == CartChange.Operation.ADD && change.getQuantity() == 0)) {
+                throw new IllegalArgumentException("Invalid product ID or quantity for product ID: " +
+                        change.getProductId());
+            }
+            productIds.add(change.getProductId());
         }
 
-        // Check if user already has this product in cart
-        Cart existingItem = cartDAO.getByUserAndProductId(userId, productId);
-        int totalRequestedQuantity = quantity;
+        // Start from what's in the cart now, so ADD lines are checked against the full resulting quantity
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (Cart item : cartDAO.getAllByUserId(userId)) {
+            if (productIds.contains(item.getProductId())) {
+                quantities.put(item.getProductId(), item.getQuantity());
+            }
+        }
+        for (CartChange change : changes) {
+            switch (change.getOperation()) {
+                case ADD:
+                    quantities.merge(change.getProductId(), change.getQuantity(), Math::addExact);
+                    break;
+                case SET:
+                    quantities.put(change.getProductId(), change.getQuantity());
+                    break;
+                default:
+                    quantities.put(change.getProductId(), 0);
+                    break;
+            }
+        }
 
-        if (existingItem != null) {
-            totalRequestedQuantity += existingItem.getQuantity();
+        // One fetch for every product in the request
+        Map<Integer, Product> products = new HashMap<>();
+        List<Product> found = productDAO.getByIds(productIds);
+        if (found == null) {
+            return null;
+        }
+        for (Product product : found) {
+            products.put(product.getProductId(), product);
         }
 
-        // Check if there's enough stock
-        if (product.getStock() < totalRequestedQuantity) {
-            return null; // Not enough stock
+        Map<Integer, Integer> upserts = new LinkedHashMap<>();
+        List<Integer> removals = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            int quantity = line.getValue();
+            if (quantity == 0) {
+                removals.add(line.getKey());
+                continue;
+            }
+
+            Product product = products.get(line.getKey());
+            if (product == null) {
+                throw new ProductNotFoundException("Product with ID " + line.getKey() + " not found");
+            }
+            if (product.getStock() < quantity) {
+                throw new InsufficientStockException("Insufficient stock for product: " + product.getName() +
+                        ". Available: " + product.getStock() +
+                        ", Requested: " + quantity);
+            }
+            upserts.put(line.getKey(), quantity);
         }
 
-        // Add to cart
-        return cartDAO.addToCart(userId, productId, quantity);
+        return cartDAO.applyChanges(userId, upserts, removals);
     }
 
     /**
@@ -137,20 +205,20 @@ public class CartService {
     /**
      * Calculate the total price of a user's cart
      * @param userId The ID of the user
-     * @return The total price
+     * @return The total price, in minor units
      */
-    public double calculateCartTotal(int userId) {
-        List<Cart> cartItems = cartDAO.getAllByUserId(userId);
-        double total = 0.0;
-
-        for (Cart item : cartItems) {
-            Product product = productDAO.getById(item.getProductId());
-            if (product != null) {
-                total += product.getPrice() * item.getQuantity();
-            }
-        }
+    public long calculateCartTotal(int userId) {
+        CartValidation validation = cartDAO.validateCart(userId);
+        return validation != null ? validation.getTotal() : 0;
+    }
 
-        return total;
+    /**
+     * Check every item in a user's cart against stock, with one query
+     * @param userId The ID of the user
+     * @return The cart total and the lines that are short of stock, or null if the cart could not be read
+     */
+    public CartValidation validateCart(int userId) {
+        return cartDAO.validateCart(userId);
     }
 
     /**
@@ -159,15 +227,7 @@ public class CartService {
      * @return true if all items have sufficient stock, false otherwise
      */
     public boolean validateCartStock(int userId) {
-        List<Cart> cartItems = cartDAO.getAllByUserId(userId);
-
-        for (Cart item : cartItems) {
-            Product product = productDAO.getById(item.getProductId());
-            if (product == null || product.getStock() < item.getQuantity()) {
-                return false;
-            }
-        }
-
-        return true;
+        CartValidation validation = cartDAO.validateCart(userId);
+        return validation != null && validation.isValid();
     }
 }
\ No newline at end of file
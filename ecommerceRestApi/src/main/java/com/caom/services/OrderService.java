@@ -1,24 +1,78 @@
 package com.caom.services;
 
+import com.caom.analytics.SalesAnalytics;
+import com.caom.cache.IdempotencyStore;
+import com.caom.cache.OrderHistoryCache;
+import com.caom.dtos.response.OrderStatusResult;
+import com.caom.eventlog.OrderEventLog;
+import com.caom.eventlog.OrderEventType;
+import com.caom.exceptions.IdempotencyKeyReusedException;
 import com.caom.exceptions.InsufficientStockException;
 import com.caom.exceptions.OrderNotFoundException;
 import com.caom.exceptions.ProductNotFoundException;
 import com.caom.exceptions.UnauthorizedActionException;
 import com.caom.models.*;
+import com.caom.pipeline.OrderGroupCommitWriter;
+import com.caom.pipeline.OrderTicket;
+import com.caom.repos.idempotency.IdempotencyDAO;
 import com.caom.repos.order.OrderDAO;
 import com.caom.repos.product.ProductDAO;
+import com.caom.uow.UnitOfWork;
+import com.caom.util.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 public class OrderService {
 
+    private final Logger logger = LoggerFactory.getLogger(OrderService.class);
+
     private final OrderDAO orderDAO;
     private final ProductDAO productDAO;
+    private final IdempotencyStore<Order> idempotencyStore;
+    private final IdempotencyDAO idempotencyDAO;
+    private final OrderGroupCommitWriter groupCommitWriter;
+    private final OrderHistoryCache orderHistoryCache;
+    private final SalesAnalytics salesAnalytics;
+    private final OrderEventLog orderEventLog;
 
     public OrderService(OrderDAO orderDAO, ProductDAO productDAO) {
+        this(orderDAO, productDAO, null, null, null, null, null, null);
+    }
+
+    /**
+     * @param idempotencyStore In-memory store used to dedupe retried order creations (may be null)
+     * @param idempotencyDAO Optional persistence for idempotency keys so they survive a restart (may be null)
+     * @param groupCommitWriter Writer that batches order inserts across concurrent requests (may be null)
+     * @param orderHistoryCache Per-user cache of order histories (may be null)
+     * @param salesAnalytics Running sales totals for admins (may be null)
+     * @param orderEventLog Log every order and stock change is appended to (may be null). When set, salesAnalytics
+     *                      is expected to be one of its projections and is updated through it.
+     */
+    public OrderService(OrderDAO orderDAO, ProductDAO productDAO,
+                        IdempotencyStore<Order> idempotencyStore, IdempotencyDAO idempotencyDAO,
+                        OrderGroupCommitWriter groupCommitWriter, OrderHistoryCache orderHistoryCache,
+                        SalesAnalytics salesAnalytics, OrderEventLog orderEventLog) {
         this.orderDAO = orderDAO;
         this.productDAO = productDAO;
+        this.idempotencyStore = idempotencyStore;
+        this.idempotencyDAO = idempotencyDAO;
+        this.groupCommitWriter = groupCommitWriter;
+        this.orderHistoryCache = orderHistoryCache;
+        this.salesAnalytics = salesAnalytics;
+        this.orderEventLog = orderEventLog;
     }
 
     /**
@@ -32,28 +86,31 @@ public class OrderService {
     public Order createOrder(int userId, List<OrderItem> orderItems)
             throws InsufficientStockException, ProductNotFoundException, OrderNotFoundException {
         // Validate stock and calculate total price
-        double totalPrice = 0.0;
+        long totalPrice = 0;
 
-        // Check stock for each product and hold it temporarily
+        // Check stock for each product and take it with a conditional decrement, so concurrent checkouts can't both
+        // take the same units
+        List<OrderItem> reserved = new ArrayList<>();
         for (OrderItem item : orderItems) {
             Product product = productDAO.getById(item.getProductId());
             if (product == null) {
+                restoreStock(reserved);
                 throw new ProductNotFoundException("Product with ID " + item.getProductId() + " not found");
             }
 
-            if (product.getStock() < item.getQuantity()) {
+            if (product.getStock() < item.getQuantity() ||
+                    !productDAO.updateStock(item.getProductId(), -item.getQuantity())) {
+                restoreStock(reserved);
                 throw new InsufficientStockException("Insufficient stock for product: " + product.getName() +
                         ". Available: " + product.getStock() +
                         ", Requested: " + item.getQuantity());
             }
+            reserved.add(item);
 
-            double itemPrice = product.getPrice() * item.getQuantity();
-            totalPrice = totalPrice + itemPrice;
+            long itemPrice = Money.times(product.getPrice(), item.getQuantity());
+            totalPrice = Money.plus(totalPrice, itemPrice);
 
             item.setPrice(product.getPrice());
-
-            product.setStock(product.getStock() - item.getQuantity());
-            productDAO.update(product);
         }
 
         Order order = new Order();
@@ -61,15 +118,243 @@ public class OrderService {
         order.setTotalPrice(totalPrice);
         order.setStatus(OrderStatus.PENDING);
 
-        Order savedOrder = orderDAO.create(order);
+        Order savedOrder;
+        if (groupCommitWriter != null) {
+            // Share one transaction with whatever other orders are being placed right now
+            order.setOrderItems(orderItems);
+            savedOrder = writeGrouped(order);
+        } else {
+            savedOrder = orderDAO.create(order);
+            if (savedOrder == null) {
+                restoreStock(orderItems);
+                throw new IllegalStateException("The order could not be saved");
+            }
+
+            for (OrderItem item : orderItems) {
+                item.setOrderId(savedOrder.getOrderId());
+                orderDAO.addOrderItem(item);
+            }
+        }
+
+        Order createdOrder = getOrderById(savedOrder.getOrderId());
+        recordCreatedOrder(createdOrder);
+        return createdOrder;
+    }
+
+    /**
+     * Turns the user's cart into an order in a single transaction and empties the cart
+     * @param userId User ID of the order owner
+     * @return The created order with its items, or null if it could not be saved
+     * @throws InsufficientStockException if there is not enough stock for any line (nothing is changed)
+     * @throws IllegalStateException if the cart is empty
+     */
+    public Order createOrderFromCart(int userId) throws InsufficientStockException {
+        Order order = orderDAO.createFromCart(userId);
+        if (order == null) {
+            return null;
+        }
+
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (OrderItem item : order.getOrderItems()) {
+            deltas.merge(item.getProductId(), -item.getQuantity(), Integer::sum);
+        }
+        productDAO.stockChanged(deltas);
+
+        recordCreatedOrder(order);
+        return order;
+    }
+
+    /**
+     * Keeps in-memory state current after an order has been created (also called by the async order pipeline)
+     * @param order The created order
+     */
+    public void recordCreatedOrder(Order order) {
+        if (orderHistoryCache != null) {
+            orderHistoryCache.append(order);
+        }
+        if (orderEventLog != null) {
+            orderEventLog.append(OrderEventType.ORDER_CREATED, order, null);
+        } else if (salesAnalytics != null) {
+            salesAnalytics.add(order);
+        }
+    }
+
+    /**
+     * Called by the async order pipeline once an order is confirmed: keeps in-memory state current and remembers the
+     * request's idempotency key, so later retries through either path get this order back
+     * @param ticket The confirmed request
+     */
+    public void recordConfirmedOrder(OrderTicket ticket) {
+        Order order = ticket.getOrder();
+        recordCreatedOrder(order);
+
+        String idempotencyKey = ticket.getIdempotencyKey();
+        if (idempotencyKey == null) {
+            return;
+        }
+        try {
+            if (idempotencyStore != null) {
+                idempotencyStore.execute(ticket.getUserId() + ":" + idempotencyKey, ticket.getRequestHash(),
+                        () -> order);
+            }
+            if (idempotencyDAO != null) {
+                idempotencyDAO.save(ticket.getUserId(), idempotencyKey, ticket.getRequestHash(), order.getOrderId());
+            }
+        } catch (Exception e) {
+            // The order exists either way, only a retry outliving the pipeline's ticket could create it twice
+            logger.error("Could not remember idempotency key for order ID: " + order.getOrderId(), e);
+        }
+    }
+
+    /**
+     * Look up the order an idempotency key already created, without creating anything
+     * @param userId User ID of the order owner
+     * @param idempotencyKey Key sent by the client
+     * @param requestHash Hash of the requested items, see requestHash
+     * @return The order created with this key, or null if there is none
+     * @throws IdempotencyKeyReusedException if the key was already used for different items
+     */
+    public Order getOrderByIdempotencyKey(int userId, String idempotencyKey, String requestHash)
+            throws IdempotencyKeyReusedException {
+        if (idempotencyKey == null || idempotencyKey.trim().isEmpty()) {
+            return null;
+        }
+
+        if (idempotencyStore != null) {
+            Order remembered = idempotencyStore.getIfPresent(userId + ":" + idempotencyKey, requestHash);
+            if (remembered != null) {
+                return remembered;
+            }
+        }
+        if (idempotencyDAO != null) {
+            Integer existingOrderId = idempotencyDAO.getOrderId(userId, idempotencyKey, requestHash);
+            if (existingOrderId != null) {
+                try {
+                    return getOrderById(existingOrderId);
+                } catch (OrderNotFoundException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to keep in-memory state current after an order changed status
+     */
+    private void recordStatusChange(Order order, OrderStatus oldStatus, OrderStatus newStatus) {
+        if (orderHistoryCache != null) {
+            orderHistoryCache.updateStatus(order.getUserId(), order.getOrderId(), newStatus);
+        }
+        if (orderEventLog != null) {
+            orderEventLog.append(OrderEventType.ORDER_STATUS_CHANGED, withStatus(order, newStatus), oldStatus);
+        } else if (salesAnalytics != null) {
+            salesAnalytics.changeStatus(order, oldStatus, newStatus);
+        }
+    }
+
+    /**
+     * Helper method to keep in-memory state current after an order was deleted
+     */
+    private void recordDeletedOrder(Order order) {
+        if (orderHistoryCache != null) {
+            orderHistoryCache.removeOrder(order.getUserId(), order.getOrderId());
+        }
+        if (orderEventLog != null) {
+            orderEventLog.append(OrderEventType.ORDER_DELETED, order, null);
+        } else if (salesAnalytics != null) {
+            salesAnalytics.remove(order);
+        }
+    }
+
+    /**
+     * Helper method to copy an order with another status, so a logged event shows the order after the change
+     */
+    private static Order withStatus(Order order, OrderStatus status) {
+        if (order.getStatus() == status) {
+            return order;
+        }
+        Order copy = new Order(order.getUserId(), order.getTotalPrice());
+        copy.setOrderId(order.getOrderId());
+        copy.setStatus(status);
+        copy.setCreatedAt(order.getCreatedAt());
+        copy.setOrderItems(order.getOrderItems());
+        return copy;
+    }
 
+    /**
+     * Helper method to save an order through the group commit writer. The writer gives the stock back whenever the
+     * order isn't saved, including when its batch only fails after we stopped waiting for it.
+     */
+    private Order writeGrouped(Order order) {
+        try {
+            return groupCommitWriter.write(order, failed -> restoreStock(failed.getOrderItems()));
+        } catch (TimeoutException e) {
+            // The batch may still commit, so the stock stays taken until the writer knows
+            throw new IllegalStateException("The order is taking longer than expected to be saved", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("The order could not be saved: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates a new order at most once per idempotency key. Repeats of the same key (including requests that
+     * arrive while the first one is still running) get the original order back instead of creating a new one.
+     * @param userId User ID of the order owner
+     * @param orderItems List of order items to be included in the order
+     * @param idempotencyKey Key sent by the client, or null to always create a new order
+     * @return The created (or previously created) order
+     * @throws IdempotencyKeyReusedException if the key was already used for different items
+     * @throws Exception whatever createOrder throws
+     */
+    public Order createOrder(int userId, List<OrderItem> orderItems, String idempotencyKey) throws Exception {
+        if (idempotencyKey == null || idempotencyKey.trim().isEmpty() || idempotencyStore == null) {
+            return createOrder(userId, orderItems);
+        }
+
+        // Keys are scoped per user so two customers can't collide on the same key
+        String requestHash = requestHash(orderItems);
+        return idempotencyStore.execute(userId + ":" + idempotencyKey, requestHash, () -> {
+            if (idempotencyDAO != null) {
+                Integer existingOrderId = idempotencyDAO.getOrderId(userId, idempotencyKey, requestHash);
+                if (existingOrderId != null) {
+                    return getOrderById(existingOrderId);
+                }
+            }
+
+            Order createdOrder = createOrder(userId, orderItems);
+
+            if (idempotencyDAO != null) {
+                idempotencyDAO.save(userId, idempotencyKey, requestHash, createdOrder.getOrderId());
+            }
+            return createdOrder;
+        });
+    }
+
+    /**
+     * Hash of what an order request asks for, so a reused idempotency key can be told apart from a retry. It's
+     * taken over the parsed items rather than the raw body, so formatting differences between retries don't count.
+     * @param orderItems The requested items (product ID and quantity)
+     * @return A SHA-256 hex string
+     */
+    public static String requestHash(List<OrderItem> orderItems) {
+        StringBuilder request = new StringBuilder();
         for (OrderItem item : orderItems) {
-            item.setOrderId(savedOrder.getOrderId());
-            orderDAO.addOrderItem(item);
+            request.append(item.getProductId()).append(':').append(item.getQuantity()).append(';');
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(request.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
         }
-        System.out.println("ORDERID");
-        System.out.println(savedOrder.getOrderId());
-        return getOrderById(savedOrder.getOrderId());
     }
 
     /**
@@ -97,6 +382,25 @@ public class OrderService {
      * @return List of orders for the user
      */
     public List<Order> getOrdersByUserId(int userId) {
+        if (orderHistoryCache == null) {
+            return loadOrdersByUserId(userId);
+        }
+
+        List<Order> cached = orderHistoryCache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = orderHistoryCache.beginLoad(userId);
+        List<Order> orders = loadOrdersByUserId(userId);
+        orderHistoryCache.put(userId, orders, version);
+        return orders;
+    }
+
+    /**
+     * Helper method to read a user's orders and their items from the database
+     */
+    private List<Order> loadOrdersByUserId(int userId) {
         List<Order> orders = orderDAO.getOrdersByUserId(userId);
 
         // Fetch order items for each order
@@ -143,19 +447,100 @@ public class OrderService {
             throw new UnauthorizedActionException("You are not authorized to update this order");
         }
 
-        // Handle stock adjustment if cancelling an order
         if (status == OrderStatus.CANCELLED && order.getStatus() != OrderStatus.CANCELLED) {
-            // Return items to stock
-            restoreStock(order);
+            // Cancel and return items to stock, saved with the rest of the request like any other status change
+            cancelAndRestoreStock(order);
+        } else {
+            // Update the status, saved with the rest of the request, and only count it once it's saved
+            OrderStatus oldStatus = order.getStatus();
+            orderDAO.updateStatus(orderId, status);
+            UnitOfWork.afterCommit(() -> recordStatusChange(order, oldStatus, status));
         }
 
-        // Update the status
-        orderDAO.updateStatus(orderId, status);
-
-        // Return the updated order
+        // Return the updated order, the request's identity map already has it and its items
         return getOrderById(orderId);
     }
 
+    /**
+     * Moves many orders to one status (admin only, e.g. fulfilment marking orders SHIPPED). Transitions are checked
+     * in memory against OrderStatus.canTransitionTo and applied with one set-based update; cancellations restore
+     * stock in the same transaction.
+     * @param orderIds Orders to update, duplicates are ignored
+     * @param status New status for the orders
+     * @return One result per distinct order ID, in request order
+     */
+    public List<OrderStatusResult> updateOrderStatuses(List<Integer> orderIds, OrderStatus status) {
+        Set<Integer> ids = new LinkedHashSet<>(orderIds);
+
+        Map<Integer, Order> orders = new HashMap<>();
+        for (Order order : orderDAO.getByIds(ids)) {
+            orders.put(order.getOrderId(), order);
+        }
+        // Items are only needed when analytics or stock move with the status
+        Map<Integer, List<OrderItem>> items = orderDAO.getOrderItems(orders.keySet());
+        for (Order order : orders.values()) {
+            order.setOrderItems(items.getOrDefault(order.getOrderId(), new ArrayList<>()));
+        }
+
+        // Validate every transition before touching the database
+        List<Order> valid = new ArrayList<>();
+        Map<Integer, OrderStatusResult> results = new HashMap<>();
+        for (int orderId : ids) {
+            Order order = orders.get(orderId);
+            if (order == null) {
+                results.put(orderId, new OrderStatusResult(orderId, false, null, "Order not found"));
+            } else if (!order.getStatus().canTransitionTo(status)) {
+                results.put(orderId, new OrderStatusResult(orderId, false, order.getStatus(),
+                        "Cannot move an order from " + order.getStatus() + " to " + status));
+            } else {
+                valid.add(order);
+            }
+        }
+
+        Map<Integer, OrderStatus> applied;
+        if (valid.isEmpty()) {
+            applied = new HashMap<>();
+        } else if (status == OrderStatus.CANCELLED) {
+            applied = orderDAO.cancelAndRestoreStock(valid);
+        } else {
+            Set<OrderStatus> fromStatuses = EnumSet.noneOf(OrderStatus.class);
+            for (OrderStatus from : OrderStatus.values()) {
+                if (from.canTransitionTo(status)) {
+                    fromStatuses.add(from);
+                }
+            }
+            List<Integer> validIds = new ArrayList<>(valid.size());
+            for (Order order : valid) {
+                validIds.add(order.getOrderId());
+            }
+            applied = orderDAO.updateStatuses(validIds, status, fromStatuses);
+        }
+
+        for (Order order : valid) {
+            OrderStatus oldStatus = applied != null ? applied.get(order.getOrderId()) : null;
+            if (applied == null) {
+                results.put(order.getOrderId(), new OrderStatusResult(order.getOrderId(), false, order.getStatus(),
+                        "The order could not be updated"));
+            } else if (oldStatus == null) {
+                // Passed validation but was changed by someone else before the update
+                results.put(order.getOrderId(), new OrderStatusResult(order.getOrderId(), false, null,
+                        "The order was changed by another request"));
+            } else {
+                if (status == OrderStatus.CANCELLED) {
+                    recordRestoredStock(order);
+                }
+                recordStatusChange(order, oldStatus, status);
+                results.put(order.getOrderId(), new OrderStatusResult(order.getOrderId(), true, status, null));
+            }
+        }
+
+        List<OrderStatusResult> ordered = new ArrayList<>(ids.size());
+        for (int orderId : ids) {
+            ordered.add(results.get(orderId));
+        }
+        return ordered;
+    }
+
     /**
      * Cancels an order and restores product stock
      * @param orderId Order ID to cancel
@@ -179,28 +564,51 @@ public class OrderService {
             throw new UnauthorizedActionException("You are not authorized to cancel this order");
         }
 
-        // Update the status to CANCELLED
+        // Update the status to CANCELLED and restore stock for all items
+        cancelAndRestoreStock(order);
         order.setStatus(OrderStatus.CANCELLED);
-        orderDAO.update(order);
-
-        // Restore stock for all items
-        restoreStock(order);
 
         return order;
     }
 
     /**
-     * Helper method to restore product stock when an order is cancelled
-     * @param order The order whose items should be returned to stock
+     * Helper method to cancel an order and return its items to stock in one transaction, the request's if there is
+     * one. Stock and events are only recorded once the cancel is committed.
+     * @param order The order to cancel, with its items
+     */
+    private void cancelAndRestoreStock(Order order) {
+        // Not called back if a concurrent request cancelled it first, which also restored the stock
+        boolean saved = orderDAO.cancelAndRestoreStock(order, oldStatus -> {
+            recordRestoredStock(order);
+            recordStatusChange(order, oldStatus, OrderStatus.CANCELLED);
+        });
+        if (!saved) {
+            throw new IllegalStateException("The order could not be cancelled");
+        }
+    }
+
+    /**
+     * Helper method to keep in-memory state current after an order's items went back into stock
      */
-    private void restoreStock(Order order) {
+    private void recordRestoredStock(Order order) {
+        Map<Integer, Integer> deltas = new HashMap<>();
         for (OrderItem item : order.getOrderItems()) {
-            Product product = productDAO.getById(item.getProductId());
-            if (product != null) {
-                // Restore the quantity
-                product.setStock(product.getStock() + item.getQuantity());
-                productDAO.update(product);
-            }
+            deltas.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        productDAO.stockChanged(deltas);
+
+        if (orderEventLog != null) {
+            orderEventLog.append(OrderEventType.STOCK_RESTORED, order, null);
+        }
+    }
+
+    /**
+     * Helper method to give back the stock taken for an order that could not be saved
+     * @param items The items whose quantities should be returned to stock
+     */
+    private void restoreStock(List<OrderItem> items) {
+        for (OrderItem item : items) {
+            productDAO.updateStock(item.getProductId(), item.getQuantity());
         }
     }
 
@@ -222,12 +630,17 @@ public class OrderService {
             throw new UnauthorizedActionException("Only administrators can delete orders");
         }*/
 
-        // If order is not cancelled, restore stock first
-        if (order.getStatus() != OrderStatus.CANCELLED) {
-            restoreStock(order);
+        // Delete the order and, if it was not cancelled, restore its stock in the same transaction
+        OrderStatus deletedStatus = orderDAO.deleteAndRestoreStock(order);
+        if (deletedStatus == null) {
+            return false;
         }
 
-        // Delete the order
-        return orderDAO.delete(orderId);
+        order.setStatus(deletedStatus);
+        if (deletedStatus != OrderStatus.CANCELLED) {
+            recordRestoredStock(order);
+        }
+        recordDeletedOrder(order);
+        return true;
     }
 }
\ No newline at end of file
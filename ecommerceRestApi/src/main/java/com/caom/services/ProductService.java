@@ -1,13 +1,20 @@
 package com.caom.services;
 
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.dtos.response.ProductSuggestion;
 import com.caom.models.Product;
 import com.caom.repos.product.ProductDAO;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ProductService {
 
+    // How many typo-tolerant matches to return when the exact search finds nothing
+    private static final int FUZZY_SEARCH_LIMIT = 20;
+
     private final ProductDAO productDAO;
 
     public ProductService(ProductDAO productDAO) {
@@ -25,10 +32,10 @@ public class ProductService {
 
     /**
      * Validates product price - ensures it's positive
-     * @param price Price to validate
+     * @param price Price to validate, in minor units
      * @return true if price is valid, false otherwise
      */
-    public boolean validatePrice(double price) {
+    public boolean validatePrice(long price) {
         return price >= 0;
     }
 
@@ -45,11 +52,11 @@ public class ProductService {
      * Adds a new product to the database
      * @param name Product name
      * @param description Product description
-     * @param price Product price
+     * @param price Product price, in minor units
      * @param stock Initial stock quantity
      * @return The created Product with ID populated, or null if creation failed
      */
-    public Product addNewProduct(String name, String description, double price, int stock) {
+    public Product addNewProduct(String name, String description, long price, int stock) {
         if (!validateProductName(name) || !validatePrice(price) || !validateStock(stock)) {
             return null;
         }
@@ -106,11 +113,11 @@ public class ProductService {
 
     /**
      * Retrieves products within a specified price range
-     * @param minPrice Minimum price
-     * @param maxPrice Maximum price
+     * @param minPrice Minimum price, in minor units
+     * @param maxPrice Maximum price, in minor units
      * @return List of products in the price range
      */
-    public List<Product> getProductsByPriceRange(double minPrice, double maxPrice) {
+    public List<Product> getProductsByPriceRange(long minPrice, long maxPrice) {
         if (minPrice < 0 || maxPrice < minPrice) {
             return null;
         }
@@ -149,7 +156,8 @@ public class ProductService {
     }
 
     /**
-     * Searches for products by keyword in name or description
+     * Searches for products by keyword in name or description, falling back to a fuzzy name search so
+     * misspelled keywords still find something in the same request
      * @param keyword Search term
      * @return List of matching products
      */
@@ -158,6 +166,43 @@ public class ProductService {
             return getAllProducts();
         }
 
-        return productDAO.searchProducts(keyword);
+        List<Product> products = productDAO.searchProducts(keyword);
+        if (products.isEmpty()) {
+            // Nothing contains the keyword as typed, try again tolerating typos
+            products = productDAO.fuzzySearchProducts(keyword, FUZZY_SEARCH_LIMIT);
+        }
+        return products;
+    }
+
+    /**
+     * Filters products on price range, stock and keyword in one pass, with facet counts
+     * @param query Combined filter and page
+     * @return The matching page and facet counts, or null if the filter is invalid
+     */
+    public ProductQueryResult queryProducts(ProductQuery query) {
+        if (query.getMinPrice() < 0 || query.getMaxPrice() < query.getMinPrice() ||
+                query.getOffset() < 0 || query.getLimit() <= 0) {
+            return null;
+        }
+
+        if (query.getKeyword() != null && query.getKeyword().trim().isEmpty()) {
+            query.setKeyword(null);
+        }
+
+        return productDAO.query(query);
+    }
+
+    /**
+     * Typeahead suggestions for the search box
+     * @param prefix What the user has typed so far
+     * @param limit Maximum number of suggestions
+     * @return Matching product names, best first
+     */
+    public List<ProductSuggestion> suggestProducts(String prefix, int limit) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return productDAO.suggestProducts(prefix.trim(), limit);
     }
-}
\ No newline at end of file
+}
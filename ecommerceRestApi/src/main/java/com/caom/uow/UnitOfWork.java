@@ -0,0 +1,273 @@
+package com.caom.uow;
+
+import com.caom.util.ConnectionUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Everything one HTTP request reads and writes through the DAOs.
+ *
+ * Entities loaded by ID are kept in an identity map, so loading the same order or user twice in a request (in the
+ * controller and again in the service, or before and after an update) only queries once. Writes whose result the
+ * response doesn't need (status changes, a single cancel, cart line updates) are queued and run together in one
+ * transaction on a connection of its own when the request finishes, and work that should only happen once they're
+ * saved (events, cache updates) waits for that commit.
+ *
+ * The unit of work lives in a ThreadLocal, begun and ended around every request in JavalinUtil. Code running
+ * outside a request (the order pipeline, background jobs, tests) has none, and every static method here then
+ * loads, writes and runs callbacks straight away.
+ */
+public class UnitOfWork {
+
+    /**
+     * A write to run inside the request's transaction
+     */
+    @FunctionalInterface
+    public interface Write {
+        void execute(Connection conn) throws SQLException;
+    }
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    // Stands in for an ID that was looked up and doesn't exist, so the miss isn't queried again either
+    private static final Object MISSING = new Object();
+
+    private final Map<Class<?>, Map<Object, Object>> identityMap = new HashMap<>();
+    private final List<Write> writes = new ArrayList<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    private boolean replicaReads;
+    private int databaseCalls;
+    private int loads;
+    private int identityMapHits;
+
+    /**
+     * Start a unit of work on this thread, replacing any left behind by an earlier request
+     * @return The new unit of work
+     */
+    public static UnitOfWork begin() {
+        UnitOfWork unitOfWork = new UnitOfWork();
+        CURRENT.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * @return The unit of work of the request running on this thread, or null outside a request
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Detach the unit of work from this thread, the caller then commits or drops it
+     * @return The unit of work that was running, or null if there was none
+     */
+    public static UnitOfWork end() {
+        UnitOfWork unitOfWork = CURRENT.get();
+        CURRENT.remove();
+        return unitOfWork;
+    }
+
+    /**
+     * Get an entity from the identity map, loading it the first time it's asked for in this request
+     * @param type The kind of entity, the identity map keeps one table per type
+     * @param id The entity's ID
+     * @param loader Reads the entity from the database, may return null if it doesn't exist
+     * @return The entity, the same instance every time within a request
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T find(Class<?> type, Object id, Supplier<T> loader) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return loader.get();
+        }
+
+        Map<Object, Object> entities = unitOfWork.identityMap.computeIfAbsent(type, t -> new HashMap<>());
+        Object entity = entities.get(id);
+        if (entity != null) {
+            unitOfWork.identityMapHits++;
+            return entity == MISSING ? null : (T) entity;
+        }
+
+        unitOfWork.loads++;
+        T loaded = loader.get();
+        entities.put(id, loaded != null ? loaded : MISSING);
+        return loaded;
+    }
+
+    /**
+     * Get an entity only if this request already loaded it
+     * @return The entity, or null if it isn't in the identity map
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T peek(Class<?> type, Object id) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return null;
+        }
+        Map<Object, Object> entities = unitOfWork.identityMap.get(type);
+        Object entity = entities != null ? entities.get(id) : null;
+        return entity == null || entity == MISSING ? null : (T) entity;
+    }
+
+    /**
+     * Forget an entity, for writes that change it without going through the identity map
+     */
+    public static void evict(Class<?> type, Object id) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return;
+        }
+        Map<Object, Object> entities = unitOfWork.identityMap.get(type);
+        if (entities != null) {
+            entities.remove(id);
+        }
+    }
+
+    /**
+     * Forget every entity of one type
+     */
+    public static void evictAll(Class<?> type) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork != null) {
+            unitOfWork.identityMap.remove(type);
+        }
+    }
+
+    /**
+     * Queue a write for the request's transaction
+     * @param write The write
+     * @return true if it was queued, false if there's no unit of work and the caller has to write it now
+     */
+    public static boolean defer(Write write) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return false;
+        }
+        unitOfWork.writes.add(write);
+        return true;
+    }
+
+    /**
+     * Run something once the request's writes are committed, or now if there's no unit of work. It doesn't run
+     * if the request fails or the commit does.
+     */
+    public static void afterCommit(Runnable callback) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            callback.run();
+            return;
+        }
+        unitOfWork.afterCommit.add(callback);
+    }
+
+    /**
+     * Count a database call against the current request, if there is one
+     */
+    public static void recordDatabaseCall() {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork != null) {
+            unitOfWork.databaseCalls++;
+        }
+    }
+
+    /**
+     * @param replicaReads true if this request's read-only queries may go to a read replica
+     */
+    public void setReplicaReads(boolean replicaReads) {
+        this.replicaReads = replicaReads;
+    }
+
+    /**
+     * @return true if this request's read-only queries may go to a read replica
+     */
+    public boolean isReplicaReads() {
+        return replicaReads;
+    }
+
+    /**
+     * Run the queued writes in one transaction, then the after-commit callbacks. Call it after end(), so the
+     * callbacks write straight through.
+     * @return true if everything was saved, false if the transaction was rolled back
+     */
+    public boolean commit() {
+        return commit(ConnectionUtil::openConnection);
+    }
+
+    /**
+     * Like commit(), on a connection of its own. Requests end on many threads at once, so the transaction can't
+     * use the shared connection, where another request's auto-commit statements would land in it.
+     * @param connectionFactory Opens the connection for the transaction, which is closed afterwards
+     * @return true if everything was saved, false if the transaction was rolled back
+     */
+    public boolean commit(Supplier<Connection> connectionFactory) {
+        if (!writes.isEmpty()) {
+            // One call per queued write plus the commit itself
+            databaseCalls += writes.size() + 1;
+            try (Connection conn = connectionFactory.get()) {
+                if (conn == null) {
+                    System.out.println("Could not establish connection to save the request's changes");
+                    return false;
+                }
+                conn.setAutoCommit(false);
+
+                try {
+                    for (Write write : writes) {
+                        write.execute(conn);
+                    }
+                    conn.commit();
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    System.out.println("Transaction rolled back. Could not save the request's changes.");
+                    e.printStackTrace();
+                    return false;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.out.println("Could not establish connection to save the request's changes");
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        for (Runnable callback : afterCommit) {
+            callback.run();
+        }
+        return true;
+    }
+
+    /**
+     * @return Database calls made during the request, including the final commit
+     */
+    public int getDatabaseCalls() {
+        return databaseCalls;
+    }
+
+    /**
+     * @return Entities the identity map had to load
+     */
+    public int getLoads() {
+        return loads;
+    }
+
+    /**
+     * @return Entity lookups served from the identity map instead of the database
+     */
+    public int getIdentityMapHits() {
+        return identityMapHits;
+    }
+
+    /**
+     * @return Writes queued for the commit
+     */
+    public int getWriteCount() {
+        return writes.size();
+    }
+}
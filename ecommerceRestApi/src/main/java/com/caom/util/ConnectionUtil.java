@@ -1,12 +1,11 @@
 package com.caom.util;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import com.caom.config.AppConfig;
+import com.caom.uow.UnitOfWork;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Properties;
 
 public class ConnectionUtil {
     /*
@@ -24,6 +23,9 @@ public class ConnectionUtil {
     // Connection interface represents physical connection to the database
     private static Connection conn = null;
 
+    // Read replicas, set up from the properties file the first time it's needed
+    private static volatile ReplicaRouter replicaRouter = null;
+
     // Private constructor
     private ConnectionUtil(){
         // Having this be private means NOBODY can make an instance of this class at all
@@ -31,6 +33,9 @@ public class ConnectionUtil {
 
     // Public static getInstance method
     public static Connection getConnection(){
+        // Counted against the request that asked, every DAO call fetches the connection once
+        UnitOfWork.recordDatabaseCall();
+
         // If a connection already exists, we return it
         // Let's check to see if there is an existing connection
         try {
@@ -56,37 +61,109 @@ public class ConnectionUtil {
 //        String username = "postgres";
 //        String password = "password";
 
-        // We're going to hide the above information in a properties file
-        String url;
-        String username;
-        String password;
-
-        Properties props = new Properties();
-
+        // We're going to hide the above information in the app config (application.properties, which environment
+        // variables and system properties can override), read once rather than on every new connection
+        AppConfig config = AppConfig.get();
+        String url = config.getString("url", null);
+        String username = config.getString("username", null);
+        String password = config.getString("password", null);
 
         // Use the DriverManager to set up a connection
         try {
-            // Load the properties file
-            props.load(new FileReader("src/main/resources/application.properties"));
-
-            url = props.getProperty("url");
-            username = props.getProperty("username");
-            password = props.getProperty("password");
-
-
             conn = DriverManager.getConnection(url, username, password);
 //            System.out.println("Connection established");
         } catch (SQLException e) {
             e.printStackTrace();
             System.out.println("Could not establish connection!");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            System.out.println("Could not establish connection!");
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Could not establish connection!");
         }
 
         return conn;
     }
+
+    /**
+     * Returns a connection for a read-only query. GET requests from a session that hasn't written recently read from
+     * a replica (see ReplicaRouter), everything else, including code running outside a request, reads from the
+     * primary like getConnection(). Only use it in DAO methods that never write.
+     *
+     * The connection is shared (the primary singleton, or the replica's connection ReplicaRouter keeps), so callers
+     * must not close it. Close the statements and result sets instead, with try-with-resources.
+     * @return A replica connection, or the primary connection, owned by ConnectionUtil
+     */
+    public static Connection getReadConnection(){
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork == null || !unitOfWork.isReplicaReads()) {
+            return getConnection();
+        }
+
+        Connection replica = getReplicaRouter().route();
+        if (replica == null) {
+            // No replica configured or none is up
+            return getConnection();
+        }
+        UnitOfWork.recordDatabaseCall();
+        return replica;
+    }
+
+    /**
+     * Send a user's reads to the primary for a while, so they see what they just wrote
+     * @param userId The user that wrote, null for requests without a session
+     */
+    public static void recordWrite(Integer userId){
+        getReplicaRouter().recordWrite(userId);
+    }
+
+    /**
+     * @param userId The user, null for requests without a session
+     * @return true if the user's reads should go to the primary
+     */
+    public static boolean wroteRecently(Integer userId){
+        return getReplicaRouter().wroteRecently(userId);
+    }
+
+    /**
+     * Helper method to set up the replicas listed in the app config, on first use
+     * replica.urls is a comma separated list of JDBC urls, empty or missing means every read goes to the primary.
+     * replica.username and replica.password default to the primary's.
+     */
+    private static ReplicaRouter getReplicaRouter(){
+        ReplicaRouter router = replicaRouter;
+        if (router != null) {
+            return router;
+        }
+
+        synchronized (ConnectionUtil.class) {
+            if (replicaRouter != null) {
+                return replicaRouter;
+            }
+
+            AppConfig config = AppConfig.get();
+            String username = config.getString("replica.username", config.getString("username", null));
+            String password = config.getString("replica.password", config.getString("password", null));
+
+            replicaRouter = new ReplicaRouter(config.getList("replica.urls"),
+                    url -> DriverManager.getConnection(url, username, password), 30_000, 5_000);
+            // A replica that's down is retried after 30s, and a session reads its own writes from the primary for 5s
+            config.watchLong("replica.retryMillis", 30_000L, replicaRouter::setRetryAfterMillis);
+            config.watchLong("replica.readYourWritesMillis", 5_000L, replicaRouter::setReadYourWritesMillis);
+            return replicaRouter;
+        }
+    }
+
+    /**
+     * Opens a brand new connection that is NOT the shared singleton. Use this for work that runs on several threads
+     * at once (each thread needs its own connection), and close it when you're done.
+     * @return A new connection, or null if it could not be established
+     */
+    public static Connection openConnection(){
+        AppConfig config = AppConfig.get();
+
+        try {
+            return DriverManager.getConnection(config.getString("url", null), config.getString("username", null),
+                    config.getString("password", null));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.out.println("Could not establish connection!");
+            return null;
+        }
+    }
 }
@@ -1,14 +1,37 @@
 package com.caom.util;
 
+import com.caom.admission.AdaptiveConcurrencyLimiter;
+import com.caom.admission.RateLimitPolicy;
+import com.caom.admission.RateLimiter;
+import com.caom.admission.RequestPriority;
+import com.caom.analytics.SalesAnalytics;
+import com.caom.cache.IdempotencyStore;
+import com.caom.cache.OrderHistoryCache;
+import com.caom.cache.ProductStore;
+import com.caom.cdc.ProductChangeListener;
+import com.caom.config.AppConfig;
+import com.caom.controllers.AnalyticsController;
 import com.caom.controllers.CartController;
 import com.caom.controllers.OrderController;
 import com.caom.controllers.ProductController;
 import com.caom.controllers.UserController;
+import com.caom.dtos.response.ErrorMessage;
+import com.caom.eventlog.InventoryLedger;
+import com.caom.eventlog.OrderEventLog;
+import com.caom.eventlog.SalesAnalyticsProjection;
+import com.caom.models.Order;
+import com.caom.pipeline.OrderGroupCommitWriter;
+import com.caom.pipeline.OrderPipeline;
+import com.caom.repos.analytics.SalesDAO;
+import com.caom.repos.analytics.SalesDAOImpl;
 import com.caom.repos.cart.CartDAO;
 import com.caom.repos.cart.CartDAOImpl;
+import com.caom.repos.idempotency.IdempotencyDAO;
+import com.caom.repos.idempotency.IdempotencyDAOImpl;
 import com.caom.repos.order.OrderDAO;
 import com.caom.repos.order.OrderDAOImpl;
-import com.caom.repos.product.ProductDAO;
+import com.caom.repos.product.CachedProductDAO;
+import com.caom.repos.product.ProductChangeDAOImpl;
 import com.caom.repos.product.ProductDAOImpl;
 import com.caom.repos.user.UserDAO;
 import com.caom.repos.user.UserDAOImpl;
@@ -16,23 +39,58 @@ import com.caom.services.CartService;
 import com.caom.services.OrderService;
 import com.caom.services.ProductService;
 import com.caom.services.UserService;
+import com.caom.uow.UnitOfWork;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 import static io.javalin.apibuilder.ApiBuilder.*;
 
 public class JavalinUtil {
 
+    private static final Logger logger = LoggerFactory.getLogger(JavalinUtil.class);
 
     // This class is not explicitly necessary, this can all be done in the main class but since the main class is
     // just for starting the app I'll do my config information here
     // The parent path for all of our resources has been http://localhost:7070
     public static Javalin create(int port){
+        // Sizes, intervals and timeouts come from the app config, the numbers here are the defaults. Tunables that
+        // are safe to change while running are watched, and the rest take effect on restart.
+        AppConfig appConfig = AppConfig.get();
+
         // Create all of our variables
         UserDAO userDAO = new UserDAOImpl();
         UserService userService = new UserService(userDAO);
         UserController userController = new UserController(userService);
 
-        ProductDAO productDAO = new ProductDAOImpl();
+        // Serve product reads from a columnar in-memory copy of the catalog, writes go through to the database
+        CachedProductDAO productDAO = new CachedProductDAO(new ProductDAOImpl(), new ProductStore());
+        // Follow product_changes so writes from other instances reach the catalog: poll every second, 1000 changes
+        // at a time, a change is settled after 5s, the log keeps 24h. The position is taken before warming up so
+        // nothing written during the load is missed.
+        ProductChangeListener productChangeListener = new ProductChangeListener(new ProductChangeDAOImpl(),
+                productDAO, 1000, appConfig.getInt("cdc.settleSeconds", 5),
+                appConfig.getInt("cdc.retentionHours", 24));
+        appConfig.watchInt("cdc.batchSize", 1000, productChangeListener::setBatchSize);
+        long changeFeedPosition = productChangeListener.currentPosition();
+        // Warm it from the last catalog snapshot plus a delta query, snapshot every 5 minutes and on shutdown
+        Path catalogSnapshot = Paths.get(appConfig.getString("catalog.snapshotFile", "catalog.snapshot"));
+        productDAO.warmUp(catalogSnapshot);
+        productDAO.startSnapshots(catalogSnapshot,
+                appConfig.getLong("catalog.snapshotIntervalMillis", 5 * 60 * 1000L));
+        productChangeListener.start(changeFeedPosition, appConfig.getLong("cdc.pollMillis", 1000));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            productChangeListener.shutdown();
+            productDAO.shutdown();
+        }, "catalog-shutdown"));
         ProductService productService = new ProductService(productDAO);
         ProductController productController = new ProductController(productService);
 
@@ -41,11 +99,104 @@ public class JavalinUtil {
         CartController cartController = new CartController(cartService, productService);
 
         OrderDAO orderDAO = new OrderDAOImpl();
-        OrderService orderService = new OrderService(orderDAO, productDAO);
-        OrderController orderController = new OrderController(orderService, userService);
+        // Remember up to 10k idempotency keys for 24 hours, duplicates wait up to 30s for the first request
+        IdempotencyStore<Order> idempotencyStore = new IdempotencyStore<>(
+                appConfig.getInt("idempotency.maxEntries", 10_000), 24 * 60 * 60 * 1000L, 30_000);
+        appConfig.watchLong("idempotency.ttlMillis", 24 * 60 * 60 * 1000L, idempotencyStore::setTtlMillis);
+        appConfig.watchLong("idempotency.waitTimeoutMillis", 30_000L, idempotencyStore::setWaitTimeoutMillis);
+        IdempotencyDAO idempotencyDAO = new IdempotencyDAOImpl();
+        // Group commit: up to 100 orders per transaction, collected over a 2ms window by 2 writer threads, each on
+        // its own connection
+        OrderGroupCommitWriter groupCommitWriter = new OrderGroupCommitWriter(orderDAO, ConnectionUtil::openConnection,
+                appConfig.getInt("groupCommit.queueCapacity", 1000), appConfig.getInt("groupCommit.writers", 2),
+                100, 2000, 10_000);
+        appConfig.watchInt("groupCommit.maxBatchSize", 100, groupCommitWriter::setMaxBatchSize);
+        appConfig.watchLong("groupCommit.maxWaitMicros", 2000L, groupCommitWriter::setMaxWaitMicros);
+        appConfig.watchLong("groupCommit.callerTimeoutMillis", 10_000L, groupCommitWriter::setCallerTimeoutMillis);
+        // Keep the order history of up to 10k recently active users, capped at roughly 64MB
+        OrderHistoryCache orderHistoryCache = new OrderHistoryCache(
+                appConfig.getInt("orderHistory.maxUsers", 10_000),
+                appConfig.getLong("orderHistory.maxBytes", 64L * 1024 * 1024));
+        // Every order and stock change goes to an append-only log: 64MB segments, a snapshot every 50k events,
+        // forced to disk every 200ms. Sales totals and the inventory ledger are restored from it before we start
+        // taking orders.
+        SalesAnalytics salesAnalytics = new SalesAnalytics();
+        InventoryLedger inventoryLedger = new InventoryLedger();
+        OrderEventLog orderEventLog = new OrderEventLog(
+                Paths.get(appConfig.getString("eventLog.directory", "events")),
+                appConfig.getLong("eventLog.segmentBytes", 64L * 1024 * 1024),
+                appConfig.getInt("eventLog.snapshotEvery", 50_000));
+        orderEventLog.register(new SalesAnalyticsProjection(salesAnalytics));
+        orderEventLog.register(inventoryLedger);
+        boolean recovered;
+        try {
+            recovered = orderEventLog.recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the order event log", e);
+        }
+        if (!recovered) {
+            // No snapshot yet, rebuild from the database scanning 4 order ID ranges in parallel, and make that the
+            // starting point of the log
+            SalesDAO salesDAO = new SalesDAOImpl();
+            if (salesAnalytics.rebuild(salesDAO, appConfig.getInt("analytics.rebuildThreads", 4))) {
+                inventoryLedger.reset(salesAnalytics.getUnitsByProduct());
+                orderEventLog.writeSnapshot();
+            } else {
+                logger.warn("Sales totals are incomplete, not snapshotting them");
+            }
+        }
+        orderEventLog.startFlushing(appConfig.getLong("eventLog.flushMillis", 200));
+        Runtime.getRuntime().addShutdownHook(new Thread(orderEventLog::shutdown, "order-event-log-shutdown"));
+        OrderService orderService = new OrderService(orderDAO, productDAO, idempotencyStore, idempotencyDAO,
+                groupCommitWriter, orderHistoryCache, salesAnalytics, orderEventLog);
+        // Async checkout: 1000-deep queues, 4 validate / 4 reserve / 2 persist workers (each on its own connection), up
+        // to 50 orders per commit
+        OrderPipeline orderPipeline = new OrderPipeline(orderDAO, productDAO, ConnectionUtil::openConnection,
+                appConfig.getInt("pipeline.queueCapacity", 1000), appConfig.getInt("pipeline.validateWorkers", 4),
+                appConfig.getInt("pipeline.reserveWorkers", 4), appConfig.getInt("pipeline.persistWorkers", 2),
+                50, 100, 10 * 60 * 1000L, orderService::recordConfirmedOrder);
+        appConfig.watchInt("pipeline.persistBatchSize", 50, orderPipeline::setPersistBatchSize);
+        appConfig.watchLong("pipeline.submitTimeoutMillis", 100L, orderPipeline::setSubmitTimeoutMillis);
+        appConfig.watchLong("pipeline.ticketRetentionMillis", 10 * 60 * 1000L,
+                orderPipeline::setTicketRetentionMillis);
+        OrderController orderController = new OrderController(orderService, userService, orderPipeline);
+        AnalyticsController analyticsController = new AnalyticsController(salesAnalytics, inventoryLedger,
+                orderEventLog);
+
+        // Admission control: start at 50 concurrent requests, adapt between 10 and 200 (under Jetty's thread pool),
+        // and shrink once latency is over twice its usual level. Rejected requests are told to retry after 1s.
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                appConfig.getInt("admission.initialLimit", 50), appConfig.getInt("admission.minLimit", 10),
+                appConfig.getInt("admission.maxLimit", 200), 2.0);
+        String retryAfterSeconds = String.valueOf(appConfig.getInt("admission.retryAfterSeconds", 1));
+
+        // Rate limits per client, the first matching policy applies. Login and register are limited per address since
+        // there's no user yet, search is the expensive catalog read. Buckets idle for 10 minutes are dropped.
+        List<RateLimitPolicy> rateLimitPolicies = Arrays.asList(
+                new RateLimitPolicy("login", "POST", "/users/login", RateLimitPolicy.Key.IP, 30, 10),
+                new RateLimitPolicy("register", "POST", "/users/register", RateLimitPolicy.Key.IP, 10, 5),
+                new RateLimitPolicy("search", "GET", "/products/search", RateLimitPolicy.Key.USER_OR_IP, 120, 20),
+                new RateLimitPolicy("default", null, "/", RateLimitPolicy.Key.USER_OR_IP, 1200, 100));
+        for (RateLimitPolicy policy : rateLimitPolicies) {
+            appConfig.watchLong("rateLimit." + policy.getName() + ".perMinute", policy.getPerMinute(),
+                    policy::setPerMinute);
+            appConfig.watchInt("rateLimit." + policy.getName() + ".burst", policy.getBurst(), policy::setBurst);
+        }
+        RateLimiter rateLimiter = new RateLimiter(64, 10 * 60 * 1000L);
+        rateLimiter.startEviction(1000);
+
+        // Pick up edits to the external config file every 10s
+        appConfig.startReloading(appConfig.getLong("config.reloadMillis", 10_000));
 
         return Javalin.create(config -> {
                 config.router.apiBuilder(() -> {
+                    // Turn away clients over their rate, then shed load, before doing any work for the request
+                    before(ctx -> rateLimit(ctx, rateLimiter, rateLimitPolicies));
+                    before(ctx -> admit(ctx, limiter, retryAfterSeconds));
+                    // Every request gets its own identity map and write queue, see UnitOfWork
+                    before(JavalinUtil::beginUnitOfWork);
+                    after(JavalinUtil::endUnitOfWork);
+                    after(ctx -> releaseAdmission(ctx, limiter));
                     path("/users", () -> {
                         post("/register", userController:: registerUserHandler);
                         put("/update", userController::updateUserHandler);
@@ -62,29 +213,147 @@ public class JavalinUtil {
                         get("/search/", productController::searchProductsHandler);
                         get("/price", productController::getProductsByPriceRangeHandler);
                         get("/in-stock", productController::getProductsInStockHandler);
+                        get("/query", productController::queryProductsHandler);
+                        get("/suggest", productController::suggestProductsHandler);
                         patch("/{id}/stock", productController::updateProductStockHandler);
                     });
                     path("/cart",() -> {
                         get("/", cartController::getUserCartHandler);
                         post("/", cartController::addToCartHandler);
                         put("/", cartController::updateCartItemHandler);
+                        post("/bulk", cartController::bulkUpdateCartHandler);
                         delete("/{id}", cartController::removeFromCartHandler);
                         delete("/", cartController::clearCartHandler);
                         get("/validate", cartController::validateCartStockHandler);
                     });
                     path("/orders",() -> {
                         post("/", orderController::createOrderHandler);
+                        post("/from-cart", orderController::createOrderFromCartHandler);
                         get("/", orderController::getAllOrdersHandler);
                         get("/me", orderController::getUserOrdersHandler);
+                        get("/requests/{requestId}", orderController::getOrderRequestStatusHandler);
                         get("/{id}", orderController::getOrderByIdHandler);
+                        put("/status", orderController::updateOrderStatusesHandler);
                         put("/{id}/status", orderController::updateOrderStatusHandler);
                         post("/{id}/cancel", orderController::cancelOrderHandler);
                         delete("/{id}", orderController::deleteOrderHandler);
                     });
+                    path("/analytics",() -> {
+                        get("/top-products", analyticsController::getTopProductsHandler);
+                        get("/revenue-by-day", analyticsController::getRevenueByDayHandler);
+                        get("/status-counts", analyticsController::getStatusCountsHandler);
+                        get("/inventory", analyticsController::getInventoryHandler);
+                        get("/events", analyticsController::getOrderEventsHandler);
+                    });
                 });
                 })
                 .start(port);
     }
+
+    /**
+     * Take a token from the client's bucket for the first policy that covers the request, or answer 429 with how
+     * long to wait
+     */
+    private static void rateLimit(Context ctx, RateLimiter rateLimiter, List<RateLimitPolicy> policies) {
+        String method = ctx.method().name();
+        String path = ctx.path();
+
+        for (RateLimitPolicy policy : policies) {
+            if (!policy.matches(method, path)) {
+                continue;
+            }
+
+            Integer userId = policy.getKey() == RateLimitPolicy.Key.USER_OR_IP ? ctx.sessionAttribute("userId") : null;
+            String client = userId != null ? "user:" + userId : "ip:" + ctx.ip();
+            long waitNanos = rateLimiter.tryAcquire(policy, client);
+            if (waitNanos > 0) {
+                ctx.status(429);
+                ctx.header("Retry-After", String.valueOf(Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L)));
+                ctx.json(new ErrorMessage("Too many requests, please slow down"));
+                ctx.skipRemainingHandlers();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Let the request in if its priority has room under the concurrency limit, otherwise answer 503 straight away
+     */
+    private static void admit(Context ctx, AdaptiveConcurrencyLimiter limiter, String retryAfterSeconds) {
+        if (!limiter.tryAcquire(priorityOf(ctx))) {
+            ctx.status(503);
+            ctx.header("Retry-After", retryAfterSeconds);
+            ctx.json(new ErrorMessage("The server is busy, please try again shortly"));
+            ctx.skipRemainingHandlers();
+            return;
+        }
+        ctx.attribute("admittedAt", System.nanoTime());
+    }
+
+    /**
+     * Give the request's slot back, its latency and outcome feed the limit
+     */
+    private static void releaseAdmission(Context ctx, AdaptiveConcurrencyLimiter limiter) {
+        Long admittedAt = ctx.attribute("admittedAt");
+        if (admittedAt != null) {
+            limiter.release(System.nanoTime() - admittedAt, ctx.statusCode() >= 500);
+        }
+    }
+
+    /**
+     * Which requests to keep serving under overload: checkout and login first, catalog browsing and admin listings
+     * last
+     */
+    private static RequestPriority priorityOf(Context ctx) {
+        String path = ctx.path();
+        HandlerType method = ctx.method();
+
+        if (method == HandlerType.POST && (path.startsWith("/orders") || path.startsWith("/users/login")
+                || path.startsWith("/users/register"))) {
+            return RequestPriority.CRITICAL;
+        }
+        if (method == HandlerType.GET && (path.startsWith("/products") || path.startsWith("/analytics")
+                || path.equals("/orders") || path.equals("/orders/") || path.equals("/users")
+                || path.equals("/users/"))) {
+            return RequestPriority.LOW;
+        }
+        return RequestPriority.NORMAL;
+    }
+
+    /**
+     * Start the request's unit of work. Reads go to a replica only in a GET from a session that hasn't written in
+     * the last few seconds, so nobody reads back stale data of their own.
+     */
+    private static void beginUnitOfWork(Context ctx) {
+        UnitOfWork unitOfWork = UnitOfWork.begin();
+        Integer userId = ctx.sessionAttribute("userId");
+        unitOfWork.setReplicaReads(ctx.method() == HandlerType.GET && !ConnectionUtil.wroteRecently(userId));
+    }
+
+    /**
+     * Save the request's queued writes in one transaction, or drop them if the request failed, and report how many
+     * database calls it took
+     */
+    private static void endUnitOfWork(Context ctx) {
+        UnitOfWork unitOfWork = UnitOfWork.end();
+        if (unitOfWork == null) {
+            return;
+        }
+
+        if (ctx.method() != HandlerType.GET) {
+            ConnectionUtil.recordWrite(ctx.sessionAttribute("userId"));
+        }
+
+        if (ctx.statusCode() < 400 && !unitOfWork.commit()) {
+            ctx.status(500);
+            ctx.json(new ErrorMessage("Your changes could not be saved"));
+        }
+
+        ctx.header("X-Query-Count", String.valueOf(unitOfWork.getDatabaseCalls()));
+        logger.debug(ctx.method() + " " + ctx.path() + ": " + unitOfWork.getDatabaseCalls() + " database calls, " +
+                unitOfWork.getLoads() + " loads, " + unitOfWork.getIdentityMapHits() + " identity map hits, " +
+                unitOfWork.getWriteCount() + " queued writes");
+    }
 }
 
 
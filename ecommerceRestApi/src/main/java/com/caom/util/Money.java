@@ -0,0 +1,147 @@
+package com.caom.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money helpers.
+ *
+ * Amounts are plain longs holding minor units (cents), so adding up a cart or an order never allocates and never
+ * picks up floating point error the way double did. BigDecimal is only used at the edges (JDBC NUMERIC columns).
+ */
+public final class Money {
+
+    // Number of decimal places of the currency, USD -> 2
+    public static final int SCALE = 2;
+    public static final long MINOR_PER_UNIT = 100;
+    // How extra decimal places are rounded, everywhere an amount enters in major units
+    public static final RoundingMode ROUNDING = RoundingMode.HALF_UP;
+
+    private Money() {
+        // Static helpers only
+    }
+
+    /**
+     * @param minor Amount in minor units
+     * @param quantity How many of them
+     * @return minor * quantity, throws ArithmeticException on overflow
+     */
+    public static long times(long minor, int quantity) {
+        return Math.multiplyExact(minor, (long) quantity);
+    }
+
+    /**
+     * @return a + b, throws ArithmeticException on overflow
+     */
+    public static long plus(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Convert a NUMERIC value read from the database
+     * @param amount The amount in major units, may be null
+     * @return The amount in minor units (0 for null), rounded half-up to the currency scale like parse
+     */
+    public static long fromBigDecimal(BigDecimal amount) {
+        if (amount == null) {
+            return 0;
+        }
+        return amount.setScale(SCALE, ROUNDING).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Convert to a NUMERIC value for the database
+     * @param minor Amount in minor units
+     * @return The amount in major units with the currency scale
+     */
+    public static BigDecimal toBigDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    /**
+     * Parse a decimal string such as "19.99", "-3", "0.5" into minor units without going through double.
+     * Extra decimal places are rounded half-up (away from zero on a tie), the same as fromBigDecimal.
+     * @param text The amount in major units
+     * @return The amount in minor units
+     * @throws NumberFormatException if the text is not a decimal number
+     */
+    public static long parse(String text) {
+        if (text == null || text.isEmpty()) {
+            throw new NumberFormatException("Empty amount");
+        }
+        if (text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+            // Scientific notation is rare enough that the slow path is fine
+            return fromBigDecimal(new BigDecimal(text));
+        }
+
+        int i = 0;
+        boolean negative = false;
+        if (text.charAt(0) == '-' || text.charAt(0) == '+') {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+
+        long units = 0;
+        boolean sawDigit = false;
+        for (; i < text.length() && text.charAt(i) != '.'; i++) {
+            units = Math.addExact(Math.multiplyExact(units, 10), digit(text, i));
+            sawDigit = true;
+        }
+
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < text.length()) {
+            for (i++; i < text.length(); i++) {
+                int d = digit(text, i);
+                sawDigit = true;
+                if (fractionDigits < SCALE) {
+                    fraction = fraction * 10 + d;
+                    fractionDigits++;
+                } else if (fractionDigits == SCALE) {
+                    roundUp = d >= 5;
+                    fractionDigits++;
+                }
+            }
+        }
+        if (!sawDigit) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+        for (; fractionDigits < SCALE; fractionDigits++) {
+            fraction *= 10;
+        }
+
+        long minor = Math.addExact(Math.multiplyExact(units, MINOR_PER_UNIT), fraction + (roundUp ? 1 : 0));
+        return negative ? -minor : minor;
+    }
+
+    /**
+     * Format minor units as a plain decimal string such as "19.99" or "-0.05"
+     * @param minor Amount in minor units
+     * @return The amount in major units with exactly SCALE decimals
+     */
+    public static String format(long minor) {
+        long units = minor / MINOR_PER_UNIT;
+        long fraction = Math.abs(minor % MINOR_PER_UNIT);
+
+        StringBuilder sb = new StringBuilder(24);
+        if (minor < 0 && units == 0) {
+            sb.append('-');
+        }
+        sb.append(units).append('.');
+
+        String digits = Long.toString(fraction);
+        for (int pad = digits.length(); pad < SCALE; pad++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static int digit(String text, int i) {
+        char c = text.charAt(i);
+        if (c < '0' || c > '9') {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+        return c - '0';
+    }
+}
@@ -0,0 +1,31 @@
+package com.caom.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+
+/**
+ * Reads a JSON decimal number (or numeric string) into minor units (19.99 -> 1999) straight from the token text,
+ * so the value never goes through a double
+ */
+public class MoneyDeserializer extends JsonDeserializer<Long> {
+
+    @Override
+    public Long deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT
+                || token == JsonToken.VALUE_STRING) {
+            try {
+                return Money.parse(p.getText().trim());
+            } catch (NumberFormatException | ArithmeticException e) {
+                return (Long) ctxt.handleWeirdStringValue(Long.class, p.getText(), "not a valid amount");
+            }
+        }
+
+        return (Long) ctxt.handleUnexpectedToken(Long.class, p);
+    }
+}
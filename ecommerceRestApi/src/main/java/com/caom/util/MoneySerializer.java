@@ -0,0 +1,19 @@
+package com.caom.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes an amount held in minor units as a JSON decimal number (1999 -> 19.99), so the API looks exactly like it
+ * did when prices were doubles
+ */
+public class MoneySerializer extends JsonSerializer<Long> {
+
+    @Override
+    public void serialize(Long value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeNumber(Money.format(value));
+    }
+}
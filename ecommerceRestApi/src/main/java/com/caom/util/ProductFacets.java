@@ -0,0 +1,88 @@
+package com.caom.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bucket boundaries used for the facet counts of /products/query
+ */
+public final class ProductFacets {
+
+    // Lower bound of each price bucket, in minor units: $0, $10, $25, $50, $100, $250, $500
+    private static final long[] PRICE_BOUNDS = {0, 1000, 2500, 5000, 10000, 25000, 50000};
+    private static final String[] PRICE_LABELS = {"0-10", "10-25", "25-50", "50-100", "100-250", "250-500", "500+"};
+
+    // Stock buckets: 0, 1-9, 10+
+    private static final int LOW_STOCK = 10;
+    private static final String[] STOCK_LABELS = {"out-of-stock", "low", "in-stock"};
+
+    public static final int PRICE_BUCKETS = PRICE_BOUNDS.length;
+    public static final int STOCK_BUCKETS = STOCK_LABELS.length;
+
+    private ProductFacets() {
+        // Static helpers only
+    }
+
+    /**
+     * @param price Price in minor units
+     * @return Index of the price bucket the price falls in
+     */
+    public static int priceBucket(long price) {
+        int bucket = 0;
+        while (bucket + 1 < PRICE_BOUNDS.length && price >= PRICE_BOUNDS[bucket + 1]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @param bucket Price bucket index
+     * @return Lowest price in the bucket, in minor units
+     */
+    public static long priceBucketLower(int bucket) {
+        return PRICE_BOUNDS[bucket];
+    }
+
+    /**
+     * @param bucket Price bucket index
+     * @return Highest price in the bucket, in minor units
+     */
+    public static long priceBucketUpper(int bucket) {
+        return bucket + 1 < PRICE_BOUNDS.length ? PRICE_BOUNDS[bucket + 1] - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param stock Stock quantity
+     * @return Index of the stock bucket the quantity falls in
+     */
+    public static int stockBucket(int stock) {
+        if (stock <= 0) {
+            return 0;
+        }
+        return stock < LOW_STOCK ? 1 : 2;
+    }
+
+    /**
+     * @param counts Count per price bucket
+     * @return The counts keyed by bucket label, cheapest first
+     */
+    public static Map<String, Long> labelPriceCounts(long[] counts) {
+        return label(PRICE_LABELS, counts);
+    }
+
+    /**
+     * @param counts Count per stock bucket
+     * @return The counts keyed by bucket label
+     */
+    public static Map<String, Long> labelStockCounts(long[] counts) {
+        return label(STOCK_LABELS, counts);
+    }
+
+    private static Map<String, Long> label(String[] labels, long[] counts) {
+        Map<String, Long> labelled = new LinkedHashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            labelled.put(labels[i], counts[i]);
+        }
+        return labelled;
+    }
+}
@@ -0,0 +1,173 @@
+package com.caom.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks a read replica for a read-only query.
+ *
+ * Replicas take turns (round-robin). One that can't be connected to, or whose connection broke and can't be
+ * reopened, is skipped for retryAfterMillis and then tried again, and if none is up the caller reads from the
+ * primary instead.
+ *
+ * Replicas lag the primary, so a session that just wrote could read back its old data. Sessions that wrote in the
+ * last readYourWritesMillis are therefore told to read from the primary, which only costs a little load on the
+ * primary right after checkouts and cart changes.
+ */
+public class ReplicaRouter {
+
+    /**
+     * Opens a connection to one database
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open(String url) throws SQLException;
+    }
+
+    private static class Replica {
+        private final String url;
+        private volatile Connection conn;
+        private volatile long downUntil;
+
+        private Replica(String url) {
+            this.url = url;
+        }
+    }
+
+    // How long the check of a kept connection may take before the replica counts as broken
+    private static final int VALID_TIMEOUT_SECONDS = 1;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ConnectionFactory connectionFactory;
+    private volatile long retryAfterMillis;
+    private volatile long readYourWritesMillis;
+
+    private final AtomicInteger next = new AtomicInteger();
+    // When each user last wrote, entries older than readYourWritesMillis are dropped as new writes come in
+    private final ConcurrentHashMap<Integer, Long> lastWrites = new ConcurrentHashMap<>();
+
+    public ReplicaRouter(List<String> urls, ConnectionFactory connectionFactory, long retryAfterMillis,
+                         long readYourWritesMillis) {
+        for (String url : urls) {
+            replicas.add(new Replica(url));
+        }
+        this.connectionFactory = connectionFactory;
+        this.retryAfterMillis = retryAfterMillis;
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    /**
+     * @param retryAfterMillis How long a replica that couldn't be reached is skipped
+     */
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @param readYourWritesMillis How long a session that wrote reads from the primary
+     */
+    public void setReadYourWritesMillis(long readYourWritesMillis) {
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    /**
+     * @return true if there is at least one replica configured
+     */
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Get a connection to the next healthy replica
+     * @return An open replica connection, or null if there are no replicas up and the caller should use the primary
+     */
+    public Connection route() {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.downUntil > now) {
+                continue;
+            }
+
+            Connection conn = connect(replica, now);
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to reuse a replica's connection or open a new one, marking the replica down if that fails. A
+     * kept connection is checked first, one that broke since (e.g. the replica restarted) is replaced, otherwise
+     * every read would fail on it and never fall back to the primary.
+     */
+    private Connection connect(Replica replica, long now) {
+        try {
+            Connection conn = replica.conn;
+            if (conn != null) {
+                if (conn.isValid(VALID_TIMEOUT_SECONDS)) {
+                    return conn;
+                }
+                replica.conn = null;
+                closeQuietly(conn);
+            }
+
+            conn = connectionFactory.open(replica.url);
+            replica.conn = conn;
+            return conn;
+        } catch (SQLException e) {
+            replica.downUntil = now + retryAfterMillis;
+            System.out.println("Read replica " + replica.url + " is unavailable, skipping it for " +
+                    retryAfterMillis + "ms: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // Already broken
+        }
+    }
+
+    /**
+     * Remember that a user just wrote, so their reads go to the primary until the replicas have caught up
+     * @param userId The user, null for requests without a session
+     */
+    public void recordWrite(Integer userId) {
+        if (userId == null || replicas.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        lastWrites.put(userId, now);
+        // Cheap enough at this size, and keeps the map bounded by the users writing within the window
+        if (lastWrites.size() > 10_000) {
+            lastWrites.values().removeIf(writtenAt -> now - writtenAt > readYourWritesMillis);
+        }
+    }
+
+    /**
+     * @param userId The user, null for requests without a session
+     * @return true if the user wrote recently enough that a replica might not have their change yet
+     */
+    public boolean wroteRecently(Integer userId) {
+        if (userId == null) {
+            return false;
+        }
+        Long writtenAt = lastWrites.get(userId);
+        return writtenAt != null && System.currentTimeMillis() - writtenAt <= readYourWritesMillis;
+    }
+}
@@ -0,0 +1,97 @@
+import com.caom.admission.AdaptiveConcurrencyLimiter;
+import com.caom.admission.RequestPriority;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    // Keep the limiter saturated so every sample counts, then complete one request with the given latency
+    private void sample(AdaptiveConcurrencyLimiter limiter, long latencyNanos, boolean failed){
+        while (limiter.tryAcquire(RequestPriority.CRITICAL)) {
+            // fill it up
+        }
+        limiter.release(latencyNanos, failed);
+    }
+
+    @Test
+    public void lowPriorityShouldBeShedFirst(){
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 2.0);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire(RequestPriority.LOW);
+        }
+
+        // Act
+        boolean low = limiter.tryAcquire(RequestPriority.LOW);
+        boolean critical = limiter.tryAcquire(RequestPriority.CRITICAL);
+
+        // Assert
+        Assert.assertFalse(low);
+        Assert.assertTrue(critical);
+        Assert.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void steadyLatencyShouldRaiseTheLimit(){
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 100, 2.0);
+
+        // Act
+        for (int i = 0; i < 50; i++) {
+            sample(limiter, 10 * MILLIS, false);
+        }
+
+        // Assert
+        Assert.assertTrue(limiter.getLimit() > 20);
+    }
+
+    @Test
+    public void risingLatencyShouldLowerTheLimit(){
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(50, 5, 100, 2.0);
+        for (int i = 0; i < 20; i++) {
+            sample(limiter, 10 * MILLIS, false);
+        }
+        int before = limiter.getLimit();
+
+        // Act
+        for (int i = 0; i < 30; i++) {
+            sample(limiter, 200 * MILLIS, false);
+        }
+
+        // Assert
+        Assert.assertTrue(limiter.getLimit() < before);
+    }
+
+    @Test
+    public void failuresShouldCutTheLimitToTheMinimum(){
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(50, 5, 100, 2.0);
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            sample(limiter, 10 * MILLIS, true);
+        }
+
+        // Assert
+        Assert.assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void idleServerShouldNotGrowTheLimit(){
+        // Arrange
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 100, 2.0);
+
+        // Act
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire(RequestPriority.NORMAL);
+            limiter.release(10 * MILLIS, false);
+        }
+
+        // Assert
+        Assert.assertEquals(20, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+}
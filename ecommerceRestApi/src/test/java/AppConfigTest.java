@@ -0,0 +1,98 @@
+import com.caom.config.AppConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AppConfigTest {
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("app", ".properties");
+        Files.write(file, "test.batchSize=100\ntest.workers=2\n".getBytes());
+    }
+
+    @After
+    public void cleanup(){
+        System.clearProperty("test.workers");
+    }
+
+    @Test
+    public void settingsShouldBeTyped(){
+        // Arrange
+        AppConfig config = new AppConfig(file);
+
+        // Act
+        int batchSize = config.getInt("test.batchSize", 1);
+        long missing = config.getLong("test.missing", 42L);
+
+        // Assert
+        Assert.assertEquals(100, batchSize);
+        Assert.assertEquals(42L, missing);
+    }
+
+    @Test
+    public void systemPropertyShouldWin(){
+        // Arrange
+        System.setProperty("test.workers", "8");
+
+        // Act
+        int workers = new AppConfig(file).getInt("test.workers", 1);
+
+        // Assert
+        Assert.assertEquals(8, workers);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void badValueShouldFailAtStartup() throws IOException {
+        // Arrange
+        Files.write(file, "test.batchSize=lots\n".getBytes());
+
+        // Act
+        new AppConfig(file).getInt("test.batchSize", 1);
+    }
+
+    @Test
+    public void reloadShouldApplyChangedTunables() throws IOException {
+        // Arrange
+        AppConfig config = new AppConfig(file);
+        List<Integer> applied = new ArrayList<>();
+        config.watchInt("test.batchSize", 1, applied::add);
+
+        // Act
+        Files.write(file, "test.batchSize=250\ntest.workers=2\n".getBytes());
+        int changed = config.reload();
+        int unchanged = config.reload();
+
+        // Assert
+        Assert.assertEquals(1, changed);
+        Assert.assertEquals(0, unchanged);
+        Assert.assertEquals(2, applied.size());
+        Assert.assertEquals(Integer.valueOf(250), applied.get(1));
+    }
+
+    @Test
+    public void badReloadShouldKeepThePreviousValue() throws IOException {
+        // Arrange
+        AppConfig config = new AppConfig(file);
+        List<Integer> applied = new ArrayList<>();
+        config.watchInt("test.batchSize", 1, applied::add);
+
+        // Act
+        Files.write(file, "test.batchSize=lots\n".getBytes());
+        int changed = config.reload();
+
+        // Assert
+        Assert.assertEquals(0, changed);
+        Assert.assertEquals(1, applied.size());
+        Assert.assertEquals(Integer.valueOf(100), applied.get(0));
+    }
+}
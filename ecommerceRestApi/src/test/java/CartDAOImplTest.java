@@ -0,0 +1,186 @@
+import com.caom.dtos.response.CartShortfall;
+import com.caom.dtos.response.CartValidation;
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.models.Cart;
+import com.caom.repos.cart.CartDAOImpl;
+import com.caom.util.ConnectionUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CartDAOImplTest {
+
+    private final CartDAOImpl cartDAO = new CartDAOImpl();
+
+    private MockedStatic<ConnectionUtil> connectionUtil;
+    private Connection conn;
+    private Connection readConn;
+    private PreparedStatement upsertPs;
+    private ResultSet upsertRs;
+    private PreparedStatement deletePs;
+    private ResultSet readRs;
+
+    @Before
+    public void setup() throws Exception {
+        // Writes get a connection of their own, reads the shared read connection
+        conn = Mockito.mock(Connection.class);
+        readConn = Mockito.mock(Connection.class);
+        connectionUtil = Mockito.mockStatic(ConnectionUtil.class);
+        connectionUtil.when(ConnectionUtil::openConnection).thenReturn(conn);
+        connectionUtil.when(ConnectionUtil::getReadConnection).thenReturn(readConn);
+
+        upsertPs = Mockito.mock(PreparedStatement.class);
+        upsertRs = Mockito.mock(ResultSet.class);
+        deletePs = Mockito.mock(PreparedStatement.class);
+        when(conn.prepareStatement(startsWith("INSERT INTO cart_item"))).thenReturn(upsertPs);
+        when(conn.prepareStatement(startsWith("DELETE FROM cart_item"))).thenReturn(deletePs);
+        when(upsertPs.executeQuery()).thenReturn(upsertRs);
+
+        PreparedStatement readPs = Mockito.mock(PreparedStatement.class);
+        readRs = Mockito.mock(ResultSet.class);
+        when(readConn.prepareStatement(anyString())).thenReturn(readPs);
+        when(readPs.executeQuery()).thenReturn(readRs);
+    }
+
+    @After
+    public void cleanup(){
+        connectionUtil.close();
+    }
+
+    private Map<Integer, Integer> lines(int... productAndQuantity){
+        Map<Integer, Integer> lines = new LinkedHashMap<>();
+        for (int i = 0; i < productAndQuantity.length; i += 2) {
+            lines.put(productAndQuantity[i], productAndQuantity[i + 1]);
+        }
+        return lines;
+    }
+
+    @Test
+    public void changesShouldBeCommittedOnTheirOwnConnection() throws Exception {
+        // Arrange
+        when(upsertRs.next()).thenReturn(true, true, false);
+        when(upsertRs.getInt("product_id")).thenReturn(1, 2);
+
+        // Act
+        List<Cart> cart = cartDAO.applyChanges(7, lines(1, 4, 2, 1), List.of(3));
+
+        // Assert
+        Assert.assertNotNull(cart);
+        verify(conn).prepareStatement(contains("WHERE p.stock >= v.quantity"));
+        verify(upsertPs).setInt(4, 7);
+        verify(upsertPs).setInt(5, 2);
+        verify(upsertPs).setInt(6, 1);
+        verify(deletePs).executeUpdate();
+        verify(conn).commit();
+        verify(conn).close();
+        connectionUtil.verify(ConnectionUtil::getConnection, never());
+    }
+
+    @Test
+    public void lineLeftOutForStockShouldRollBackTheWholeChange() throws Exception {
+        // Arrange
+        // Product 2 was bought up after the service checked it, the guarded upsert skips its line
+        when(upsertRs.next()).thenReturn(true, false);
+        when(upsertRs.getInt("product_id")).thenReturn(1);
+
+        // Act
+        try {
+            cartDAO.applyChanges(7, lines(1, 4, 2, 1), List.of(3));
+            Assert.fail("Expected InsufficientStockException");
+        } catch (InsufficientStockException e) {
+            // expected
+        }
+
+        // Assert
+        verify(conn).rollback();
+        verify(conn, never()).commit();
+        verify(deletePs, never()).executeUpdate();
+        verify(conn).close();
+    }
+
+    @Test
+    public void validCartShouldBeTotalledInMinorUnits() throws Exception {
+        // Arrange
+        // 3 x 19.99 and 1 x 0.10, both in stock
+        when(readRs.next()).thenReturn(true, true, false);
+        when(readRs.getInt("quantity")).thenReturn(3, 1);
+        when(readRs.getInt("stock")).thenReturn(5, 1);
+        when(readRs.getBigDecimal("price")).thenReturn(new BigDecimal("19.99"), new BigDecimal("0.10"));
+
+        // Act
+        CartValidation validation = cartDAO.validateCart(7);
+
+        // Assert
+        Assert.assertTrue(validation.isValid());
+        Assert.assertEquals(2, validation.getItemCount());
+        Assert.assertEquals(6_007, validation.getTotal());
+        verify(readConn, never()).close();
+    }
+
+    @Test
+    public void lineWithoutEnoughStockShouldBeReportedShort() throws Exception {
+        // Arrange
+        when(readRs.next()).thenReturn(true, false);
+        when(readRs.getInt("cart_item_id")).thenReturn(11);
+        when(readRs.getInt("product_id")).thenReturn(2);
+        when(readRs.getString("name")).thenReturn("Headphone Stand");
+        when(readRs.getInt("quantity")).thenReturn(3);
+        when(readRs.getInt("stock")).thenReturn(1);
+        when(readRs.getBigDecimal("price")).thenReturn(new BigDecimal("2.50"));
+
+        // Act
+        CartValidation validation = cartDAO.validateCart(7);
+
+        // Assert
+        Assert.assertFalse(validation.isValid());
+        Assert.assertEquals(750, validation.getTotal());
+        CartShortfall shortfall = validation.getShortfalls().get(0);
+        Assert.assertEquals(11, shortfall.getCartItemId());
+        Assert.assertEquals(3, shortfall.getRequested());
+        Assert.assertEquals(1, shortfall.getAvailable());
+        Assert.assertEquals(2, shortfall.getShortfall());
+    }
+
+    @Test
+    public void lineForADeletedProductShouldBeShortOfEverything() throws Exception {
+        // Arrange
+        // The LEFT JOIN keeps the line, with no price and the stock coalesced to 0
+        when(readRs.next()).thenReturn(true, false);
+        when(readRs.getInt("cart_item_id")).thenReturn(12);
+        when(readRs.getInt("product_id")).thenReturn(9);
+        when(readRs.getInt("quantity")).thenReturn(2);
+        when(readRs.getInt("stock")).thenReturn(0);
+        when(readRs.getBigDecimal("price")).thenReturn(null);
+
+        // Act
+        CartValidation validation = cartDAO.validateCart(7);
+
+        // Assert
+        verify(readConn).prepareStatement(contains("LEFT JOIN product p"));
+        Assert.assertFalse(validation.isValid());
+        Assert.assertEquals(1, validation.getItemCount());
+        Assert.assertEquals(0, validation.getTotal());
+        CartShortfall shortfall = validation.getShortfalls().get(0);
+        Assert.assertEquals(9, shortfall.getProductId());
+        Assert.assertEquals(0, shortfall.getAvailable());
+        Assert.assertEquals(2, shortfall.getShortfall());
+    }
+}
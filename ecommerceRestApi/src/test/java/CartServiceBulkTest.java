@@ -0,0 +1,113 @@
+import com.caom.cache.ProductStore;
+import com.caom.dtos.request.CartChange;
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.exceptions.ProductNotFoundException;
+import com.caom.models.Cart;
+import com.caom.models.Product;
+import com.caom.repos.cart.CartDAO;
+import com.caom.repos.product.CachedProductDAO;
+import com.caom.repos.product.ProductDAO;
+import com.caom.services.CartService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CartServiceBulkTest {
+
+    private CartDAO cartDAO;
+    private CartService cartService;
+
+    @Before
+    public void setup(){
+        // Products are served from the in-memory store, and anything missing from it doesn't exist
+        ProductStore productStore = new ProductStore();
+        productStore.loadAll(Arrays.asList(product(1, 10), product(2, 3), product(3, 0)));
+        ProductDAO database = Mockito.mock(ProductDAO.class);
+        when(database.getByIds(anyCollection())).thenReturn(new ArrayList<>());
+
+        cartDAO = Mockito.mock(CartDAO.class);
+        cartService = new CartService(cartDAO, new CachedProductDAO(database, productStore));
+    }
+
+    private Product product(int id, int stock){
+        Product product = new Product();
+        product.setProductId(id);
+        product.setName("Product " + id);
+        product.setPrice(500);
+        product.setStock(stock);
+        return product;
+    }
+
+    // The user's cart as it is before the change, productId then quantity
+    private void cartHolds(int... productAndQuantity){
+        List<Cart> cart = new ArrayList<>();
+        for (int i = 0; i < productAndQuantity.length; i += 2) {
+            Cart item = new Cart();
+            item.setUserId(7);
+            item.setProductId(productAndQuantity[i]);
+            item.setQuantity(productAndQuantity[i + 1]);
+            cart.add(item);
+        }
+        when(cartDAO.getAllByUserId(7)).thenReturn(cart);
+    }
+
+    @Test
+    public void changesShouldBeSavedInOneBatch() throws Exception {
+        // Arrange
+        cartHolds(1, 4, 2, 1);
+
+        // Act
+        cartService.applyCartChanges(7, Arrays.asList(
+                new CartChange(1, 3, CartChange.Operation.ADD),
+                new CartChange(1, 2, CartChange.Operation.ADD),
+                new CartChange(2, 0, CartChange.Operation.REMOVE)));
+
+        // Assert
+        verify(cartDAO).applyChanges(7, Map.of(1, 9), List.of(2));
+    }
+
+    @Test(expected = InsufficientStockException.class)
+    public void addShouldCountWhatIsAlreadyInTheCart() throws Exception {
+        // Arrange
+        cartHolds(2, 2);
+
+        // Act
+        cartService.applyCartChanges(7, Arrays.asList(new CartChange(2, 2, CartChange.Operation.ADD)));
+    }
+
+    @Test
+    public void oneBadLineShouldRejectTheWholeRequest() throws Exception {
+        // Arrange
+        cartHolds();
+
+        // Act
+        try {
+            cartService.applyCartChanges(7, Arrays.asList(
+                    new CartChange(1, 1, CartChange.Operation.SET),
+                    new CartChange(42, 1, CartChange.Operation.ADD)));
+            Assert.fail("Expected ProductNotFoundException");
+        } catch (ProductNotFoundException e) {
+            // Assert
+            verify(cartDAO, never()).applyChanges(anyInt(), anyMap(), anyCollection());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroQuantityAddShouldBeRejected() throws Exception {
+        // Act
+        cartService.applyCartChanges(7, Arrays.asList(new CartChange(1, 0, CartChange.Operation.ADD)));
+    }
+}
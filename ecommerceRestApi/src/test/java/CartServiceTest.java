@@ -0,0 +1,90 @@
+import com.caom.models.Cart;
+import com.caom.repos.cart.CartDAO;
+import com.caom.repos.product.ProductDAO;
+import com.caom.services.CartService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class CartServiceTest {
+
+    private CartDAO cartDAO;
+    private ProductDAO productDAO;
+    private CartService cartService;
+
+    @Before
+    public void setup(){
+        cartDAO = Mockito.mock(CartDAO.class);
+        productDAO = Mockito.mock(ProductDAO.class);
+        cartService = new CartService(cartDAO, productDAO);
+    }
+
+    private Cart line(int userId, int productId, int quantity){
+        Cart item = new Cart();
+        item.setUserId(userId);
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    @Test
+    public void addShouldIncreaseTheExistingLine(){
+        // Arrange
+        // The conditional upsert adds to the 4 already in the cart
+        when(cartDAO.addToCart(7, 1, 3)).thenReturn(line(7, 1, 7));
+
+        // Act
+        Cart item = cartService.addItemToCart(7, 1, 3);
+
+        // Assert
+        Assert.assertEquals(7, item.getQuantity());
+        verify(cartDAO).addToCart(7, 1, 3);
+        // The stock check is the DAO's, the service shouldn't look the product up itself
+        verifyNoInteractions(productDAO);
+    }
+
+    @Test
+    public void addBeyondStockShouldBeRejected(){
+        // Arrange
+        // The upsert's stock guard leaves the line as it was and returns nothing
+        when(cartDAO.addToCart(7, 2, 2)).thenReturn(null);
+
+        // Act
+        Cart item = cartService.addItemToCart(7, 2, 2);
+
+        // Assert
+        Assert.assertNull(item);
+        verifyNoInteractions(productDAO);
+    }
+
+    @Test
+    public void missingProductShouldBeRejected(){
+        // Arrange
+        when(cartDAO.addToCart(7, 42, 1)).thenReturn(null);
+
+        // Act
+        Cart item = cartService.addItemToCart(7, 42, 1);
+
+        // Assert
+        Assert.assertNull(item);
+    }
+
+    @Test
+    public void nonPositiveQuantityShouldNotReachTheDatabase(){
+        // Act
+        Cart zero = cartService.addItemToCart(7, 1, 0);
+        Cart negative = cartService.addItemToCart(7, 1, -2);
+
+        // Assert
+        Assert.assertNull(zero);
+        Assert.assertNull(negative);
+        verify(cartDAO, never()).addToCart(anyInt(), anyInt(), anyInt());
+    }
+}
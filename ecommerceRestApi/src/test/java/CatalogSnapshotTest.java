@@ -0,0 +1,72 @@
+import com.caom.cache.CatalogSnapshot;
+import com.caom.models.Product;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CatalogSnapshotTest {
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempDirectory("snapshot").resolve("catalog.snapshot");
+    }
+
+    private Product product(int id, String name, String description){
+        Product product = new Product();
+        product.setProductId(id);
+        product.setName(name);
+        product.setDescription(description);
+        product.setPrice(1999);
+        product.setStock(3);
+        return product;
+    }
+
+    @Test
+    public void snapshotShouldRoundTrip() throws IOException {
+        // Arrange
+        List<Product> products = new ArrayList<>();
+        products.add(product(1, "Café", null));
+        products.add(product(2, "Mouse", "Wireless"));
+
+        // Act
+        CatalogSnapshot.write(file, 1234L, products);
+        CatalogSnapshot snapshot = CatalogSnapshot.read(file);
+
+        // Assert
+        Assert.assertEquals(1234L, snapshot.getSyncedAt());
+        Assert.assertEquals(2, snapshot.getProducts().size());
+        Assert.assertEquals("Café", snapshot.getProducts().get(0).getName());
+        Assert.assertNull(snapshot.getProducts().get(0).getDescription());
+        Assert.assertEquals(1999, snapshot.getProducts().get(1).getPrice());
+    }
+
+    @Test
+    public void missingSnapshotShouldReadAsNull() throws IOException {
+        // Assert
+        Assert.assertNull(CatalogSnapshot.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSnapshotShouldBeRejected() throws IOException {
+        // Arrange
+        List<Product> products = new ArrayList<>();
+        products.add(product(1, "Mouse", "Wireless"));
+        CatalogSnapshot.write(file, 1234L, products);
+
+        // Act
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(30);
+            raf.write(0x7f);
+        }
+        CatalogSnapshot.read(file);
+    }
+}
@@ -0,0 +1,159 @@
+import com.caom.cache.IdempotencyStore;
+import com.caom.exceptions.IdempotencyKeyReusedException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotencyStoreTest {
+
+    private IdempotencyStore<String> store;
+
+    @Before
+    public void setup(){
+        store = new IdempotencyStore<>(2, 60_000, 5_000);
+    }
+
+    @Test
+    public void repeatedKeyShouldReturnOriginalResult() throws Exception {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+
+        // Act
+        String first = store.execute("key", () -> "order-" + calls.incrementAndGet());
+        String second = store.execute("key", () -> "order-" + calls.incrementAndGet());
+
+        // Assert
+        Assert.assertEquals("order-1", first);
+        Assert.assertEquals("order-1", second);
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void failedComputationShouldNotBeRemembered() throws Exception {
+        // Arrange
+        try {
+            store.execute("key", () -> { throw new IllegalStateException("boom"); });
+            Assert.fail("Expected the first call to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // Act
+        String result = store.execute("key", () -> "retried");
+
+        // Assert
+        Assert.assertEquals("retried", result);
+    }
+
+    @Test
+    public void inFlightDuplicateShouldWaitForFirstResult() throws Exception {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // Act
+        Future<String> first = executor.submit(() -> store.execute("key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return "order-1";
+        }));
+        started.await();
+        Future<String> duplicate = executor.submit(() -> store.execute("key", () -> "order-" + calls.incrementAndGet()));
+        release.countDown();
+
+        // Assert
+        Assert.assertEquals("order-1", first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("order-1", duplicate.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, calls.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void storeShouldNotGrowPastCapacity() throws Exception {
+        // Act
+        store.execute("a", () -> "1");
+        store.execute("b", () -> "2");
+        store.execute("c", () -> "3");
+
+        // Assert
+        Assert.assertEquals(2, store.size());
+        Assert.assertNull(store.getIfPresent("a"));
+        Assert.assertEquals("3", store.getIfPresent("c"));
+    }
+
+    @Test
+    public void inFlightEntryShouldNotBeEvicted() throws Exception {
+        // Arrange
+        store = new IdempotencyStore<>(1, 60_000, 5_000);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> slow = executor.submit(() -> store.execute("slow", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return "order-1";
+        }));
+        started.await();
+
+        // Act
+        // Goes over capacity while "slow" is still running
+        store.execute("other", () -> "order-2");
+        Future<String> retry = executor.submit(() -> store.execute("slow", () -> "order-" + calls.incrementAndGet()));
+        release.countDown();
+
+        // Assert
+        Assert.assertEquals("order-1", slow.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("order-1", retry.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, calls.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void completedEntriesShouldBeEvictedBeforeInFlightOnes() throws Exception {
+        // Arrange
+        store.execute("a", () -> "1");
+        store.execute("b", () -> "2");
+
+        // Act
+        store.execute("c", () -> "3");
+        store.execute("d", () -> "4");
+
+        // Assert
+        Assert.assertEquals(2, store.size());
+        Assert.assertNull(store.getIfPresent("a"));
+        Assert.assertNull(store.getIfPresent("b"));
+        Assert.assertEquals("4", store.getIfPresent("d"));
+    }
+
+    @Test
+    public void keyReusedForADifferentRequestShouldBeRejected() throws Exception {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+        store.execute("key", "hash-1", () -> "order-" + calls.incrementAndGet());
+
+        // Act
+        String retry = store.execute("key", "hash-1", () -> "order-" + calls.incrementAndGet());
+        try {
+            store.execute("key", "hash-2", () -> "order-" + calls.incrementAndGet());
+            Assert.fail("Expected IdempotencyKeyReusedException");
+        } catch (IdempotencyKeyReusedException e) {
+            // expected
+        }
+
+        // Assert
+        Assert.assertEquals("order-1", retry);
+        Assert.assertEquals(1, calls.get());
+    }
+}
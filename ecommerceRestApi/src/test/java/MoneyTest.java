@@ -0,0 +1,59 @@
+import com.caom.util.Money;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+public class MoneyTest {
+
+    @Test
+    public void parseShouldReadDecimalsWithoutRoundingError(){
+        // 0.1 + 0.2 is the classic double problem, in minor units it's exact
+        Assert.assertEquals(30, Money.parse("0.1") + Money.parse("0.2"));
+        Assert.assertEquals(1999, Money.parse("19.99"));
+        Assert.assertEquals(500, Money.parse("5"));
+        Assert.assertEquals(-5, Money.parse("-0.05"));
+    }
+
+    @Test
+    public void parseShouldRoundExtraDecimalsHalfUp(){
+        Assert.assertEquals(2000, Money.parse("19.995"));
+        Assert.assertEquals(1999, Money.parse("19.994"));
+    }
+
+    @Test
+    public void parseAndBigDecimalConversionShouldRoundTheSameWay(){
+        // Ties are where half-up and half-even differ: 19.985 would be 1998 half-even
+        for (String amount : new String[]{"19.985", "-19.985", "0.125", "0.135", "2.5049", "1.9985e1"}) {
+            Assert.assertEquals(amount, Money.fromBigDecimal(new BigDecimal(amount)), Money.parse(amount));
+        }
+        Assert.assertEquals(1999, Money.parse("19.985"));
+        Assert.assertEquals(-1999, Money.fromBigDecimal(new BigDecimal("-19.985")));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseShouldRejectNonNumbers(){
+        Money.parse("12.3a");
+    }
+
+    @Test
+    public void formatShouldAlwaysUseTwoDecimals(){
+        Assert.assertEquals("19.99", Money.format(1999));
+        Assert.assertEquals("5.00", Money.format(500));
+        Assert.assertEquals("0.07", Money.format(7));
+        Assert.assertEquals("-0.05", Money.format(-5));
+        Assert.assertEquals("-12.30", Money.format(-1230));
+    }
+
+    @Test
+    public void bigDecimalConversionShouldRoundTrip(){
+        Assert.assertEquals(new BigDecimal("19.99"), Money.toBigDecimal(1999));
+        Assert.assertEquals(1999, Money.fromBigDecimal(new BigDecimal("19.99")));
+        Assert.assertEquals(0, Money.fromBigDecimal(null));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void timesShouldFailOnOverflow(){
+        Money.times(Long.MAX_VALUE / 2, 3);
+    }
+}
@@ -0,0 +1,102 @@
+import com.caom.models.OrderStatus;
+import com.caom.repos.order.OrderDAOImpl;
+import com.caom.util.ConnectionUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderDAOBulkStatusTest {
+
+    private final OrderDAOImpl orderDAO = new OrderDAOImpl();
+
+    private MockedStatic<ConnectionUtil> connectionUtil;
+    private Connection conn;
+    private Connection readConn;
+    private PreparedStatement ps;
+    private ResultSet rs;
+
+    @Before
+    public void setup() throws Exception {
+        conn = Mockito.mock(Connection.class);
+        readConn = Mockito.mock(Connection.class);
+        connectionUtil = Mockito.mockStatic(ConnectionUtil.class);
+        connectionUtil.when(ConnectionUtil::openConnection).thenReturn(conn);
+        connectionUtil.when(ConnectionUtil::getReadConnection).thenReturn(readConn);
+
+        ps = Mockito.mock(PreparedStatement.class);
+        rs = Mockito.mock(ResultSet.class);
+        when(conn.prepareStatement(anyString())).thenReturn(ps);
+        when(readConn.prepareStatement(anyString())).thenReturn(ps);
+        when(ps.executeQuery()).thenReturn(rs);
+    }
+
+    @After
+    public void cleanup(){
+        connectionUtil.close();
+    }
+
+    @Test
+    public void bulkUpdateShouldCommitOnItsOwnConnection() throws Exception {
+        // Arrange
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getInt("order_id")).thenReturn(1);
+        when(rs.getString("status")).thenReturn("PENDING");
+
+        // Act
+        Map<Integer, OrderStatus> updated = orderDAO.updateStatuses(List.of(1, 2), OrderStatus.SHIPPED,
+                EnumSet.of(OrderStatus.PENDING));
+
+        // Assert
+        Assert.assertEquals(Map.of(1, OrderStatus.PENDING), updated);
+        verify(conn).setAutoCommit(false);
+        verify(conn).commit();
+        verify(conn).close();
+        connectionUtil.verify(ConnectionUtil::getConnection, never());
+    }
+
+    @Test
+    public void failedBulkUpdateShouldRollBack() throws Exception {
+        // Arrange
+        when(ps.executeQuery()).thenThrow(new SQLException("deadlock detected"));
+
+        // Act
+        Map<Integer, OrderStatus> updated = orderDAO.updateStatuses(List.of(1, 2), OrderStatus.SHIPPED,
+                EnumSet.of(OrderStatus.PENDING));
+
+        // Assert
+        Assert.assertNull(updated);
+        verify(conn).rollback();
+        verify(conn, never()).commit();
+        verify(conn).close();
+    }
+
+    @Test
+    public void readingOrdersByIdShouldLeaveTheSharedConnectionOpen() throws Exception {
+        // Arrange
+        when(rs.next()).thenReturn(false);
+
+        // Act
+        orderDAO.getByIds(List.of(1, 2));
+
+        // Assert
+        verify(readConn).prepareStatement(anyString());
+        verify(readConn, never()).close();
+        verify(ps).close();
+    }
+}
@@ -0,0 +1,137 @@
+import com.caom.exceptions.InsufficientStockException;
+import com.caom.models.Order;
+import com.caom.repos.order.OrderDAOImpl;
+import com.caom.util.ConnectionUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderDAOCheckoutTest {
+
+    private final OrderDAOImpl orderDAO = new OrderDAOImpl();
+
+    private MockedStatic<ConnectionUtil> connectionUtil;
+    private Connection conn;
+    private ResultSet cartRs;
+    private PreparedStatement stockPs;
+    private PreparedStatement itemPs;
+    private PreparedStatement clearPs;
+
+    @Before
+    public void setup() throws Exception {
+        conn = Mockito.mock(Connection.class);
+        // Checkout must run on a connection of its own, the shared one gives back null here
+        connectionUtil = Mockito.mockStatic(ConnectionUtil.class);
+        connectionUtil.when(ConnectionUtil::openConnection).thenReturn(conn);
+
+        PreparedStatement cartPs = Mockito.mock(PreparedStatement.class);
+        cartRs = Mockito.mock(ResultSet.class);
+        when(conn.prepareStatement(startsWith("SELECT c.product_id"))).thenReturn(cartPs);
+        when(cartPs.executeQuery()).thenReturn(cartRs);
+
+        PreparedStatement orderPs = Mockito.mock(PreparedStatement.class);
+        ResultSet orderRs = Mockito.mock(ResultSet.class);
+        when(conn.prepareStatement(startsWith("INSERT INTO orders"))).thenReturn(orderPs);
+        when(orderPs.executeQuery()).thenReturn(orderRs);
+        when(orderRs.next()).thenReturn(true);
+        when(orderRs.getInt("order_id")).thenReturn(55);
+        when(orderRs.getTimestamp("created_at")).thenReturn(new Timestamp(0));
+
+        stockPs = Mockito.mock(PreparedStatement.class);
+        itemPs = Mockito.mock(PreparedStatement.class);
+        clearPs = Mockito.mock(PreparedStatement.class);
+        when(conn.prepareStatement(startsWith("UPDATE product"))).thenReturn(stockPs);
+        when(conn.prepareStatement(startsWith("INSERT INTO order_item"))).thenReturn(itemPs);
+        when(conn.prepareStatement(startsWith("DELETE FROM cart_item"))).thenReturn(clearPs);
+    }
+
+    @After
+    public void cleanup(){
+        connectionUtil.close();
+    }
+
+    // Two cart lines: 2 of product 1 at 5.00 and 1 of product 2 at 2.50, product 2 has the given stock
+    private void cartWithSecondLineStock(int stock) throws Exception {
+        when(cartRs.next()).thenReturn(true, true, false);
+        when(cartRs.getInt("product_id")).thenReturn(1, 2);
+        when(cartRs.getInt("quantity")).thenReturn(2, 1);
+        when(cartRs.getBigDecimal("price")).thenReturn(new BigDecimal("5.00"), new BigDecimal("2.50"));
+        when(cartRs.getString("name")).thenReturn("Product 1", "Product 2");
+        when(cartRs.getInt("stock")).thenReturn(10, stock);
+    }
+
+    @Test
+    public void checkoutShouldTakeStockCopyItemsAndClearTheCart() throws Exception {
+        // Arrange
+        cartWithSecondLineStock(1);
+
+        // Act
+        Order order = orderDAO.createFromCart(7);
+
+        // Assert
+        Assert.assertEquals(55, order.getOrderId());
+        Assert.assertEquals(1250, order.getTotalPrice());
+        Assert.assertEquals(2, order.getOrderItems().size());
+        Assert.assertEquals(55, order.getOrderItems().get(1).getOrderId());
+        verify(stockPs).setInt(1, 7);
+        verify(stockPs).executeUpdate();
+        verify(itemPs).setInt(1, 55);
+        verify(itemPs).setInt(2, 7);
+        verify(itemPs).executeUpdate();
+        verify(clearPs).setInt(1, 7);
+        verify(clearPs).executeUpdate();
+        verify(conn).setAutoCommit(false);
+        verify(conn).commit();
+        verify(conn).close();
+        connectionUtil.verify(ConnectionUtil::getConnection, never());
+    }
+
+    @Test
+    public void shortLineShouldRollBackTheWholeCheckout() throws Exception {
+        // Arrange
+        cartWithSecondLineStock(0);
+
+        // Act
+        try {
+            orderDAO.createFromCart(7);
+            Assert.fail("Expected InsufficientStockException");
+        } catch (InsufficientStockException e) {
+            // expected
+        }
+
+        // Assert
+        verify(conn).rollback();
+        verify(conn, never()).commit();
+        verify(conn, never()).prepareStatement(startsWith("UPDATE product"));
+        verify(conn, never()).prepareStatement(startsWith("DELETE FROM cart_item"));
+        verify(conn).close();
+    }
+
+    @Test
+    public void unreachableDatabaseShouldFailTheCheckout() throws Exception {
+        // Arrange
+        connectionUtil.when(ConnectionUtil::openConnection).thenReturn(null);
+
+        // Act
+        Order order = orderDAO.createFromCart(7);
+
+        // Assert
+        Assert.assertNull(order);
+        verify(conn, never()).prepareStatement(anyString());
+    }
+}
@@ -0,0 +1,204 @@
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.repos.order.OrderDAOImpl;
+import com.caom.uow.UnitOfWork;
+import com.caom.util.ConnectionUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderDAOStockRestoreTest {
+
+    private final OrderDAOImpl orderDAO = new OrderDAOImpl();
+    private final List<OrderStatus> cancelledFrom = new ArrayList<>();
+
+    private MockedStatic<ConnectionUtil> connectionUtil;
+    private Connection conn;
+    private ResultSet statusRs;
+    private PreparedStatement stockPs;
+
+    @Before
+    public void setup() throws Exception {
+        conn = Mockito.mock(Connection.class);
+        // The transactions must run on a connection of their own, the shared one gives back null here
+        connectionUtil = Mockito.mockStatic(ConnectionUtil.class);
+        connectionUtil.when(ConnectionUtil::openConnection).thenReturn(conn);
+
+        // The cancel and the delete both return the orders they changed and the status those had
+        PreparedStatement statusPs = Mockito.mock(PreparedStatement.class);
+        statusRs = Mockito.mock(ResultSet.class);
+        when(conn.prepareStatement(startsWith("UPDATE orders"))).thenReturn(statusPs);
+        when(conn.prepareStatement(startsWith("DELETE FROM orders"))).thenReturn(statusPs);
+        when(statusPs.executeQuery()).thenReturn(statusRs);
+
+        stockPs = Mockito.mock(PreparedStatement.class);
+        when(conn.prepareStatement(startsWith("UPDATE product"))).thenReturn(stockPs);
+    }
+
+    @After
+    public void cleanup(){
+        UnitOfWork.end();
+        connectionUtil.close();
+    }
+
+    private void changedFrom(int orderId, OrderStatus status) throws Exception {
+        when(statusRs.next()).thenReturn(true, false);
+        when(statusRs.getInt("order_id")).thenReturn(orderId);
+        when(statusRs.getString("status")).thenReturn(status.name());
+    }
+
+    private Order order(int orderId, int... productAndQuantity){
+        List<OrderItem> items = new ArrayList<>();
+        for (int i = 0; i < productAndQuantity.length; i += 2) {
+            OrderItem item = new OrderItem();
+            item.setOrderId(orderId);
+            item.setProductId(productAndQuantity[i]);
+            item.setQuantity(productAndQuantity[i + 1]);
+            items.add(item);
+        }
+
+        Order order = new Order(7, 1000);
+        order.setOrderId(orderId);
+        order.setOrderItems(items);
+        return order;
+    }
+
+    // Cancel inside a request, committed the way the request filter does
+    private boolean cancel(Order order){
+        UnitOfWork.begin();
+        orderDAO.cancelAndRestoreStock(order, cancelledFrom::add);
+        return UnitOfWork.end().commit(() -> conn);
+    }
+
+    @Test
+    public void itemsForTheSameProductShouldBeRestoredAsOneRow() throws Exception {
+        // Arrange
+        changedFrom(1, OrderStatus.PENDING);
+
+        // Act
+        boolean committed = cancel(order(1, 5, 2, 6, 1, 5, 3));
+
+        // Assert
+        Assert.assertTrue(committed);
+        verify(conn).prepareStatement(startsWith("UPDATE product p SET stock = p.stock + v.qty FROM (VALUES (?, ?), " +
+                "(?, ?)) "));
+        verify(stockPs).setInt(1, 5);
+        verify(stockPs).setInt(2, 5);
+        verify(stockPs).setInt(3, 6);
+        verify(stockPs).setInt(4, 1);
+        verify(stockPs).executeUpdate();
+        Assert.assertEquals(List.of(OrderStatus.PENDING), cancelledFrom);
+    }
+
+    @Test
+    public void largeOrderShouldBeRestoredInChunks() throws Exception {
+        // Arrange
+        changedFrom(1, OrderStatus.SHIPPED);
+        int[] items = new int[1001 * 2];
+        for (int i = 0; i < 1001; i++) {
+            items[2 * i] = i + 1;
+            items[2 * i + 1] = 1;
+        }
+
+        // Act
+        cancel(order(1, items));
+
+        // Assert
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(conn, times(3)).prepareStatement(sql.capture());
+        List<String> stockSql = sql.getAllValues().subList(1, 3);
+        Assert.assertEquals(1000, rows(stockSql.get(0)));
+        Assert.assertEquals(1, rows(stockSql.get(1)));
+        verify(stockPs, times(2)).executeUpdate();
+        // The second chunk only holds the last product
+        verify(stockPs).setInt(1, 1001);
+        verify(stockPs, times(2 * 1001)).setInt(anyInt(), anyInt());
+    }
+
+    private int rows(String sql){
+        return sql.split("\\(\\?, \\?\\)", -1).length - 1;
+    }
+
+    @Test
+    public void alreadyCancelledOrderShouldNotRestoreStockAgain() throws Exception {
+        // Arrange
+        when(statusRs.next()).thenReturn(false);
+
+        // Act
+        boolean committed = cancel(order(1, 5, 2));
+
+        // Assert
+        Assert.assertTrue(committed);
+        verify(stockPs, never()).executeUpdate();
+        Assert.assertTrue(cancelledFrom.isEmpty());
+    }
+
+    @Test
+    public void bulkCancelShouldCommitOnItsOwnConnection() throws Exception {
+        // Arrange
+        changedFrom(1, OrderStatus.PENDING);
+
+        // Act
+        Map<Integer, OrderStatus> cancelled = orderDAO.cancelAndRestoreStock(Arrays.asList(order(1, 5, 2),
+                order(2, 6, 1)));
+
+        // Assert
+        Assert.assertEquals(Map.of(1, OrderStatus.PENDING), cancelled);
+        // Only the order that was cancelled gets its stock back
+        verify(stockPs).setInt(1, 5);
+        verify(stockPs, never()).setInt(1, 6);
+        verify(conn).commit();
+        verify(conn).close();
+        connectionUtil.verify(ConnectionUtil::getConnection, never());
+    }
+
+    @Test
+    public void deletingAnOpenOrderShouldRestoreItsStockOnItsOwnConnection() throws Exception {
+        // Arrange
+        changedFrom(1, OrderStatus.PENDING);
+
+        // Act
+        OrderStatus status = orderDAO.deleteAndRestoreStock(order(1, 5, 2));
+
+        // Assert
+        Assert.assertEquals(OrderStatus.PENDING, status);
+        verify(stockPs).setInt(2, 2);
+        verify(conn).commit();
+        verify(conn).close();
+        connectionUtil.verify(ConnectionUtil::getConnection, never());
+    }
+
+    @Test
+    public void deletingACancelledOrderShouldNotRestoreStock() throws Exception {
+        // Arrange
+        changedFrom(1, OrderStatus.CANCELLED);
+
+        // Act
+        OrderStatus status = orderDAO.deleteAndRestoreStock(order(1, 5, 2));
+
+        // Assert
+        Assert.assertEquals(OrderStatus.CANCELLED, status);
+        verify(stockPs, never()).executeUpdate();
+        verify(conn).commit();
+    }
+}
@@ -0,0 +1,164 @@
+import com.caom.analytics.SalesAnalytics;
+import com.caom.eventlog.InventoryLedger;
+import com.caom.eventlog.OrderEvent;
+import com.caom.eventlog.OrderEventLog;
+import com.caom.eventlog.OrderEventType;
+import com.caom.eventlog.SalesAnalyticsProjection;
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderEventLogTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("events");
+    }
+
+    private Order order(int orderId, int productId, int quantity){
+        Order order = new Order(1, quantity * 500L);
+        order.setOrderId(orderId);
+        List<OrderItem> items = new ArrayList<>();
+        items.add(new OrderItem(orderId, productId, quantity, 500));
+        order.setOrderItems(items);
+        return order;
+    }
+
+    private OrderEventLog open(SalesAnalytics salesAnalytics, InventoryLedger inventoryLedger, int snapshotEvery) {
+        OrderEventLog log = new OrderEventLog(directory, 1024, snapshotEvery);
+        log.register(new SalesAnalyticsProjection(salesAnalytics));
+        log.register(inventoryLedger);
+        return log;
+    }
+
+    @Test
+    public void replayShouldRestoreProjections() throws IOException {
+        // Arrange
+        OrderEventLog log = open(new SalesAnalytics(), new InventoryLedger(), 1_000_000);
+        log.recover();
+        log.writeSnapshot();
+        keepBaseline();
+        // Small segments, so this spans several of them
+        for (int i = 1; i <= 50; i++) {
+            log.append(OrderEventType.ORDER_CREATED, order(i, 7, 2), null);
+        }
+        Order cancelled = order(3, 7, 2);
+        cancelled.setStatus(OrderStatus.CANCELLED);
+        log.append(OrderEventType.ORDER_STATUS_CHANGED, cancelled, OrderStatus.PENDING);
+        log.append(OrderEventType.STOCK_RESTORED, cancelled, null);
+        log.shutdown();
+        restoreBaseline();
+
+        // Act
+        SalesAnalytics salesAnalytics = new SalesAnalytics();
+        InventoryLedger inventoryLedger = new InventoryLedger();
+        boolean recovered = open(salesAnalytics, inventoryLedger, 1_000_000).recover();
+
+        // Assert
+        Assert.assertTrue(recovered);
+        Assert.assertEquals(98, inventoryLedger.getHeldUnits(7));
+        Assert.assertEquals(Long.valueOf(49), salesAnalytics.getStatusCounts().get(OrderStatus.PENDING));
+        Assert.assertEquals(Long.valueOf(1), salesAnalytics.getStatusCounts().get(OrderStatus.CANCELLED));
+        Assert.assertEquals(98, salesAnalytics.getTopProducts(1, false).get(0).getUnitsSold());
+    }
+
+    @Test
+    public void snapshotShouldCoverEarlierEvents() throws IOException {
+        // Arrange
+        OrderEventLog log = open(new SalesAnalytics(), new InventoryLedger(), 10);
+        log.recover();
+        for (int i = 1; i <= 25; i++) {
+            log.append(OrderEventType.ORDER_CREATED, order(i, 4, 1), null);
+        }
+        log.shutdown();
+
+        // Act
+        InventoryLedger inventoryLedger = new InventoryLedger();
+        OrderEventLog reopened = open(new SalesAnalytics(), inventoryLedger, 10);
+        reopened.recover();
+        reopened.append(OrderEventType.ORDER_CREATED, order(26, 4, 1), null);
+
+        // Assert
+        Assert.assertEquals(26, inventoryLedger.getHeldUnits(4));
+        Assert.assertEquals(26, reopened.getLastSequence());
+        Assert.assertEquals(26, reopened.readEvents(0, 100).size());
+    }
+
+    @Test
+    public void tornTailShouldBeTruncated() throws IOException {
+        // Arrange
+        OrderEventLog log = open(new SalesAnalytics(), new InventoryLedger(), 1_000_000);
+        log.recover();
+        log.writeSnapshot();
+        keepBaseline();
+        log.append(OrderEventType.ORDER_CREATED, order(1, 9, 3), null);
+        log.append(OrderEventType.ORDER_CREATED, order(2, 9, 4), null);
+        log.shutdown();
+        restoreBaseline();
+        Path last = lastSegment();
+        try (RandomAccessFile file = new RandomAccessFile(last.toFile(), "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        // Act
+        InventoryLedger inventoryLedger = new InventoryLedger();
+        OrderEventLog reopened = open(new SalesAnalytics(), inventoryLedger, 1_000_000);
+        reopened.recover();
+        OrderEvent appended = reopened.append(OrderEventType.ORDER_CREATED, order(3, 9, 1), null);
+
+        // Assert
+        Assert.assertEquals(4, inventoryLedger.getHeldUnits(9));
+        Assert.assertEquals(2, appended.getSequence());
+        List<OrderEvent> events = reopened.readEvents(0, 100);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(3, events.get(1).getOrder().getOrderId());
+    }
+
+    @Test
+    public void missingSnapshotShouldAskForRebuild() throws IOException {
+        // Arrange
+        OrderEventLog log = open(new SalesAnalytics(), new InventoryLedger(), 1_000_000);
+
+        // Act
+        boolean recovered = log.recover();
+
+        // Assert
+        Assert.assertFalse(recovered);
+        Assert.assertEquals(0, log.getLastSequence());
+    }
+
+    // The snapshot taken before any event, so recovering from it has to replay everything
+    private void keepBaseline() throws IOException {
+        Files.copy(directory.resolve("snapshot.bin"), directory.resolve("baseline.bin"));
+    }
+
+    private void restoreBaseline() throws IOException {
+        Files.copy(directory.resolve("baseline.bin"), directory.resolve("snapshot.bin"),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "events-*.log")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        segments.sort(null);
+        return segments.get(segments.size() - 1);
+    }
+}
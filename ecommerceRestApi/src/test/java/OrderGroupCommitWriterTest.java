@@ -0,0 +1,218 @@
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.pipeline.OrderGroupCommitWriter;
+import com.caom.repos.order.OrderDAO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderGroupCommitWriterTest {
+
+    private final List<Connection> opened = new CopyOnWriteArrayList<>();
+    private final List<Order> failed = new CopyOnWriteArrayList<>();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextId = new AtomicInteger(100);
+    // Batches still to fail, and to hold until release is counted down
+    private final AtomicInteger failNext = new AtomicInteger();
+    private final AtomicInteger blockNext = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private OrderDAO orderDAO;
+    private OrderGroupCommitWriter writer;
+    private ExecutorService executor;
+
+    @Before
+    public void setup(){
+        orderDAO = Mockito.mock(OrderDAO.class);
+        when(orderDAO.createAll(any(), anyList())).thenAnswer(invocation -> createAll(invocation.getArgument(1)));
+    }
+
+    @After
+    public void cleanup(){
+        release.countDown();
+        if (writer != null) {
+            writer.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private Connection open(){
+        Connection conn = Mockito.mock(Connection.class);
+        opened.add(conn);
+        return conn;
+    }
+
+    // Saves the batch the way the insert would, handing out order IDs, unless it's meant to block or fail
+    private List<Order> createAll(List<Order> orders) throws InterruptedException {
+        if (blockNext.getAndDecrement() > 0) {
+            release.await(5, TimeUnit.SECONDS);
+        }
+        if (failNext.getAndDecrement() > 0) {
+            return null;
+        }
+
+        batchSizes.add(orders.size());
+        for (Order order : orders) {
+            order.setOrderId(nextId.getAndIncrement());
+        }
+        return orders;
+    }
+
+    // The connection each batch was written on, in order
+    private List<Connection> batchConnections(int batches){
+        ArgumentCaptor<Connection> conn = ArgumentCaptor.forClass(Connection.class);
+        verify(orderDAO, times(batches)).createAll(conn.capture(), anyList());
+        return conn.getAllValues();
+    }
+
+    private Order order(int userId){
+        OrderItem item = new OrderItem();
+        item.setProductId(1);
+        item.setQuantity(2);
+        item.setPrice(500);
+
+        Order order = new Order(userId, 1000);
+        order.setStatus(OrderStatus.PENDING);
+        order.setOrderItems(new ArrayList<>(Collections.singletonList(item)));
+        return order;
+    }
+
+    @Test
+    public void concurrentOrdersShouldBeWrittenInOneBatch() throws Exception {
+        // Arrange
+        // One writer that waits up to a second for the batch of 3 to fill
+        writer = new OrderGroupCommitWriter(orderDAO, this::open, 10, 1, 3, 1_000_000, 5_000);
+        executor = Executors.newFixedThreadPool(3);
+
+        // Act
+        List<Future<Order>> results = new ArrayList<>();
+        for (int userId = 1; userId <= 3; userId++) {
+            int id = userId;
+            results.add(executor.submit(() -> writer.write(order(id), failed::add)));
+        }
+
+        // Assert
+        List<Integer> userIds = new ArrayList<>();
+        for (Future<Order> result : results) {
+            Order saved = result.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(saved.getOrderId() > 0);
+            userIds.add(saved.getUserId());
+        }
+        Collections.sort(userIds);
+        Assert.assertEquals(List.of(1, 2, 3), userIds);
+        Assert.assertEquals(List.of(3), batchSizes);
+        Assert.assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void writerShouldKeepItsOwnConnectionAcrossBatches() throws Exception {
+        // Arrange
+        writer = new OrderGroupCommitWriter(orderDAO, this::open, 10, 1, 10, 0, 5_000);
+
+        // Act
+        writer.write(order(1), failed::add);
+        writer.write(order(2), failed::add);
+
+        // Assert
+        Assert.assertEquals(2, batchSizes.size());
+        Assert.assertEquals(1, opened.size());
+        Assert.assertEquals(List.of(opened.get(0), opened.get(0)), batchConnections(2));
+        verify(opened.get(0), never()).close();
+    }
+
+    @Test
+    public void failedBatchShouldFailEveryCallerAndReplaceTheConnection() throws Exception {
+        // Arrange
+        writer = new OrderGroupCommitWriter(orderDAO, this::open, 10, 1, 10, 0, 5_000);
+        failNext.set(1);
+        Order order = order(1);
+
+        // Act
+        try {
+            writer.write(order, failed::add);
+            Assert.fail("Expected the write to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Order saved = writer.write(order(2), failed::add);
+
+        // Assert
+        Assert.assertEquals(1, failed.size());
+        Assert.assertSame(order, failed.get(0));
+        Assert.assertEquals(2, opened.size());
+        verify(opened.get(0)).close();
+        Assert.assertSame(opened.get(1), batchConnections(2).get(1));
+        Assert.assertEquals(2, saved.getUserId());
+    }
+
+    @Test
+    public void batchFailingAfterTheCallerGaveUpShouldStillRunTheFailureHandler() throws Exception {
+        // Arrange
+        // The caller only waits 100ms, the batch fails once it's released
+        writer = new OrderGroupCommitWriter(orderDAO, this::open, 10, 1, 10, 0, 100);
+        blockNext.set(1);
+        failNext.set(1);
+
+        // Act
+        try {
+            writer.write(order(1), failed::add);
+            Assert.fail("Expected the write to time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        boolean failedBeforeRelease = !failed.isEmpty();
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (failed.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        Assert.assertFalse(failedBeforeRelease);
+        Assert.assertEquals(1, failed.size());
+    }
+
+    @Test
+    public void unreachableDatabaseShouldFailTheBatch() throws Exception {
+        // Arrange
+        writer = new OrderGroupCommitWriter(orderDAO, () -> null, 10, 1, 10, 0, 5_000);
+
+        // Act
+        try {
+            writer.write(order(1), failed::add);
+            Assert.fail("Expected the write to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // Assert
+        Assert.assertEquals(1, failed.size());
+        verify(orderDAO, never()).createAll(any(), anyList());
+    }
+}
@@ -0,0 +1,86 @@
+import com.caom.cache.OrderHistoryCache;
+import com.caom.models.Order;
+import com.caom.models.OrderStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderHistoryCacheTest {
+
+    private OrderHistoryCache cache;
+
+    @Before
+    public void setup(){
+        cache = new OrderHistoryCache(2, 1024 * 1024);
+    }
+
+    private Order order(int orderId, int userId){
+        Order order = new Order(userId, 1000);
+        order.setOrderId(orderId);
+        order.setOrderItems(new ArrayList<>());
+        return order;
+    }
+
+    @Test
+    public void appendShouldAddNewOrderToFrontOfCachedHistory(){
+        // Arrange
+        List<Order> loaded = new ArrayList<>();
+        loaded.add(order(1, 7));
+        cache.put(7, loaded, cache.beginLoad(7));
+
+        // Act
+        cache.append(order(2, 7));
+
+        // Assert
+        List<Order> history = cache.get(7);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(2, history.get(0).getOrderId());
+    }
+
+    @Test
+    public void statusUpdateShouldPatchCachedOrder(){
+        // Arrange
+        List<Order> loaded = new ArrayList<>();
+        loaded.add(order(1, 7));
+        cache.put(7, loaded, cache.beginLoad(7));
+
+        // Act
+        cache.updateStatus(7, 1, OrderStatus.SHIPPED);
+
+        // Assert
+        Assert.assertEquals(OrderStatus.SHIPPED, cache.get(7).get(0).getStatus());
+    }
+
+    @Test
+    public void loadThatRacedWithWriteShouldNotBeCached(){
+        // Arrange
+        long version = cache.beginLoad(7);
+        List<Order> staleLoad = new ArrayList<>();
+
+        // Act
+        cache.append(order(1, 7)); // written while the load was running
+        cache.put(7, staleLoad, version);
+
+        // Assert
+        Assert.assertNull(cache.get(7));
+    }
+
+    @Test
+    public void leastRecentlyUsedUserShouldBeEvicted(){
+        // Arrange
+        cache.put(1, new ArrayList<>(), cache.beginLoad(1));
+        cache.put(2, new ArrayList<>(), cache.beginLoad(2));
+        cache.get(1); // user 2 is now the least recently used
+
+        // Act
+        cache.put(3, new ArrayList<>(), cache.beginLoad(3));
+
+        // Assert
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertNotNull(cache.get(3));
+    }
+}
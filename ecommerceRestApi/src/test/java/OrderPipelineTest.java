@@ -0,0 +1,248 @@
+import com.caom.exceptions.IdempotencyKeyReusedException;
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.models.Product;
+import com.caom.pipeline.OrderPipeline;
+import com.caom.pipeline.OrderRequestStatus;
+import com.caom.pipeline.OrderTicket;
+import com.caom.repos.order.OrderDAO;
+import com.caom.repos.product.ProductDAO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+public class OrderPipelineTest {
+
+    // Stock per product ID, changed with the same conditional update as the real DAO
+    private final Map<Integer, Integer> stock = new ConcurrentHashMap<>();
+    private final List<OrderTicket> confirmed = new CopyOnWriteArrayList<>();
+    private Consumer<OrderTicket> onConfirm = confirmed::add;
+
+    // Saves batches in memory, giving each order the next ID
+    private final AtomicInteger nextId = new AtomicInteger(100);
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger failNext = new AtomicInteger();
+    private final AtomicInteger throwNext = new AtomicInteger();
+
+    private OrderPipeline pipeline;
+
+    @Before
+    public void setup(){
+        stock.put(1, 10);
+        stock.put(2, 5);
+        // The persist workers only need a connection that is open, which a mock is
+        pipeline = new OrderPipeline(orderDAO(), productDAO(), () -> Mockito.mock(Connection.class), 10, 1, 1, 1,
+                10, 1_000, 60_000, ticket -> onConfirm.accept(ticket));
+    }
+
+    @After
+    public void cleanup(){
+        pipeline.shutdown();
+    }
+
+    private OrderDAO orderDAO(){
+        OrderDAO orderDAO = Mockito.mock(OrderDAO.class);
+        when(orderDAO.createAll(any(), anyList())).thenAnswer(invocation -> {
+            if (throwNext.getAndDecrement() > 0) {
+                throw new IllegalStateException("Connection reset");
+            }
+            if (failNext.getAndDecrement() > 0) {
+                return null;
+            }
+
+            List<Order> orders = invocation.getArgument(1);
+            for (Order order : orders) {
+                order.setOrderId(nextId.getAndIncrement());
+                saved.incrementAndGet();
+            }
+            return orders;
+        });
+        return orderDAO;
+    }
+
+    private ProductDAO productDAO(){
+        ProductDAO productDAO = Mockito.mock(ProductDAO.class);
+        when(productDAO.getById(anyInt())).thenAnswer(invocation -> {
+            int productId = invocation.getArgument(0);
+            if (!stock.containsKey(productId)) {
+                return null;
+            }
+            Product product = new Product();
+            product.setProductId(productId);
+            product.setName("Product " + productId);
+            product.setPrice(250);
+            product.setStock(stock.get(productId));
+            return product;
+        });
+        when(productDAO.updateStock(anyInt(), anyInt())).thenAnswer(invocation -> {
+            int productId = invocation.getArgument(0);
+            int delta = invocation.getArgument(1);
+            boolean[] updated = new boolean[1];
+            stock.computeIfPresent(productId, (id, current) -> {
+                updated[0] = current + delta >= 0;
+                return updated[0] ? current + delta : current;
+            });
+            return updated[0];
+        });
+        return productDAO;
+    }
+
+    private List<OrderItem> items(int productId, int quantity){
+        OrderItem item = new OrderItem();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        return new ArrayList<>(Collections.singletonList(item));
+    }
+
+    private void awaitFailure(OrderTicket ticket) throws Exception {
+        try {
+            ticket.getResult().get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void orderShouldBeConfirmedAndTakeStock() throws Exception {
+        // Act
+        OrderTicket ticket = pipeline.submit(7, items(1, 3));
+        Order order = ticket.getResult().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        Assert.assertEquals(OrderRequestStatus.CONFIRMED, ticket.getStatus());
+        Assert.assertEquals(7, order.getUserId());
+        Assert.assertEquals(750, order.getTotalPrice());
+        Assert.assertEquals(7, (int) stock.get(1));
+        Assert.assertEquals(List.of(ticket), confirmed);
+    }
+
+    @Test
+    public void daoExceptionShouldFailTheBatchAndGiveBackItsStock() throws Exception {
+        // Arrange
+        throwNext.set(1);
+
+        // Act
+        OrderTicket failedTicket = pipeline.submit(7, items(1, 3));
+        awaitFailure(failedTicket);
+        OrderTicket nextTicket = pipeline.submit(8, items(2, 1));
+        nextTicket.getResult().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        Assert.assertEquals(OrderRequestStatus.FAILED, failedTicket.getStatus());
+        Assert.assertEquals(10, (int) stock.get(1));
+        // The persist worker survived the exception and saved the next order
+        Assert.assertEquals(OrderRequestStatus.CONFIRMED, nextTicket.getStatus());
+        Assert.assertEquals(4, (int) stock.get(2));
+    }
+
+    @Test
+    public void unsavedBatchShouldFailAndGiveBackItsStock() throws Exception {
+        // Arrange
+        failNext.set(1);
+
+        // Act
+        OrderTicket ticket = pipeline.submit(7, items(1, 3));
+        awaitFailure(ticket);
+
+        // Assert
+        Assert.assertEquals(OrderRequestStatus.FAILED, ticket.getStatus());
+        Assert.assertEquals(10, (int) stock.get(1));
+        Assert.assertTrue(confirmed.isEmpty());
+    }
+
+    @Test
+    public void insufficientStockShouldFailWithoutSaving() throws Exception {
+        // Act
+        OrderTicket ticket = pipeline.submit(7, items(2, 6));
+        awaitFailure(ticket);
+
+        // Assert
+        Assert.assertEquals(OrderRequestStatus.FAILED, ticket.getStatus());
+        Assert.assertEquals(5, (int) stock.get(2));
+        Assert.assertEquals(0, saved.get());
+    }
+
+    @Test
+    public void sameIdempotencyKeyShouldGetTheSameTicket() throws Exception {
+        // Act
+        OrderTicket first = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+        OrderTicket retry = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+        first.getResult().get(5, TimeUnit.SECONDS);
+        OrderTicket otherUser = pipeline.submit(8, items(1, 3), "key-1", "hash-a");
+        otherUser.getResult().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        Assert.assertSame(first, retry);
+        Assert.assertNotSame(first, otherUser);
+        Assert.assertEquals(2, saved.get());
+        Assert.assertEquals(4, (int) stock.get(1));
+    }
+
+    @Test
+    public void failedRequestShouldBeRetriedWithTheSameKey() throws Exception {
+        // Arrange
+        failNext.set(1);
+        OrderTicket failedTicket = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+        awaitFailure(failedTicket);
+
+        // Act
+        OrderTicket retry = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+        retry.getResult().get(5, TimeUnit.SECONDS);
+
+        // Assert
+        Assert.assertNotSame(failedTicket, retry);
+        Assert.assertEquals(OrderRequestStatus.CONFIRMED, retry.getStatus());
+        Assert.assertEquals(7, (int) stock.get(1));
+    }
+
+    @Test
+    public void failingConfirmListenerShouldNotFailASavedOrder() throws Exception {
+        // Arrange
+        onConfirm = ticket -> {
+            throw new IllegalStateException("Event log is down");
+        };
+
+        // Act
+        OrderTicket ticket = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+        Order order = ticket.getResult().get(5, TimeUnit.SECONDS);
+        OrderTicket retry = pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+
+        // Assert
+        Assert.assertEquals(OrderRequestStatus.CONFIRMED, ticket.getStatus());
+        Assert.assertEquals(100, order.getOrderId());
+        // The retry finds the saved order instead of creating a second one
+        Assert.assertSame(ticket, retry);
+        Assert.assertEquals(1, saved.get());
+        Assert.assertEquals(7, (int) stock.get(1));
+    }
+
+    @Test(expected = IdempotencyKeyReusedException.class)
+    public void keyReusedForDifferentItemsShouldBeRejected() throws Exception {
+        // Arrange
+        pipeline.submit(7, items(1, 3), "key-1", "hash-a");
+
+        // Act
+        pipeline.submit(7, items(2, 1), "key-1", "hash-b");
+    }
+}
@@ -0,0 +1,103 @@
+import com.caom.cache.ProductStore;
+import com.caom.dtos.response.OrderStatusResult;
+import com.caom.models.Order;
+import com.caom.models.OrderStatus;
+import com.caom.repos.order.OrderDAO;
+import com.caom.repos.product.CachedProductDAO;
+import com.caom.repos.product.ProductDAOImpl;
+import com.caom.services.OrderService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderServiceBulkStatusTest {
+
+    private OrderDAO orderDAO;
+    private OrderService orderService;
+
+    @Before
+    public void setup(){
+        orderDAO = Mockito.mock(OrderDAO.class);
+        when(orderDAO.getByIds(anyCollection())).thenReturn(Arrays.asList(order(1, OrderStatus.PENDING),
+                order(2, OrderStatus.PENDING), order(3, OrderStatus.DELIVERED), order(4, OrderStatus.SHIPPED)));
+        // Stock changes only reach the in-memory store, nothing here talks to the database
+        orderService = new OrderService(orderDAO, new CachedProductDAO(new ProductDAOImpl(), new ProductStore()));
+    }
+
+    private Order order(int orderId, OrderStatus status){
+        Order order = new Order(7, 1000);
+        order.setOrderId(orderId);
+        order.setStatus(status);
+        return order;
+    }
+
+    @Test
+    public void validTransitionsShouldBeAppliedInOneUpdate(){
+        // Arrange
+        when(orderDAO.updateStatuses(anyList(), eq(OrderStatus.SHIPPED), anyCollection()))
+                .thenReturn(Map.of(1, OrderStatus.PENDING, 2, OrderStatus.PENDING));
+
+        // Act
+        List<OrderStatusResult> results = orderService.updateOrderStatuses(Arrays.asList(1, 2, 3, 99, 1),
+                OrderStatus.SHIPPED);
+
+        // Assert
+        Assert.assertEquals(4, results.size());
+        Assert.assertTrue(results.get(0).isUpdated());
+        Assert.assertTrue(results.get(1).isUpdated());
+        Assert.assertFalse(results.get(2).isUpdated());
+        Assert.assertEquals(OrderStatus.DELIVERED, results.get(2).getStatus());
+        Assert.assertFalse(results.get(3).isUpdated());
+        Assert.assertNull(results.get(3).getStatus());
+        // Only the orders that passed validation go to the single update, guarded by the statuses they may leave
+        verify(orderDAO).updateStatuses(Arrays.asList(1, 2), OrderStatus.SHIPPED,
+                EnumSet.of(OrderStatus.PENDING));
+    }
+
+    @Test
+    public void concurrentChangeShouldBeReported(){
+        // Arrange
+        // Another request cancels order 2 between validation and the update, so the guard skips it
+        when(orderDAO.updateStatuses(anyList(), eq(OrderStatus.SHIPPED), anyCollection()))
+                .thenReturn(Map.of(1, OrderStatus.PENDING));
+
+        // Act
+        List<OrderStatusResult> results = orderService.updateOrderStatuses(Arrays.asList(1, 2), OrderStatus.SHIPPED);
+
+        // Assert
+        Assert.assertTrue(results.get(0).isUpdated());
+        Assert.assertFalse(results.get(1).isUpdated());
+        Assert.assertNull(results.get(1).getStatus());
+    }
+
+    @Test
+    public void cancellationsShouldGoThroughTheRestock(){
+        // Arrange
+        when(orderDAO.cancelAndRestoreStock(anyList())).thenReturn(Map.of(1, OrderStatus.PENDING));
+
+        // Act
+        List<OrderStatusResult> results = orderService.updateOrderStatuses(Arrays.asList(1, 4),
+                OrderStatus.CANCELLED);
+
+        // Assert
+        Assert.assertTrue(results.get(0).isUpdated());
+        Assert.assertFalse(results.get(1).isUpdated());
+        verify(orderDAO).cancelAndRestoreStock(anyList());
+        verify(orderDAO, never()).updateStatuses(anyCollection(), any(), anyCollection());
+    }
+}
@@ -0,0 +1,84 @@
+import com.caom.cdc.ProductChangeListener;
+import com.caom.models.ProductChange;
+import com.caom.repos.product.CachedProductDAO;
+import com.caom.repos.product.ProductChangeDAO;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.when;
+
+public class ProductChangeListenerTest {
+
+    private final List<ProductChange> log = new ArrayList<>();
+    private final Set<Integer> reloaded = new HashSet<>();
+    private ProductChangeListener listener;
+
+    @Before
+    public void setup(){
+        // In-memory change log instead of the product_changes table
+        ProductChangeDAO changeDAO = Mockito.mock(ProductChangeDAO.class);
+        when(changeDAO.getLatestChangeId()).thenAnswer(invocation ->
+                log.isEmpty() ? 0L : log.get(log.size() - 1).getChangeId());
+        when(changeDAO.getChangesAfter(anyLong(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            long changeId = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            List<ProductChange> changes = new ArrayList<>();
+            for (ProductChange change : log) {
+                if (change.getChangeId() > changeId && changes.size() < limit) {
+                    changes.add(change);
+                }
+            }
+            return changes;
+        });
+
+        // Record reloads instead of hitting the database
+        CachedProductDAO catalog = Mockito.mock(CachedProductDAO.class);
+        when(catalog.reload(anySet())).thenAnswer(invocation -> {
+            Set<Integer> productIds = invocation.getArgument(0);
+            reloaded.addAll(productIds);
+            return true;
+        });
+
+        listener = new ProductChangeListener(changeDAO, catalog, 2, 5, 24);
+    }
+
+    @Test
+    public void pollShouldReloadChangedProductsAcrossBatches(){
+        // Arrange
+        log.add(new ProductChange(1, 10, "U", true));
+        log.add(new ProductChange(2, 11, "I", true));
+        log.add(new ProductChange(3, 12, "D", true));
+
+        // Act
+        int read = listener.poll();
+
+        // Assert
+        Assert.assertEquals(3, read);
+        Assert.assertEquals(3, reloaded.size());
+        Assert.assertEquals(3, listener.getCursor());
+    }
+
+    @Test
+    public void cursorShouldStopBeforeUnsettledChanges(){
+        // Arrange
+        log.add(new ProductChange(1, 10, "U", true));
+        log.add(new ProductChange(2, 11, "U", false));
+
+        // Act
+        listener.poll();
+
+        // Assert
+        Assert.assertTrue(reloaded.contains(11));
+        Assert.assertEquals(1, listener.getCursor());
+    }
+}
@@ -0,0 +1,176 @@
+import com.caom.cache.ProductStore;
+import com.caom.dtos.request.ProductQuery;
+import com.caom.dtos.response.ProductQueryResult;
+import com.caom.models.Product;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductStoreTest {
+
+    private ProductStore store;
+
+    @Before
+    public void setup(){
+        store = new ProductStore();
+        List<Product> products = new ArrayList<>();
+        products.add(product(1, "Laptop", "Fast CPU", 99999, 5));
+        products.add(product(2, "Mouse", null, 1999, 0));
+        products.add(product(3, "Café Crème", "Grande tasse", 450, 12));
+        store.loadAll(products);
+    }
+
+    private Product product(int id, String name, String description, long price, int stock){
+        Product product = new Product();
+        product.setProductId(id);
+        product.setName(name);
+        product.setDescription(description);
+        product.setPrice(price);
+        product.setStock(stock);
+        return product;
+    }
+
+    @Test
+    public void getShouldRebuildProductFromColumns(){
+        // Act
+        Product product = store.get(3);
+
+        // Assert
+        Assert.assertEquals("Café Crème", product.getName());
+        Assert.assertEquals("Grande tasse", product.getDescription());
+        Assert.assertEquals(450, product.getPrice());
+        Assert.assertEquals(12, product.getStock());
+        Assert.assertNull(store.get(2).getDescription());
+    }
+
+    @Test
+    public void searchShouldBeCaseInsensitiveOnNameAndDescription(){
+        // Assert
+        Assert.assertEquals(1, store.search("LAP").size());
+        Assert.assertEquals(1, store.search("cpu").size());
+        Assert.assertEquals(3, store.search("crème").get(0).getProductId());
+        Assert.assertEquals(0, store.search("keyboard").size());
+    }
+
+    @Test
+    public void priceRangeShouldBeSortedAndFollowUpdates(){
+        // Act
+        store.put(product(2, "Mouse", null, 100, 0));
+        List<Product> range = store.findByPriceRange(0, 1000);
+
+        // Assert
+        Assert.assertEquals(2, range.size());
+        Assert.assertEquals(2, range.get(0).getProductId());
+        Assert.assertEquals(3, range.get(1).getProductId());
+    }
+
+    @Test
+    public void removeShouldKeepRemainingProductsReachable(){
+        // Act
+        store.remove(1);
+        store.adjustStock(2, 4);
+
+        // Assert
+        Assert.assertNull(store.get(1));
+        Assert.assertEquals("Café Crème", store.get(3).getName());
+        Assert.assertEquals(2, store.findInStock().size());
+        Assert.assertEquals(3, store.findInStock().get(0).getProductId());
+    }
+
+    @Test
+    public void compactionShouldKeepEmptyStringsReadable(){
+        // Arrange
+        // The empty description lands after a 1.2MB one, so its offset is past the end of the compacted arena
+        String longDescription = "x".repeat(1_200_000);
+        store.put(product(10, "Poster", longDescription, 500, 1));
+        store.put(product(11, "Sticker", "", 100, 3));
+
+        // Act
+        // Replacing the long description leaves enough garbage to compact
+        store.put(product(10, "Poster", "A2, matte", 500, 1));
+
+        // Assert
+        Assert.assertEquals("", store.get(11).getDescription());
+        Assert.assertEquals("Sticker", store.get(11).getName());
+        Assert.assertEquals("A2, matte", store.get(10).getDescription());
+        Assert.assertEquals("Grande tasse", store.get(3).getDescription());
+        Assert.assertNull(store.get(2).getDescription());
+        Assert.assertEquals(1, store.search("sticker").size());
+    }
+
+    @Test
+    public void queryShouldCombineFiltersAndCountFacets(){
+        // Arrange
+        ProductQuery query = new ProductQuery();
+        query.setMaxPrice(5000);
+        query.setInStockOnly(true);
+
+        // Act
+        ProductQueryResult result = store.query(query);
+
+        // Assert
+        Assert.assertEquals(1, result.getTotal());
+        Assert.assertEquals(3, result.getProducts().get(0).getProductId());
+        Assert.assertEquals(Long.valueOf(1), result.getPriceFacets().get("0-10"));
+        Assert.assertEquals(Long.valueOf(1), result.getStockFacets().get("in-stock"));
+    }
+
+    @Test
+    public void keywordQueryShouldMatchAnywhereInsideATerm(){
+        // Arrange
+        ProductQuery inside = new ProductQuery();
+        inside.setKeyword("PTO");
+        ProductQuery shortKeyword = new ProductQuery();
+        shortKeyword.setKeyword("ou");
+        ProductQuery renamed = new ProductQuery();
+        renamed.setKeyword("aptop");
+        ProductQuery newName = new ProductQuery();
+        newName.setKeyword("eboo");
+
+        // Act
+        long insideBefore = store.query(inside).getTotal();
+        long shortBefore = store.query(shortKeyword).getTotal();
+        store.put(product(1, "Notebook", "Fast CPU", 99999, 5));
+        long renamedAfter = store.query(renamed).getTotal();
+        long insideAfter = store.query(inside).getTotal();
+        long newNameAfter = store.query(newName).getTotal();
+
+        // Assert
+        Assert.assertEquals(1, insideBefore);
+        // "mouse" and nothing else, short keywords have no trigram to narrow them down
+        Assert.assertEquals(1, shortBefore);
+        Assert.assertEquals(0, renamedAfter);
+        Assert.assertEquals(0, insideAfter);
+        Assert.assertEquals(1, newNameAfter);
+    }
+
+    @Test
+    public void parallelQueryShouldMatchSequentialCount(){
+        // Arrange
+        List<Product> products = new ArrayList<>();
+        for (int id = 1; id <= 300_000; id++) {
+            products.add(product(id, "Item " + id, null, id % 20_000, id % 3));
+        }
+        store.loadAll(products);
+        ProductQuery query = new ProductQuery();
+        query.setMinPrice(1000);
+        query.setMaxPrice(2999);
+        query.setInStockOnly(true);
+        query.setOffset(10);
+        query.setLimit(5);
+
+        // Act
+        ProductQueryResult result = store.query(query);
+
+        // Assert
+        long expected = products.stream()
+                .filter(p -> p.getPrice() >= 1000 && p.getPrice() <= 2999 && p.getStock() > 0)
+                .count();
+        Assert.assertEquals(expected, result.getTotal());
+        Assert.assertEquals(5, result.getProducts().size());
+        Assert.assertTrue(result.getProducts().get(0).getProductId() < result.getProducts().get(4).getProductId());
+    }
+}
@@ -0,0 +1,101 @@
+import com.caom.admission.RateLimitPolicy;
+import com.caom.admission.RateLimiter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private long now;
+    private RateLimiter rateLimiter;
+    private RateLimitPolicy login;
+
+    @Before
+    public void setup(){
+        // Starts at a negative time on purpose, System.nanoTime can be negative too
+        now = -5 * SECOND;
+        rateLimiter = new RateLimiter(4, 60_000, () -> now);
+        // One request per second, up to 3 at once
+        login = new RateLimitPolicy("login", "POST", "/users/login", RateLimitPolicy.Key.IP, 60, 3);
+    }
+
+    @Test
+    public void burstShouldBeAllowedThenLimited(){
+        // Act
+        long first = rateLimiter.tryAcquire(login, "10.0.0.1");
+        long second = rateLimiter.tryAcquire(login, "10.0.0.1");
+        long third = rateLimiter.tryAcquire(login, "10.0.0.1");
+        long fourth = rateLimiter.tryAcquire(login, "10.0.0.1");
+
+        // Assert
+        Assert.assertEquals(0, first);
+        Assert.assertEquals(0, second);
+        Assert.assertEquals(0, third);
+        Assert.assertEquals(SECOND, fourth);
+    }
+
+    @Test
+    public void tokensShouldComeBackAtTheRate(){
+        // Arrange
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.tryAcquire(login, "10.0.0.1");
+        }
+
+        // Act
+        now += SECOND;
+        long afterOneSecond = rateLimiter.tryAcquire(login, "10.0.0.1");
+        long rightAfter = rateLimiter.tryAcquire(login, "10.0.0.1");
+
+        // Assert
+        Assert.assertEquals(0, afterOneSecond);
+        Assert.assertTrue(rightAfter > 0);
+    }
+
+    @Test
+    public void clientsShouldHaveTheirOwnBuckets(){
+        // Arrange
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.tryAcquire(login, "10.0.0.1");
+        }
+
+        // Act
+        long other = rateLimiter.tryAcquire(login, "10.0.0.2");
+
+        // Assert
+        Assert.assertEquals(0, other);
+        Assert.assertEquals(2, rateLimiter.size());
+    }
+
+    @Test
+    public void idleBucketsShouldBeEvicted(){
+        // Arrange
+        rateLimiter.tryAcquire(login, "10.0.0.1");
+        rateLimiter.tryAcquire(login, "10.0.0.2");
+
+        // Act
+        int beforeIdle = 0;
+        for (int i = 0; i < 4; i++) {
+            beforeIdle += rateLimiter.evictIdle();
+        }
+        now += 120 * SECOND;
+        int afterIdle = 0;
+        for (int i = 0; i < 4; i++) {
+            afterIdle += rateLimiter.evictIdle();
+        }
+
+        // Assert
+        Assert.assertEquals(0, beforeIdle);
+        Assert.assertEquals(2, afterIdle);
+        Assert.assertEquals(0, rateLimiter.size());
+    }
+
+    @Test
+    public void policyShouldMatchMethodAndPath(){
+        // Assert
+        Assert.assertTrue(login.matches("POST", "/users/login"));
+        Assert.assertFalse(login.matches("GET", "/users/login"));
+        Assert.assertFalse(login.matches("POST", "/users/register"));
+    }
+}
@@ -0,0 +1,131 @@
+import com.caom.util.ReplicaRouter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+public class ReplicaRouterTest {
+
+    private final Set<String> down = new HashSet<>();
+    private final Map<Connection, String> urls = new IdentityHashMap<>();
+    private final List<String> opened = new ArrayList<>();
+
+    private ReplicaRouter router;
+
+    @Before
+    public void setup(){
+        router = new ReplicaRouter(Arrays.asList("replica-a", "replica-b"), this::open, 60_000, 60_000);
+    }
+
+    // Connections that pass the router's health check until a test breaks them
+    private Connection open(String url) throws SQLException {
+        opened.add(url);
+        if (down.contains(url)) {
+            throw new SQLException("Connection refused");
+        }
+        Connection conn = Mockito.mock(Connection.class);
+        when(conn.isValid(anyInt())).thenReturn(true);
+        urls.put(conn, url);
+        return conn;
+    }
+
+    @Test
+    public void replicasShouldTakeTurns(){
+        // Act
+        String first = urls.get(router.route());
+        String second = urls.get(router.route());
+        String third = urls.get(router.route());
+
+        // Assert
+        Assert.assertFalse(first.equals(second));
+        Assert.assertEquals(first, third);
+        Assert.assertEquals(2, opened.size());
+    }
+
+    @Test
+    public void downReplicaShouldBeSkippedUntilRetry(){
+        // Arrange
+        down.add("replica-a");
+
+        // Act
+        String first = urls.get(router.route());
+        String second = urls.get(router.route());
+
+        // Assert
+        Assert.assertEquals("replica-b", first);
+        Assert.assertEquals("replica-b", second);
+        Assert.assertEquals(1, opened.stream().filter("replica-a"::equals).count());
+    }
+
+    @Test
+    public void noReplicaUpShouldFallBackToThePrimary(){
+        // Arrange
+        down.add("replica-a");
+        down.add("replica-b");
+
+        // Act
+        Connection conn = router.route();
+
+        // Assert
+        Assert.assertNull(conn);
+    }
+
+    @Test
+    public void brokenConnectionShouldBeReopened() throws Exception {
+        // Arrange
+        Connection first = router.route();
+        router.route();
+        when(first.isValid(anyInt())).thenReturn(false);
+
+        // Act
+        Connection replacement = router.route();
+
+        // Assert
+        Assert.assertNotSame(first, replacement);
+        Assert.assertEquals(urls.get(first), urls.get(replacement));
+        Mockito.verify(first).close();
+    }
+
+    @Test
+    public void brokenConnectionToADownReplicaShouldFallBackToTheOthers() throws Exception {
+        // Arrange
+        Connection first = router.route();
+        String broken = urls.get(first);
+        when(first.isValid(anyInt())).thenReturn(false);
+        down.add(broken);
+
+        // Act
+        String second = urls.get(router.route());
+        String third = urls.get(router.route());
+
+        // Assert
+        Assert.assertNotEquals(broken, second);
+        Assert.assertNotEquals(broken, third);
+        // Tried to reopen once, then skipped
+        Assert.assertEquals(2, opened.stream().filter(broken::equals).count());
+    }
+
+    @Test
+    public void writerShouldReadFromThePrimary(){
+        // Act
+        router.recordWrite(7);
+
+        // Assert
+        Assert.assertTrue(router.wroteRecently(7));
+        Assert.assertFalse(router.wroteRecently(8));
+        Assert.assertFalse(router.wroteRecently(null));
+    }
+}
@@ -0,0 +1,91 @@
+import com.caom.cache.RoaringBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoaringBitmapTest {
+
+    private RoaringBitmap range(int from, int to, int step){
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value = from; value < to; value += step) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void andShouldIntersectSparseAndDenseChunks(){
+        // Arrange
+        RoaringBitmap evens = range(0, 200_000, 2);   // dense, bitmap containers
+        RoaringBitmap sparse = range(0, 200_000, 1000); // sparse, array containers
+
+        // Act
+        RoaringBitmap both = evens.and(sparse);
+
+        // Assert
+        Assert.assertEquals(200, both.cardinality());
+        Assert.assertEquals(200, evens.andCardinality(sparse));
+        Assert.assertTrue(both.contains(131_000));
+        Assert.assertFalse(both.contains(131_001));
+    }
+
+    @Test
+    public void andNotShouldSubtractAcrossChunkTypes(){
+        // Arrange
+        RoaringBitmap all = range(0, 200_000, 1);      // dense, bitmap containers
+        RoaringBitmap odds = range(1, 200_000, 2);     // dense, bitmap containers
+        RoaringBitmap sparse = range(0, 200_000, 1000); // sparse, array containers
+
+        // Act
+        RoaringBitmap evens = all.andNot(odds);
+        RoaringBitmap rest = sparse.andNot(evens);
+
+        // Assert
+        Assert.assertEquals(100_000, evens.cardinality());
+        Assert.assertFalse(evens.contains(131_001));
+        Assert.assertTrue(rest.isEmpty());
+        Assert.assertEquals(200_000, all.cardinality());
+    }
+
+    @Test
+    public void orShouldNotShareContainersWithInputs(){
+        // Arrange
+        RoaringBitmap a = range(0, 10, 1);
+        RoaringBitmap b = range(100_000, 100_010, 1);
+
+        // Act
+        RoaringBitmap union = a.or(b);
+        union.remove(5);
+
+        // Assert
+        Assert.assertEquals(19, union.cardinality());
+        Assert.assertTrue(a.contains(5));
+    }
+
+    @Test
+    public void pageShouldSkipWholeChunksAndKeepOrder(){
+        // Arrange
+        RoaringBitmap bitmap = range(0, 300_000, 3);
+
+        // Act
+        int[] page = bitmap.page(50_000, 3);
+
+        // Assert
+        Assert.assertArrayEquals(new int[]{150_000, 150_003, 150_006}, page);
+        Assert.assertEquals(0, bitmap.page(100_000, 10).length);
+    }
+
+    @Test
+    public void removeShouldShrinkDenseChunkBackToArray(){
+        // Arrange
+        RoaringBitmap bitmap = range(0, 5000, 1);
+
+        // Act
+        for (int value = 0; value < 4990; value++) {
+            bitmap.remove(value);
+        }
+
+        // Assert
+        Assert.assertEquals(10, bitmap.cardinality());
+        Assert.assertArrayEquals(new int[]{4990, 4991}, bitmap.page(0, 2));
+    }
+}
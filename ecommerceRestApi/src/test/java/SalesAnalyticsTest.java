@@ -0,0 +1,213 @@
+import com.caom.analytics.SalesAnalytics;
+import com.caom.dtos.response.DailySales;
+import com.caom.dtos.response.ProductSales;
+import com.caom.models.Order;
+import com.caom.models.OrderItem;
+import com.caom.models.OrderStatus;
+import com.caom.repos.analytics.SalesDAO;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SalesAnalyticsTest {
+
+    private static final LocalDate DAY_ONE = LocalDate.of(2026, 3, 1);
+    private static final LocalDate DAY_TWO = LocalDate.of(2026, 3, 2);
+
+    private SalesAnalytics analytics;
+    private SalesDAO salesDAO;
+    // Times each order was handed out by a scan
+    private final Map<Integer, Integer> scanned = new ConcurrentHashMap<>();
+
+    @Before
+    public void setup(){
+        analytics = new SalesAnalytics();
+        salesDAO = Mockito.mock(SalesDAO.class);
+    }
+
+    // Serves the orders from memory, every range from failingFrom up fails
+    private void ordersInDatabase(List<Order> orders, int failingFrom){
+        when(salesDAO.getOrderIdBounds()).thenReturn(new int[]{orders.get(0).getOrderId(),
+                orders.get(orders.size() - 1).getOrderId()});
+        when(salesDAO.scanOrders(anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            int fromOrderId = invocation.getArgument(0);
+            int toOrderId = invocation.getArgument(1);
+            Consumer<Order> consumer = invocation.getArgument(2);
+            if (fromOrderId >= failingFrom) {
+                return false;
+            }
+            for (Order order : orders) {
+                if (order.getOrderId() >= fromOrderId && order.getOrderId() <= toOrderId) {
+                    scanned.merge(order.getOrderId(), 1, Integer::sum);
+                    consumer.accept(order);
+                }
+            }
+            return true;
+        });
+    }
+
+    // One line per {productId, quantity, price}
+    private Order order(int orderId, OrderStatus status, LocalDate day, int[]... lines){
+        List<OrderItem> items = new ArrayList<>();
+        long total = 0;
+        for (int[] line : lines) {
+            OrderItem item = new OrderItem();
+            item.setOrderId(orderId);
+            item.setProductId(line[0]);
+            item.setQuantity(line[1]);
+            item.setPrice(line[2]);
+            items.add(item);
+            total += item.getSubtotal();
+        }
+
+        Order order = new Order(1, total);
+        order.setOrderId(orderId);
+        order.setStatus(status);
+        order.setCreatedAt(Timestamp.valueOf(day.atTime(12, 0)));
+        order.setOrderItems(items);
+        return order;
+    }
+
+    @Test
+    public void ordersShouldAccumulatePerProductDayAndStatus(){
+        // Act
+        analytics.add(order(1, OrderStatus.PENDING, DAY_ONE, new int[]{10, 2, 2000}, new int[]{20, 1, 1000}));
+        analytics.add(order(2, OrderStatus.SHIPPED, DAY_ONE, new int[]{10, 1, 2000}));
+        analytics.add(order(3, OrderStatus.PENDING, DAY_TWO, new int[]{20, 3, 1000}));
+
+        // Assert
+        // Product 20 sold more units, product 10 brought in more money
+        List<ProductSales> byUnits = analytics.getTopProducts(2, false);
+        Assert.assertEquals(2, byUnits.size());
+        Assert.assertEquals(20, byUnits.get(0).getProductId());
+        Assert.assertEquals(4, byUnits.get(0).getUnitsSold());
+        Assert.assertEquals(4000, byUnits.get(0).getRevenue());
+        List<ProductSales> byRevenue = analytics.getTopProducts(1, true);
+        Assert.assertEquals(1, byRevenue.size());
+        Assert.assertEquals(10, byRevenue.get(0).getProductId());
+        Assert.assertEquals(6000, byRevenue.get(0).getRevenue());
+
+        List<DailySales> days = analytics.getRevenueByDay(DAY_ONE, DAY_TWO);
+        Assert.assertEquals(2, days.size());
+        Assert.assertEquals(DAY_ONE.toString(), days.get(0).getDate());
+        Assert.assertEquals(2, days.get(0).getOrders());
+        Assert.assertEquals(7000, days.get(0).getRevenue());
+        Assert.assertEquals(3000, days.get(1).getRevenue());
+
+        Assert.assertEquals(2L, (long) analytics.getStatusCounts().get(OrderStatus.PENDING));
+        Assert.assertEquals(new BigDecimal("80.00"), analytics.getStatusRevenue().get(OrderStatus.PENDING));
+    }
+
+    @Test
+    public void cancelledOrdersShouldOnlyCountInStatusTotals(){
+        // Arrange
+        Order order = order(1, OrderStatus.PENDING, DAY_ONE, new int[]{10, 2, 500});
+        analytics.add(order);
+
+        // Act
+        analytics.changeStatus(order, OrderStatus.PENDING, OrderStatus.CANCELLED);
+
+        // Assert
+        Assert.assertEquals(0L, (long) analytics.getStatusCounts().get(OrderStatus.PENDING));
+        Assert.assertEquals(1L, (long) analytics.getStatusCounts().get(OrderStatus.CANCELLED));
+        Assert.assertEquals(0L, (long) analytics.getUnitsByProduct().get(10));
+        Assert.assertTrue(analytics.getTopProducts(5, true).isEmpty());
+        Assert.assertTrue(analytics.getRevenueByDay(DAY_ONE, DAY_ONE).isEmpty());
+    }
+
+    @Test
+    public void parallelRebuildShouldCountEveryOrderOnce(){
+        // Arrange
+        List<Order> orders = new ArrayList<>();
+        for (int orderId = 1; orderId <= 100; orderId++) {
+            OrderStatus status = orderId % 10 == 0 ? OrderStatus.CANCELLED : OrderStatus.PENDING;
+            orders.add(order(orderId, status, orderId % 2 == 0 ? DAY_ONE : DAY_TWO, new int[]{orderId % 3, 1, 100}));
+        }
+        ordersInDatabase(orders, Integer.MAX_VALUE);
+        // Left over from before the rebuild, it must not survive it
+        analytics.add(order(999, OrderStatus.PENDING, DAY_ONE, new int[]{0, 50, 100}));
+
+        // Act
+        boolean complete = analytics.rebuild(salesDAO, 4);
+
+        // Assert
+        Assert.assertTrue(complete);
+        verify(salesDAO, times(4)).scanOrders(anyInt(), anyInt(), any());
+        Assert.assertEquals(100, scanned.size());
+        Assert.assertFalse(scanned.containsValue(2));
+        Assert.assertEquals(90L, (long) analytics.getStatusCounts().get(OrderStatus.PENDING));
+        Assert.assertEquals(10L, (long) analytics.getStatusCounts().get(OrderStatus.CANCELLED));
+        long units = 0;
+        for (long productUnits : analytics.getUnitsByProduct().values()) {
+            units += productUnits;
+        }
+        Assert.assertEquals(90, units);
+    }
+
+    @Test
+    public void failedRangeShouldMakeTheRebuildIncomplete(){
+        // Arrange
+        List<Order> orders = new ArrayList<>();
+        for (int orderId = 1; orderId <= 10; orderId++) {
+            orders.add(order(orderId, OrderStatus.PENDING, DAY_ONE, new int[]{1, 1, 100}));
+        }
+        ordersInDatabase(orders, 6);
+
+        // Act
+        boolean complete = analytics.rebuild(salesDAO, 2);
+
+        // Assert
+        Assert.assertFalse(complete);
+    }
+
+    @Test
+    public void stateShouldSurviveAWriteReadRoundTrip() throws Exception {
+        // Arrange
+        analytics.add(order(1, OrderStatus.PENDING, DAY_ONE, new int[]{10, 2, 500}, new int[]{20, 1, 1000}));
+        analytics.add(order(2, OrderStatus.CANCELLED, DAY_TWO, new int[]{10, 4, 500}));
+        analytics.add(order(3, OrderStatus.DELIVERED, DAY_TWO, new int[]{30, 1, 250}));
+
+        // Act
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        analytics.writeState(new DataOutputStream(bytes));
+        SalesAnalytics restored = new SalesAnalytics();
+        restored.add(order(4, OrderStatus.PENDING, DAY_ONE, new int[]{99, 1, 100}));
+        restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        // Assert
+        Assert.assertEquals(analytics.getStatusCounts(), restored.getStatusCounts());
+        Assert.assertEquals(analytics.getStatusRevenue(), restored.getStatusRevenue());
+        Assert.assertEquals(analytics.getUnitsByProduct(), restored.getUnitsByProduct());
+        Assert.assertFalse(restored.getUnitsByProduct().containsKey(99));
+        assertSameDays(analytics.getRevenueByDay(DAY_ONE, DAY_TWO), restored.getRevenueByDay(DAY_ONE, DAY_TWO));
+    }
+
+    private void assertSameDays(List<DailySales> expected, List<DailySales> actual){
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getDate(), actual.get(i).getDate());
+            Assert.assertEquals(expected.get(i).getOrders(), actual.get(i).getOrders());
+            Assert.assertEquals(expected.get(i).getRevenue(), actual.get(i).getRevenue());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import com.caom.cache.SuggestionTrie;
+import com.caom.dtos.response.ProductSuggestion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SuggestionTrieTest {
+
+    private SuggestionTrie trie;
+
+    @Before
+    public void setup(){
+        trie = new SuggestionTrie();
+        trie.add(1, "Phone Case", true);
+        trie.add(2, "Wireless Phone Charger", true);
+        trie.add(3, "Photo Frame", false);
+    }
+
+    @Test
+    public void prefixShouldMatchNamesAndWordsInStockFirst(){
+        // Act
+        List<ProductSuggestion> suggestions = trie.suggest("PHO", 10);
+
+        // Assert
+        Assert.assertEquals(3, suggestions.size());
+        Assert.assertEquals(1, suggestions.get(0).getProductId());
+        Assert.assertEquals(2, suggestions.get(1).getProductId());
+        Assert.assertEquals(3, suggestions.get(2).getProductId());
+    }
+
+    @Test
+    public void removeShouldDropProductAndPruneEmptyBranches(){
+        // Act
+        trie.remove(3, "Photo Frame");
+
+        // Assert
+        Assert.assertEquals(2, trie.suggest("pho", 10).size());
+        Assert.assertTrue(trie.suggest("frame", 10).isEmpty());
+    }
+
+    @Test
+    public void bulkLoadShouldRankOnceAtTheEnd(){
+        // Arrange
+        SuggestionTrie loaded = new SuggestionTrie();
+        loaded.beginBulkLoad();
+        for (int id = 1; id <= 50; id++) {
+            loaded.add(id, "Cable " + id, id % 2 == 0);
+        }
+
+        // Act
+        loaded.endBulkLoad();
+        List<ProductSuggestion> suggestions = loaded.suggest("cab", 5);
+
+        // Assert
+        Assert.assertEquals(5, suggestions.size());
+        Assert.assertEquals("Cable 2", suggestions.get(0).getName());
+    }
+}
@@ -0,0 +1,68 @@
+import com.caom.cache.TrigramIndex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TrigramIndexTest {
+
+    private TrigramIndex index;
+
+    @Before
+    public void setup(){
+        index = new TrigramIndex();
+        index.add(1, "Wireless Headphones");
+        index.add(2, "Headphone Stand");
+        index.add(3, "Phone Case");
+    }
+
+    @Test
+    public void misspelledQueryShouldFindClosestName(){
+        // Act
+        List<TrigramIndex.Match> matches = index.search("headphnes", 5, 0.3);
+
+        // Assert
+        Assert.assertFalse(matches.isEmpty());
+        Assert.assertEquals(1, matches.get(0).getProductId());
+    }
+
+    @Test
+    public void resultsShouldBeCappedAtK(){
+        // Act
+        List<TrigramIndex.Match> matches = index.search("headphone", 1, 0.0);
+
+        // Assert
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(2, matches.get(0).getProductId());
+    }
+
+    @Test
+    public void removedProductShouldNotBeReturned(){
+        // Act
+        index.remove(1, "Wireless Headphones");
+
+        // Assert
+        for (TrigramIndex.Match match : index.search("wireless headphones", 5, 0.0)) {
+            Assert.assertNotEquals(1, match.getProductId());
+        }
+    }
+
+    @Test
+    public void namesBelowTheThresholdShouldBeLeftOut(){
+        // Arrange
+        index.add(4, "Headphones");
+
+        // Act
+        List<TrigramIndex.Match> matches = index.search("headphones", 5, 0.5);
+
+        // Assert
+        // "Headphone Stand" shares 9 of 18 trigrams, right on the threshold, "Phone Case" is below it
+        Assert.assertEquals(3, matches.size());
+        Assert.assertEquals(4, matches.get(0).getProductId());
+        Assert.assertEquals(1.0, matches.get(0).getSimilarity(), 1e-9);
+        Assert.assertEquals(1, matches.get(1).getProductId());
+        Assert.assertEquals(2, matches.get(2).getProductId());
+        Assert.assertEquals(0.5, matches.get(2).getSimilarity(), 1e-9);
+    }
+}
@@ -0,0 +1,183 @@
+import com.caom.models.Order;
+import com.caom.uow.UnitOfWork;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class UnitOfWorkTest {
+
+    private int loads;
+    // The connection the commit opens for the queued writes
+    private Connection conn;
+
+    @Before
+    public void setup(){
+        conn = Mockito.mock(Connection.class);
+    }
+
+    @After
+    public void cleanup(){
+        UnitOfWork.end();
+    }
+
+    private Order load(int orderId){
+        loads++;
+        Order order = new Order(1, 500);
+        order.setOrderId(orderId);
+        return order;
+    }
+
+    @Test
+    public void sameEntityShouldOnlyBeLoadedOnce(){
+        // Arrange
+        UnitOfWork.begin();
+
+        // Act
+        Order first = UnitOfWork.find(Order.class, 5, () -> load(5));
+        Order second = UnitOfWork.find(Order.class, 5, () -> load(5));
+        Order missing = UnitOfWork.find(Order.class, 6, () -> null);
+        Order missingAgain = UnitOfWork.find(Order.class, 6, () -> load(6));
+
+        // Assert
+        Assert.assertSame(first, second);
+        Assert.assertNull(missing);
+        Assert.assertNull(missingAgain);
+        Assert.assertEquals(1, loads);
+        Assert.assertEquals(2, UnitOfWork.current().getIdentityMapHits());
+    }
+
+    @Test
+    public void evictedEntityShouldBeLoadedAgain(){
+        // Arrange
+        UnitOfWork.begin();
+        UnitOfWork.find(Order.class, 5, () -> load(5));
+
+        // Act
+        UnitOfWork.evict(Order.class, 5);
+        UnitOfWork.find(Order.class, 5, () -> load(5));
+
+        // Assert
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void callbacksShouldWaitForTheCommit(){
+        // Arrange
+        List<String> ran = new ArrayList<>();
+        UnitOfWork.begin();
+        UnitOfWork.afterCommit(() -> ran.add("event"));
+
+        // Act
+        UnitOfWork unitOfWork = UnitOfWork.end();
+        List<String> beforeCommit = new ArrayList<>(ran);
+        boolean committed = unitOfWork.commit();
+
+        // Assert
+        Assert.assertTrue(beforeCommit.isEmpty());
+        Assert.assertTrue(committed);
+        Assert.assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void withoutARequestEverythingShouldRunStraightAway(){
+        // Arrange
+        List<String> ran = new ArrayList<>();
+
+        // Act
+        UnitOfWork.find(Order.class, 5, () -> load(5));
+        UnitOfWork.find(Order.class, 5, () -> load(5));
+        boolean queued = UnitOfWork.defer(conn -> ran.add("write"));
+        UnitOfWork.afterCommit(() -> ran.add("event"));
+
+        // Assert
+        Assert.assertEquals(2, loads);
+        Assert.assertFalse(queued);
+        Assert.assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void queuedWritesShouldRunInOneTransactionOnTheirOwnConnection() throws Exception {
+        // Arrange
+        List<String> ran = new ArrayList<>();
+        List<Connection> used = new ArrayList<>();
+        UnitOfWork.begin();
+        UnitOfWork.defer(conn -> {
+            used.add(conn);
+            ran.add("cancel");
+        });
+        UnitOfWork.defer(conn -> {
+            used.add(conn);
+            ran.add("status");
+        });
+        UnitOfWork.afterCommit(() -> ran.add("event"));
+
+        // Act
+        UnitOfWork unitOfWork = UnitOfWork.end();
+        boolean committed = unitOfWork.commit(() -> conn);
+
+        // Assert
+        Assert.assertTrue(committed);
+        Assert.assertEquals(List.of("cancel", "status", "event"), ran);
+        Assert.assertSame(conn, used.get(0));
+        Assert.assertSame(conn, used.get(1));
+        InOrder order = Mockito.inOrder(conn);
+        order.verify(conn).setAutoCommit(false);
+        order.verify(conn).commit();
+        order.verify(conn).setAutoCommit(true);
+        order.verify(conn).close();
+        // Both writes and the commit
+        Assert.assertEquals(3, unitOfWork.getDatabaseCalls());
+    }
+
+    @Test
+    public void failedWriteShouldRollBackAndSkipTheCallbacks() throws Exception {
+        // Arrange
+        List<String> ran = new ArrayList<>();
+        UnitOfWork.begin();
+        UnitOfWork.defer(conn -> ran.add("status"));
+        UnitOfWork.defer(conn -> {
+            throw new SQLException("deadlock detected");
+        });
+        UnitOfWork.afterCommit(() -> ran.add("event"));
+
+        // Act
+        boolean committed = UnitOfWork.end().commit(() -> conn);
+
+        // Assert
+        Assert.assertFalse(committed);
+        Assert.assertEquals(List.of("status"), ran);
+        InOrder order = Mockito.inOrder(conn);
+        order.verify(conn).setAutoCommit(false);
+        order.verify(conn).rollback();
+        order.verify(conn).setAutoCommit(true);
+        order.verify(conn).close();
+        verify(conn, never()).commit();
+    }
+
+    @Test
+    public void unreachableDatabaseShouldFailTheCommit(){
+        // Arrange
+        List<String> ran = new ArrayList<>();
+        UnitOfWork.begin();
+        UnitOfWork.defer(conn -> ran.add("status"));
+        UnitOfWork.afterCommit(() -> ran.add("event"));
+
+        // Act
+        boolean committed = UnitOfWork.end().commit(() -> null);
+
+        // Assert
+        Assert.assertFalse(committed);
+        Assert.assertTrue(ran.isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+package com.caom.bench;
+
+import com.caom.util.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Compares how we total an order: double (what we used to do), BigDecimal and long minor units (Money).
+
+Run it with:
+    mvn -B test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+    java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main com.caom.bench.MoneyBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    // A big-ish order with 50 lines
+    private static final int LINES = 50;
+
+    private double[] doublePrices;
+    private BigDecimal[] bigDecimalPrices;
+    private long[] minorPrices;
+    private int[] quantities;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        doublePrices = new double[LINES];
+        bigDecimalPrices = new BigDecimal[LINES];
+        minorPrices = new long[LINES];
+        quantities = new int[LINES];
+
+        for (int i = 0; i < LINES; i++) {
+            long cents = 100 + random.nextInt(100_000);
+            minorPrices[i] = cents;
+            bigDecimalPrices[i] = Money.toBigDecimal(cents);
+            doublePrices[i] = cents / 100.0;
+            quantities[i] = 1 + random.nextInt(5);
+        }
+    }
+
+    @Benchmark
+    public double totalWithDouble(){
+        double total = 0.0;
+        for (int i = 0; i < LINES; i++) {
+            total = total + doublePrices[i] * quantities[i];
+        }
+        return total;
+    }
+
+    @Benchmark
+    public BigDecimal totalWithBigDecimal(){
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < LINES; i++) {
+            total = total.add(bigDecimalPrices[i].multiply(BigDecimal.valueOf(quantities[i])));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long totalWithMoney(){
+        long total = 0;
+        for (int i = 0; i < LINES; i++) {
+            total = Money.plus(total, Money.times(minorPrices[i], quantities[i]));
+        }
+        return total;
+    }
+}